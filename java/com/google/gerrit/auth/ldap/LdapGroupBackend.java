@@ -188,6 +188,11 @@ public class LdapGroupBackend implements GroupBackend {
     return new LdapGroupMembership(membershipCache, projectCache, id.get().id(), gerritConfig);
   }
 
+  @Override
+  public boolean membershipsDependOnAccountOnly() {
+    return true;
+  }
+
   private Set<GroupReference> suggestLdap(String name) {
     if (name.isEmpty()) {
       return Collections.emptySet();
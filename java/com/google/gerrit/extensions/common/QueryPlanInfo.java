@@ -0,0 +1,75 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.extensions.common;
+
+import java.util.List;
+
+/**
+ * Node of the plan that was used to execute a query, as returned by the {@code explain} option of
+ * query endpoints.
+ */
+public class QueryPlanInfo {
+  public enum Type {
+    /** Predicate that was converted into a query of the secondary index. */
+    INDEX,
+
+    /** Predicate inside of an index query that the index cannot evaluate. */
+    INDEX_POST_FILTER,
+
+    /** Conjunction that reads from one of its children and filters with the other children. */
+    AND_SOURCE,
+
+    /** Disjunction that reads from all of its children. */
+    OR_SOURCE,
+
+    /** Predicate that is evaluated for each candidate after reading it from a source. */
+    POST_FILTER,
+
+    /** Predicate that filters out results that are not visible to the calling user. */
+    VISIBILITY
+  }
+
+  /** Original query string, only set on the root node. */
+  public String query;
+
+  public String predicate;
+  public Type type;
+
+  /** Number of times the index was searched, only set for {@link Type#INDEX} nodes. */
+  public Long reads;
+
+  /**
+   * Number of candidates that were evaluated against this node. For {@link Type#INDEX} nodes, the
+   * number of results that the index returned.
+   */
+  public Long scanned;
+
+  /**
+   * Number of candidates that matched this node. For {@link Type#INDEX} nodes, the number of
+   * results that the index returned.
+   */
+  public Long matched;
+
+  /** Number of candidates that were rejected because they are not visible to the user. */
+  public Long rejected;
+
+  /**
+   * Time spent evaluating this node, in microseconds. For {@link Type#INDEX} nodes, the time spent
+   * searching the index and reading the results.
+   */
+  public Long timeMicros;
+
+  public List<QueryPlanInfo> children;
+}
@@ -60,6 +60,7 @@ public abstract class BinaryResult implements Closeable {
   private Charset characterEncoding;
   private long contentLength = -1;
   private boolean gzip = true;
+  private boolean streamed;
   private boolean base64;
   private String attachmentName;
 
@@ -122,6 +123,22 @@ public abstract class BinaryResult implements Closeable {
     return this;
   }
 
+  /** Returns true if the result flushes its data to the client while it is being written. */
+  public boolean isStreamed() {
+    return streamed;
+  }
+
+  /**
+   * Mark the result as streamed and return {@code this}.
+   *
+   * <p>A streamed result of unknown length is compressed while it is written, and data that the
+   * result flushes is sent to the client right away.
+   */
+  public BinaryResult setStreamed() {
+    streamed = true;
+    return this;
+  }
+
   /** Returns true if the result must be base64 encoded. */
   public boolean isBase64() {
     return base64;
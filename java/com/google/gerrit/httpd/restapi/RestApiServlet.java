@@ -1612,6 +1612,19 @@ public class RestApiServlet extends HttpServlet {
       throws IOException {
     BinaryResult gz;
     long len = src.getContentLength();
+    if (len < 0 && src.isStreamed()) {
+      res.setHeader("Content-Encoding", "gzip");
+      return new BinaryResult() {
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+          // Sync flush, so that the data flushed by the result reaches the client right away.
+          GZIPOutputStream gz = new GZIPOutputStream(out, /* syncFlush= */ true);
+          src.writeTo(gz);
+          gz.finish();
+          gz.flush();
+        }
+      }.setContentType(src.getContentType());
+    }
     if (len < 256) {
       return src; // Do not compress very small payloads.
     }
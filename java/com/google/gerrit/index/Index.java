@@ -139,6 +139,17 @@ public interface Index<K, V> {
    */
   Predicate<V> keyPredicate(K key);
 
+  /**
+   * Returns a number that changes whenever searches on this index may start to return different
+   * results, e.g. because a new searcher was opened after documents have been written.
+   *
+   * <p>Callers can use this to tell whether results computed earlier are still current. Returns
+   * {@code -1} if the index implementation can't tell, which is the default.
+   */
+  default long getSearcherGeneration() {
+    return -1;
+  }
+
   /**
    * Mark whether this index is up-to-date and ready to serve reads.
    *
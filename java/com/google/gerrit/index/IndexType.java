@@ -24,7 +24,8 @@ import java.util.Optional;
 /**
  * Index types supported by the secondary index.
  *
- * <p>The explicitly known index types are Lucene (the default) and a fake index used in tests.
+ * <p>The explicitly known index types are Lucene (the default), Lucene with the change index kept
+ * in memory, and a fake index used in tests.
  *
  * <p>The third supported index type is any other type String value, deemed as custom. This is for
  * configuring index types that are internal or not to be disclosed. Supporting custom index types
@@ -35,6 +36,7 @@ public class IndexType {
   private static final String ENV_VAR = "GERRIT_INDEX_TYPE";
 
   private static final String LUCENE = "lucene";
+  private static final String MEMORY = "memory";
   private static final String FAKE = "fake";
 
   private final String type;
@@ -75,13 +77,17 @@ public class IndexType {
   }
 
   public static ImmutableSet<String> getKnownTypes() {
-    return ImmutableSet.of(LUCENE, FAKE);
+    return ImmutableSet.of(LUCENE, MEMORY, FAKE);
   }
 
   public boolean isLucene() {
     return type.equals(LUCENE);
   }
 
+  public boolean isMemory() {
+    return type.equals(MEMORY);
+  }
+
   public boolean isFake() {
     return type.equals(FAKE);
   }
@@ -137,7 +137,7 @@ public class AndPredicate<T> extends Predicate<T>
     if (cmp == 0 && a instanceof DataSource && b instanceof DataSource) {
       DataSource<?> as = (DataSource<?>) a;
       DataSource<?> bs = (DataSource<?>) b;
-      cmp = as.getCardinality() - bs.getCardinality();
+      cmp = Integer.compare(as.getCardinality(), bs.getCardinality());
     }
     return cmp;
   }
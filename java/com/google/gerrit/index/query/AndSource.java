@@ -17,6 +17,7 @@ package com.google.gerrit.index.query;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import com.google.common.collect.ImmutableList;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.index.IndexConfig;
 import java.util.Collection;
 import java.util.List;
@@ -28,6 +29,7 @@ public class AndSource<T> extends AndPredicate<T> implements DataSource<T> {
   private final int start;
   private final int cardinality;
   private final IndexConfig indexConfig;
+  @Nullable private QueryProfile<T> profile;
 
   public AndSource(Collection<? extends Predicate<T>> that, IndexConfig indexConfig) {
     this(that, null, 0, indexConfig);
@@ -57,21 +59,27 @@ public class AndSource<T> extends AndPredicate<T> implements DataSource<T> {
     this.start = start;
     this.indexConfig = indexConfig;
 
+    // Drive the query from the cheapest source. Among sources of the same cost, prefer the one
+    // which is expected to return the fewest results, as every result of the driving source must
+    // be matched against all other predicates.
     int c = Integer.MAX_VALUE;
-    DataSource<T> s = null;
+    Predicate<T> s = null;
     int minCost = Integer.MAX_VALUE;
+    int minCardinality = Integer.MAX_VALUE;
     for (Predicate<T> p : getChildren()) {
       if (p instanceof DataSource) {
-        c = Math.min(c, ((DataSource<?>) p).getCardinality());
+        int cardinality = ((DataSource<?>) p).getCardinality();
+        c = Math.min(c, cardinality);
 
         int cost = p.estimateCost();
-        if (cost < minCost) {
-          s = toPaginatingSource(p);
+        if (cost < minCost || (cost == minCost && cardinality < minCardinality)) {
+          s = p;
           minCost = cost;
+          minCardinality = cardinality;
         }
       }
     }
-    this.source = s;
+    this.source = s != null ? toPaginatingSource(s) : null;
     this.cardinality = c;
   }
 
@@ -90,8 +98,26 @@ public class AndSource<T> extends AndPredicate<T> implements DataSource<T> {
     return isVisibleToPredicate != null || super.isMatchable();
   }
 
+  /**
+   * Sets the profile that records the evaluation of the children of this source.
+   *
+   * @param profile profile of the query this source belongs to.
+   */
+  void setProfile(QueryProfile<T> profile) {
+    this.profile = profile;
+  }
+
+  @Nullable
+  protected IsVisibleToPredicate<T> getIsVisibleToPredicate() {
+    return isVisibleToPredicate;
+  }
+
   @Override
   public boolean match(T object) {
+    if (profile != null) {
+      return matchAndRecord(object);
+    }
+
     if (isVisibleToPredicate != null && !isVisibleToPredicate.match(object)) {
       return false;
     }
@@ -103,6 +129,27 @@ public class AndSource<T> extends AndPredicate<T> implements DataSource<T> {
     return true;
   }
 
+  private boolean matchAndRecord(T object) {
+    long start = System.nanoTime();
+    boolean matched = matchChildrenAndRecord(object);
+    profile.record(this, matched, System.nanoTime() - start);
+    return matched;
+  }
+
+  private boolean matchChildrenAndRecord(T object) {
+    if (isVisibleToPredicate != null && !profile.match(isVisibleToPredicate, object)) {
+      return false;
+    }
+    if (super.isMatchable()) {
+      for (Predicate<T> c : getChildren()) {
+        if (!profile.match(c, object)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
   protected List<T> transformBuffer(List<T> buffer) {
     return buffer;
   }
@@ -124,6 +171,11 @@ public class AndSource<T> extends AndPredicate<T> implements DataSource<T> {
       protected boolean isMatchable() {
         return AndSource.this.isMatchable();
       }
+
+      @Override
+      protected List<T> transformBuffer(List<T> buffer) {
+        return AndSource.this.transformBuffer(buffer);
+      }
     };
   }
 }
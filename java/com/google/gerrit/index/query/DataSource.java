@@ -14,6 +14,8 @@
 
 package com.google.gerrit.index.query;
 
+import java.util.OptionalInt;
+
 public interface DataSource<T> {
   /** Returns an estimate of the number of results from {@link #read()}. */
   int getCardinality();
@@ -23,4 +25,12 @@ public interface DataSource<T> {
 
   /** Returns read from the index and return the raw results. */
   ResultSet<FieldBundle> readRaw();
+
+  /**
+   * Returns the exact number of results, ignoring start and limit, if it can be computed without
+   * reading the results. Returns empty otherwise, which is the default.
+   */
+  default OptionalInt count() {
+    return OptionalInt.empty();
+  }
 }
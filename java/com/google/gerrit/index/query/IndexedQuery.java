@@ -16,11 +16,14 @@ package com.google.gerrit.index.query;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableList;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.index.Index;
 import com.google.gerrit.index.QueryOptions;
 import java.util.Collection;
 import java.util.List;
+import java.util.OptionalInt;
+import java.util.function.Supplier;
 
 /**
  * Wrapper combining an {@link IndexPredicate} together with a {@link DataSource} that returns
@@ -39,6 +42,7 @@ public class IndexedQuery<I, T> extends Predicate<T> implements DataSource<T>, P
   private QueryOptions opts;
   private final Predicate<T> pred;
   protected DataSource<T> source;
+  @Nullable protected QueryProfile<T> profile;
 
   public IndexedQuery(Index<I, T> index, Predicate<T> pred, QueryOptions opts)
       throws QueryParseException {
@@ -71,19 +75,74 @@ public class IndexedQuery<I, T> extends Predicate<T> implements DataSource<T>, P
     return opts;
   }
 
+  /**
+   * Sets the profile that records the reads from the index and the evaluation of predicates that
+   * the index can't evaluate.
+   *
+   * @param profile profile of the query this index query belongs to.
+   */
+  void setProfile(QueryProfile<T> profile) {
+    this.profile = profile;
+  }
+
+  /**
+   * Returns whether the given descendant of this query must be evaluated after reading the results
+   * from the index, because the index can't fully evaluate it.
+   *
+   * @param p descendant of the predicate of this query.
+   */
+  public boolean isPostFilter(Predicate<T> p) {
+    return p instanceof PostFilterPredicate;
+  }
+
   @Override
   public int getCardinality() {
     return source != null ? source.getCardinality() : opts.limit();
   }
 
+  /**
+   * Returns the exact number of entities matching this query, ignoring start and limit, if the
+   * index can count them without reading them.
+   *
+   * <p>Returns empty if the query has predicates that must be evaluated after reading the results.
+   */
+  @Override
+  public OptionalInt count() {
+    if (source == null || hasPostFilter(pred)) {
+      return OptionalInt.empty();
+    }
+    return source.count();
+  }
+
+  private boolean hasPostFilter(Predicate<T> p) {
+    if (isPostFilter(p)) {
+      return true;
+    }
+    for (Predicate<T> child : p.getChildren()) {
+      if (hasPostFilter(child)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   @Override
   public ResultSet<T> read() {
-    return source.read();
+    return read(source::read);
   }
 
   @Override
   public ResultSet<FieldBundle> readRaw() {
-    return source.readRaw();
+    return read(source::readRaw);
+  }
+
+  /**
+   * Reads results from the index, recording the read if the query is profiled.
+   *
+   * @param read reads the results from the current source of this query.
+   */
+  protected <R> ResultSet<R> read(Supplier<ResultSet<R>> read) {
+    return profile != null ? profile.read(this, read) : read.get();
   }
 
   @Override
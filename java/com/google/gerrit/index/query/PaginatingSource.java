@@ -16,18 +16,28 @@ package com.google.gerrit.index.query;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Ordering;
+import com.google.common.math.LongMath;
+import com.google.common.primitives.Ints;
 import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.index.IndexConfig;
 import com.google.gerrit.index.PaginationType;
 import com.google.gerrit.index.QueryOptions;
+import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.List;
 
 public class PaginatingSource<T> implements DataSource<T> {
+  /**
+   * Maximum factor by which the number of fetched results may grow with the next page, if few of
+   * the results fetched so far matched.
+   */
+  private static final int MAX_ADAPTIVE_GROWTH = 8;
+
   protected final DataSource<T> source;
   private final int start;
   private final int cardinality;
@@ -76,7 +86,11 @@ public class PaginatingSource<T> implements DataSource<T> {
             Object searchAfter = resultSet.searchAfter();
             int nextStart = pageResultSize;
             while (pageResultSize == pageSize && r.size() <= limit) { // get 1 more than the limit
-              pageSize = getNextPageSize(pageSize, pageSizeMultiplier);
+              pageSize =
+                  getNextPageSize(
+                      pageSize,
+                      pageSizeMultiplier,
+                      estimatePageSize(limit + 1 - r.size(), r.size(), nextStart));
               ResultSet<T> next =
                   indexConfig.paginationType().equals(PaginationType.SEARCH_AFTER)
                       ? p.restart(searchAfter, pageSize)
@@ -136,10 +150,31 @@ public class PaginatingSource<T> implements DataSource<T> {
     return cardinality;
   }
 
-  private int getNextPageSize(int pageSize, int pageSizeMultiplier) {
+  /**
+   * Estimates how many more results must be fetched to find the missing matches, assuming that
+   * they match at the same rate as the results fetched so far.
+   *
+   * @param missing number of matches still needed.
+   * @param matched number of matches found so far.
+   * @param fetched number of results fetched so far.
+   * @return estimated page size, at most {@link #MAX_ADAPTIVE_GROWTH} times the number of results
+   *     fetched so far.
+   */
+  @VisibleForTesting
+  static int estimatePageSize(int missing, int matched, int fetched) {
+    long maxPageSize = (long) fetched * MAX_ADAPTIVE_GROWTH;
+    if (matched == 0) {
+      return Ints.saturatedCast(maxPageSize);
+    }
+    long estimate = LongMath.divide((long) missing * fetched, matched, RoundingMode.CEILING);
+    return Ints.saturatedCast(Math.min(estimate, maxPageSize));
+  }
+
+  private int getNextPageSize(int pageSize, int pageSizeMultiplier, int estimatedPageSize) {
     List<Integer> possiblePageSizes = new ArrayList<>(3);
     try {
-      possiblePageSizes.add(Math.multiplyExact(pageSize, pageSizeMultiplier));
+      possiblePageSizes.add(
+          Math.max(Math.multiplyExact(pageSize, pageSizeMultiplier), estimatedPageSize));
     } catch (ArithmeticException e) {
       possiblePageSizes.add(Integer.MAX_VALUE);
     }
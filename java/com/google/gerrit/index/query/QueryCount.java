@@ -0,0 +1,31 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.index.query;
+
+import com.google.auto.value.AutoValue;
+
+/** Number of entities matching a query. */
+@AutoValue
+public abstract class QueryCount {
+  public static QueryCount create(int count, boolean more) {
+    return new AutoValue_QueryCount(count, more);
+  }
+
+  /** Returns the number of matching entities, at most the limit of the query. */
+  public abstract int count();
+
+  /** Returns whether counting stopped at the limit of the query, so that more entities match. */
+  public abstract boolean more();
+}
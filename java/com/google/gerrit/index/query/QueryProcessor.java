@@ -42,6 +42,7 @@ import com.google.gerrit.server.logging.Metadata;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalInt;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -91,6 +92,7 @@ public abstract class QueryProcessor<T> {
   private boolean enforceVisibility = true;
   private int userProvidedLimit;
   private boolean isNoLimit;
+  private boolean explain;
   private Set<String> requestedFields;
 
   protected QueryProcessor(
@@ -162,6 +164,21 @@ public abstract class QueryProcessor<T> {
     return this;
   }
 
+  /**
+   * Specify whether to collect statistics about the evaluation of the query predicates.
+   *
+   * <p>If enabled, {@link QueryResult#explain()} returns the rewritten predicate tree annotated
+   * with the number of candidates each predicate evaluated and matched, and the time spent doing
+   * so. Collecting the statistics slows down the query.
+   *
+   * @param explain whether to collect statistics.
+   * @return this.
+   */
+  public QueryProcessor<T> setExplain(boolean explain) {
+    this.explain = explain;
+    return this;
+  }
+
   public QueryProcessor<T> setRequestedFields(Set<String> fields) {
     requestedFields = fields;
     return this;
@@ -200,6 +217,65 @@ public abstract class QueryProcessor<T> {
     }
   }
 
+  /**
+   * Count the entities that match structured queries.
+   *
+   * <p>If visibility is not {@link #enforceVisibility(boolean) enforced} and the index can
+   * evaluate a query on its own, the index counts the matches without reading them. Otherwise the
+   * matches are read, requesting only the {@link #getCountFields() fields} that are needed to check
+   * their visibility unless other fields were requested explicitly, and counting stops at the
+   * effective limit of the query.
+   *
+   * @param queries list of queries.
+   * @return counts of the queries, one QueryCount per input query, in the same order as the input.
+   */
+  public List<QueryCount> count(List<Predicate<T>> queries) throws QueryParseException {
+    List<QueryCount> out = new ArrayList<>(queries.size());
+    List<Predicate<T>> remaining = new ArrayList<>();
+    List<Integer> remainingPositions = new ArrayList<>();
+    for (Predicate<T> q : queries) {
+      OptionalInt count = enforceVisibility ? OptionalInt.empty() : countInIndex(q);
+      if (count.isPresent()) {
+        int limit = getEffectiveLimit(q);
+        out.add(QueryCount.create(Math.min(count.getAsInt(), limit), count.getAsInt() > limit));
+      } else {
+        remainingPositions.add(out.size());
+        remaining.add(q);
+        out.add(null);
+      }
+    }
+
+    if (requestedFields == null) {
+      requestedFields = getCountFields();
+    }
+    // Always run the remaining queries, even if there are none, to mark this processor as used.
+    List<QueryResult<T>> results = query(remaining);
+    for (int i = 0; i < results.size(); i++) {
+      QueryResult<T> r = results.get(i);
+      out.set(remainingPositions.get(i), QueryCount.create(r.entities().size(), r.more()));
+    }
+    return out;
+  }
+
+  private OptionalInt countInIndex(Predicate<T> q) throws QueryParseException {
+    checkSupportedForQueries(q);
+    int limit = getEffectiveLimit(q);
+    QueryOptions opts = createOptions(indexConfig, 0, 1, 1, limit, getRequestedFields());
+    Predicate<T> pred = rewriter.rewrite(q, opts);
+    if (!(pred instanceof IndexedQuery)) {
+      return OptionalInt.empty();
+    }
+    try {
+      return ((IndexedQuery<?, T>) pred).count();
+    } catch (StorageException e) {
+      Optional<QueryParseException> qpe = findQueryParseException(e);
+      if (qpe.isPresent()) {
+        throw new QueryParseException(qpe.get().getMessage(), e);
+      }
+      throw e;
+    }
+  }
+
   private List<QueryResult<T>> query(
       @Nullable List<String> queryStrings, List<Predicate<T>> queries) throws QueryParseException {
     long startNanos = System.nanoTime();
@@ -225,6 +301,7 @@ public abstract class QueryProcessor<T> {
       List<Integer> limits = new ArrayList<>(cnt);
       List<Predicate<T>> predicates = new ArrayList<>(cnt);
       List<DataSource<T>> sources = new ArrayList<>(cnt);
+      List<QueryProfile<T>> profiles = new ArrayList<>(cnt);
       int queryCount = 0;
       for (Predicate<T> q : queries) {
         checkSupportedForQueries(q);
@@ -273,6 +350,13 @@ public abstract class QueryProcessor<T> {
           pred = enforceVisibility(pred);
         }
         predicates.add(pred);
+        if (explain) {
+          QueryProfile<T> profile = new QueryProfile<>();
+          profile.install(pred);
+          profiles.add(profile);
+        } else {
+          profiles.add(null);
+        }
         logger.atFine().log(
             "%s index query[%d]:\n%s",
             schemaDef.getName(),
@@ -304,7 +388,8 @@ public abstract class QueryProcessor<T> {
                 queryStrings != null ? queryStrings.get(i) : null,
                 predicates.get(i),
                 limits.get(i),
-                matchesList));
+                matchesList,
+                profiles.get(i)));
       }
 
       // Only measure successful queries that actually touched the index.
@@ -362,7 +447,19 @@ public abstract class QueryProcessor<T> {
    */
   protected abstract Predicate<T> enforceVisibility(Predicate<T> pred);
 
-  private Set<String> getRequestedFields() {
+  /**
+   * Returns the fields to request when reading results only to count them.
+   *
+   * <p>Subclasses should return the fields needed to check visibility. Returns null by default, in
+   * which case all stored fields are requested.
+   */
+  @Nullable
+  protected Set<String> getCountFields() {
+    return null;
+  }
+
+  /** Returns the index fields that are requested by the queries. */
+  protected Set<String> getRequestedFields() {
     if (requestedFields != null) {
       return requestedFields;
     }
@@ -387,6 +484,16 @@ public abstract class QueryProcessor<T> {
     return enforceVisibility && getPermittedLimit() <= 0;
   }
 
+  /** Returns whether results are filtered by their visibility to the calling user. */
+  protected boolean isVisibilityEnforced() {
+    return enforceVisibility;
+  }
+
+  /** Returns whether statistics about the evaluation of the query predicates are collected. */
+  protected boolean isExplain() {
+    return explain;
+  }
+
   private int getPermittedLimit() {
     return enforceVisibility ? userQueryLimit.getAsInt() : Integer.MAX_VALUE;
   }
@@ -0,0 +1,225 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.index.query;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.common.QueryPlanInfo;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Statistics about the evaluation of the predicates of a single query.
+ *
+ * <p>A profile is installed into the rewritten predicate tree of a query before the query is
+ * executed. The sources of the tree then record how many candidates each predicate evaluated and
+ * matched, and how long that took. Index queries record how often the index was searched, how many
+ * results it returned and how long searching and reading the results took. After the query
+ * finished, {@link #explain(String, Predicate)} turns the tree and the collected statistics into a
+ * {@link QueryPlanInfo}.
+ *
+ * <p>Profiling adds a clock read per predicate evaluation and should only be enabled on request.
+ */
+public class QueryProfile<T> {
+  private static class Stats {
+    long reads;
+    long scanned;
+    long matched;
+    long nanos;
+  }
+
+  private final Map<Predicate<T>, Stats> stats = new IdentityHashMap<>();
+
+  /**
+   * Installs this profile into all sources of the given rewritten predicate tree.
+   *
+   * @param root the root of the predicate tree, as returned by the rewriter.
+   */
+  public void install(Predicate<T> root) {
+    if (root instanceof AndSource) {
+      ((AndSource<T>) root).setProfile(this);
+    } else if (root instanceof IndexedQuery) {
+      ((IndexedQuery<?, T>) root).setProfile(this);
+      // Children of index queries are evaluated by the index.
+      return;
+    }
+    for (Predicate<T> child : root.getChildren()) {
+      install(child);
+    }
+  }
+
+  /**
+   * Matches the object against the given predicate, recording the outcome.
+   *
+   * @param p matchable predicate.
+   * @param object object to match.
+   * @return whether the object matched.
+   */
+  public boolean match(Predicate<T> p, T object) {
+    long start = System.nanoTime();
+    boolean matched = p.asMatchable().match(object);
+    record(p, matched, System.nanoTime() - start);
+    return matched;
+  }
+
+  /**
+   * Records that the given predicate evaluated a candidate.
+   *
+   * @param p predicate.
+   * @param matched whether the candidate matched.
+   * @param nanos time spent evaluating the candidate, in nanoseconds.
+   */
+  public synchronized void record(Predicate<T> p, boolean matched, long nanos) {
+    Stats s = stats.computeIfAbsent(p, k -> new Stats());
+    s.scanned++;
+    if (matched) {
+      s.matched++;
+    }
+    s.nanos += nanos;
+  }
+
+  /**
+   * Reads results from the index for the given index query, recording the read.
+   *
+   * <p>The time spent in the index includes the time to search the index and the time to read the
+   * results, which some indexes only do once the results are iterated.
+   *
+   * @param q index query.
+   * @param read reads the results from the index.
+   * @return the results, which record their number once they were read.
+   */
+  public <R> ResultSet<R> read(IndexedQuery<?, T> q, Supplier<ResultSet<R>> read) {
+    long searchStart = System.nanoTime();
+    ResultSet<R> rs = read.get();
+    long searchNanos = System.nanoTime() - searchStart;
+    return new ResultSet<>() {
+      @Override
+      public Iterator<R> iterator() {
+        return toList().iterator();
+      }
+
+      @Override
+      public ImmutableList<R> toList() {
+        long start = System.nanoTime();
+        ImmutableList<R> results = rs.toList();
+        recordRead(q, results.size(), searchNanos + System.nanoTime() - start);
+        return results;
+      }
+
+      @Override
+      public void close() {
+        rs.close();
+      }
+
+      @Override
+      public Object searchAfter() {
+        return rs.searchAfter();
+      }
+    };
+  }
+
+  private synchronized void recordRead(Predicate<T> p, int results, long nanos) {
+    Stats s = stats.computeIfAbsent(p, k -> new Stats());
+    s.reads++;
+    s.scanned += results;
+    s.matched += results;
+    s.nanos += nanos;
+  }
+
+  /**
+   * Explains how the query was executed.
+   *
+   * @param query original query string, may be null.
+   * @param root the root of the rewritten predicate tree into which this profile was installed.
+   * @return the plan of the query.
+   */
+  public synchronized QueryPlanInfo explain(@Nullable String query, Predicate<T> root) {
+    QueryPlanInfo info = explain(root, null);
+    info.query = query;
+    return info;
+  }
+
+  private QueryPlanInfo explain(Predicate<T> p, @Nullable IndexedQuery<?, T> indexedQuery) {
+    QueryPlanInfo info = new QueryPlanInfo();
+    info.type = type(p, indexedQuery);
+    List<QueryPlanInfo> children = new ArrayList<>();
+    if (p instanceof IndexedQuery) {
+      IndexedQuery<?, T> q = (IndexedQuery<?, T>) p;
+      info.predicate = q.getChild(0).toString();
+      addIndexPostFilters(q, q.getChild(0), children);
+    } else if (info.type == QueryPlanInfo.Type.AND_SOURCE
+        || info.type == QueryPlanInfo.Type.OR_SOURCE) {
+      for (Predicate<T> child : p.getChildren()) {
+        children.add(explain(child, null));
+      }
+      AndSource<T> andSource = p instanceof AndSource ? (AndSource<T>) p : null;
+      if (andSource != null && andSource.getIsVisibleToPredicate() != null) {
+        children.add(explain(andSource.getIsVisibleToPredicate(), null));
+      }
+      info.predicate = info.type == QueryPlanInfo.Type.AND_SOURCE ? "AND" : "OR";
+    } else {
+      info.predicate = p.toString();
+    }
+    if (!children.isEmpty()) {
+      info.children = children;
+    }
+
+    Stats s = stats.get(p);
+    if (s != null) {
+      info.scanned = s.scanned;
+      info.matched = s.matched;
+      info.timeMicros = TimeUnit.NANOSECONDS.toMicros(s.nanos);
+      if (info.type == QueryPlanInfo.Type.INDEX) {
+        info.reads = s.reads;
+      }
+      if (info.type == QueryPlanInfo.Type.VISIBILITY) {
+        info.rejected = s.scanned - s.matched;
+      }
+    }
+    return info;
+  }
+
+  private void addIndexPostFilters(
+      IndexedQuery<?, T> indexedQuery, Predicate<T> p, List<QueryPlanInfo> out) {
+    if (indexedQuery.isPostFilter(p)) {
+      out.add(explain(p, indexedQuery));
+      return;
+    }
+    for (Predicate<T> child : p.getChildren()) {
+      addIndexPostFilters(indexedQuery, child, out);
+    }
+  }
+
+  private static <T> QueryPlanInfo.Type type(
+      Predicate<T> p, @Nullable IndexedQuery<?, T> indexedQuery) {
+    if (indexedQuery != null) {
+      return QueryPlanInfo.Type.INDEX_POST_FILTER;
+    } else if (p instanceof IndexedQuery) {
+      return QueryPlanInfo.Type.INDEX;
+    } else if (p instanceof AndSource) {
+      return QueryPlanInfo.Type.AND_SOURCE;
+    } else if (p instanceof OrPredicate && p instanceof DataSource) {
+      return QueryPlanInfo.Type.OR_SOURCE;
+    } else if (p instanceof IsVisibleToPredicate) {
+      return QueryPlanInfo.Type.VISIBILITY;
+    }
+    return QueryPlanInfo.Type.POST_FILTER;
+  }
+}
@@ -17,6 +17,7 @@ package com.google.gerrit.index.query;
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableList;
 import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.common.QueryPlanInfo;
 import java.util.List;
 
 /** Results of a query over entities. */
@@ -24,6 +25,15 @@ import java.util.List;
 public abstract class QueryResult<T> {
   public static <T> QueryResult<T> create(
       @Nullable String query, Predicate<T> predicate, int limit, List<T> entities) {
+    return create(query, predicate, limit, entities, null);
+  }
+
+  public static <T> QueryResult<T> create(
+      @Nullable String query,
+      Predicate<T> predicate,
+      int limit,
+      List<T> entities,
+      @Nullable QueryProfile<T> profile) {
     boolean more;
     if (entities.size() > limit) {
       more = true;
@@ -31,7 +41,18 @@ public abstract class QueryResult<T> {
     } else {
       more = false;
     }
-    return new AutoValue_QueryResult<>(query, predicate, ImmutableList.copyOf(entities), more);
+    return new AutoValue_QueryResult<>(
+        query, predicate, ImmutableList.copyOf(entities), more, profile);
+  }
+
+  /**
+   * Creates a result from entities that have already been truncated to the limit of the query, e.g.
+   * because they were cached.
+   */
+  public static <T> QueryResult<T> create(
+      @Nullable String query, Predicate<T> predicate, List<T> entities, boolean more) {
+    return new AutoValue_QueryResult<>(
+        query, predicate, ImmutableList.copyOf(entities), more && !entities.isEmpty(), null);
   }
 
   /** Returns the original query string, or null if the query was created programmatically. */
@@ -49,4 +70,18 @@ public abstract class QueryResult<T> {
    * Never true if {@link #entities()} is empty.
    */
   public abstract boolean more();
+
+  /**
+   * Returns the statistics collected while executing the query, or null if the query was not
+   * executed with {@link QueryProcessor#setExplain(boolean) explain} enabled.
+   */
+  @Nullable
+  public abstract QueryProfile<T> profile();
+
+  /** Returns the plan of the query, or null if the query was not executed with explain enabled. */
+  @Nullable
+  public QueryPlanInfo explain() {
+    QueryProfile<T> profile = profile();
+    return profile != null ? profile.explain(query(), predicate()) : null;
+  }
 }
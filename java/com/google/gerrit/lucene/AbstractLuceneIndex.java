@@ -50,6 +50,7 @@ import com.google.gerrit.server.logging.LoggingContextAwareExecutorService;
 import com.google.gerrit.server.logging.LoggingContextAwareScheduledExecutorService;
 import java.io.IOException;
 import java.sql.Timestamp;
+import java.util.OptionalInt;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -60,6 +61,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
@@ -88,6 +90,9 @@ import org.apache.lucene.store.Directory;
 public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  /** Cardinality assumed for a query if it cannot be estimated from the index. */
+  static final int DEFAULT_CARDINALITY = 10;
+
   static String sortFieldName(SchemaField<?, ?> f) {
     return f.getName() + "_SORT";
   }
@@ -103,6 +108,7 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
   private final ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
   private final Set<NrtFuture> notDoneNrtFutures;
   private final AutoFlush autoFlush;
+  private final AtomicLong searcherGeneration = new AtomicLong();
   private ScheduledExecutorService autoCommitExecutor;
 
   @SuppressWarnings("ThreadPriorityCheck")
@@ -210,6 +216,9 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
 
           @Override
           public void afterRefresh(boolean didRefresh) throws IOException {
+            if (didRefresh) {
+              searcherGeneration.incrementAndGet();
+            }
             for (NrtFuture f : notDoneNrtFutures) {
               f.removeIfDone();
             }
@@ -221,6 +230,11 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
     }
   }
 
+  @Override
+  public long getSearcherGeneration() {
+    return searcherGeneration.get();
+  }
+
   @Override
   public void markReady(boolean ready) {
     IndexUtils.setReady(sitePaths, name, schema.getVersion(), ready);
@@ -495,10 +509,56 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
     return schema;
   }
 
+  /**
+   * Estimates the number of documents matching the given query from the term statistics of this
+   * index.
+   *
+   * @param query the query.
+   * @param fallback the value to return if the statistics cannot be read.
+   * @return an upper bound of the number of documents matching the query.
+   */
+  int estimateCardinality(Query query, int fallback) {
+    IndexSearcher searcher = null;
+    try {
+      searcher = acquire();
+      return CardinalityEstimator.estimate(searcher.getIndexReader(), query);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot estimate cardinality of %s", query);
+      return fallback;
+    } finally {
+      if (searcher != null) {
+        try {
+          release(searcher);
+        } catch (IOException e) {
+          logger.atWarning().withCause(e).log("cannot release Lucene searcher");
+        }
+      }
+    }
+  }
+
+  /**
+   * Counts the documents matching the given query, without loading them.
+   *
+   * @param query the query.
+   * @return the number of matching documents.
+   */
+  int count(Query query) throws IOException {
+    CancellableSearch cancellation = CancellableSearch.forCurrentRequest().orElse(null);
+    IndexSearcher searcher = acquire();
+    try {
+      return cancellation != null
+          ? cancellation.wrap(searcher, null).count(query)
+          : searcher.count(query);
+    } finally {
+      release(searcher);
+    }
+  }
+
   protected class LuceneQuerySource implements DataSource<V> {
     private final QueryOptions opts;
     private final Query query;
     private final Sort sort;
+    private int cardinality = -1;
 
     LuceneQuerySource(QueryOptions opts, Query query, Sort sort) {
       this.opts = opts;
@@ -508,7 +568,19 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
 
     @Override
     public int getCardinality() {
-      return 10;
+      if (cardinality < 0) {
+        cardinality = estimateCardinality(query, DEFAULT_CARDINALITY);
+      }
+      return cardinality;
+    }
+
+    @Override
+    public OptionalInt count() {
+      try {
+        return OptionalInt.of(AbstractLuceneIndex.this.count(query));
+      } catch (IOException e) {
+        throw new StorageException(e);
+      }
     }
 
     @Override
@@ -522,18 +594,27 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
     }
 
     private <T> ResultSet<T> readImpl(Function<Document, T> mapper) {
-      IndexSearcher searcher = null;
+      CancellableSearch cancellation = CancellableSearch.forCurrentRequest().orElse(null);
+      IndexSearcher acquired = null;
       ScoreDoc scoreDoc = null;
       try {
-        searcher = acquire();
+        acquired = acquire();
+        IndexSearcher searcher =
+            cancellation != null ? cancellation.wrap(acquired, null) : acquired;
         int realLimit = opts.start() + opts.pageSize();
         TopFieldDocs docs =
             opts.searchAfter() != null
                 ? searcher.searchAfter(
                     (ScoreDoc) opts.searchAfter(), query, realLimit, sort, false, false)
                 : searcher.search(query, realLimit, sort);
+        if (cancellation != null) {
+          cancellation.check();
+        }
         ImmutableList.Builder<T> b = ImmutableList.builderWithExpectedSize(docs.scoreDocs.length);
         for (int i = opts.start(); i < docs.scoreDocs.length; i++) {
+          if (cancellation != null) {
+            cancellation.checkPeriodically();
+          }
           scoreDoc = docs.scoreDocs[i];
           Document doc = searcher.doc(scoreDoc.doc, opts.fields());
           T mapperResult = mapper.apply(doc);
@@ -551,9 +632,9 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
       } catch (IOException e) {
         throw new StorageException(e);
       } finally {
-        if (searcher != null) {
+        if (acquired != null) {
           try {
-            release(searcher);
+            release(acquired);
           } catch (IOException e) {
             logger.atWarning().withCause(e).log("cannot release Lucene searcher");
           }
@@ -0,0 +1,103 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.cancellation.RequestStateContext;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.ExitableDirectoryReader;
+import org.apache.lucene.index.QueryTimeout;
+import org.apache.lucene.search.IndexSearcher;
+
+/**
+ * Stops the Lucene searches of a request once the request is cancelled, e.g. because its deadline
+ * exceeded or because the client went away.
+ *
+ * <p>Searchers returned by {@link #wrap(IndexSearcher, ExecutorService)} check for cancellation
+ * while enumerating terms, which is where regular expression, wildcard and prefix queries spend
+ * their time. Callers should also call {@link #check()} or {@link #checkPeriodically()} while
+ * processing the hits.
+ *
+ * <p>Instances capture the cancellation state of the request on the thread that creates them, so
+ * that searches running on other threads stop as well. Cancellation is reported by throwing {@link
+ * com.google.gerrit.server.cancellation.RequestCancelledException}.
+ */
+final class CancellableSearch implements QueryTimeout {
+  /** Number of enumerated terms or loaded documents after which cancellation is checked again. */
+  private static final int CHECK_INTERVAL = 1024;
+
+  /**
+   * Returns a cancellable search for the current request.
+   *
+   * @return the cancellable search, or {@link Optional#empty()} if the current request cannot be
+   *     cancelled.
+   */
+  static Optional<CancellableSearch> forCurrentRequest() {
+    return RequestStateContext.abortIfCancelledCheck().map(CancellableSearch::new);
+  }
+
+  private final Runnable abortIfCancelled;
+  private final AtomicInteger calls = new AtomicInteger();
+
+  private CancellableSearch(Runnable abortIfCancelled) {
+    this.abortIfCancelled = abortIfCancelled;
+  }
+
+  /** Aborts the search if the request is cancelled. */
+  void check() {
+    abortIfCancelled.run();
+  }
+
+  /** Aborts the search if the request is cancelled, checking only every few invocations. */
+  void checkPeriodically() {
+    if (calls.incrementAndGet() % CHECK_INTERVAL == 0) {
+      check();
+    }
+  }
+
+  @Override
+  public boolean shouldExit() {
+    // Throw the RequestCancelledException with the cancellation reason, rather than have Lucene
+    // throw an ExitingReaderException without it.
+    checkPeriodically();
+    return false;
+  }
+
+  @Override
+  public boolean isTimeoutEnabled() {
+    return true;
+  }
+
+  /**
+   * Returns a searcher on the index of the given searcher that stops when the request is
+   * cancelled.
+   *
+   * <p>The given searcher must stay acquired while the returned searcher is used, and must still be
+   * released.
+   *
+   * @param searcher searcher to wrap.
+   * @param executor executor to search segments in parallel, or null to search them sequentially.
+   */
+  IndexSearcher wrap(IndexSearcher searcher, @Nullable ExecutorService executor)
+      throws IOException {
+    DirectoryReader reader =
+        ExitableDirectoryReader.wrap((DirectoryReader) searcher.getIndexReader(), this);
+    return executor != null ? new IndexSearcher(reader, executor) : new IndexSearcher(reader);
+  }
+}
@@ -0,0 +1,79 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import com.google.common.math.IntMath;
+import java.io.IOException;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+/**
+ * Estimates the number of documents matching a Lucene query from the term statistics of an index.
+ *
+ * <p>The estimate is an upper bound that is cheap to compute: it only looks up the document
+ * frequency of terms and never iterates over postings. Queries for which no cheap estimate exists
+ * (ranges, prefixes, regular expressions) are assumed to match all documents.
+ */
+final class CardinalityEstimator {
+  static int estimate(IndexReader reader, Query query) throws IOException {
+    int numDocs = reader.numDocs();
+    return Math.min(estimate(reader, query, numDocs), numDocs);
+  }
+
+  private static int estimate(IndexReader reader, Query query, int numDocs) throws IOException {
+    if (query instanceof TermQuery) {
+      return reader.docFreq(((TermQuery) query).getTerm());
+    } else if (query instanceof ConstantScoreQuery) {
+      return estimate(reader, ((ConstantScoreQuery) query).getQuery(), numDocs);
+    } else if (query instanceof BooleanQuery) {
+      return estimateBoolean(reader, (BooleanQuery) query, numDocs);
+    }
+    return numDocs;
+  }
+
+  private static int estimateBoolean(IndexReader reader, BooleanQuery query, int numDocs)
+      throws IOException {
+    int required = Integer.MAX_VALUE;
+    int optional = 0;
+    boolean hasOptional = false;
+    for (BooleanClause clause : query.clauses()) {
+      switch (clause.getOccur()) {
+        case MUST:
+        case FILTER:
+          required = Math.min(required, estimate(reader, clause.getQuery(), numDocs));
+          break;
+        case SHOULD:
+          hasOptional = true;
+          optional = IntMath.saturatedAdd(optional, estimate(reader, clause.getQuery(), numDocs));
+          break;
+        case MUST_NOT:
+          // Excluding documents can only reduce the number of matches, but there is no cheap way
+          // to know by how much.
+          break;
+      }
+    }
+    if (required != Integer.MAX_VALUE) {
+      // Optional clauses don't restrict the matches if there are required clauses.
+      return required;
+    }
+    return hasOptional ? optional : numDocs;
+  }
+
+  private CardinalityEstimator() {}
+}
@@ -35,10 +35,14 @@ class GerritIndexWriterConfig {
   private long commitWithinMs;
   private final CustomMappingAnalyzer analyzer;
 
+  /** Returns a new instance of the analyzer used for full-text fields of all indexes. */
+  static CustomMappingAnalyzer newAnalyzer() {
+    return new CustomMappingAnalyzer(
+        new StandardAnalyzer(CharArraySet.EMPTY_SET), CUSTOM_CHAR_MAPPING);
+  }
+
   GerritIndexWriterConfig(Config cfg, String name) {
-    analyzer =
-        new CustomMappingAnalyzer(
-            new StandardAnalyzer(CharArraySet.EMPTY_SET), CUSTOM_CHAR_MAPPING);
+    analyzer = newAnalyzer();
     luceneConfig =
         new IndexWriterConfig(analyzer)
             .setOpenMode(OpenMode.CREATE_OR_APPEND)
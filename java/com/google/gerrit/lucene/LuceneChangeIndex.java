@@ -31,6 +31,7 @@ import com.google.common.collect.ListMultimap;
 import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.Sets;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.math.IntMath;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.gerrit.common.Nullable;
@@ -43,6 +44,7 @@ import com.google.gerrit.index.PaginationType;
 import com.google.gerrit.index.QueryOptions;
 import com.google.gerrit.index.Schema;
 import com.google.gerrit.index.SchemaFieldDefs.SchemaField;
+import com.google.gerrit.index.StoredValue;
 import com.google.gerrit.index.query.FieldBundle;
 import com.google.gerrit.index.query.Predicate;
 import com.google.gerrit.index.query.QueryParseException;
@@ -70,9 +72,11 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.OptionalInt;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.function.Function;
 import org.apache.lucene.document.Document;
@@ -140,6 +144,7 @@ public class LuceneChangeIndex implements ChangeIndex {
   }
 
   private final ListeningExecutorService executor;
+  private final SearchExecutor searchExecutor;
   private final ChangeData.Factory changeDataFactory;
   private final Schema<ChangeData> schema;
   private final QueryBuilder<ChangeData> queryBuilder;
@@ -152,11 +157,13 @@ public class LuceneChangeIndex implements ChangeIndex {
       @GerritServerConfig Config cfg,
       SitePaths sitePaths,
       @IndexExecutor(INTERACTIVE) ListeningExecutorService executor,
+      SearchExecutor searchExecutor,
       ChangeData.Factory changeDataFactory,
       @Assisted Schema<ChangeData> schema,
       AutoFlush autoFlush)
       throws IOException {
     this.executor = executor;
+    this.searchExecutor = searchExecutor;
     this.changeDataFactory = changeDataFactory;
     this.schema = schema;
     this.skipFields =
@@ -291,6 +298,12 @@ public class LuceneChangeIndex implements ChangeIndex {
     return new QuerySource(indexes, p, opts, getSort(), openIndex::toFieldBundle);
   }
 
+  @Override
+  public long getSearcherGeneration() {
+    // Both generations only ever increase, so their sum changes whenever one of them changes.
+    return openIndex.getSearcherGeneration() + closedIndex.getSearcherGeneration();
+  }
+
   @Override
   public void markReady(boolean ready) {
     // Arbitrary done on open index, as ready bit is set
@@ -313,6 +326,7 @@ public class LuceneChangeIndex implements ChangeIndex {
     private final Sort sort;
     private final Function<Document, FieldBundle> rawDocumentMapper;
     private final boolean isSearchAfterPagination;
+    private int cardinality = -1;
 
     private QuerySource(
         List<ChangeSubIndex> indexes,
@@ -333,7 +347,29 @@ public class LuceneChangeIndex implements ChangeIndex {
 
     @Override
     public int getCardinality() {
-      return 10; // TODO(dborowitz): estimate from Lucene?
+      if (cardinality < 0) {
+        int c = 0;
+        for (ChangeSubIndex subIndex : indexes) {
+          c =
+              IntMath.saturatedAdd(
+                  c, subIndex.estimateCardinality(query, AbstractLuceneIndex.DEFAULT_CARDINALITY));
+        }
+        cardinality = c;
+      }
+      return cardinality;
+    }
+
+    @Override
+    public OptionalInt count() {
+      int count = 0;
+      try {
+        for (ChangeSubIndex subIndex : indexes) {
+          count = IntMath.saturatedAdd(count, subIndex.count(query));
+        }
+      } catch (IOException e) {
+        throw new StorageException(e);
+      }
+      return OptionalInt.of(count);
     }
 
     @Override
@@ -354,12 +390,15 @@ public class LuceneChangeIndex implements ChangeIndex {
       }
 
       final Set<String> fields = IndexUtils.changeFields(opts);
+      // Determine the kind of query on the calling thread, which holds the request context.
+      final ExecutorService parallelSearchExecutor = searchExecutor.forCurrentRequest();
+      final CancellableSearch cancellation = CancellableSearch.forCurrentRequest().orElse(null);
       return new ChangeDataResults(
           executor.submit(
               new Callable<Results>() {
                 @Override
                 public Results call() throws IOException {
-                  return doRead(fields);
+                  return doRead(fields, parallelSearchExecutor, cancellation);
                 }
 
                 @Override
@@ -376,7 +415,11 @@ public class LuceneChangeIndex implements ChangeIndex {
       Map<ChangeSubIndex, ScoreDoc> searchAfterBySubIndex;
 
       try {
-        Results r = doRead(IndexUtils.changeFields(opts));
+        Results r =
+            doRead(
+                IndexUtils.changeFields(opts),
+                searchExecutor.forCurrentRequest(),
+                CancellableSearch.forCurrentRequest().orElse(null));
         documents = r.docs;
         searchAfterBySubIndex = r.searchAfterBySubIndex;
       } catch (IOException e) {
@@ -407,54 +450,92 @@ public class LuceneChangeIndex implements ChangeIndex {
       };
     }
 
-    private Results doRead(Set<String> fields) throws IOException {
-      IndexSearcher[] searchers = new IndexSearcher[indexes.size()];
+    /**
+     * Searches all sub-indexes.
+     *
+     * @param fields fields to load.
+     * @param searchExecutor executor to search sub-indexes and segments in parallel, or null to
+     *     search sequentially.
+     * @param cancellation cancellation of the request the search is done for, or null if it cannot
+     *     be cancelled.
+     */
+    private Results doRead(
+        Set<String> fields,
+        @Nullable ExecutorService searchExecutor,
+        @Nullable CancellableSearch cancellation)
+        throws IOException {
+      IndexSearcher[] acquired = new IndexSearcher[indexes.size()];
       Map<ChangeSubIndex, ScoreDoc> searchAfterBySubIndex = new HashMap<>();
       try {
         int realPageSize = opts.start() + opts.pageSize();
         if (Integer.MAX_VALUE - opts.pageSize() < opts.start()) {
           realPageSize = Integer.MAX_VALUE;
         }
-        List<TopFieldDocs> hits = new ArrayList<>();
-        int searchAfterHitsCount = 0;
         for (int i = 0; i < indexes.size(); i++) {
-          ChangeSubIndex subIndex = indexes.get(i);
-          searchers[i] = subIndex.acquire();
-          if (isSearchAfterPagination) {
-            ScoreDoc searchAfter = getSearchAfter(subIndex);
-            int maxRemainingHits = realPageSize - searchAfterHitsCount;
-            if (maxRemainingHits > 0) {
-              TopFieldDocs subIndexHits =
-                  searchers[i].searchAfter(
-                      searchAfter,
-                      query,
-                      maxRemainingHits,
-                      sort,
-                      /* doDocScores= */ false,
-                      /* doMaxScore= */ false);
-              searchAfterHitsCount += subIndexHits.scoreDocs.length;
-              hits.add(subIndexHits);
-              searchAfterBySubIndex.put(
-                  subIndex, Iterables.getLast(Arrays.asList(subIndexHits.scoreDocs), searchAfter));
+          acquired[i] = indexes.get(i).acquire();
+        }
+        IndexSearcher[] searchers = acquired;
+        if (cancellation != null) {
+          searchers = new IndexSearcher[acquired.length];
+          for (int i = 0; i < acquired.length; i++) {
+            searchers[i] = cancellation.wrap(acquired[i], null);
+          }
+        }
+        List<TopFieldDocs> hits;
+        if (!isSearchAfterPagination && searchExecutor != null) {
+          // With search-after pagination the sub-indexes are asked for the remaining hits one after
+          // another, otherwise each of them is asked for a full page and can be searched in
+          // parallel.
+          hits = searchInParallel(searchers, realPageSize, searchExecutor);
+        } else {
+          hits = new ArrayList<>();
+          int searchAfterHitsCount = 0;
+          for (int i = 0; i < indexes.size(); i++) {
+            ChangeSubIndex subIndex = indexes.get(i);
+            if (isSearchAfterPagination) {
+              ScoreDoc searchAfter = getSearchAfter(subIndex);
+              int maxRemainingHits = realPageSize - searchAfterHitsCount;
+              if (maxRemainingHits > 0) {
+                TopFieldDocs subIndexHits =
+                    withExecutor(searchers[i], searchExecutor)
+                        .searchAfter(
+                            searchAfter,
+                            query,
+                            maxRemainingHits,
+                            sort,
+                            /* doDocScores= */ false,
+                            /* doMaxScore= */ false);
+                searchAfterHitsCount += subIndexHits.scoreDocs.length;
+                hits.add(subIndexHits);
+                searchAfterBySubIndex.put(
+                    subIndex,
+                    Iterables.getLast(Arrays.asList(subIndexHits.scoreDocs), searchAfter));
+              }
+            } else {
+              hits.add(searchers[i].search(query, realPageSize, sort));
             }
-          } else {
-            hits.add(searchers[i].search(query, realPageSize, sort));
           }
         }
         TopDocs docs =
             TopDocs.merge(sort, realPageSize, hits.stream().toArray(TopFieldDocs[]::new));
 
+        if (cancellation != null) {
+          cancellation.check();
+        }
         List<Document> result = new ArrayList<>(docs.scoreDocs.length);
         for (int i = opts.start(); i < docs.scoreDocs.length; i++) {
+          if (cancellation != null) {
+            cancellation.checkPeriodically();
+          }
           ScoreDoc sd = docs.scoreDocs[i];
           result.add(searchers[sd.shardIndex].doc(sd.doc, fields));
         }
         return new Results(result, searchAfterBySubIndex);
       } finally {
         for (int i = 0; i < indexes.size(); i++) {
-          if (searchers[i] != null) {
+          if (acquired[i] != null) {
             try {
-              indexes.get(i).release(searchers[i]);
+              indexes.get(i).release(acquired[i]);
             } catch (IOException e) {
               logger.atWarning().withCause(e).log("cannot release Lucene searcher");
             }
@@ -463,6 +544,74 @@ public class LuceneChangeIndex implements ChangeIndex {
       }
     }
 
+    /**
+     * Searches the given sub-index searchers in parallel.
+     *
+     * <p>The largest sub-index is searched on the calling thread, with its segments searched in
+     * parallel by the executor. The other sub-indexes are searched by the executor, one task per
+     * sub-index. No task waits for other tasks, so the executor can't deadlock.
+     *
+     * @return hits of each searcher, in the same order as the searchers.
+     */
+    private List<TopFieldDocs> searchInParallel(
+        IndexSearcher[] searchers, int pageSize, ExecutorService searchExecutor)
+        throws IOException {
+      int largest = 0;
+      for (int i = 1; i < searchers.length; i++) {
+        if (searchers[i].getIndexReader().maxDoc() > searchers[largest].getIndexReader().maxDoc()) {
+          largest = i;
+        }
+      }
+
+      List<Future<TopFieldDocs>> futures = new ArrayList<>(searchers.length);
+      try {
+        for (int i = 0; i < searchers.length; i++) {
+          IndexSearcher searcher = searchers[i];
+          futures.add(
+              i == largest
+                  ? null
+                  : searchExecutor.submit(() -> searcher.search(query, pageSize, sort)));
+        }
+
+        TopFieldDocs largestHits =
+            withExecutor(searchers[largest], searchExecutor).search(query, pageSize, sort);
+
+        List<TopFieldDocs> hits = new ArrayList<>(searchers.length);
+        for (int i = 0; i < searchers.length; i++) {
+          hits.add(
+              i == largest ? largestHits : Futures.getChecked(futures.get(i), IOException.class));
+        }
+        return hits;
+      } finally {
+        // Searchers must not be released while tasks are still using them.
+        for (Future<TopFieldDocs> f : futures) {
+          if (f != null) {
+            try {
+              f.get();
+            } catch (ExecutionException e) {
+              // Already handled, or irrelevant if the search failed.
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              break;
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns a searcher that searches the segments of the given searcher's index in parallel.
+     *
+     * <p>Searchers acquired from a sub-index must still be released through the sub-index.
+     */
+    private IndexSearcher withExecutor(
+        IndexSearcher searcher, @Nullable ExecutorService searchExecutor) {
+      if (searchExecutor == null || searcher.getIndexReader().leaves().size() < 2) {
+        return searcher;
+      }
+      return new IndexSearcher(searcher.getIndexReader(), searchExecutor);
+    }
+
     /**
      * Returns null for the first page or when pagination type is not {@link
      * PaginationType#SEARCH_AFTER search-after}, otherwise returns the last doc from previous
@@ -570,11 +719,15 @@ public class LuceneChangeIndex implements ChangeIndex {
       cd = changeDataFactory.create(Project.nameKey(project.stringValue()), id);
     }
 
+    Map<String, StoredValue> storedValues = new HashMap<>();
     for (SchemaField<ChangeData, ?> field : getSchema().getSchemaFields().values()) {
       if (fields.contains(field.getName()) && doc.get(field.getName()) != null) {
-        field.setIfPossible(cd, new LuceneStoredValue(doc.get(field.getName())));
+        StoredValue value = new LuceneStoredValue(doc.get(field.getName()));
+        field.setIfPossible(cd, value);
+        storedValues.put(field.getName(), value);
       }
     }
+    cd.setStoredValues(storedValues);
     return cd;
   }
 
@@ -33,25 +33,45 @@ import org.eclipse.jgit.lib.Config;
 @ModuleImpl(name = AbstractIndexModule.INDEX_MODULE)
 public class LuceneIndexModule extends AbstractIndexModule {
   private final AutoFlush autoFlush;
+  private final boolean changesInMemory;
+  private final boolean multiVersion;
 
   public static LuceneIndexModule singleVersionAllLatest(
       int threads, boolean slave, AutoFlush autoFlush) {
-    return new LuceneIndexModule(ImmutableMap.of(), threads, slave, autoFlush);
+    return new LuceneIndexModule(ImmutableMap.of(), threads, slave, autoFlush, false);
   }
 
   @VisibleForTesting
   public static LuceneIndexModule singleVersionWithExplicitVersions(
       Map<String, Integer> versions, int threads, boolean slave) {
-    return new LuceneIndexModule(versions, threads, slave, AutoFlush.ENABLED);
+    return new LuceneIndexModule(versions, threads, slave, AutoFlush.ENABLED, false);
   }
 
   public static LuceneIndexModule singleVersionWithExplicitVersions(
       Map<String, Integer> versions, int threads, boolean slave, AutoFlush autoFlush) {
-    return new LuceneIndexModule(versions, threads, slave, autoFlush);
+    return new LuceneIndexModule(versions, threads, slave, autoFlush, false);
   }
 
   public static LuceneIndexModule latestVersion(boolean slave, AutoFlush autoFlush) {
-    return new LuceneIndexModule(null, 0, slave, autoFlush);
+    return new LuceneIndexModule(null, 0, slave, autoFlush, false);
+  }
+
+  /**
+   * Like {@link #singleVersionWithExplicitVersions(Map, int, boolean, AutoFlush)}, but keeps the
+   * change index in memory, see {@link MemoryChangeIndex}.
+   */
+  public static LuceneIndexModule singleVersionWithChangesInMemory(
+      Map<String, Integer> versions, int threads, boolean slave, AutoFlush autoFlush) {
+    return new LuceneIndexModule(versions, threads, slave, autoFlush, true);
+  }
+
+  /**
+   * Like {@link #latestVersion(boolean, AutoFlush)}, but keeps the change index in memory, see
+   * {@link MemoryChangeIndex}.
+   */
+  public static LuceneIndexModule latestVersionWithChangesInMemory(
+      boolean slave, AutoFlush autoFlush) {
+    return new LuceneIndexModule(null, 0, slave, autoFlush, true);
   }
 
   static boolean isInMemoryTest(Config cfg) {
@@ -59,15 +79,25 @@ public class LuceneIndexModule extends AbstractIndexModule {
   }
 
   private LuceneIndexModule(
-      Map<String, Integer> singleVersions, int threads, boolean slave, AutoFlush autoFlush) {
+      Map<String, Integer> singleVersions,
+      int threads,
+      boolean slave,
+      AutoFlush autoFlush,
+      boolean changesInMemory) {
     super(singleVersions, threads, slave);
     this.autoFlush = autoFlush;
+    this.changesInMemory = changesInMemory;
+    this.multiVersion = singleVersions == null;
   }
 
   @Override
   protected void configure() {
     super.configure();
     bind(AutoFlush.class).toInstance(autoFlush);
+    if (changesInMemory && multiVersion) {
+      // Single version setups are used by programs that reindex all changes anyway.
+      install(new MemoryChangeIndexRecovery.Module());
+    }
   }
 
   @Override
@@ -77,7 +107,7 @@ public class LuceneIndexModule extends AbstractIndexModule {
 
   @Override
   protected Class<? extends ChangeIndex> getChangeIndex() {
-    return LuceneChangeIndex.class;
+    return changesInMemory ? MemoryChangeIndex.class : LuceneChangeIndex.class;
   }
 
   @Override
@@ -0,0 +1,566 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.gerrit.server.index.change.ChangeField.LEGACY_ID_STR;
+import static com.google.gerrit.server.index.change.ChangeField.PROJECT_SPEC;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.collect.Ordering;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.math.IntMath;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.converter.ChangeProtoConverter;
+import com.google.gerrit.exceptions.StorageException;
+import com.google.gerrit.index.PaginationType;
+import com.google.gerrit.index.QueryOptions;
+import com.google.gerrit.index.Schema;
+import com.google.gerrit.index.SchemaFieldDefs.SchemaField;
+import com.google.gerrit.index.StoredValue;
+import com.google.gerrit.index.query.FieldBundle;
+import com.google.gerrit.index.query.ListResultSet;
+import com.google.gerrit.index.query.Predicate;
+import com.google.gerrit.index.query.QueryParseException;
+import com.google.gerrit.index.query.ResultSet;
+import com.google.gerrit.lucene.MemoryDocuments.SortKey;
+import com.google.gerrit.proto.Protos;
+import com.google.gerrit.server.change.MergeabilityComputationBehavior;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.index.IndexUtils;
+import com.google.gerrit.server.index.change.ChangeField;
+import com.google.gerrit.server.index.change.ChangeIndex;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.query.change.ChangeDataSource;
+import com.google.inject.Inject;
+import com.google.inject.assistedinject.Assisted;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Change index that keeps all documents in memory.
+ *
+ * <p>Intended for small sites, where the whole change index comfortably fits into the heap and
+ * answering queries from memory is considerably faster than searching Lucene segments. Queries
+ * have the same semantics and result order as with {@link LuceneChangeIndex}.
+ *
+ * <p>The documents are periodically written to a snapshot in the directory of the index version,
+ * and loaded from there on startup. Updates made after the last snapshot are lost if the server
+ * isn't shut down cleanly. This, like a snapshot that can't be loaded, is detected on the next
+ * start: the index is then marked as not ready and {@link MemoryChangeIndexRecovery} reindexes all
+ * changes.
+ */
+public class MemoryChangeIndex implements ChangeIndex {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String CHANGES = "changes";
+  private static final String SNAPSHOT = "snapshot";
+  private static final String OPEN_MARKER = "snapshot.open";
+  private static final String CHANGE_FIELD = ChangeField.CHANGE.getName();
+
+  private final SitePaths sitePaths;
+  private final ChangeData.Factory changeDataFactory;
+  private final Schema<ChangeData> schema;
+  private final ImmutableSet<String> skipFields;
+  private final MemoryDocuments docs;
+  private final MemoryQueryBuilder<ChangeData> queryBuilder;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Comparator<Integer> bySortKey;
+  @Nullable private final Path dir;
+  @Nullable private final ScheduledFuture<?> snapshotTask;
+
+  /** Incremented on every modification, guarded by {@link #lock}. */
+  private long generation;
+
+  /** Generation at the time of the last snapshot, guarded by {@link #lock}. */
+  private long snapshotGeneration;
+
+  /**
+   * Numbers of the changes that were loaded from an outdated snapshot and weren't reindexed since,
+   * or null if the documents were not loaded from an outdated snapshot. Guarded by {@link #lock}.
+   */
+  @Nullable private BitSet unverified;
+
+  /** Whether the documents are incomplete and all changes need to be reindexed. */
+  private volatile boolean needsReindex;
+
+  @Inject
+  MemoryChangeIndex(
+      @GerritServerConfig Config cfg,
+      SitePaths sitePaths,
+      WorkQueue workQueue,
+      ChangeData.Factory changeDataFactory,
+      @Assisted Schema<ChangeData> schema)
+      throws IOException {
+    this.sitePaths = sitePaths;
+    this.changeDataFactory = changeDataFactory;
+    this.schema = schema;
+    this.skipFields =
+        MergeabilityComputationBehavior.fromConfig(cfg).includeInIndex()
+            ? ImmutableSet.of()
+            : ImmutableSet.of(ChangeField.MERGEABLE.getName());
+    this.docs = new MemoryDocuments(schema, GerritIndexWriterConfig.newAnalyzer());
+    this.queryBuilder = new MemoryQueryBuilder<>(schema, docs);
+    this.bySortKey = Comparator.comparing(docs::sortKey, SortKey.ORDER);
+
+    if (LuceneIndexModule.isInMemoryTest(cfg)) {
+      dir = null;
+      snapshotTask = null;
+      return;
+    }
+
+    dir = LuceneVersionManager.getDir(sitePaths, CHANGES, schema);
+    Files.createDirectories(dir);
+    load();
+    long interval =
+        ConfigUtil.getTimeUnit(
+            cfg, "index", "memory", "snapshotInterval", SECONDS.convert(5, MINUTES), SECONDS);
+    snapshotTask =
+        interval > 0
+            ? workQueue
+                .getDefaultQueue()
+                .scheduleAtFixedRate(this::snapshotIfModified, interval, interval, SECONDS)
+            : null;
+  }
+
+  private void load() throws IOException {
+    Path marker = dir.resolve(OPEN_MARKER);
+    boolean unclean = Files.exists(marker);
+    Path snapshot = dir.resolve(SNAPSHOT);
+    if (Files.exists(snapshot)) {
+      try {
+        List<ImmutableListMultimap<String, Object>> loaded =
+            MemorySnapshot.read(snapshot, schema.getVersion());
+        BitSet changeNumbers = new BitSet();
+        for (ImmutableListMultimap<String, Object> doc : loaded) {
+          docs.put(doc);
+          changeNumbers.set(MemoryDocuments.changeNumber(doc));
+        }
+        logger.atInfo().log(
+            "Loaded %d changes into change index %d", loaded.size(), schema.getVersion());
+        if (unclean) {
+          unverified = changeNumbers;
+          needsReindex = true;
+          logger.atWarning().log(
+              "Change index %d was not closed cleanly, updates after the last snapshot are missing;"
+                  + " marking it as not ready until all changes are reindexed",
+              schema.getVersion());
+        }
+      } catch (IOException | RuntimeException e) {
+        docs.clear();
+        unverified = null;
+        needsReindex = true;
+        // Replace the snapshot on the next occasion.
+        generation++;
+        logger.atSevere().withCause(e).log(
+            "Cannot load snapshot of change index %d; marking it as not ready until all changes"
+                + " are reindexed",
+            schema.getVersion());
+      }
+    } else if (unclean) {
+      needsReindex = true;
+      logger.atWarning().log(
+          "Change index %d was not closed cleanly before a snapshot was written; marking it as not"
+              + " ready until all changes are reindexed",
+          schema.getVersion());
+    }
+    if (needsReindex) {
+      markReady(false);
+    }
+    Files.write(marker, new byte[0]);
+  }
+
+  /**
+   * Returns whether the documents may be incomplete or outdated, because the index wasn't closed
+   * cleanly or its snapshot couldn't be loaded, and all changes need to be reindexed.
+   */
+  boolean needsReindex() {
+    return needsReindex;
+  }
+
+  private synchronized void snapshotIfModified() {
+    List<ImmutableListMultimap<String, Object>> snapshot;
+    long snapshotOf;
+    lock.readLock().lock();
+    try {
+      if (generation == snapshotGeneration) {
+        return;
+      }
+      snapshot = docs.documents();
+      snapshotOf = generation;
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    // Documents are immutable, so they can be written without blocking writers.
+    try {
+      MemorySnapshot.write(dir.resolve(SNAPSHOT), schema.getVersion(), snapshot);
+    } catch (IOException | RuntimeException e) {
+      logger.atSevere().withCause(e).log(
+          "Cannot write snapshot of change index %d", schema.getVersion());
+      return;
+    }
+
+    lock.writeLock().lock();
+    try {
+      snapshotGeneration = Math.max(snapshotGeneration, snapshotOf);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void close() {
+    if (dir == null) {
+      return;
+    }
+    if (snapshotTask != null) {
+      snapshotTask.cancel(false);
+    }
+    snapshotIfModified();
+    lock.readLock().lock();
+    try {
+      // Keep the marker while a reindex is pending, so that it is started again on the next start.
+      if (generation == snapshotGeneration && !needsReindex) {
+        Files.deleteIfExists(dir.resolve(OPEN_MARKER));
+      }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot delete %s", dir.resolve(OPEN_MARKER));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public Schema<ChangeData> getSchema() {
+    return schema;
+  }
+
+  @Override
+  public void replace(ChangeData cd) {
+    ImmutableListMultimap<String, Object> doc = toDocument(cd);
+    if (doc.isEmpty()) {
+      // The change couldn't be loaded, there is nothing to index.
+      delete(cd.getId());
+      return;
+    }
+    lock.writeLock().lock();
+    try {
+      docs.put(doc);
+      verified(cd.getId());
+      generation++;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void insert(ChangeData cd) {
+    replace(cd);
+  }
+
+  @Override
+  public void delete(Change.Id changeId) {
+    lock.writeLock().lock();
+    try {
+      docs.remove(changeId.get());
+      verified(changeId);
+      generation++;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void deleteAll() {
+    lock.writeLock().lock();
+    try {
+      docs.clear();
+      unverified = null;
+      generation++;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public ChangeDataSource getSource(Predicate<ChangeData> p, QueryOptions opts)
+      throws QueryParseException {
+    return new QuerySource(p, opts);
+  }
+
+  @Override
+  public long getSearcherGeneration() {
+    lock.readLock().lock();
+    try {
+      return generation;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void markReady(boolean ready) {
+    if (ready) {
+      removeUnverified();
+    }
+    IndexUtils.setReady(sitePaths, CHANGES, schema.getVersion(), ready);
+  }
+
+  /** Records that the document of the given change was updated since the snapshot was loaded. */
+  private void verified(Change.Id changeId) {
+    if (unverified != null) {
+      unverified.clear(changeId.get());
+    }
+  }
+
+  /**
+   * Removes the documents that were loaded from an outdated snapshot and were not reindexed since.
+   *
+   * <p>Called once all changes have been reindexed, hence these are the changes that were deleted
+   * after the snapshot was written.
+   */
+  private void removeUnverified() {
+    lock.writeLock().lock();
+    try {
+      if (unverified != null) {
+        for (int n = unverified.nextSetBit(0); n >= 0; n = unverified.nextSetBit(n + 1)) {
+          docs.remove(n);
+        }
+        if (!unverified.isEmpty()) {
+          logger.atInfo().log(
+              "Removed %d deleted changes from change index %d",
+              unverified.cardinality(), schema.getVersion());
+          generation++;
+        }
+        unverified = null;
+      }
+      needsReindex = false;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private ImmutableListMultimap<String, Object> toDocument(ChangeData cd) {
+    ImmutableListMultimap.Builder<String, Object> doc = ImmutableListMultimap.builder();
+    for (Schema.Values<ChangeData> values : schema.buildFields(cd, skipFields)) {
+      String name = values.getField().getName();
+      for (Object value : values.getValues()) {
+        if (value != null) {
+          doc.put(name, value);
+        }
+      }
+    }
+    return doc.build();
+  }
+
+  /** Page of documents matching a query. */
+  private static class Page {
+    final List<ImmutableListMultimap<String, Object>> docs;
+    @Nullable final SortKey last;
+
+    Page(List<ImmutableListMultimap<String, Object>> docs, @Nullable SortKey last) {
+      this.docs = docs;
+      this.last = last;
+    }
+  }
+
+  private class QuerySource implements ChangeDataSource {
+    private final Predicate<ChangeData> predicate;
+    private final QueryOptions opts;
+    private BitSet matches;
+    private long matchesGeneration;
+
+    QuerySource(Predicate<ChangeData> predicate, QueryOptions opts) throws QueryParseException {
+      this.predicate = predicate;
+      this.opts = opts;
+      lock.readLock().lock();
+      try {
+        // Evaluate eagerly so that invalid queries fail here, like with Lucene.
+        matches = queryBuilder.toBitSet(predicate);
+        matchesGeneration = generation;
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+
+    @Override
+    public int getCardinality() {
+      return matches.cardinality();
+    }
+
+    @Override
+    public OptionalInt count() {
+      lock.readLock().lock();
+      try {
+        return OptionalInt.of(currentMatches().cardinality());
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+
+    @Override
+    public boolean hasChange() {
+      return false;
+    }
+
+    @Override
+    public String toString() {
+      return predicate.toString();
+    }
+
+    @Override
+    public ResultSet<ChangeData> read() {
+      Set<String> fields = IndexUtils.changeFields(opts);
+      Page page = search();
+      ImmutableList<ChangeData> result =
+          page.docs.stream().map(d -> toChangeData(d, fields)).collect(toImmutableList());
+      return new ListResultSet<>(result) {
+        @Override
+        public Object searchAfter() {
+          return page.last;
+        }
+      };
+    }
+
+    @Override
+    public ResultSet<FieldBundle> readRaw() {
+      Set<String> fields = IndexUtils.changeFields(opts);
+      Page page = search();
+      ImmutableList<FieldBundle> result =
+          page.docs.stream().map(d -> toFieldBundle(d, fields)).collect(toImmutableList());
+      return new ListResultSet<>(result) {
+        @Override
+        public Object searchAfter() {
+          return page.last;
+        }
+      };
+    }
+
+    private Page search() {
+      SortKey after =
+          opts.config().paginationType().equals(PaginationType.SEARCH_AFTER)
+                  && opts.searchAfter() instanceof SortKey
+              ? (SortKey) opts.searchAfter()
+              : null;
+      int start = after != null ? 0 : opts.start();
+      int limit = IntMath.saturatedAdd(start, opts.pageSize());
+
+      lock.readLock().lock();
+      try {
+        BitSet bits = currentMatches();
+        List<Integer> candidates = new ArrayList<>(bits.cardinality());
+        for (int slot = bits.nextSetBit(0); slot >= 0; slot = bits.nextSetBit(slot + 1)) {
+          if (after == null || SortKey.ORDER.compare(docs.sortKey(slot), after) > 0) {
+            candidates.add(slot);
+          }
+        }
+        List<Integer> top = Ordering.from(bySortKey).leastOf(candidates, limit);
+        List<ImmutableListMultimap<String, Object>> result =
+            new ArrayList<>(Math.max(top.size() - start, 0));
+        for (int i = start; i < top.size(); i++) {
+          result.add(docs.get(top.get(i)));
+        }
+        SortKey last = top.isEmpty() ? after : docs.sortKey(Iterables.getLast(top));
+        return new Page(result, last);
+      } finally {
+        lock.readLock().unlock();
+      }
+    }
+
+    /** Returns the matches of the query in the current state of the index. */
+    private BitSet currentMatches() {
+      if (matchesGeneration != generation) {
+        try {
+          matches = queryBuilder.toBitSet(predicate);
+          matchesGeneration = generation;
+        } catch (QueryParseException e) {
+          // Can't happen, the predicate was already evaluated successfully.
+          throw new StorageException(e);
+        }
+      }
+      return matches;
+    }
+  }
+
+  private ChangeData toChangeData(ImmutableListMultimap<String, Object> doc, Set<String> fields) {
+    ChangeData cd;
+    // IndexUtils#changeFields ensures that either CHANGE or the ID and PROJECT fields are
+    // requested.
+    Object change = Iterables.getFirst(doc.get(CHANGE_FIELD), null);
+    if (fields.contains(CHANGE_FIELD) && change != null) {
+      cd =
+          changeDataFactory.create(
+              ChangeProtoConverter.INSTANCE.fromProto(
+                  Protos.parseUnchecked(
+                      ChangeProtoConverter.INSTANCE.getParser(), (byte[]) change)));
+    } else {
+      String id = (String) doc.get(LEGACY_ID_STR.getName()).get(0);
+      String project = (String) doc.get(PROJECT_SPEC.getName()).get(0);
+      cd = changeDataFactory.create(Project.nameKey(project), Change.id(Integer.parseInt(id)));
+    }
+
+    Map<String, StoredValue> storedValues = new HashMap<>();
+    for (SchemaField<ChangeData, ?> field : schema.getSchemaFields().values()) {
+      if (fields.contains(field.getName())) {
+        // Like with Lucene, only values of stored fields can be retrieved.
+        List<Object> values = field.isStored() ? doc.get(field.getName()) : ImmutableList.of();
+        StoredValue value = new MemoryStoredValue(values);
+        field.setIfPossible(cd, value);
+        storedValues.put(field.getName(), value);
+      }
+    }
+    cd.setStoredValues(storedValues);
+    return cd;
+  }
+
+  private FieldBundle toFieldBundle(
+      ImmutableListMultimap<String, Object> doc, Set<String> fields) {
+    ListMultimap<String, Object> raw =
+        MultimapBuilder.hashKeys(fields.size()).arrayListValues().build();
+    for (String name : fields) {
+      SchemaField<ChangeData, ?> field = schema.getSchemaField(name);
+      if (field != null && field.isStored()) {
+        raw.putAll(name, doc.get(name));
+      }
+    }
+    return new FieldBundle(raw);
+  }
+}
@@ -0,0 +1,74 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.lifecycle.LifecycleModule;
+import com.google.gerrit.server.index.ReindexerAlreadyRunningException;
+import com.google.gerrit.server.index.VersionManager;
+import com.google.gerrit.server.index.change.ChangeIndex;
+import com.google.gerrit.server.index.change.ChangeIndexCollection;
+import com.google.gerrit.server.index.change.ChangeSchemaDefinitions;
+import com.google.inject.Inject;
+
+/**
+ * Listener that reindexes all changes at startup if an in-memory change index could not be
+ * restored completely from its snapshot, see {@link MemoryChangeIndex#needsReindex()}.
+ *
+ * <p>The reindex runs in the background, like an online reindex. Until it completes, queries may
+ * miss changes that were updated after the last snapshot, and the index stays marked as not ready.
+ */
+public class MemoryChangeIndexRecovery implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static class Module extends LifecycleModule {
+    @Override
+    protected void configure() {
+      listener().to(MemoryChangeIndexRecovery.class);
+    }
+  }
+
+  private final ChangeIndexCollection indexes;
+  private final VersionManager versionManager;
+
+  @Inject
+  MemoryChangeIndexRecovery(ChangeIndexCollection indexes, VersionManager versionManager) {
+    this.indexes = indexes;
+    this.versionManager = versionManager;
+  }
+
+  @Override
+  public void start() {
+    for (ChangeIndex index : indexes.getWriteIndexes()) {
+      if (index instanceof MemoryChangeIndex && ((MemoryChangeIndex) index).needsReindex()) {
+        logger.atWarning().log(
+            "Reindexing all changes to restore change index %d",
+            index.getSchema().getVersion());
+        try {
+          versionManager.startReindexer(ChangeSchemaDefinitions.NAME, true);
+        } catch (ReindexerAlreadyRunningException e) {
+          logger.atInfo().log("Changes are already being reindexed");
+        }
+        return;
+      }
+    }
+  }
+
+  @Override
+  public void stop() {
+    // Do nothing; the reindexer stops with the server.
+  }
+}
@@ -0,0 +1,322 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Iterables;
+import com.google.gerrit.exceptions.StorageException;
+import com.google.gerrit.index.FieldType;
+import com.google.gerrit.index.Schema;
+import com.google.gerrit.index.SchemaFieldDefs.SchemaField;
+import com.google.gerrit.server.index.change.ChangeField;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+/**
+ * Documents and postings of the in-memory change index.
+ *
+ * <p>Every document is assigned a slot, an integer that identifies it in all postings. Slots of
+ * deleted documents are reused, so the postings stay dense. Documents are keyed by change number
+ * through a plain array, which is small since change numbers are allocated sequentially.
+ *
+ * <p>Values of exact, prefix and full-text fields are kept in per-field sorted term dictionaries,
+ * values of numeric and timestamp fields in per-field sorted maps, each pointing to the {@link
+ * MemoryPostings} of the value. Full-text values are tokenized with the same analyzer as in the
+ * Lucene index.
+ *
+ * <p>Not thread-safe; callers must synchronize access.
+ */
+final class MemoryDocuments {
+  /** Sort key of a document, ordering documents like the Lucene change index does. */
+  static final class SortKey {
+    static final Comparator<SortKey> ORDER =
+        Comparator.<SortKey>comparingLong(k -> k.updated)
+            .thenComparingLong(k -> k.mergedOn)
+            .thenComparingInt(k -> k.changeNumber)
+            .reversed();
+
+    final long updated;
+    final long mergedOn;
+    final int changeNumber;
+
+    SortKey(long updated, long mergedOn, int changeNumber) {
+      this.updated = updated;
+      this.mergedOn = mergedOn;
+      this.changeNumber = changeNumber;
+    }
+  }
+
+  private static final String ID_FIELD = ChangeField.LEGACY_ID_STR.getName();
+  private static final String UPDATED_FIELD = ChangeField.UPDATED.getName();
+  private static final String MERGED_ON_FIELD = ChangeField.MERGED_ON_SPEC.getName();
+
+  private final Schema<?> schema;
+  private final Analyzer analyzer;
+  private final List<ImmutableListMultimap<String, Object>> docs = new ArrayList<>();
+  private final BitSet live = new BitSet();
+  private final Map<String, NavigableMap<String, MemoryPostings>> terms = new HashMap<>();
+  private final Map<String, NavigableMap<Long, MemoryPostings>> numbers = new HashMap<>();
+
+  /** Slot plus one of each change number, zero if there is no document for the change. */
+  private int[] slotByChangeNumber = new int[0];
+
+  private SortKey[] sortKeys = new SortKey[0];
+
+  MemoryDocuments(Schema<?> schema, Analyzer analyzer) {
+    this.schema = schema;
+    this.analyzer = analyzer;
+  }
+
+  int size() {
+    return live.cardinality();
+  }
+
+  /** Returns the slots of all documents. */
+  BitSet all() {
+    return (BitSet) live.clone();
+  }
+
+  ImmutableListMultimap<String, Object> get(int slot) {
+    return docs.get(slot);
+  }
+
+  SortKey sortKey(int slot) {
+    return sortKeys[slot];
+  }
+
+  /** Returns all documents, in no particular order. */
+  List<ImmutableListMultimap<String, Object>> documents() {
+    List<ImmutableListMultimap<String, Object>> result = new ArrayList<>(size());
+    for (int slot = live.nextSetBit(0); slot >= 0; slot = live.nextSetBit(slot + 1)) {
+      result.add(docs.get(slot));
+    }
+    return result;
+  }
+
+  /**
+   * Adds a document, replacing the existing document of the same change.
+   *
+   * @param doc field values of the document, by field name, as built by the schema.
+   */
+  void put(ImmutableListMultimap<String, Object> doc) {
+    int changeNumber = changeNumber(doc);
+    remove(changeNumber);
+
+    int slot = live.nextClearBit(0);
+    live.set(slot);
+    if (slot == docs.size()) {
+      docs.add(doc);
+    } else {
+      docs.set(slot, doc);
+    }
+    if (changeNumber >= slotByChangeNumber.length) {
+      int length = Math.max(changeNumber + 1, slotByChangeNumber.length * 2);
+      slotByChangeNumber = Arrays.copyOf(slotByChangeNumber, length);
+    }
+    slotByChangeNumber[changeNumber] = slot + 1;
+    if (slot >= sortKeys.length) {
+      sortKeys = Arrays.copyOf(sortKeys, Math.max(slot + 1, sortKeys.length * 2));
+    }
+    sortKeys[slot] =
+        new SortKey(
+            timestamp(doc, UPDATED_FIELD), timestamp(doc, MERGED_ON_FIELD), changeNumber);
+
+    for (Map.Entry<String, Object> e : doc.entries()) {
+      String name = e.getKey();
+      FieldType<?> type = type(name);
+      if (type == FieldType.FULL_TEXT) {
+        for (String token : analyze(name, (String) e.getValue())) {
+          termPostings(name, token).add(slot);
+        }
+      } else if (type == FieldType.EXACT || type == FieldType.PREFIX) {
+        termPostings(name, (String) e.getValue()).add(slot);
+      } else if (type != FieldType.STORED_ONLY) {
+        numberPostings(name, toLong(e.getValue())).add(slot);
+      }
+    }
+  }
+
+  /** Removes the document of the given change, if there is one. */
+  void remove(int changeNumber) {
+    if (changeNumber < 0 || changeNumber >= slotByChangeNumber.length) {
+      return;
+    }
+    int slot = slotByChangeNumber[changeNumber] - 1;
+    if (slot < 0) {
+      return;
+    }
+    ImmutableListMultimap<String, Object> doc = docs.get(slot);
+    for (Map.Entry<String, Object> e : doc.entries()) {
+      String name = e.getKey();
+      FieldType<?> type = type(name);
+      if (type == FieldType.FULL_TEXT) {
+        for (String token : analyze(name, (String) e.getValue())) {
+          removePosting(terms, name, token, slot);
+        }
+      } else if (type == FieldType.EXACT || type == FieldType.PREFIX) {
+        removePosting(terms, name, (String) e.getValue(), slot);
+      } else if (type != FieldType.STORED_ONLY) {
+        removePosting(numbers, name, toLong(e.getValue()), slot);
+      }
+    }
+    slotByChangeNumber[changeNumber] = 0;
+    docs.set(slot, null);
+    sortKeys[slot] = null;
+    live.clear(slot);
+  }
+
+  void clear() {
+    docs.clear();
+    live.clear();
+    terms.clear();
+    numbers.clear();
+    slotByChangeNumber = new int[0];
+    sortKeys = new SortKey[0];
+  }
+
+  /** Returns the slots of documents with the given term in the given field. */
+  BitSet term(String field, String term) {
+    NavigableMap<String, MemoryPostings> dict = terms.get(field);
+    MemoryPostings postings = dict != null ? dict.get(term) : null;
+    return postings != null ? postings.toBitSet() : new BitSet();
+  }
+
+  /** Returns the slots of documents with a term starting with the given prefix. */
+  BitSet prefix(String field, String prefix) {
+    BitSet result = new BitSet();
+    NavigableMap<String, MemoryPostings> dict = terms.get(field);
+    if (dict == null) {
+      return result;
+    }
+    for (Map.Entry<String, MemoryPostings> e : dict.tailMap(prefix, true).entrySet()) {
+      if (!e.getKey().startsWith(prefix)) {
+        break;
+      }
+      e.getValue().addTo(result);
+    }
+    return result;
+  }
+
+  /** Returns the slots of documents with a term matching the given condition. */
+  BitSet matching(String field, Predicate<String> condition) {
+    BitSet result = new BitSet();
+    NavigableMap<String, MemoryPostings> dict = terms.get(field);
+    if (dict == null) {
+      return result;
+    }
+    for (Map.Entry<String, MemoryPostings> e : dict.entrySet()) {
+      if (condition.test(e.getKey())) {
+        e.getValue().addTo(result);
+      }
+    }
+    return result;
+  }
+
+  /** Returns the slots of documents with a numeric value in the given inclusive range. */
+  BitSet range(String field, long min, long max) {
+    BitSet result = new BitSet();
+    NavigableMap<Long, MemoryPostings> dict = numbers.get(field);
+    if (dict == null || min > max) {
+      return result;
+    }
+    for (MemoryPostings postings : dict.subMap(min, true, max, true).values()) {
+      postings.addTo(result);
+    }
+    return result;
+  }
+
+  /** Splits a full-text value into the tokens under which it is indexed. */
+  List<String> analyze(String field, String text) {
+    List<String> tokens = new ArrayList<>();
+    try (TokenStream ts = analyzer.tokenStream(field, text)) {
+      CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+      ts.reset();
+      while (ts.incrementToken()) {
+        tokens.add(term.toString());
+      }
+      ts.end();
+    } catch (IOException e) {
+      throw new StorageException("cannot analyze value of field " + field, e);
+    }
+    return tokens;
+  }
+
+  private FieldType<?> type(String name) {
+    SchemaField<?, ?> field = schema.getSchemaField(name);
+    return field != null ? field.getType() : FieldType.STORED_ONLY;
+  }
+
+  private MemoryPostings termPostings(String field, String term) {
+    return terms
+        .computeIfAbsent(field, f -> new TreeMap<>())
+        .computeIfAbsent(term, t -> new MemoryPostings());
+  }
+
+  private MemoryPostings numberPostings(String field, long value) {
+    return numbers
+        .computeIfAbsent(field, f -> new TreeMap<>())
+        .computeIfAbsent(value, v -> new MemoryPostings());
+  }
+
+  private static <K> void removePosting(
+      Map<String, NavigableMap<K, MemoryPostings>> dicts, String field, K key, int slot) {
+    NavigableMap<K, MemoryPostings> dict = dicts.get(field);
+    if (dict == null) {
+      return;
+    }
+    MemoryPostings postings = dict.get(key);
+    if (postings == null) {
+      return;
+    }
+    postings.remove(slot);
+    if (postings.isEmpty()) {
+      dict.remove(key);
+    }
+  }
+
+  static int changeNumber(ImmutableListMultimap<String, Object> doc) {
+    Object id = Iterables.getOnlyElement(doc.get(ID_FIELD), null);
+    if (id == null) {
+      throw new IllegalArgumentException("document without " + ID_FIELD);
+    }
+    return Integer.parseInt((String) id);
+  }
+
+  private static long timestamp(ImmutableListMultimap<String, Object> doc, String field) {
+    // Like in the Lucene index, documents without a value sort as if the value was zero.
+    Object v = Iterables.getFirst(doc.get(field), null);
+    return v != null ? toLong(v) : 0;
+  }
+
+  static long toLong(Object value) {
+    if (value instanceof Timestamp) {
+      return ((Timestamp) value).getTime();
+    }
+    return ((Number) value).longValue();
+  }
+}
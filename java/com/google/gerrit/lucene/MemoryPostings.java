@@ -0,0 +1,103 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Slots of the documents of an in-memory index that contain a single term.
+ *
+ * <p>Most terms (commit SHA-1s, file paths, Change-Ids) occur in very few documents, so postings
+ * start out as a sorted array of slots. Once the array would take more memory than a bitset over
+ * all slots up to the largest one, the postings switch to a bitset.
+ *
+ * <p>Not thread-safe.
+ */
+final class MemoryPostings {
+  private int[] slots = new int[2];
+  private int size;
+  private BitSet bits;
+
+  void add(int slot) {
+    if (bits != null) {
+      if (!bits.get(slot)) {
+        bits.set(slot);
+        size++;
+      }
+      return;
+    }
+    int i = Arrays.binarySearch(slots, 0, size, slot);
+    if (i >= 0) {
+      return;
+    }
+    i = -(i + 1);
+    if (size == slots.length) {
+      slots = Arrays.copyOf(slots, size * 2);
+    }
+    System.arraycopy(slots, i, slots, i + 1, size - i);
+    slots[i] = slot;
+    size++;
+
+    int maxSlot = slots[size - 1];
+    if ((long) size * Integer.SIZE > maxSlot + 1L) {
+      bits = new BitSet(maxSlot + 1);
+      for (int j = 0; j < size; j++) {
+        bits.set(slots[j]);
+      }
+      slots = null;
+    }
+  }
+
+  void remove(int slot) {
+    if (bits != null) {
+      if (bits.get(slot)) {
+        bits.clear(slot);
+        size--;
+      }
+      return;
+    }
+    int i = Arrays.binarySearch(slots, 0, size, slot);
+    if (i >= 0) {
+      System.arraycopy(slots, i + 1, slots, i, size - i - 1);
+      size--;
+    }
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /** Adds the slots of these postings to the given bitset. */
+  void addTo(BitSet result) {
+    if (bits != null) {
+      result.or(bits);
+      return;
+    }
+    for (int i = 0; i < size; i++) {
+      result.set(slots[i]);
+    }
+  }
+
+  BitSet toBitSet() {
+    BitSet result = new BitSet();
+    addTo(result);
+    return result;
+  }
+}
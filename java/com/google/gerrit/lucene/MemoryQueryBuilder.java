@@ -0,0 +1,249 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.gerrit.index.FieldType;
+import com.google.gerrit.index.Schema;
+import com.google.gerrit.index.query.AndPredicate;
+import com.google.gerrit.index.query.IndexPredicate;
+import com.google.gerrit.index.query.IntegerRangePredicate;
+import com.google.gerrit.index.query.NotPredicate;
+import com.google.gerrit.index.query.OrPredicate;
+import com.google.gerrit.index.query.PostFilterPredicate;
+import com.google.gerrit.index.query.Predicate;
+import com.google.gerrit.index.query.QueryParseException;
+import com.google.gerrit.index.query.RegexPredicate;
+import com.google.gerrit.index.query.TimestampRangePredicate;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import org.apache.lucene.util.automaton.RegExp;
+import org.apache.lucene.util.automaton.TooComplexToDeterminizeException;
+
+/**
+ * Evaluates index predicates against {@link MemoryDocuments}.
+ *
+ * <p>The semantics are the same as those of the queries built by {@link QueryBuilder} for the
+ * Lucene index, including the Lucene regular expression syntax and the analysis of full-text
+ * values, so that both backends return the same results for the same predicate.
+ */
+class MemoryQueryBuilder<V> {
+  private final Schema<V> schema;
+  private final MemoryDocuments docs;
+
+  MemoryQueryBuilder(Schema<V> schema, MemoryDocuments docs) {
+    this.schema = schema;
+    this.docs = docs;
+  }
+
+  /**
+   * Returns the slots of all documents matching the given predicate.
+   *
+   * <p>Must be called while holding the lock guarding the documents.
+   */
+  BitSet toBitSet(Predicate<V> p) throws QueryParseException {
+    if (p instanceof AndPredicate) {
+      return and(p);
+    } else if (p instanceof OrPredicate) {
+      return or(p);
+    } else if (p instanceof NotPredicate) {
+      return not(p);
+    } else if (p instanceof IndexPredicate) {
+      return fieldQuery((IndexPredicate<V>) p);
+    } else if (p instanceof PostFilterPredicate) {
+      return docs.all();
+    } else {
+      throw new QueryParseException("cannot create query for index: " + p);
+    }
+  }
+
+  private BitSet or(Predicate<V> p) throws QueryParseException {
+    BitSet result = new BitSet();
+    for (int i = 0; i < p.getChildCount(); i++) {
+      result.or(toBitSet(p.getChild(i)));
+    }
+    return result;
+  }
+
+  private BitSet and(Predicate<V> p) throws QueryParseException {
+    BitSet result = null;
+    BitSet not = new BitSet();
+    for (int i = 0; i < p.getChildCount(); i++) {
+      Predicate<V> c = p.getChild(i);
+      BitSet bits;
+      if (c instanceof NotPredicate) {
+        Predicate<V> n = c.getChild(0);
+        if (!(n instanceof TimestampRangePredicate)) {
+          not.or(toBitSet(n));
+          continue;
+        }
+        bits = notTimestamp((TimestampRangePredicate<V>) n);
+      } else {
+        bits = toBitSet(c);
+      }
+      if (result == null) {
+        result = bits;
+      } else {
+        result.and(bits);
+      }
+    }
+    if (result == null) {
+      // Only negations, which Lucene evaluates against all documents.
+      result = docs.all();
+    }
+    result.andNot(not);
+    return result;
+  }
+
+  private BitSet not(Predicate<V> p) throws QueryParseException {
+    Predicate<V> n = p.getChild(0);
+    if (n instanceof TimestampRangePredicate) {
+      return notTimestamp((TimestampRangePredicate<V>) n);
+    }
+    BitSet result = docs.all();
+    result.andNot(toBitSet(n));
+    return result;
+  }
+
+  private BitSet fieldQuery(IndexPredicate<V> p) throws QueryParseException {
+    checkArgument(
+        schema.hasField(p.getField()),
+        "field not in schema v%s: %s",
+        schema.getVersion(),
+        p.getField().getName());
+    FieldType<?> type = p.getType();
+    if (type == FieldType.INTEGER) {
+      return intQuery(p);
+    } else if (type == FieldType.INTEGER_RANGE) {
+      return intRangeQuery(p);
+    } else if (type == FieldType.TIMESTAMP) {
+      return timestampQuery(p);
+    } else if (type == FieldType.EXACT) {
+      return exactQuery(p);
+    } else if (type == FieldType.PREFIX) {
+      return docs.prefix(p.getField().getName(), p.getValue());
+    } else if (type == FieldType.FULL_TEXT) {
+      return fullTextQuery(p);
+    } else {
+      throw FieldType.badFieldType(type);
+    }
+  }
+
+  private BitSet intQuery(IndexPredicate<V> p) throws QueryParseException {
+    int value;
+    try {
+      value = Integer.parseInt(p.getValue());
+    } catch (NumberFormatException e) {
+      throw new QueryParseException("not an integer: " + p.getValue(), e);
+    }
+    return docs.range(p.getField().getName(), value, value);
+  }
+
+  private BitSet intRangeQuery(IndexPredicate<V> p) throws QueryParseException {
+    if (p instanceof IntegerRangePredicate) {
+      IntegerRangePredicate<V> r = (IntegerRangePredicate<V>) p;
+      return docs.range(r.getField().getName(), r.getMinimumValue(), r.getMaximumValue());
+    }
+    throw new QueryParseException("not an integer range: " + p);
+  }
+
+  private BitSet timestampQuery(IndexPredicate<V> p) throws QueryParseException {
+    if (p instanceof TimestampRangePredicate) {
+      TimestampRangePredicate<V> r = (TimestampRangePredicate<V>) p;
+      return docs.range(
+          r.getField().getName(),
+          r.getMinTimestamp().toEpochMilli(),
+          r.getMaxTimestamp().toEpochMilli());
+    }
+    throw new QueryParseException("not a timestamp: " + p);
+  }
+
+  private BitSet notTimestamp(TimestampRangePredicate<V> r) throws QueryParseException {
+    if (r.getMinTimestamp().toEpochMilli() == 0) {
+      return docs.range(
+          r.getField().getName(), r.getMaxTimestamp().toEpochMilli(), Long.MAX_VALUE);
+    }
+    throw new QueryParseException("cannot negate: " + r);
+  }
+
+  private BitSet exactQuery(IndexPredicate<V> p) throws QueryParseException {
+    if (p instanceof RegexPredicate<?>) {
+      return regexQuery(p);
+    }
+    return docs.term(p.getField().getName(), p.getValue());
+  }
+
+  private BitSet regexQuery(IndexPredicate<V> p) throws QueryParseException {
+    String re = p.getValue();
+    if (re.startsWith("^")) {
+      re = re.substring(1);
+    }
+    if (re.endsWith("$") && !re.endsWith("\\$")) {
+      re = re.substring(0, re.length() - 1);
+    }
+    CharacterRunAutomaton automaton;
+    try {
+      automaton = new CharacterRunAutomaton(new RegExp(re).toAutomaton());
+    } catch (IllegalArgumentException | TooComplexToDeterminizeException e) {
+      throw new QueryParseException("invalid regular expression: " + p.getValue(), e);
+    }
+    return docs.matching(p.getField().getName(), automaton::run);
+  }
+
+  private BitSet fullTextQuery(IndexPredicate<V> p) throws QueryParseException {
+    String value = p.getValue();
+    if (value == null) {
+      throw new QueryParseException("Full-text search over empty string not supported");
+    }
+    String name = p.getField().getName();
+    List<String> phrase = docs.analyze(name, value);
+    if (phrase.isEmpty()) {
+      throw new QueryParseException("Cannot create full-text query with value: " + value);
+    }
+
+    BitSet result = null;
+    for (String token : phrase) {
+      BitSet bits = docs.term(name, token);
+      if (result == null) {
+        result = bits;
+      } else {
+        result.and(bits);
+      }
+    }
+    if (phrase.size() == 1) {
+      return result;
+    }
+
+    // All tokens occur in the candidates, check that they occur as a phrase in one of the values.
+    for (int slot = result.nextSetBit(0); slot >= 0; slot = result.nextSetBit(slot + 1)) {
+      if (!containsPhrase(docs.get(slot).get(name), name, phrase)) {
+        result.clear(slot);
+      }
+    }
+    return result;
+  }
+
+  private boolean containsPhrase(List<Object> values, String name, List<String> phrase) {
+    for (Object value : values) {
+      if (Collections.indexOfSubList(docs.analyze(name, (String) value), phrase) >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,179 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.google.common.collect.ImmutableListMultimap;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk snapshot of the documents of the in-memory change index.
+ *
+ * <p>The snapshot only contains the field values of the documents, the postings are rebuilt when
+ * it is loaded. Snapshots are written to a temporary file which then atomically replaces the
+ * previous snapshot, so a crash while writing never leaves a truncated snapshot behind.
+ */
+final class MemorySnapshot {
+  private static final int MAGIC = 0x4d454d49; // "MEMI"
+  private static final int FORMAT_VERSION = 1;
+
+  private static final byte INTEGER = 'I';
+  private static final byte LONG = 'J';
+  private static final byte TIMESTAMP = 'T';
+  private static final byte STRING = 'S';
+  private static final byte BYTES = 'B';
+
+  /**
+   * Writes a snapshot of the given documents.
+   *
+   * @param file snapshot file, replaced atomically.
+   * @param schemaVersion version of the schema the documents were built with.
+   * @param docs documents to write.
+   */
+  static void write(
+      Path file, int schemaVersion, Collection<ImmutableListMultimap<String, Object>> docs)
+      throws IOException {
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(schemaVersion);
+      out.writeInt(docs.size());
+      for (ImmutableListMultimap<String, Object> doc : docs) {
+        Map<String, Collection<Object>> fields = doc.asMap();
+        out.writeInt(fields.size());
+        for (Map.Entry<String, Collection<Object>> field : fields.entrySet()) {
+          out.writeUTF(field.getKey());
+          out.writeInt(field.getValue().size());
+          for (Object value : field.getValue()) {
+            writeValue(out, value);
+          }
+        }
+      }
+    }
+    Files.move(tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+  }
+
+  /**
+   * Reads a snapshot.
+   *
+   * @param file snapshot file.
+   * @param schemaVersion expected version of the schema.
+   * @return documents in the snapshot.
+   * @throws IOException if the snapshot can't be read or was written for a different schema.
+   */
+  static List<ImmutableListMultimap<String, Object>> read(Path file, int schemaVersion)
+      throws IOException {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("not an index snapshot: " + file);
+      }
+      int format = in.readInt();
+      if (format != FORMAT_VERSION) {
+        throw new IOException("unsupported snapshot format " + format + ": " + file);
+      }
+      int version = in.readInt();
+      if (version != schemaVersion) {
+        throw new IOException(
+            String.format(
+                "snapshot %s has schema version %d, expected %d", file, version, schemaVersion));
+      }
+      int count = in.readInt();
+      List<ImmutableListMultimap<String, Object>> docs = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        ImmutableListMultimap.Builder<String, Object> doc = ImmutableListMultimap.builder();
+        int fields = in.readInt();
+        for (int f = 0; f < fields; f++) {
+          String name = in.readUTF();
+          int values = in.readInt();
+          for (int v = 0; v < values; v++) {
+            doc.put(name, readValue(in));
+          }
+        }
+        docs.add(doc.build());
+      }
+      return docs;
+    }
+  }
+
+  private static void writeValue(DataOutputStream out, Object value) throws IOException {
+    if (value instanceof Integer) {
+      out.writeByte(INTEGER);
+      out.writeInt((Integer) value);
+    } else if (value instanceof Long) {
+      out.writeByte(LONG);
+      out.writeLong((Long) value);
+    } else if (value instanceof Timestamp) {
+      out.writeByte(TIMESTAMP);
+      out.writeLong(((Timestamp) value).getTime());
+    } else if (value instanceof String) {
+      // Not writeUTF, values may be longer than 64k.
+      out.writeByte(STRING);
+      writeBytes(out, ((String) value).getBytes(UTF_8));
+    } else if (value instanceof byte[]) {
+      out.writeByte(BYTES);
+      writeBytes(out, (byte[]) value);
+    } else {
+      throw new IOException("unsupported value type: " + value.getClass().getName());
+    }
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] b) throws IOException {
+    out.writeInt(b.length);
+    out.write(b);
+  }
+
+  private static Object readValue(DataInputStream in) throws IOException {
+    byte tag = in.readByte();
+    switch (tag) {
+      case INTEGER:
+        return in.readInt();
+      case LONG:
+        return in.readLong();
+      case TIMESTAMP:
+        return new Timestamp(in.readLong());
+      case STRING:
+        return new String(readBytes(in), UTF_8);
+      case BYTES:
+        return readBytes(in);
+      default:
+        throw new IOException("unsupported value tag: " + tag);
+    }
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    byte[] b = new byte[in.readInt()];
+    in.readFully(b);
+    return b;
+  }
+
+  private MemorySnapshot() {}
+}
@@ -0,0 +1,98 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.collect.Iterables;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.index.StoredValue;
+import com.google.protobuf.MessageLite;
+import java.sql.Timestamp;
+import java.util.List;
+
+/** Bridge to recover fields from the in-memory index. */
+class MemoryStoredValue implements StoredValue {
+  /** Values as built by the schema, so that repeated and non-repeated fields are covered. */
+  private final List<Object> field;
+
+  MemoryStoredValue(List<Object> field) {
+    this.field = field;
+  }
+
+  @Nullable
+  @Override
+  public String asString() {
+    return Iterables.getFirst(asStrings(), null);
+  }
+
+  @Override
+  public Iterable<String> asStrings() {
+    return field.stream().map(String.class::cast).collect(toImmutableList());
+  }
+
+  @Nullable
+  @Override
+  public Integer asInteger() {
+    return Iterables.getFirst(asIntegers(), null);
+  }
+
+  @Override
+  public Iterable<Integer> asIntegers() {
+    return field.stream().map(f -> ((Number) f).intValue()).collect(toImmutableList());
+  }
+
+  @Nullable
+  @Override
+  public Long asLong() {
+    return Iterables.getFirst(asLongs(), null);
+  }
+
+  @Override
+  public Iterable<Long> asLongs() {
+    return field.stream().map(MemoryDocuments::toLong).collect(toImmutableList());
+  }
+
+  @Nullable
+  @Override
+  public Timestamp asTimestamp() {
+    return asLong() == null ? null : new Timestamp(asLong());
+  }
+
+  @Nullable
+  @Override
+  public byte[] asByteArray() {
+    return Iterables.getFirst(asByteArrays(), null);
+  }
+
+  @Override
+  public Iterable<byte[]> asByteArrays() {
+    // Values are shared by all readers of the index, hand out copies.
+    return field.stream().map(f -> ((byte[]) f).clone()).collect(toImmutableList());
+  }
+
+  @Override
+  @Nullable
+  public MessageLite asProto() {
+    // Like Lucene, the in-memory index stores serialized protos.
+    return null;
+  }
+
+  @Override
+  @Nullable
+  public Iterable<MessageLite> asProtos() {
+    return null;
+  }
+}
@@ -0,0 +1,80 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.util.RequestContext;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.ExecutorService;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Executors for searching the sub-indexes and segments of a Lucene index in parallel.
+ *
+ * <p>Interactive queries, run on behalf of a user, and queries run by background tasks use
+ * separate thread pools, so that bulk callers can't take away the cores needed to answer users
+ * quickly. The size of the pools is configured by {@code index.searchThreads} and {@code
+ * index.batchSearchThreads}; a non-positive value disables parallel search for that kind of
+ * query.
+ *
+ * <p>Tasks submitted to these executors must never wait for other tasks of the same executor,
+ * otherwise a saturated pool would deadlock.
+ */
+@Singleton
+class SearchExecutor {
+  @Nullable private final ExecutorService interactive;
+  @Nullable private final ExecutorService batch;
+  private final ThreadLocalRequestContext requestContext;
+
+  @Inject
+  SearchExecutor(
+      @GerritServerConfig Config cfg,
+      WorkQueue workQueue,
+      ThreadLocalRequestContext requestContext) {
+    this.requestContext = requestContext;
+    int interactiveThreads =
+        cfg.getInt("index", null, "searchThreads", Runtime.getRuntime().availableProcessors() / 2);
+    int batchThreads = cfg.getInt("index", null, "batchSearchThreads", 1);
+    interactive =
+        interactiveThreads > 0
+            ? workQueue.createQueue(interactiveThreads, "Index-Search-Interactive", true)
+            : null;
+    batch =
+        batchThreads > 0
+            ? workQueue.createQueue(batchThreads, "Index-Search-Batch", true)
+            : null;
+  }
+
+  /**
+   * Returns the executor to use for queries of the calling thread.
+   *
+   * <p>Must be called on the thread that handles the request, not on an index executor thread, as
+   * the kind of query is determined by the current request context.
+   *
+   * @return the executor, or null if the query should be executed sequentially.
+   */
+  @Nullable
+  ExecutorService forCurrentRequest() {
+    RequestContext ctx = requestContext.getContext();
+    if (ctx == null || ctx.getUser().isInternalUser()) {
+      return batch;
+    }
+    return interactive;
+  }
+}
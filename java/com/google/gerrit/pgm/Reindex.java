@@ -184,6 +184,10 @@ public class Reindex extends SiteProgram {
       indexModule =
           LuceneIndexModule.singleVersionWithExplicitVersions(
               versions, threads, replica, AutoFlush.DISABLED);
+    } else if (indexType.isMemory()) {
+      indexModule =
+          LuceneIndexModule.singleVersionWithChangesInMemory(
+              versions, threads, replica, AutoFlush.DISABLED);
     } else if (indexType.isFake()) {
       // Use Reflection so that we can omit the fake index binary in production code. Test code does
       // compile the component in.
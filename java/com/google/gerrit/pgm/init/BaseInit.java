@@ -416,7 +416,7 @@ public class BaseInit extends SiteProgram {
       Injector dbInjector = createDbInjector();
 
       IndexType indexType = IndexModule.getIndexType(dbInjector);
-      if (indexType.isLucene()) {
+      if (indexType.isLucene() || indexType.isMemory()) {
         modules.add(new LuceneIndexModuleOnInit());
       } else if (indexType.isFake()) {
         try {
@@ -56,7 +56,7 @@ class InitIndex implements InitStep {
         new IndexType(
             index.select("Type", "type", IndexType.getDefault(), IndexType.getKnownTypes()));
 
-    if ((site.isNew || isEmptySite()) && type.isLucene()) {
+    if ((site.isNew || isEmptySite()) && (type.isLucene() || type.isMemory())) {
       for (SchemaDefinitions<?> def : IndexModule.ALL_SCHEMA_DEFS) {
         IndexUtils.setReady(site, def.getName(), def.getLatest().getVersion(), true);
       }
@@ -25,8 +25,6 @@ import com.google.gerrit.server.group.SystemGroupBackend;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import java.util.ArrayList;
-import java.util.List;
 
 /** Limits which QoS a user runs as, and how many search results it can request. */
 public class AccountLimits {
@@ -44,12 +42,14 @@ public class AccountLimits {
     }
   }
 
-  private final CapabilityCollection capabilities;
-  private final CurrentUser user;
+  private final CapabilityCollection.UserCapabilities capabilities;
 
   private AccountLimits(ProjectCache projectCache, CurrentUser currentUser) {
-    capabilities = projectCache.getAllProjects().getCapabilityCollection();
-    user = currentUser;
+    capabilities =
+        projectCache
+            .getAllProjects()
+            .getCapabilityCollection()
+            .forUser(currentUser.getEffectiveGroups());
   }
 
   /** Returns which priority queue the user's tasks should be submitted to. */
@@ -61,26 +61,23 @@ public class AccountLimits {
     // the 'CI Servers' actually use the BATCH queue while everyone else gets
     // to use the INTERACTIVE queue without additional grants.
     //
-    GroupMembership groups = user.getEffectiveGroups();
     boolean batch = false;
-    for (PermissionRule r : capabilities.priority) {
-      if (match(groups, r)) {
-        switch (r.getAction()) {
-          case INTERACTIVE:
-            if (!SystemGroupBackend.isAnonymousOrRegistered(r.getGroup())) {
-              return QueueProvider.QueueType.INTERACTIVE;
-            }
-            break;
-
-          case BATCH:
-            batch = true;
-            break;
-
-          case ALLOW:
-          case BLOCK:
-          case DENY:
-            break;
-        }
+    for (PermissionRule r : capabilities.getRules(GlobalCapability.PRIORITY)) {
+      switch (r.getAction()) {
+        case INTERACTIVE:
+          if (!SystemGroupBackend.isAnonymousOrRegistered(r.getGroup())) {
+            return QueueProvider.QueueType.INTERACTIVE;
+          }
+          break;
+
+        case BATCH:
+          batch = true;
+          break;
+
+        case ALLOW:
+        case BLOCK:
+        case DENY:
+          break;
       }
     }
 
@@ -102,50 +99,12 @@ public class AccountLimits {
 
   /** Returns true if the user has a permission rule specifying the range. */
   public boolean hasExplicitRange(String permission) {
-    return GlobalCapability.hasRange(permission) && !getRules(permission).isEmpty();
+    return GlobalCapability.hasRange(permission) && !capabilities.getRules(permission).isEmpty();
   }
 
   /** The range of permitted values associated with a label permission. */
   @Nullable
   public PermissionRange getRange(String permission) {
-    if (GlobalCapability.hasRange(permission)) {
-      return toRange(permission, getRules(permission));
-    }
-    return null;
-  }
-
-  private static PermissionRange toRange(String permissionName, List<PermissionRule> ruleList) {
-    int min = 0;
-    int max = 0;
-    if (ruleList.isEmpty()) {
-      PermissionRange.WithDefaults defaultRange = GlobalCapability.getRange(permissionName);
-      if (defaultRange != null) {
-        min = defaultRange.getDefaultMin();
-        max = defaultRange.getDefaultMax();
-      }
-    } else {
-      for (PermissionRule rule : ruleList) {
-        min = Math.min(min, rule.getMin());
-        max = Math.max(max, rule.getMax());
-      }
-    }
-    return new PermissionRange(permissionName, min, max);
-  }
-
-  private List<PermissionRule> getRules(String permissionName) {
-    List<PermissionRule> rules = capabilities.getPermission(permissionName);
-    GroupMembership groups = user.getEffectiveGroups();
-
-    List<PermissionRule> mine = new ArrayList<>(rules.size());
-    for (PermissionRule rule : rules) {
-      if (match(groups, rule)) {
-        mine.add(rule);
-      }
-    }
-    return mine;
-  }
-
-  private static boolean match(GroupMembership groups, PermissionRule rule) {
-    return groups.contains(rule.getGroup().getUUID());
+    return capabilities.getRange(permission);
   }
 }
@@ -14,12 +14,15 @@
 
 package com.google.gerrit.server.account;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.data.GlobalCapability;
 import com.google.gerrit.entities.AccessSection;
+import com.google.gerrit.entities.AccountGroup;
 import com.google.gerrit.entities.GroupReference;
 import com.google.gerrit.entities.Permission;
 import com.google.gerrit.entities.PermissionRange;
@@ -41,9 +44,19 @@ public class CapabilityCollection {
     CapabilityCollection create(@Nullable AccessSection section);
   }
 
+  /** Maximum number of distinct group memberships for which capabilities are kept resolved. */
+  private static final int MAX_RESOLVED = 1024;
+
   private final SystemGroupBackend systemGroupBackend;
   private final ImmutableMap<String, ImmutableList<PermissionRule>> permissions;
 
+  /** Groups that any rule applies to. */
+  private final InternedGroupSet groups;
+
+  /** Resolved capabilities by the groups in {@link #groups} that users are members of. */
+  private final Cache<InternedGroupSet, UserCapabilities> resolved =
+      CacheBuilder.newBuilder().maximumSize(MAX_RESOLVED).build();
+
   public final ImmutableList<PermissionRule> administrateServer;
   public final ImmutableList<PermissionRule> batchChangesLimit;
   public final ImmutableList<PermissionRule> emailReviewers;
@@ -93,6 +106,16 @@ public class CapabilityCollection {
     }
     permissions = m.build();
 
+    ImmutableSet.Builder<AccountGroup.UUID> g = ImmutableSet.builder();
+    for (ImmutableList<PermissionRule> rules : permissions.values()) {
+      for (PermissionRule rule : rules) {
+        if (rule.getGroup().getUUID() != null) {
+          g.add(rule.getGroup().getUUID());
+        }
+      }
+    }
+    groups = InternedGroupSet.intern(g.build());
+
     administrateServer = getPermission(GlobalCapability.ADMINISTRATE_SERVER);
     batchChangesLimit = getPermission(GlobalCapability.BATCH_CHANGES_LIMIT);
     emailReviewers = getPermission(GlobalCapability.EMAIL_REVIEWERS);
@@ -125,6 +148,41 @@ public class CapabilityCollection {
     return r != null ? r : ImmutableList.of();
   }
 
+  /**
+   * Returns the capabilities of a user.
+   *
+   * <p>Capabilities only depend on the user's memberships in the groups that rules apply to, so
+   * that they are resolved once for all users with the same memberships in these groups. The
+   * memberships in these groups are looked up at once, so that backends can check them in a batch.
+   *
+   * @param membership the group membership of the user.
+   * @return the resolved capabilities.
+   */
+  public UserCapabilities forUser(GroupMembership membership) {
+    Set<AccountGroup.UUID> mine = membership.intersection(groups.uuids());
+    return resolved.asMap().computeIfAbsent(InternedGroupSet.of(mine), this::resolve);
+  }
+
+  private UserCapabilities resolve(InternedGroupSet mine) {
+    ImmutableMap.Builder<String, ImmutableList<PermissionRule>> rules = ImmutableMap.builder();
+    ImmutableSet.Builder<String> allowed = ImmutableSet.builder();
+    for (Map.Entry<String, ImmutableList<PermissionRule>> e : permissions.entrySet()) {
+      ImmutableList.Builder<PermissionRule> matching = ImmutableList.builder();
+      boolean allow = false;
+      for (PermissionRule rule : e.getValue()) {
+        if (mine.contains(rule.getGroup().getUUID())) {
+          matching.add(rule);
+          allow |= rule.getAction() == PermissionRule.Action.ALLOW;
+        }
+      }
+      rules.put(e.getKey(), matching.build());
+      if (allow) {
+        allowed.add(e.getKey());
+      }
+    }
+    return new UserCapabilities(rules.build(), allowed.build());
+  }
+
   private void configureDefaults(Map<String, List<PermissionRule>> out, AccessSection section) {
     configureDefault(
         out,
@@ -151,4 +209,67 @@ public class CapabilityCollection {
   private static boolean doesNotDeclare(AccessSection section, String capName) {
     return section.getPermission(capName) == null;
   }
+
+  /** Capabilities of users with a particular membership in the groups that rules apply to. */
+  public static class UserCapabilities {
+    private final ImmutableMap<String, ImmutableList<PermissionRule>> rules;
+    private final ImmutableSet<String> allowed;
+    private final ImmutableMap<String, PermissionRange> ranges;
+
+    private UserCapabilities(
+        ImmutableMap<String, ImmutableList<PermissionRule>> rules, ImmutableSet<String> allowed) {
+      this.rules = rules;
+      this.allowed = allowed;
+      ImmutableMap.Builder<String, PermissionRange> r = ImmutableMap.builder();
+      for (String name : GlobalCapability.getRangeNames()) {
+        r.put(name, toRange(name, getRules(name)));
+      }
+      this.ranges = r.build();
+    }
+
+    /** Returns the rules of a capability that apply to the user. */
+    public ImmutableList<PermissionRule> getRules(String permissionName) {
+      ImmutableList<PermissionRule> r = rules.get(permissionName);
+      return r != null ? r : ImmutableList.of();
+    }
+
+    /** Returns whether a rule that applies to the user allows the capability. */
+    public boolean isAllowed(String permissionName) {
+      return allowed.contains(permissionName);
+    }
+
+    /** Returns whether no rule that applies to the user denies or blocks the capability. */
+    public boolean isNotDenied(String permissionName) {
+      return getRules(permissionName).stream()
+          .allMatch(r -> r.getAction() == PermissionRule.Action.ALLOW);
+    }
+
+    /** Returns the range of a capability with a range, or null for other capabilities. */
+    @Nullable
+    public PermissionRange getRange(String permissionName) {
+      PermissionRange r = ranges.get(permissionName);
+      if (r == null && GlobalCapability.hasRange(permissionName)) {
+        r = toRange(permissionName, getRules(permissionName));
+      }
+      return r;
+    }
+
+    private static PermissionRange toRange(String permissionName, List<PermissionRule> ruleList) {
+      int min = 0;
+      int max = 0;
+      if (ruleList.isEmpty()) {
+        PermissionRange.WithDefaults defaultRange = GlobalCapability.getRange(permissionName);
+        if (defaultRange != null) {
+          min = defaultRange.getDefaultMin();
+          max = defaultRange.getDefaultMax();
+        }
+      } else {
+        for (PermissionRule rule : ruleList) {
+          min = Math.min(min, rule.getMin());
+          max = Math.max(max, rule.getMax());
+        }
+      }
+      return new PermissionRange(permissionName, min, max);
+    }
+  }
 }
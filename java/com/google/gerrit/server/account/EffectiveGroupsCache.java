@@ -0,0 +1,125 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.cache.Cache;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Shares the group memberships of identified users across requests.
+ *
+ * <p>Only memberships of group backends whose memberships depend on the account only are shared,
+ * see {@link GroupBackend#membershipsDependOnAccountOnly()}.
+ *
+ * <p>Group memberships are computed lazily and remember the results of membership checks, so that
+ * sharing them saves looking up the same groups, including groups of external group backends, on
+ * every request of a user.
+ *
+ * <p>Entries are keyed by the account ID, the revision of the account and a generation that is
+ * increased whenever the inclusions of groups change. Changes of the direct memberships of an
+ * account evict the entries of the account. Memberships in external group backends can't be
+ * observed, so that entries expire after a short time. Until then, shared memberships also keep
+ * the groups that the user was found not to be a member of.
+ */
+@Singleton
+public class EffectiveGroupsCache {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String CACHE_NAME = "effective_groups";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, Key.class, GroupMembership.class)
+            .maximumWeight(4096)
+            .expireAfterWrite(Duration.ofMinutes(1));
+        bind(EffectiveGroupsCache.class);
+      }
+    };
+  }
+
+  private final Cache<Key, GroupMembership> cache;
+  private final AtomicLong generation = new AtomicLong();
+
+  @Inject
+  EffectiveGroupsCache(@Named(CACHE_NAME) Cache<Key, GroupMembership> cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Returns the group memberships of a user.
+   *
+   * @param user the user.
+   * @param membershipsOf computes the group memberships of the user if they are not cached.
+   */
+  public GroupMembership get(
+      IdentifiedUser user, Function<IdentifiedUser, GroupMembership> membershipsOf) {
+    Key key = Key.create(user.getAccountId(), user.getAccount().metaId(), generation.get());
+    try {
+      return cache.get(key, () -> membershipsOf.apply(user));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      logger.atWarning().withCause(e).log(
+          "Cannot load group memberships of %s", user.getLoggableName());
+      return membershipsOf.apply(user);
+    }
+  }
+
+  /** Evicts the group memberships of an account, e.g. after its direct memberships changed. */
+  public void evict(@Nullable Account.Id accountId) {
+    if (accountId != null) {
+      cache.asMap().keySet().removeIf(k -> k.accountId().equals(accountId));
+    }
+  }
+
+  /**
+   * Evicts the group memberships of all accounts, e.g. after group inclusions changed.
+   *
+   * <p>Memberships that are being computed concurrently are not cached, since their keys refer to
+   * the previous generation.
+   */
+  public void evictAll() {
+    generation.incrementAndGet();
+    cache.invalidateAll();
+  }
+
+  @AutoValue
+  abstract static class Key {
+    abstract Account.Id accountId();
+
+    @Nullable
+    abstract String metaId();
+
+    abstract long generation();
+
+    static Key create(Account.Id accountId, @Nullable String metaId, long generation) {
+      return new AutoValue_EffectiveGroupsCache_Key(accountId, metaId, generation);
+    }
+  }
+}
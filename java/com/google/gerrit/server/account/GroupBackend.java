@@ -44,6 +44,15 @@ public interface GroupBackend {
   /** Returns the group membership checker for the backend. */
   GroupMembership membershipsOf(CurrentUser user);
 
+  /**
+   * Returns {@code true} if the memberships of identified users only depend on their accounts, and
+   * not on the request, like properties of the session or the peer address. Memberships of such
+   * backends are shared across requests of the same account.
+   */
+  default boolean membershipsDependOnAccountOnly() {
+    return false;
+  }
+
   /** Returns {@code true} if the group with the given UUID is visible to all registered users. */
   boolean isVisibleToAll(AccountGroup.UUID uuid);
 }
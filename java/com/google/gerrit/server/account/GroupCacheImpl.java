@@ -216,6 +216,12 @@ public class GroupCacheImpl implements GroupCache {
     }
   }
 
+  /** Interns the UUID of a loaded group, see {@link InternedGroupSet}. */
+  private static Optional<InternalGroup> intern(Optional<InternalGroup> group) {
+    group.ifPresent(g -> InternedGroupSet.intern(ImmutableSet.of(g.getGroupUUID())));
+    return group;
+  }
+
   static class ByIdLoader extends CacheLoader<AccountGroup.Id, Optional<InternalGroup>> {
     private final Provider<InternalGroupQuery> groupQueryProvider;
 
@@ -229,7 +235,7 @@ public class GroupCacheImpl implements GroupCache {
       try (TraceTimer ignored =
           TraceContext.newTimer(
               "Loading group by ID", Metadata.builder().groupId(key.get()).build())) {
-        return groupQueryProvider.get().byId(key);
+        return intern(groupQueryProvider.get().byId(key));
       }
     }
   }
@@ -247,7 +253,7 @@ public class GroupCacheImpl implements GroupCache {
       try (TraceTimer ignored =
           TraceContext.newTimer(
               "Loading group by name", Metadata.builder().groupName(name).build())) {
-        return groupQueryProvider.get().byName(AccountGroup.nameKey(name));
+        return intern(groupQueryProvider.get().byName(AccountGroup.nameKey(name)));
       }
     }
   }
@@ -304,7 +310,7 @@ public class GroupCacheImpl implements GroupCache {
         }
       }
       persistedCache.getAll(keyList).entrySet().stream()
-          .forEach(g -> toReturn.put(g.getKey().getUuid(), Optional.of(g.getValue())));
+          .forEach(g -> toReturn.put(g.getKey().getUuid(), intern(Optional.of(g.getValue()))));
       return toReturn;
     }
   }
@@ -37,6 +37,14 @@ public interface GroupIncludeCache {
    */
   Collection<AccountGroup.UUID> parentGroupsOf(AccountGroup.UUID groupId);
 
+  /**
+   * Returns the groups that include a group directly or through other groups.
+   *
+   * @param groupId the UUID of the subgroup
+   * @return the UUIDs of all direct and indirect parent groups, not including {@code groupId}
+   */
+  Collection<AccountGroup.UUID> transitiveParentGroupsOf(AccountGroup.UUID groupId);
+
   /** Returns set of any UUIDs that are not internal groups. */
   Collection<AccountGroup.UUID> allExternalMembers();
 
@@ -17,15 +17,22 @@ package com.google.gerrit.server.account;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gerrit.entities.Account;
 import com.google.gerrit.entities.AccountGroup;
 import com.google.gerrit.entities.InternalGroup;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Histogram0;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
 import com.google.gerrit.proto.Protos;
 import com.google.gerrit.server.cache.CacheModule;
 import com.google.gerrit.server.cache.proto.Cache.AllExternalGroupsProto;
@@ -43,9 +50,15 @@ import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
 import com.google.inject.name.Named;
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 /** Tracks group inclusions in memory for efficient access. */
 @Singleton
@@ -53,6 +66,7 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   private static final String PARENT_GROUPS_NAME = "groups_bysubgroup";
+  private static final String TRANSITIVE_PARENT_GROUPS_NAME = "groups_bysubgroup_transitive";
   private static final String GROUPS_WITH_MEMBER_NAME = "groups_bymember";
   private static final String EXTERNAL_NAME = "groups_external";
   private static final String PERSISTED_EXTERNAL_NAME = "groups_external_persisted";
@@ -73,6 +87,12 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
                 new TypeLiteral<ImmutableList<AccountGroup.UUID>>() {})
             .loader(ParentGroupsLoader.class);
 
+        cache(
+                TRANSITIVE_PARENT_GROUPS_NAME,
+                AccountGroup.UUID.class,
+                new TypeLiteral<ImmutableSet<AccountGroup.UUID>>() {})
+            .loader(TransitiveParentGroupsLoader.class);
+
         /**
          * Splitting the groups external cache into 2 caches: The first one is in memory, used to
          * serve the callers and has a single constant key "EXTERNAL_NAME". The second one is
@@ -102,7 +122,16 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
 
   private final LoadingCache<Account.Id, ImmutableSet<AccountGroup.UUID>> groupsWithMember;
   private final LoadingCache<AccountGroup.UUID, ImmutableList<AccountGroup.UUID>> parentGroups;
+  private final LoadingCache<AccountGroup.UUID, ImmutableSet<AccountGroup.UUID>>
+      transitiveParentGroups;
   private final LoadingCache<String, ImmutableList<AccountGroup.UUID>> external;
+  private final EffectiveGroupsCache effectiveGroupsCache;
+
+  /**
+   * Incremented when parent groups are evicted, so that transitive parent groups that were loaded
+   * concurrently and were missed by the eviction can be detected.
+   */
+  private final AtomicLong parentGroupsGeneration = new AtomicLong();
 
   @Inject
   GroupIncludeCacheImpl(
@@ -110,10 +139,15 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
           LoadingCache<Account.Id, ImmutableSet<AccountGroup.UUID>> groupsWithMember,
       @Named(PARENT_GROUPS_NAME)
           LoadingCache<AccountGroup.UUID, ImmutableList<AccountGroup.UUID>> parentGroups,
-      @Named(EXTERNAL_NAME) LoadingCache<String, ImmutableList<AccountGroup.UUID>> external) {
+      @Named(TRANSITIVE_PARENT_GROUPS_NAME)
+          LoadingCache<AccountGroup.UUID, ImmutableSet<AccountGroup.UUID>> transitiveParentGroups,
+      @Named(EXTERNAL_NAME) LoadingCache<String, ImmutableList<AccountGroup.UUID>> external,
+      EffectiveGroupsCache effectiveGroupsCache) {
     this.groupsWithMember = groupsWithMember;
     this.parentGroups = parentGroups;
+    this.transitiveParentGroups = transitiveParentGroups;
     this.external = external;
+    this.effectiveGroupsCache = effectiveGroupsCache;
   }
 
   @Override
@@ -136,11 +170,30 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
     }
   }
 
+  @Override
+  public Collection<AccountGroup.UUID> transitiveParentGroupsOf(AccountGroup.UUID groupId) {
+    try {
+      long generation = parentGroupsGeneration.get();
+      ImmutableSet<AccountGroup.UUID> result = transitiveParentGroups.get(groupId);
+      if (parentGroupsGeneration.get() != generation) {
+        // Parent groups were evicted while the closure was loaded. The closure may have been
+        // computed from the evicted parent groups and stored after the eviction.
+        transitiveParentGroups.invalidate(groupId);
+        return transitiveClosure(groupId, parentGroups::getUnchecked);
+      }
+      return result;
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      logger.atWarning().withCause(e).log("Cannot load transitive parent groups of %s", groupId);
+      return ImmutableSet.of();
+    }
+  }
+
   @Override
   public void evictGroupsWithMember(Account.Id memberId) {
     if (memberId != null) {
       logger.atFine().log("Evict groups with member %d", memberId.get());
       groupsWithMember.invalidate(memberId);
+      effectiveGroupsCache.evict(memberId);
     }
   }
 
@@ -149,6 +202,14 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
     if (groupId != null) {
       logger.atFine().log("Evict parent groups of %s", groupId.get());
       parentGroups.invalidate(groupId);
+      parentGroupsGeneration.incrementAndGet();
+
+      // The parent groups of the group are part of the transitive parent groups of the group itself
+      // and of all groups that it includes, directly or indirectly. These are exactly the groups
+      // whose transitive parent groups contain the group. All other entries stay valid.
+      transitiveParentGroups.invalidate(groupId);
+      transitiveParentGroups.asMap().entrySet().removeIf(e -> e.getValue().contains(groupId));
+      effectiveGroupsCache.evictAll();
 
       if (!groupId.isInternalGroup()) {
         logger.atFine().log("Evict external group %s", groupId.get());
@@ -214,6 +275,78 @@ public class GroupIncludeCacheImpl implements GroupIncludeCache {
     }
   }
 
+  /**
+   * Computes the groups that transitively include a group, not counting the group itself.
+   *
+   * <p>Group inclusions may form cycles, so every group is only expanded once.
+   */
+  @VisibleForTesting
+  static ImmutableSet<AccountGroup.UUID> transitiveClosure(
+      AccountGroup.UUID groupId,
+      Function<AccountGroup.UUID, Collection<AccountGroup.UUID>> parentGroupsOf) {
+    Set<AccountGroup.UUID> result = new LinkedHashSet<>();
+    Deque<AccountGroup.UUID> queue = new ArrayDeque<>();
+    queue.add(groupId);
+    while (!queue.isEmpty()) {
+      for (AccountGroup.UUID parent : parentGroupsOf.apply(queue.remove())) {
+        if (parent != null && !parent.equals(groupId) && result.add(parent)) {
+          queue.add(parent);
+        }
+      }
+    }
+    return ImmutableSet.copyOf(result);
+  }
+
+  static class TransitiveParentGroupsLoader
+      extends CacheLoader<AccountGroup.UUID, ImmutableSet<AccountGroup.UUID>> {
+    private final LoadingCache<AccountGroup.UUID, ImmutableList<AccountGroup.UUID>> parentGroups;
+    private final Metrics metrics;
+
+    @Inject
+    TransitiveParentGroupsLoader(
+        @Named(PARENT_GROUPS_NAME)
+            LoadingCache<AccountGroup.UUID, ImmutableList<AccountGroup.UUID>> parentGroups,
+        Metrics metrics) {
+      this.parentGroups = parentGroups;
+      this.metrics = metrics;
+    }
+
+    @Override
+    public ImmutableSet<AccountGroup.UUID> load(AccountGroup.UUID key) {
+      try (TraceTimer timer =
+              TraceContext.newTimer(
+                  "Loading transitive parent groups",
+                  Metadata.builder().groupUuid(key.get()).build());
+          Timer0.Context ignored = metrics.loadLatency.start()) {
+        ImmutableSet<AccountGroup.UUID> result = transitiveClosure(key, parentGroups::getUnchecked);
+        metrics.closureSize.record(result.size());
+        return result;
+      }
+    }
+  }
+
+  @Singleton
+  static class Metrics {
+    final Timer0 loadLatency;
+    final Histogram0 closureSize;
+
+    @Inject
+    Metrics(MetricMaker metricMaker) {
+      loadLatency =
+          metricMaker.newTimer(
+              "group/transitive_parent_groups/load_latency",
+              new Description("Latency for computing the transitive parent groups of a group")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS));
+      closureSize =
+          metricMaker.newHistogram(
+              "group/transitive_parent_groups/size",
+              new Description("Distribution of the number of transitive parent groups of a group")
+                  .setCumulative()
+                  .setUnit("groups"));
+    }
+  }
+
   static class AllExternalInMemoryLoader
       extends CacheLoader<String, ImmutableList<AccountGroup.UUID>> {
     private final Cache<String, ImmutableList<AccountGroup.UUID>> persisted;
@@ -38,6 +38,17 @@ public interface GroupMembership {
    */
   boolean containsAnyOf(Iterable<AccountGroup.UUID> groupIds);
 
+  /**
+   * Returns {@code true} when the user this object was created for is a member of any of the
+   * specified groups.
+   *
+   * <p>Implementations that know the groups as interned IDs should override this method to check
+   * the groups with bit set operations.
+   */
+  default boolean containsAnyOf(InternedGroupSet groups) {
+    return containsAnyOf(groups.uuids());
+  }
+
   /**
    * Returns a set containing an input member of {@code contains(id)} is true.
    *
@@ -0,0 +1,58 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gerrit.entities.AccountGroup;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Canonical hash of the groups a user is a member of.
+ *
+ * <p>Users with the same fingerprint have the same known group memberships, hence all permission
+ * decisions that only depend on group membership are the same for them. This allows results of
+ * such decisions to be shared between users, e.g. between thousands of CI accounts that are all
+ * members of the same groups.
+ */
+public class GroupMembershipFingerprint {
+  /**
+   * Computes the fingerprint of the given group membership.
+   *
+   * <p>Only the {@link GroupMembership#getKnownGroups() known groups} are taken into account.
+   * Callers that must not share decisions between users whose memberships in other groups differ
+   * need to verify shared decisions.
+   *
+   * @param membership the group membership.
+   * @return the fingerprint, as hex string.
+   */
+  public static String of(GroupMembership membership) {
+    Set<String> uuids = new TreeSet<>();
+    for (AccountGroup.UUID uuid : membership.getKnownGroups()) {
+      uuids.add(uuid.get());
+    }
+    Hasher h = Hashing.murmur3_128().newHasher();
+    for (String uuid : uuids) {
+      h.putString(uuid, UTF_8);
+      h.putByte((byte) 0);
+    }
+    return h.hash().toString();
+  }
+
+  private GroupMembershipFingerprint() {}
+}
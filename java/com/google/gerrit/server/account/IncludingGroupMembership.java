@@ -16,8 +16,6 @@ package com.google.gerrit.server.account;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
 import com.google.gerrit.entities.AccountGroup;
 import com.google.gerrit.entities.InternalGroup;
 import com.google.gerrit.server.CurrentUser;
@@ -25,7 +23,6 @@ import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -34,9 +31,10 @@ import java.util.concurrent.ConcurrentHashMap;
  * Determines membership in the internal group system for a given user.
  *
  * <p>Groups the user is directly a member of are pulled from the in-memory AccountCache by way of
- * the IdentifiedUser. Transitive group memberhips are resolved on demand starting from the
- * requested group and looking for a path to a group the user is a member of. Other group backends
- * are supported by recursively invoking the universal GroupMembership.
+ * the IdentifiedUser. Groups that include these groups are looked up in the cached transitive
+ * closures of the {@link GroupIncludeCache}. Other transitive group memberhips are resolved on
+ * demand starting from the requested group and looking for a path to a group the user is a member
+ * of. Other group backends are supported by recursively invoking the universal GroupMembership.
  */
 public class IncludingGroupMembership implements GroupMembership {
   public interface Factory {
@@ -47,6 +45,7 @@ public class IncludingGroupMembership implements GroupMembership {
   private final GroupIncludeCache includeCache;
   private final CurrentUser user;
   private final Map<AccountGroup.UUID, Boolean> memberOf;
+  private Set<AccountGroup.UUID> internalGroups;
   private Set<AccountGroup.UUID> knownGroups;
 
   @Inject
@@ -82,6 +81,14 @@ public class IncludingGroupMembership implements GroupMembership {
     }
 
     if (tryExpanding) {
+      Set<AccountGroup.UUID> internal = getInternalGroups();
+      for (AccountGroup.UUID id : queryIds) {
+        if (internal.contains(id)) {
+          memberOf.put(id, true);
+          return true;
+        }
+      }
+
       Set<AccountGroup.UUID> queryIdsSet = new HashSet<>();
       queryIds.forEach(i -> queryIdsSet.add(i));
       Map<AccountGroup.UUID, InternalGroup> groups = groupCache.get(queryIdsSet);
@@ -125,32 +132,36 @@ public class IncludingGroupMembership implements GroupMembership {
     return user.getEffectiveGroups().containsAnyOf(ids);
   }
 
+  /**
+   * Returns the groups the user is a direct member of and all groups that include them, without
+   * expanding memberships in other group backends.
+   */
+  private Set<AccountGroup.UUID> getInternalGroups() {
+    if (internalGroups == null) {
+      Collection<AccountGroup.UUID> direct =
+          user.isIdentifiedUser()
+              ? includeCache.getGroupsWithMember(user.getAccountId())
+              : ImmutableList.of();
+      Set<AccountGroup.UUID> r = new HashSet<>();
+      for (AccountGroup.UUID g : direct) {
+        if (g != null && r.add(g)) {
+          r.addAll(includeCache.transitiveParentGroupsOf(g));
+        }
+      }
+      internalGroups = ImmutableSet.copyOf(r);
+    }
+    return internalGroups;
+  }
+
   private ImmutableSet<AccountGroup.UUID> computeKnownGroups() {
     GroupMembership membership = user.getEffectiveGroups();
-    Collection<AccountGroup.UUID> direct =
-        user.isIdentifiedUser()
-            ? includeCache.getGroupsWithMember(user.getAccountId())
-            : ImmutableList.of();
-    direct.forEach(groupUuid -> memberOf.put(groupUuid, true));
-    Set<AccountGroup.UUID> r = Sets.newHashSet(direct);
-    r.remove(null);
-
-    List<AccountGroup.UUID> q = Lists.newArrayList(r);
+    Set<AccountGroup.UUID> r = new HashSet<>(getInternalGroups());
     for (AccountGroup.UUID g : membership.intersection(includeCache.allExternalMembers())) {
       if (g != null && r.add(g)) {
-        q.add(g);
-      }
-    }
-
-    while (!q.isEmpty()) {
-      AccountGroup.UUID id = q.remove(q.size() - 1);
-      for (AccountGroup.UUID g : includeCache.parentGroupsOf(id)) {
-        if (g != null && r.add(g)) {
-          q.add(g);
-          memberOf.put(g, true);
-        }
+        r.addAll(includeCache.transitiveParentGroupsOf(g));
       }
     }
+    r.forEach(g -> memberOf.put(g, true));
     return ImmutableSet.copyOf(r);
   }
 
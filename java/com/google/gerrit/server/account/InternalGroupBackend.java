@@ -103,6 +103,11 @@ public class InternalGroupBackend implements GroupBackend {
     return groupMembershipFactory.create(user);
   }
 
+  @Override
+  public boolean membershipsDependOnAccountOnly() {
+    return true;
+  }
+
   @Override
   public boolean isVisibleToAll(AccountGroup.UUID uuid) {
     GroupDescription.Internal g = get(uuid);
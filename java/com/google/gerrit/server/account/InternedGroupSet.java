@@ -0,0 +1,155 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.AccountGroup;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable set of groups, represented as a bit set of dense integer IDs.
+ *
+ * <p>Group UUIDs are interned to integer IDs for the lifetime of the process, so that checking sets
+ * of groups against each other, like the groups of a user against the groups that permission rules
+ * are granted to, takes a few word-level operations instead of hashing and comparing UUIDs. Only
+ * the UUIDs of groups that are loaded into the group cache and of groups that access sections grant
+ * rules to are interned, so that the number of interned UUIDs is bounded by the number of groups
+ * that exist. Other UUIDs, e.g. of groups that are only checked, are never interned.
+ *
+ * <p>Sets may contain groups that were not interned when the set was created. Such sets are
+ * compared by their UUIDs.
+ */
+public final class InternedGroupSet {
+  private static final Map<AccountGroup.UUID, Integer> ids = new ConcurrentHashMap<>();
+  private static final AtomicInteger nextId = new AtomicInteger();
+
+  public static final InternedGroupSet EMPTY =
+      new InternedGroupSet(ImmutableSet.of(), new BitSet(), true);
+
+  /**
+   * Interns group UUIDs.
+   *
+   * <p>Must only be called for groups that exist, like groups in the group cache and groups that
+   * access sections grant rules to.
+   *
+   * @param uuids group UUIDs, null values are ignored.
+   * @return the set of the groups.
+   */
+  public static InternedGroupSet intern(Iterable<AccountGroup.UUID> uuids) {
+    for (AccountGroup.UUID uuid : uuids) {
+      if (uuid != null && !ids.containsKey(uuid)) {
+        ids.computeIfAbsent(uuid, u -> nextId.getAndIncrement());
+      }
+    }
+    return of(uuids);
+  }
+
+  /** Returns the integer ID of a group UUID, or -1 if the UUID isn't interned. */
+  static int id(AccountGroup.UUID uuid) {
+    Integer id = ids.get(uuid);
+    return id != null ? id : -1;
+  }
+
+  /**
+   * Returns a set of groups, without interning the UUIDs.
+   *
+   * @param uuids group UUIDs, null values are ignored.
+   */
+  public static InternedGroupSet of(Iterable<AccountGroup.UUID> uuids) {
+    ImmutableSet<AccountGroup.UUID> groups =
+        ImmutableSet.copyOf(Iterables.filter(uuids, Objects::nonNull));
+    if (groups.isEmpty()) {
+      return EMPTY;
+    }
+    BitSet bits = new BitSet();
+    boolean complete = true;
+    for (AccountGroup.UUID uuid : groups) {
+      int id = id(uuid);
+      if (id >= 0) {
+        bits.set(id);
+      } else {
+        complete = false;
+      }
+    }
+    return new InternedGroupSet(groups, bits, complete);
+  }
+
+  private final ImmutableSet<AccountGroup.UUID> groups;
+  private final BitSet bits;
+
+  /** Whether all groups are interned, so that {@link #bits} represents the whole set. */
+  private final boolean complete;
+
+  private InternedGroupSet(ImmutableSet<AccountGroup.UUID> groups, BitSet bits, boolean complete) {
+    this.groups = groups;
+    this.bits = bits;
+    this.complete = complete;
+  }
+
+  public boolean contains(@Nullable AccountGroup.UUID uuid) {
+    return uuid != null && groups.contains(uuid);
+  }
+
+  /** Whether the sets have a group in common. */
+  public boolean intersects(InternedGroupSet other) {
+    if (bits.intersects(other.bits)) {
+      return true;
+    }
+    return !(complete && other.complete) && !Collections.disjoint(groups, other.groups);
+  }
+
+  public boolean isEmpty() {
+    return groups.isEmpty();
+  }
+
+  public ImmutableSet<AccountGroup.UUID> uuids() {
+    return groups;
+  }
+
+  /**
+   * Returns the IDs of the groups that were interned when the set was created. The returned bit
+   * set must not be modified.
+   */
+  BitSet bits() {
+    return bits;
+  }
+
+  /** Whether all groups were interned when the set was created. */
+  boolean isComplete() {
+    return complete;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof InternedGroupSet && groups.equals(((InternedGroupSet) o).groups);
+  }
+
+  @Override
+  public int hashCode() {
+    return groups.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return groups.toString();
+  }
+}
@@ -21,10 +21,10 @@ import java.util.Set;
 
 /** GroupMembership over an explicit list. */
 public class ListGroupMembership implements GroupMembership {
-  private final Set<AccountGroup.UUID> groups;
+  private final InternedGroupSet groups;
 
   public ListGroupMembership(Iterable<AccountGroup.UUID> groupIds) {
-    this.groups = ImmutableSet.copyOf(groupIds);
+    this.groups = InternedGroupSet.of(ImmutableSet.copyOf(groupIds));
   }
 
   @Override
@@ -42,13 +42,18 @@ public class ListGroupMembership implements GroupMembership {
     return false;
   }
 
+  @Override
+  public boolean containsAnyOf(InternedGroupSet groupIds) {
+    return groups.intersects(groupIds);
+  }
+
   @Override
   public Set<AccountGroup.UUID> intersection(Iterable<AccountGroup.UUID> groupIds) {
-    return Sets.intersection(ImmutableSet.copyOf(groupIds), groups);
+    return Sets.intersection(ImmutableSet.copyOf(groupIds), groups.uuids());
   }
 
   @Override
   public Set<AccountGroup.UUID> getKnownGroups() {
-    return Sets.newHashSet(groups);
+    return Sets.newHashSet(groups.uuids());
   }
 }
@@ -16,10 +16,12 @@ package com.google.gerrit.server.account;
 
 import static com.google.gerrit.server.account.GroupBackends.GROUP_REF_NAME_COMPARATOR;
 import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.Sets;
 import com.google.common.flogger.FluentLogger;
@@ -42,14 +44,21 @@ import com.google.gerrit.server.plugincontext.PluginSetEntryContext;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 import org.eclipse.jgit.lib.Config;
 
 /**
  * Universal implementation of the GroupBackend that works with the injected set of GroupBackends.
+ *
+ * <p>The memberships of identified users in backends whose memberships only depend on the account
+ * are shared across requests through the {@link EffectiveGroupsCache}. Memberships in other
+ * backends, which may depend on the request, are looked up for each request.
  */
 @Singleton
 public class UniversalGroupBackend implements GroupBackend {
@@ -59,6 +68,7 @@ public class UniversalGroupBackend implements GroupBackend {
       Field.ofString("system", Metadata.Builder::groupSystem).build();
 
   private final PluginSetContext<GroupBackend> backends;
+  private final EffectiveGroupsCache effectiveGroupsCache;
   private final Counter1<String> handlesCount;
   private final Counter1<String> getCount;
   private final Counter2<String, Integer> suggestCount;
@@ -68,8 +78,12 @@ public class UniversalGroupBackend implements GroupBackend {
   private final Counter2<String, Integer> knownGroupsCount;
 
   @Inject
-  UniversalGroupBackend(PluginSetContext<GroupBackend> backends, MetricMaker metricMaker) {
+  UniversalGroupBackend(
+      PluginSetContext<GroupBackend> backends,
+      EffectiveGroupsCache effectiveGroupsCache,
+      MetricMaker metricMaker) {
     this.backends = backends;
+    this.effectiveGroupsCache = effectiveGroupsCache;
     this.handlesCount =
         metricMaker.newCounter(
             "group/handles_count", new Description("Calls to GroupBackend.handles"), SYSTEM_FIELD);
@@ -159,15 +173,41 @@ public class UniversalGroupBackend implements GroupBackend {
 
   @Override
   public GroupMembership membershipsOf(CurrentUser user) {
-    return new UniversalGroupMembership(user);
+    if (!user.isIdentifiedUser()) {
+      return new UniversalGroupMembership(user, b -> true);
+    }
+    GroupMembership shared =
+        effectiveGroupsCache.get(
+            user.asIdentifiedUser(),
+            u -> new UniversalGroupMembership(u, GroupBackend::membershipsDependOnAccountOnly));
+    for (PluginSetEntryContext<GroupBackend> c : backends) {
+      if (!c.get().membershipsDependOnAccountOnly()) {
+        return new CombinedGroupMembership(
+            shared, new UniversalGroupMembership(user, b -> !b.membershipsDependOnAccountOnly()));
+      }
+    }
+    return shared;
   }
 
   private class UniversalGroupMembership implements GroupMembership {
     private final Map<GroupBackend, GroupMembership> memberships;
 
-    private UniversalGroupMembership(CurrentUser user) {
+    /**
+     * Interned IDs of the groups that the user is known to be a member of, or not to be a member
+     * of. Guarded by {@code this}.
+     */
+    private final BitSet members = new BitSet();
+
+    private final BitSet nonMembers = new BitSet();
+
+    private UniversalGroupMembership(CurrentUser user, Predicate<GroupBackend> include) {
       ImmutableMap.Builder<GroupBackend, GroupMembership> builder = ImmutableMap.builder();
-      backends.runEach(g -> builder.put(g, g.membershipsOf(user)));
+      backends.runEach(
+          g -> {
+            if (include.test(g)) {
+              builder.put(g, g.membershipsOf(user));
+            }
+          });
       this.memberships = builder.build();
     }
 
@@ -189,23 +229,78 @@ public class UniversalGroupBackend implements GroupBackend {
       if (uuid == null) {
         return false;
       }
+      int id = InternedGroupSet.id(uuid);
+      if (id >= 0) {
+        synchronized (this) {
+          if (members.get(id) || nonMembers.get(id)) {
+            return members.get(id);
+          }
+        }
+      }
       Map.Entry<GroupBackend, GroupMembership> m = membership(uuid);
-      if (m == null) {
-        return false;
+      boolean contains = false;
+      if (m != null) {
+        contains = m.getValue().contains(uuid);
+        containsCount.increment(name(m.getKey()), contains);
       }
-      boolean contains = m.getValue().contains(uuid);
-      containsCount.increment(name(m.getKey()), contains);
+      remember(id, contains);
       return contains;
     }
 
     @Override
     public boolean containsAnyOf(Iterable<AccountGroup.UUID> uuids) {
+      return containsAnyOf(InternedGroupSet.of(uuids));
+    }
+
+    @Override
+    public boolean containsAnyOf(InternedGroupSet groups) {
+      BitSet unknown = (BitSet) groups.bits().clone();
+      synchronized (this) {
+        if (members.intersects(unknown)) {
+          return true;
+        }
+        unknown.andNot(nonMembers);
+      }
+      if (unknown.isEmpty() && groups.isComplete()) {
+        return false;
+      }
+
+      // Memberships in groups that weren't interned when the set was created aren't remembered.
+      boolean contains =
+          lookupAnyOf(
+              groups.uuids().stream()
+                  .filter(
+                      uuid -> {
+                        int id = InternedGroupSet.id(uuid);
+                        return id < 0 || !groups.bits().get(id) || unknown.get(id);
+                      })
+                  .collect(toList()));
+      if (!contains) {
+        synchronized (this) {
+          unknown.andNot(members);
+          nonMembers.or(unknown);
+        }
+      }
+      return contains;
+    }
+
+    private synchronized void remember(int id, boolean member) {
+      if (id < 0) {
+        // Results are only remembered for interned groups.
+        return;
+      }
+      if (member) {
+        members.set(id);
+        nonMembers.clear(id);
+      } else if (!members.get(id)) {
+        nonMembers.set(id);
+      }
+    }
+
+    private boolean lookupAnyOf(Iterable<AccountGroup.UUID> uuids) {
       ListMultimap<Map.Entry<GroupBackend, GroupMembership>, AccountGroup.UUID> lookups =
           MultimapBuilder.hashKeys().arrayListValues().build();
       for (AccountGroup.UUID uuid : uuids) {
-        if (uuid == null) {
-          continue;
-        }
         Map.Entry<GroupBackend, GroupMembership> m = membership(uuid);
         if (m == null) {
           continue;
@@ -253,6 +348,9 @@ public class UniversalGroupBackend implements GroupBackend {
         intersectionCount.increment(name(groupBackend.getKey()), intersection.size());
         groups.addAll(intersection);
       }
+      for (AccountGroup.UUID uuid : lookups.values()) {
+        remember(InternedGroupSet.id(uuid), groups.contains(uuid));
+      }
       return groups;
     }
 
@@ -268,6 +366,50 @@ public class UniversalGroupBackend implements GroupBackend {
     }
   }
 
+  /**
+   * Memberships that are split into memberships that are shared across requests and memberships
+   * that are looked up for the current request. Both handle different groups.
+   */
+  private static class CombinedGroupMembership implements GroupMembership {
+    private final GroupMembership shared;
+    private final GroupMembership perRequest;
+
+    private CombinedGroupMembership(GroupMembership shared, GroupMembership perRequest) {
+      this.shared = shared;
+      this.perRequest = perRequest;
+    }
+
+    @Override
+    public boolean contains(AccountGroup.UUID uuid) {
+      return shared.contains(uuid) || perRequest.contains(uuid);
+    }
+
+    @Override
+    public boolean containsAnyOf(Iterable<AccountGroup.UUID> uuids) {
+      return containsAnyOf(InternedGroupSet.of(uuids));
+    }
+
+    @Override
+    public boolean containsAnyOf(InternedGroupSet groups) {
+      return shared.containsAnyOf(groups) || perRequest.containsAnyOf(groups);
+    }
+
+    @Override
+    public Set<AccountGroup.UUID> intersection(Iterable<AccountGroup.UUID> uuids) {
+      List<AccountGroup.UUID> groups = Lists.newArrayList(uuids);
+      Set<AccountGroup.UUID> result = new HashSet<>(shared.intersection(groups));
+      result.addAll(perRequest.intersection(groups));
+      return result;
+    }
+
+    @Override
+    public Set<AccountGroup.UUID> getKnownGroups() {
+      Set<AccountGroup.UUID> result = new HashSet<>(shared.getKnownGroups());
+      result.addAll(perRequest.getKnownGroups());
+      return result;
+    }
+  }
+
   @Override
   public boolean isVisibleToAll(AccountGroup.UUID uuid) {
     for (PluginSetEntryContext<GroupBackend> c : backends) {
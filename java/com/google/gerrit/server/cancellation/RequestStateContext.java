@@ -17,6 +17,7 @@ package com.google.gerrit.server.cancellation;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableSet;
 import java.util.HashSet;
+import java.util.Optional;
 import java.util.Set;
 
 /**
@@ -87,6 +88,41 @@ public class RequestStateContext implements AutoCloseable {
                     }));
   }
 
+  /**
+   * Returns a check that aborts the current request like {@link #abortIfCancelled()}, but that can
+   * also be run by other threads doing work on behalf of the current request.
+   *
+   * <p>The check uses the {@link RequestStateProvider}s that are registered for the calling thread
+   * when this method is invoked. Invocations of the check are serialized, so that the {@link
+   * RequestStateProvider}s are not invoked concurrently by several threads.
+   *
+   * @return the check, or {@link Optional#empty()} if the current request cannot be cancelled,
+   *     because no {@link RequestStateProvider}s are registered or because a non-cancellable
+   *     operation is being performed
+   */
+  public static Optional<Runnable> abortIfCancelledCheck() {
+    if (inNonCancellableOperation.get() != null && inNonCancellableOperation.get()) {
+      return Optional.empty();
+    }
+
+    ImmutableSet<RequestStateProvider> requestStateProviders = getRequestStateProviders();
+    if (requestStateProviders.isEmpty()) {
+      return Optional.empty();
+    }
+    Object lock = new Object();
+    return Optional.of(
+        () -> {
+          synchronized (lock) {
+            requestStateProviders.forEach(
+                requestStateProvider ->
+                    requestStateProvider.checkIfCancelled(
+                        (reason, message) -> {
+                          throw new RequestCancelledException(reason, message);
+                        }));
+          }
+        });
+  }
+
   /**
    * Starts a non-cancellable operation.
    *
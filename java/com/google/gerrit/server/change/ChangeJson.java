@@ -48,6 +48,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.Sets;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.common.Nullable;
@@ -84,11 +85,11 @@ import com.google.gerrit.extensions.common.TrackingIdInfo;
 import com.google.gerrit.extensions.restapi.Url;
 import com.google.gerrit.index.RefState;
 import com.google.gerrit.index.query.QueryResult;
+import com.google.gerrit.metrics.Counter0;
 import com.google.gerrit.metrics.Description;
 import com.google.gerrit.metrics.Description.Units;
 import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.metrics.Timer0;
-import com.google.gerrit.server.ChangeMessagesUtil;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.GpgException;
 import com.google.gerrit.server.ReviewerByEmailSet;
@@ -100,6 +101,7 @@ import com.google.gerrit.server.account.AccountLoader;
 import com.google.gerrit.server.cancellation.RequestCancelledException;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.TrackingFooters;
+import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.index.change.ChangeField;
 import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.notedb.ReviewerStateInternal;
@@ -129,6 +131,8 @@ import java.util.Set;
 import java.util.stream.Collectors;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
 
 /**
  * Produces {@link ChangeInfo} (which is serialized to JSON afterwards) from {@link ChangeData}.
@@ -153,8 +157,7 @@ public class ChangeJson {
           CHECK,
           COMMIT_FOOTERS,
           CURRENT_ACTIONS,
-          CURRENT_COMMIT,
-          MESSAGES);
+          CURRENT_COMMIT);
 
   @Singleton
   public static class Factory {
@@ -194,6 +197,7 @@ public class ChangeJson {
     private final Timer0 toChangeInfoLatency;
     private final Timer0 toChangeInfosLatency;
     private final Timer0 formatQueryResultsLatency;
+    private final Counter0 staleIndexResults;
 
     @Inject
     Metrics(MetricMaker metricMaker) {
@@ -215,6 +219,14 @@ public class ChangeJson {
               new Description("Latency for formatQueryResults invocations in ChangeJson")
                   .setCumulative()
                   .setUnit(Units.MILLISECONDS));
+      staleIndexResults =
+          metricMaker.newCounter(
+              "http/server/rest_api/change_json/stale_index_results",
+              new Description(
+                      "Query results that were loaded from NoteDb because their index document"
+                          + " was stale")
+                  .setRate()
+                  .setUnit("changes"));
     }
   }
 
@@ -223,10 +235,10 @@ public class ChangeJson {
   private final ChangeData.Factory changeDataFactory;
   private final AccountLoader.Factory accountLoaderFactory;
   private final ImmutableSet<ListChangesOption> options;
-  private final ChangeMessagesUtil cmUtil;
   private final Provider<ConsistencyChecker> checkerProvider;
   private final ActionJson actionJson;
   private final ChangeNotes.Factory notesFactory;
+  private final GitRepositoryManager repoManager;
   private final LabelsJson labelsJson;
   private final RemoveReviewerControl removeReviewerControl;
   private final TrackingFooters trackingFooters;
@@ -245,10 +257,10 @@ public class ChangeJson {
       PermissionBackend permissionBackend,
       ChangeData.Factory cdf,
       AccountLoader.Factory ailf,
-      ChangeMessagesUtil cmUtil,
       Provider<ConsistencyChecker> checkerProvider,
       ActionJson actionJson,
       ChangeNotes.Factory notesFactory,
+      GitRepositoryManager repoManager,
       LabelsJson labelsJson,
       RemoveReviewerControl removeReviewerControl,
       TrackingFooters trackingFooters,
@@ -261,10 +273,10 @@ public class ChangeJson {
     this.changeDataFactory = cdf;
     this.permissionBackend = permissionBackend;
     this.accountLoaderFactory = ailf;
-    this.cmUtil = cmUtil;
     this.checkerProvider = checkerProvider;
     this.actionJson = actionJson;
     this.notesFactory = notesFactory;
+    this.repoManager = repoManager;
     this.labelsJson = labelsJson;
     this.removeReviewerControl = removeReviewerControl;
     this.trackingFooters = trackingFooters;
@@ -458,8 +470,10 @@ public class ChangeJson {
   private void ensureLoaded(Iterable<ChangeData> all) {
     if (lazyLoad) {
       for (ChangeData cd : all) {
-        // Mark all ChangeDatas as coming from the index, but allow backfilling data from NoteDb
-        cd.setStorageConstraint(ChangeData.StorageConstraint.INDEX_PRIMARY_NOTEDB_SECONDARY);
+        if (cd.indexedMetaRevision().isPresent()) {
+          // Mark ChangeDatas as coming from the index, but allow backfilling data from NoteDb
+          cd.setStorageConstraint(ChangeData.StorageConstraint.INDEX_PRIMARY_NOTEDB_SECONDARY);
+        }
       }
       ChangeData.ensureChangeLoaded(all);
       if (has(ALL_REVISIONS)) {
@@ -473,21 +487,78 @@ public class ChangeJson {
       ChangeData.ensureCurrentApprovalsLoaded(all);
     } else {
       for (ChangeData cd : all) {
-        // Mark all ChangeDatas as coming from the index. Disallow using NoteDb
-        cd.setStorageConstraint(ChangeData.StorageConstraint.INDEX_ONLY);
+        if (!cd.indexedMetaRevision().isPresent()) {
+          // Not populated from the index, there is nothing to render it from but NoteDb.
+          continue;
+        }
+        if (has(MESSAGES) && !cd.hasMessages()) {
+          // The index version doesn't store change messages yet, allow backfilling from NoteDb.
+          cd.setStorageConstraint(ChangeData.StorageConstraint.INDEX_PRIMARY_NOTEDB_SECONDARY);
+        } else {
+          // Mark ChangeDatas as coming from the index. Disallow using NoteDb
+          cd.setStorageConstraint(ChangeData.StorageConstraint.INDEX_ONLY);
+        }
       }
     }
   }
 
+  /**
+   * Replaces changes whose index document is stale by changes that are loaded from NoteDb.
+   *
+   * <p>The values stored in an index document were computed for the revision of the change meta
+   * ref that is stored with them. Checking whether that revision is still current only requires a
+   * ref lookup per change, so up to date results can be rendered from the index without reading
+   * NoteDb.
+   */
+  private List<ChangeData> reloadStale(List<ChangeData> changes) {
+    ListMultimap<Project.NameKey, Integer> indexed =
+        MultimapBuilder.hashKeys().arrayListValues().build();
+    for (int i = 0; i < changes.size(); i++) {
+      if (changes.get(i).indexedMetaRevision().isPresent()) {
+        indexed.put(changes.get(i).project(), i);
+      }
+    }
+    if (indexed.isEmpty()) {
+      return changes;
+    }
+
+    List<ChangeData> result = new ArrayList<>(changes);
+    for (Map.Entry<Project.NameKey, Collection<Integer>> e : indexed.asMap().entrySet()) {
+      try (Repository repo = repoManager.openRepository(e.getKey())) {
+        Map<String, Ref> refs =
+            repo.getRefDatabase()
+                .exactRef(
+                    e.getValue().stream()
+                        .map(i -> RefNames.changeMetaRef(changes.get(i).getId()))
+                        .toArray(String[]::new));
+        for (int i : e.getValue()) {
+          ChangeData cd = changes.get(i);
+          Ref ref = refs.get(RefNames.changeMetaRef(cd.getId()));
+          // A missing meta ref means the change was deleted, which loading from NoteDb can't fix.
+          if (ref != null && !ref.getObjectId().equals(cd.indexedMetaRevision().get())) {
+            logger.atFine().log("Index document of change %s is stale", cd.getId());
+            metrics.staleIndexResults.increment();
+            result.set(i, changeDataFactory.create(cd.project(), cd.getId()));
+          }
+        }
+      } catch (IOException ex) {
+        logger.atWarning().withCause(ex).log(
+            "Cannot check whether index documents of changes in %s are stale", e.getKey());
+      }
+    }
+    return result;
+  }
+
   private boolean has(ListChangesOption option) {
     return options.contains(option);
   }
 
   private List<ChangeInfo> toChangeInfos(
-      List<ChangeData> changes,
+      List<ChangeData> indexedChanges,
       Map<Change.Id, ChangeInfo> cache,
       ImmutableListMultimap<Change.Id, PluginDefinedInfo> pluginInfosByChange) {
     try (Timer0.Context ignored = metrics.toChangeInfosLatency.start()) {
+      List<ChangeData> changes = reloadStale(indexedChanges);
       List<ChangeInfo> changeInfos = new ArrayList<>(changes.size());
       for (int i = 0; i < changes.size(); i++) {
         // We can only cache and re-use an entity if it's not the last in the list. The last entity
@@ -799,7 +870,7 @@ public class ChangeJson {
   }
 
   private ImmutableList<ChangeMessageInfo> messages(ChangeData cd) {
-    List<ChangeMessage> messages = cmUtil.byChange(cd.notes());
+    List<ChangeMessage> messages = cd.messages();
     if (messages.isEmpty()) {
       return ImmutableList.of();
     }
@@ -101,6 +101,7 @@ import com.google.gerrit.server.account.AccountModule;
 import com.google.gerrit.server.account.AccountTagProvider;
 import com.google.gerrit.server.account.AccountVisibilityProvider;
 import com.google.gerrit.server.account.CapabilityCollection;
+import com.google.gerrit.server.account.EffectiveGroupsCache;
 import com.google.gerrit.server.account.EmailExpander;
 import com.google.gerrit.server.account.GroupCacheImpl;
 import com.google.gerrit.server.account.GroupControl;
@@ -136,6 +137,7 @@ import com.google.gerrit.server.extensions.events.AttentionSetObserver;
 import com.google.gerrit.server.extensions.events.GitReferenceUpdated;
 import com.google.gerrit.server.extensions.webui.UiActions;
 import com.google.gerrit.server.git.ChangeMessageModifier;
+import com.google.gerrit.server.git.ChangeVisibilityCache;
 import com.google.gerrit.server.git.GitModule;
 import com.google.gerrit.server.git.MergedByPushOp;
 import com.google.gerrit.server.git.MultiProgressMonitor;
@@ -183,7 +185,9 @@ import com.google.gerrit.server.patch.PatchListCacheImpl;
 import com.google.gerrit.server.patch.PatchScriptFactory;
 import com.google.gerrit.server.patch.PatchScriptFactoryForAutoFix;
 import com.google.gerrit.server.patch.PatchSetInfoFactory;
+import com.google.gerrit.server.permissions.AdvertisedRefsCache;
 import com.google.gerrit.server.permissions.PermissionCollection;
+import com.google.gerrit.server.permissions.PermissionDecisionCache;
 import com.google.gerrit.server.permissions.SectionSortCache;
 import com.google.gerrit.server.plugins.ReloadPluginListener;
 import com.google.gerrit.server.project.AccessControlModule;
@@ -191,6 +195,7 @@ import com.google.gerrit.server.project.CommentLinkProvider;
 import com.google.gerrit.server.project.ProjectCacheImpl;
 import com.google.gerrit.server.project.ProjectNameLockManager;
 import com.google.gerrit.server.project.ProjectState;
+import com.google.gerrit.server.project.Reachable;
 import com.google.gerrit.server.project.SubmitRequirementConfigValidator;
 import com.google.gerrit.server.project.SubmitRequirementsEvaluatorImpl;
 import com.google.gerrit.server.project.SubmitRuleEvaluator;
@@ -199,6 +204,7 @@ import com.google.gerrit.server.query.approval.ApprovalModule;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.query.change.ChangeIsVisibleToPredicate;
 import com.google.gerrit.server.query.change.ChangeQueryBuilder;
+import com.google.gerrit.server.query.change.ChangeQueryResultCache;
 import com.google.gerrit.server.query.change.ConflictsCacheImpl;
 import com.google.gerrit.server.query.change.DistinctVotersPredicate;
 import com.google.gerrit.server.quota.QuotaEnforcer;
@@ -258,19 +264,25 @@ public class GerritGlobalModule extends FactoryModule {
     install(BatchUpdate.module());
     install(ChangeKindCacheImpl.module());
     install(ChangeFinder.module());
+    install(ChangeQueryResultCache.module());
     install(ConflictsCacheImpl.module());
     install(DefaultPreferencesCacheImpl.module());
     install(GroupCacheImpl.module());
+    install(EffectiveGroupsCache.module());
     install(GroupIncludeCacheImpl.module());
     install(MergeabilityCacheImpl.module());
     install(ServiceUserClassifierImpl.module());
     install(PatchListCacheImpl.module());
     install(ProjectCacheImpl.module());
     install(DiffOperationsImpl.module());
+    install(PermissionDecisionCache.module());
+    install(AdvertisedRefsCache.module());
     install(SectionSortCache.module());
     install(SubmitStrategy.module());
     install(TagCache.module());
     install(PureRevertCache.module());
+    install(ChangeVisibilityCache.module());
+    install(Reachable.module());
     install(CommentContextCacheImpl.module());
     install(SubmitRequirementsEvaluatorImpl.module());
 
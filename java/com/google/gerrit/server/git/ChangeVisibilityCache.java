@@ -0,0 +1,298 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Converter;
+import com.google.common.base.Enums;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Table;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.entities.converter.ChangeProtoConverter;
+import com.google.gerrit.proto.Protos;
+import com.google.gerrit.server.ReviewerSet;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.proto.Cache.ChangeNotesStateProto.ReviewerSetEntryProto;
+import com.google.gerrit.server.cache.proto.Cache.ChangeVisibilityKeyProto;
+import com.google.gerrit.server.cache.proto.Cache.ChangeVisibilityProto;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.gerrit.server.cache.serialize.ObjectIdConverter;
+import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.gerrit.server.notedb.ReviewerStateInternal;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Persistent summary of the data that the visibility of a change depends on: its destination
+ * branch, its owner, whether it is private and its reviewers.
+ *
+ * <p>Entries are keyed by the revision of the change meta ref, so that each update of a change
+ * yields a new entry and cached entries are never stale. The cache covers all changes of a project
+ * and doesn't need the change index, so that it can also be used on replicas. Only the first check
+ * of a change after an update needs to load its notes.
+ *
+ * <p>The cache is persisted, so that the notes of all changes of a project only need to be loaded
+ * once when the cache is first populated, not after each restart.
+ */
+@Singleton
+public class ChangeVisibilityCache {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String CACHE_NAME = "change_visibility";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        persist(CACHE_NAME, Key.class, Entry.class)
+            .maximumWeight(64 << 20)
+            .weigher(EntryWeigher.class)
+            .version(1)
+            .keySerializer(Key.Serializer.INSTANCE)
+            .valueSerializer(Entry.Serializer.INSTANCE);
+        bind(ChangeVisibilityCache.class);
+      }
+    };
+  }
+
+  private final Cache<Key, Entry> cache;
+  private final ChangeNotes.Factory changeNotesFactory;
+  private final ChangeData.Factory changeDataFactory;
+
+  @Inject
+  ChangeVisibilityCache(
+      @Named(CACHE_NAME) Cache<Key, Entry> cache,
+      ChangeNotes.Factory changeNotesFactory,
+      ChangeData.Factory changeDataFactory) {
+    this.cache = cache;
+    this.changeNotesFactory = changeNotesFactory;
+    this.changeDataFactory = changeDataFactory;
+  }
+
+  /**
+   * Returns the changes that the given refs belong to, with the data needed to check their
+   * visibility.
+   *
+   * <p>The returned change data only includes the {@code Change} object and the reviewers. Changes
+   * without a meta ref and changes that can't be loaded are omitted.
+   *
+   * <p>The revisions of the change meta refs are taken from the given refs. Only the meta refs of
+   * changes for which the given refs include other refs, e.g. just patch set refs, are looked up in
+   * the repository. Changes that weren't checked since their last update are loaded from the given
+   * repository.
+   *
+   * @param repo repository of the project.
+   * @param project project of the changes.
+   * @param refs refs of the project, refs that don't belong to changes are ignored.
+   * @return stream of the changes.
+   */
+  public Stream<ChangeData> getChangeData(
+      Repository repo, Project.NameKey project, Collection<Ref> refs) throws IOException {
+    return metaRevisions(repo, refs).entrySet().stream()
+        .map(e -> get(repo, Key.create(project, e.getKey(), e.getValue())))
+        .filter(Objects::nonNull)
+        .map(
+            entry -> {
+              ChangeData cd = changeDataFactory.create(entry.change());
+              cd.setReviewers(entry.reviewers());
+              return cd;
+            });
+  }
+
+  @Nullable
+  private Entry get(Repository repo, Key key) {
+    try {
+      return cache.get(
+          key,
+          () -> {
+            ChangeNotes notes =
+                changeNotesFactory.createChecked(
+                    repo, key.project(), key.changeId(), key.metaId());
+            return Entry.create(notes.getChange(), notes.getReviewers());
+          });
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      // Repositories may contain change refs of broken changes, which shouldn't fail the whole
+      // operation.
+      logger.atFinest().withCause(e).log("Can't load change %s", key.changeId());
+      return null;
+    }
+  }
+
+  /** Returns the revisions of the meta refs of the changes that the given refs belong to. */
+  private static Map<Change.Id, ObjectId> metaRevisions(Repository repo, Collection<Ref> refs)
+      throws IOException {
+    Map<Change.Id, ObjectId> result = new HashMap<>();
+    Set<Change.Id> changes = new HashSet<>();
+    for (Ref ref : refs) {
+      Change.Id id = Change.Id.fromRef(ref.getName());
+      if (id == null) {
+        continue;
+      }
+      changes.add(id);
+      if (ref.getName().endsWith(RefNames.META_SUFFIX) && ref.getObjectId() != null) {
+        result.put(id, ref.getObjectId());
+      }
+    }
+
+    String[] missing =
+        changes.stream()
+            .filter(id -> !result.containsKey(id))
+            .map(RefNames::changeMetaRef)
+            .toArray(String[]::new);
+    if (missing.length > 0) {
+      for (Ref ref : repo.getRefDatabase().exactRef(missing).values()) {
+        Change.Id id = Change.Id.fromRef(ref.getName());
+        if (id != null && ref.getObjectId() != null) {
+          result.put(id, ref.getObjectId());
+        }
+      }
+    }
+    return result;
+  }
+
+  /** Approximates the heap size of an entry in bytes, on a 64 bit JVM. */
+  static class EntryWeigher implements Weigher<Key, Entry> {
+    @Override
+    public int weigh(Key key, Entry entry) {
+      Change change = entry.change();
+      int keySize = 64 + 2 * key.project().get().length();
+      int changeSize =
+          256
+              + 2 * change.getKey().get().length()
+              + 2 * change.getDest().branch().length()
+              + 2 * change.getSubject().length()
+              + 2 * Strings.nullToEmpty(change.getOriginalSubjectOrNull()).length()
+              + 2 * Strings.nullToEmpty(change.getTopic()).length();
+      int reviewersSize = 64 + 96 * entry.reviewers().asTable().size();
+      return keySize + changeSize + reviewersSize;
+    }
+  }
+
+  @AutoValue
+  abstract static class Key {
+    static Key create(Project.NameKey project, Change.Id changeId, ObjectId metaId) {
+      return new AutoValue_ChangeVisibilityCache_Key(project, changeId, metaId.copy());
+    }
+
+    abstract Project.NameKey project();
+
+    abstract Change.Id changeId();
+
+    abstract ObjectId metaId();
+
+    @VisibleForTesting
+    enum Serializer implements CacheSerializer<Key> {
+      INSTANCE;
+
+      @Override
+      public byte[] serialize(Key object) {
+        return Protos.toByteArray(
+            ChangeVisibilityKeyProto.newBuilder()
+                .setProject(object.project().get())
+                .setChangeId(object.changeId().get())
+                .setMetaId(ObjectIdConverter.create().toByteString(object.metaId()))
+                .build());
+      }
+
+      @Override
+      public Key deserialize(byte[] in) {
+        ChangeVisibilityKeyProto proto =
+            Protos.parseUnchecked(ChangeVisibilityKeyProto.parser(), in);
+        return Key.create(
+            Project.nameKey(proto.getProject()),
+            Change.id(proto.getChangeId()),
+            ObjectIdConverter.create().fromByteString(proto.getMetaId()));
+      }
+    }
+  }
+
+  @AutoValue
+  abstract static class Entry {
+    static Entry create(Change change, ReviewerSet reviewers) {
+      return new AutoValue_ChangeVisibilityCache_Entry(change, reviewers);
+    }
+
+    /** The change, which holds its destination branch, owner and private flag. */
+    abstract Change change();
+
+    abstract ReviewerSet reviewers();
+
+    @VisibleForTesting
+    enum Serializer implements CacheSerializer<Entry> {
+      INSTANCE;
+
+      private static final Converter<String, ReviewerStateInternal> REVIEWER_STATE_CONVERTER =
+          Enums.stringConverter(ReviewerStateInternal.class);
+
+      @Override
+      public byte[] serialize(Entry object) {
+        ChangeVisibilityProto.Builder b =
+            ChangeVisibilityProto.newBuilder()
+                .setChange(ChangeProtoConverter.INSTANCE.toProto(object.change()));
+        for (Table.Cell<ReviewerStateInternal, Account.Id, Instant> c :
+            object.reviewers().asTable().cellSet()) {
+          b.addReviewer(
+              ReviewerSetEntryProto.newBuilder()
+                  .setState(REVIEWER_STATE_CONVERTER.reverse().convert(c.getRowKey()))
+                  .setAccountId(c.getColumnKey().get())
+                  .setTimestampMillis(c.getValue().toEpochMilli()));
+        }
+        return Protos.toByteArray(b.build());
+      }
+
+      @Override
+      public Entry deserialize(byte[] in) {
+        ChangeVisibilityProto proto = Protos.parseUnchecked(ChangeVisibilityProto.parser(), in);
+        ImmutableTable.Builder<ReviewerStateInternal, Account.Id, Instant> reviewers =
+            ImmutableTable.builder();
+        for (ReviewerSetEntryProto e : proto.getReviewerList()) {
+          reviewers.put(
+              REVIEWER_STATE_CONVERTER.convert(e.getState()),
+              Account.id(e.getAccountId()),
+              Instant.ofEpochMilli(e.getTimestampMillis()));
+        }
+        return Entry.create(
+            ChangeProtoConverter.INSTANCE.fromProto(proto.getChange()),
+            ReviewerSet.fromTable(reviewers.build()));
+      }
+    }
+  }
+}
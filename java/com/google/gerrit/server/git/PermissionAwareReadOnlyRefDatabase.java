@@ -16,8 +16,10 @@ package com.google.gerrit.server.git;
 
 import static java.util.stream.Collectors.toMap;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.permissions.PermissionBackend.RefFilterOptions;
@@ -129,18 +131,7 @@ public class PermissionAwareReadOnlyRefDatabase extends DelegateRefDatabase {
 
   @Override
   public List<Ref> getRefsByPrefix(String prefix) throws IOException {
-    List<Ref> refs = getDelegate().getRefDatabase().getRefsByPrefix(prefix);
-    if (refs.isEmpty()) {
-      return Collections.emptyList();
-    }
-
-    Collection<Ref> result;
-    try {
-      result = forProject.filter(refs, getDelegate(), RefFilterOptions.defaults());
-    } catch (PermissionBackendException e) {
-      throw new IOException("", e);
-    }
-    return result.stream().collect(Collectors.toList());
+    return getRefsByPrefix(new String[] {prefix});
   }
 
   @Override
@@ -153,13 +144,50 @@ public class PermissionAwareReadOnlyRefDatabase extends DelegateRefDatabase {
     return Collections.unmodifiableList(refs.collect(Collectors.toList()));
   }
 
+  /**
+   * Returns the visible refs matching any of the prefixes, like requested by the ref-prefix
+   * arguments of a protocol v2 ls-refs command.
+   *
+   * <p>Only the ranges of the ref database matching the prefixes are read and the refs of all
+   * prefixes are filtered at once, so that permissions are evaluated only for the requested refs
+   * and only once per ref.
+   */
   @Override
   public List<Ref> getRefsByPrefix(String... prefixes) throws IOException {
-    List<Ref> result = new ArrayList<>();
-    for (String prefix : prefixes) {
-      result.addAll(getRefsByPrefix(prefix));
+    ImmutableList<String> ranges = ranges(prefixes);
+    List<Ref> refs = new ArrayList<>();
+    for (String prefix : ranges) {
+      refs.addAll(getDelegate().getRefDatabase().getRefsByPrefix(prefix));
+    }
+    if (refs.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    Collection<Ref> result;
+    try {
+      // Pass the prefixes, so that cached filter results of different prefixes are kept apart.
+      result =
+          forProject.filter(
+              refs, getDelegate(), RefFilterOptions.builder().setPrefixes(ranges).build());
+    } catch (PermissionBackendException e) {
+      throw new IOException("", e);
+    }
+    return new ArrayList<>(result);
+  }
+
+  /** Returns the sorted prefixes that aren't covered by other prefixes. */
+  @VisibleForTesting
+  static ImmutableList<String> ranges(String... prefixes) {
+    ImmutableList.Builder<String> ranges = ImmutableList.builder();
+    String last = null;
+    for (String prefix : ImmutableSortedSet.copyOf(prefixes)) {
+      // In sorted order, all prefixes starting with a prefix directly follow it.
+      if (last == null || !prefix.startsWith(last)) {
+        ranges.add(prefix);
+        last = prefix;
+      }
     }
-    return Collections.unmodifiableList(result);
+    return ranges.build();
   }
 
   @Override
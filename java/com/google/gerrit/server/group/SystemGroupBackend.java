@@ -204,6 +204,11 @@ public class SystemGroupBackend extends AbstractGroupBackend {
     return new ListGroupMembership(ImmutableSet.of(ANONYMOUS_USERS));
   }
 
+  @Override
+  public boolean membershipsDependOnAccountOnly() {
+    return true;
+  }
+
   public static class NameCheck implements StartupCheck {
     private final Config cfg;
     private final Groups groups;
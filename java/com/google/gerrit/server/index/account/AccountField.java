@@ -31,6 +31,7 @@ import com.google.gerrit.server.config.AllUsersNameProvider;
 import java.sql.Timestamp;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Locale;
 import java.util.Objects;
 import java.util.Set;
@@ -110,6 +111,52 @@ public class AccountField {
   public static final IndexedField<AccountState, Iterable<String>>.SearchSpec
       NAME_PART_NO_SECONDARY_EMAIL_SPEC = NAME_PART_NO_SECONDARY_EMAIL_FIELD.prefix("name2");
 
+  /** Maximum length of the prefixes in {@link #NAME_PREFIX_FIELD}. */
+  public static final int MAX_NAME_PREFIX_LENGTH = 20;
+
+  /**
+   * Edge n-grams of name and email parts and of the username, i.e. all their prefixes of up to
+   * {@link #MAX_NAME_PREFIX_LENGTH} characters.
+   *
+   * <p>Looking up a prefix in this field is a single term lookup, which is much cheaper than a
+   * prefix query on {@link #NAME_PART_FIELD}, so it is used for suggesting accounts.
+   *
+   * <p>This field includes parts from the secondary emails. Use this field only if the current user
+   * is allowed to see secondary emails (requires the {@link GlobalCapability#MODIFY_ACCOUNT}
+   * capability), otherwise use {@link AccountField#NAME_PREFIX_NO_SECONDARY_EMAIL_SPEC}.
+   */
+  public static final IndexedField<AccountState, Iterable<String>> NAME_PREFIX_FIELD =
+      IndexedField.<AccountState>iterableStringBuilder("FullNameAllEmailsAndUsernamePrefixes")
+          .description("Prefixes of the full name, all linked emails, their parts and the username")
+          .required()
+          .build(
+              a ->
+                  getPrefixes(
+                      a,
+                      getNameParts(a, Iterables.transform(a.externalIds(), ExternalId::email))));
+
+  public static final IndexedField<AccountState, Iterable<String>>.SearchSpec NAME_PREFIX_SPEC =
+      NAME_PREFIX_FIELD.exact("name_prefix");
+
+  /**
+   * Edge n-grams of name and preferred email parts and of the username. Parts of secondary emails
+   * are not included.
+   */
+  public static final IndexedField<AccountState, Iterable<String>>
+      NAME_PREFIX_NO_SECONDARY_EMAIL_FIELD =
+          IndexedField.<AccountState>iterableStringBuilder(
+                  "FullNamePreferredEmailAndUsernamePrefixes")
+              .description(
+                  "Prefixes of the full name, the preferred email, its parts and the username")
+              .required()
+              .build(
+                  a ->
+                      getPrefixes(a, getNameParts(a, Arrays.asList(a.account().preferredEmail()))));
+
+  public static final IndexedField<AccountState, Iterable<String>>.SearchSpec
+      NAME_PREFIX_NO_SECONDARY_EMAIL_SPEC =
+          NAME_PREFIX_NO_SECONDARY_EMAIL_FIELD.exact("name_prefix2");
+
   public static final IndexedField<AccountState, String> FULL_NAME_FIELD =
       IndexedField.<AccountState>stringBuilder("FullName")
           .required()
@@ -255,5 +302,21 @@ public class AccountField {
     return parts;
   }
 
+  private static Set<String> getPrefixes(AccountState a, Set<String> nameParts) {
+    Set<String> prefixes = new HashSet<>();
+    for (String part : nameParts) {
+      addPrefixes(prefixes, part);
+    }
+    a.userName().ifPresent(u -> addPrefixes(prefixes, u.toLowerCase(Locale.US)));
+    return prefixes;
+  }
+
+  private static void addPrefixes(Set<String> prefixes, String s) {
+    int n = Math.min(s.length(), MAX_NAME_PREFIX_LENGTH);
+    for (int i = 1; i <= n; i++) {
+      prefixes.add(s.substring(0, i));
+    }
+  }
+
   private AccountField() {}
 }
@@ -86,7 +86,17 @@ public class AccountSchemaDefinitions extends SchemaDefinitions<AccountState> {
           .build();
 
   // Upgrade Lucene to 7.x requires reindexing.
-  static final Schema<AccountState> V12 = schema(V11);
+  @Deprecated static final Schema<AccountState> V12 = schema(V11);
+
+  // Add edge n-gram fields for suggesting accounts.
+  static final Schema<AccountState> V13 =
+      new Schema.Builder<AccountState>()
+          .add(V12)
+          .addIndexedFields(
+              AccountField.NAME_PREFIX_FIELD, AccountField.NAME_PREFIX_NO_SECONDARY_EMAIL_FIELD)
+          .addSearchSpecs(
+              AccountField.NAME_PREFIX_SPEC, AccountField.NAME_PREFIX_NO_SECONDARY_EMAIL_SPEC)
+          .build();
 
   /**
    * Name of the account index to be used when contacting index backends or loading configurations.
@@ -57,6 +57,7 @@ import com.google.gerrit.entities.Project;
 import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.entities.SubmitRecord;
 import com.google.gerrit.entities.SubmitRequirementResult;
+import com.google.gerrit.entities.converter.ChangeMessageProtoConverter;
 import com.google.gerrit.entities.converter.ChangeProtoConverter;
 import com.google.gerrit.entities.converter.PatchSetApprovalProtoConverter;
 import com.google.gerrit.entities.converter.PatchSetProtoConverter;
@@ -875,6 +876,18 @@ public class ChangeField {
                   cd.setCurrentApprovals(
                       decodeProtos(field, PatchSetApprovalProtoConverter.INSTANCE)));
 
+  /**
+   * Serialized change messages, used for pre-populating results.
+   *
+   * <p>Allows rendering the messages of query results without reading NoteDb.
+   */
+  public static final FieldDef<ChangeData, Iterable<byte[]>> STORED_MESSAGES =
+      storedOnly("_change_message")
+          .buildRepeatable(
+              cd -> toProtos(ChangeMessageProtoConverter.INSTANCE, cd.messages()),
+              (cd, field) ->
+                  cd.setMessages(decodeProtos(field, ChangeMessageProtoConverter.INSTANCE)));
+
   public static String formatLabel(String label, int value) {
     return formatLabel(label, value, /* accountId= */ null, /* count= */ null);
   }
@@ -17,6 +17,8 @@ package com.google.gerrit.server.index.change;
 import static com.google.gerrit.server.git.QueueProvider.QueueType.BATCH;
 
 import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -27,6 +29,9 @@ import com.google.gerrit.entities.Project;
 import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.extensions.events.ChangeIndexedListener;
 import com.google.gerrit.index.Index;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.index.IndexExecutor;
 import com.google.gerrit.server.index.StalenessCheckResult;
@@ -40,7 +45,9 @@ import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.util.RequestContext;
 import com.google.gerrit.server.util.ThreadLocalRequestContext;
+import com.google.inject.Inject;
 import com.google.inject.OutOfScopeException;
+import com.google.inject.Singleton;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
 import java.util.Collection;
@@ -62,12 +69,43 @@ import org.eclipse.jgit.lib.Config;
 public class ChangeIndexer {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  /**
+   * Maximum number of changes for which the values of the current patch set fields are kept to be
+   * reused by subsequent index updates.
+   */
+  private static final int MAX_REUSABLE_PATCH_SET_FIELDS = 10_000;
+
   public interface Factory {
     ChangeIndexer create(ListeningExecutorService executor, ChangeIndex index);
 
     ChangeIndexer create(ListeningExecutorService executor, ChangeIndexCollection indexes);
   }
 
+  @Singleton
+  static class Metrics {
+    final Counter0 fullRecomputeAvoided;
+    final Counter0 fullRecompute;
+
+    @Inject
+    Metrics(MetricMaker metricMaker) {
+      fullRecomputeAvoided =
+          metricMaker.newCounter(
+              "index/change/full_recompute_avoided",
+              new Description(
+                      "Number of change index updates that reused the fields of the unchanged"
+                          + " current patch set instead of recomputing them")
+                  .setRate()
+                  .setUnit("updates"));
+      fullRecompute =
+          metricMaker.newCounter(
+              "index/change/full_recompute",
+              new Description(
+                      "Number of change index updates that computed all fields of the change")
+                  .setRate()
+                  .setUnit("updates"));
+    }
+  }
+
   @Nullable private final ChangeIndexCollection indexes;
   @Nullable private final ChangeIndex index;
   private final ChangeData.Factory changeDataFactory;
@@ -79,6 +117,14 @@ public class ChangeIndexer {
   private final StalenessChecker stalenessChecker;
   private final boolean autoReindexIfStale;
   private final IsFirstInsertForEntry isFirstInsertForEntry;
+  private final Metrics metrics;
+
+  /**
+   * Values of the fields that depend on the current patch set only, by change, as they were
+   * computed for the last index update of the change.
+   */
+  private final Cache<Change.Id, CurrentPatchSetFields> currentPatchSetFields =
+      CacheBuilder.newBuilder().maximumSize(MAX_REUSABLE_PATCH_SET_FIELDS).build();
 
   private final Map<Change.Id, IndexTask> queuedIndexTasks = new ConcurrentHashMap<>();
   private final Set<ReindexIfStaleTask> queuedReindexIfStaleTasks =
@@ -95,7 +141,8 @@ public class ChangeIndexer {
       @IndexExecutor(BATCH) ListeningExecutorService batchExecutor,
       @Assisted ListeningExecutorService executor,
       @Assisted ChangeIndex index,
-      IsFirstInsertForEntry isFirstInsertForEntry) {
+      IsFirstInsertForEntry isFirstInsertForEntry,
+      Metrics metrics) {
     this.executor = executor;
     this.changeDataFactory = changeDataFactory;
     this.notesFactory = notesFactory;
@@ -107,6 +154,7 @@ public class ChangeIndexer {
     this.index = index;
     this.indexes = null;
     this.isFirstInsertForEntry = isFirstInsertForEntry;
+    this.metrics = metrics;
   }
 
   @AssistedInject
@@ -120,7 +168,8 @@ public class ChangeIndexer {
       @IndexExecutor(BATCH) ListeningExecutorService batchExecutor,
       @Assisted ListeningExecutorService executor,
       @Assisted ChangeIndexCollection indexes,
-      IsFirstInsertForEntry isFirstInsertForEntry) {
+      IsFirstInsertForEntry isFirstInsertForEntry,
+      Metrics metrics) {
     this.executor = executor;
     this.changeDataFactory = changeDataFactory;
     this.notesFactory = notesFactory;
@@ -132,6 +181,7 @@ public class ChangeIndexer {
     this.index = null;
     this.indexes = indexes;
     this.isFirstInsertForEntry = isFirstInsertForEntry;
+    this.metrics = metrics;
   }
 
   private static boolean autoReindexIfStale(Config cfg) {
@@ -188,11 +238,36 @@ public class ChangeIndexer {
    */
   public void index(ChangeData cd) {
     fireChangeScheduledForIndexingEvent(cd.project().get(), cd.getId().get());
-    doIndex(cd);
+    doIndex(cd, true);
   }
 
-  private void doIndex(ChangeData cd) {
-    indexImpl(cd);
+  /**
+   * Synchronously recompute all fields of a change and index it, then check if the index is stale
+   * due to a race condition.
+   *
+   * <p>Unlike {@link #index(ChangeData)} this doesn't reuse the values of the current patch set
+   * fields from the last index update of the change, so that explicit reindexing repairs a document
+   * that was written with wrong values.
+   *
+   * @param cd change to index.
+   */
+  public void reindex(ChangeData cd) {
+    fireChangeScheduledForIndexingEvent(cd.project().get(), cd.getId().get());
+    doIndex(cd, false);
+  }
+
+  /**
+   * Synchronously recompute all fields of a change and index it.
+   *
+   * @param change change to index.
+   * @see #reindex(ChangeData)
+   */
+  public void reindex(Change change) {
+    reindex(changeDataFactory.create(change));
+  }
+
+  private void doIndex(ChangeData cd, boolean reuse) {
+    indexImpl(cd, reuse);
 
     // Always double-check whether the change might be stale immediately after
     // interactively indexing it. This fixes up the case where two writers write
@@ -215,8 +290,13 @@ public class ChangeIndexer {
     autoReindexIfStale(cd);
   }
 
-  private void indexImpl(ChangeData cd) {
+  private void indexImpl(ChangeData cd, boolean reuse) {
     logger.atFine().log("Reindex change %d in index.", cd.getId().get());
+    if (reuse) {
+      reuseCurrentPatchSetFields(cd);
+    } else {
+      metrics.fullRecompute.increment();
+    }
     for (Index<?, ChangeData> i : getWriteIndexes()) {
       try (TraceTimer traceTimer =
           TraceContext.newTimer(
@@ -232,6 +312,9 @@ public class ChangeIndexer {
           i.replace(cd);
         }
       } catch (RuntimeException e) {
+        // The document may not have been written, hence the remembered values can no longer be
+        // trusted to match the index.
+        currentPatchSetFields.invalidate(cd.getId());
         throw new StorageException(
             String.format(
                 "Failed to reindex change %d in index version %d (current patch set = %d)",
@@ -239,9 +322,40 @@ public class ChangeIndexer {
             e);
       }
     }
+    // Only remember the values once they have been written to all indexes.
+    rememberCurrentPatchSetFields(cd);
     fireChangeIndexedEvent(cd.project().get(), cd.getId().get());
   }
 
+  /**
+   * Populates the fields of the change that only depend on the current patch set from the last
+   * index update of the change, if the current patch set didn't change since then.
+   *
+   * <p>This avoids recomputing the diff of the current patch set for updates that only affect
+   * votes, comments, reviewers or other change metadata. Values are only remembered if the diff
+   * could be computed, see {@link CurrentPatchSetFields#capture(ChangeData)}.
+   */
+  private void reuseCurrentPatchSetFields(ChangeData cd) {
+    CurrentPatchSetFields fields = currentPatchSetFields.getIfPresent(cd.getId());
+    if (fields != null && fields.reuseFor(cd)) {
+      logger.atFine().log(
+          "Reusing current patch set fields of change %d (commit %s)",
+          cd.getId().get(), fields.commitId().name());
+      metrics.fullRecomputeAvoided.increment();
+    } else {
+      metrics.fullRecompute.increment();
+    }
+  }
+
+  private void rememberCurrentPatchSetFields(ChangeData cd) {
+    CurrentPatchSetFields fields = CurrentPatchSetFields.capture(cd);
+    if (fields != null) {
+      currentPatchSetFields.put(cd.getId(), fields);
+    } else {
+      currentPatchSetFields.invalidate(cd.getId());
+    }
+  }
+
   private void fireChangeScheduledForIndexingEvent(String projectName, int id) {
     indexedListeners.runEach(l -> l.onChangeScheduledForIndexing(projectName, id));
   }
@@ -420,7 +534,7 @@ public class ChangeIndexer {
       try {
         ChangeNotes changeNotes = notesFactory.createChecked(project, id);
         ChangeData changeData = changeDataFactory.create(changeNotes);
-        doIndex(changeData);
+        doIndex(changeData, true);
         return changeData;
       } catch (NoSuchChangeException e) {
         doDelete(id);
@@ -465,6 +579,7 @@ public class ChangeIndexer {
     @Override
     public ChangeData call() {
       logger.atFine().log("Delete change %d from index.", id.get());
+      currentPatchSetFields.invalidate(id);
       // Don't bother setting a RequestContext to provide the DB.
       // Implementations should not need to access the DB in order to delete a
       // change ID.
@@ -502,7 +617,7 @@ public class ChangeIndexer {
         StalenessCheckResult stalenessCheckResult = stalenessChecker.check(id);
         if (stalenessCheckResult.isStale()) {
           logger.atInfo().log("Reindexing stale document %s", stalenessCheckResult);
-          indexImpl(changeDataFactory.create(project, id));
+          indexImpl(changeDataFactory.create(project, id), false);
           return true;
         }
       } catch (Exception e) {
@@ -0,0 +1,84 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.PatchSet;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.query.change.ChangeData.ChangedLines;
+import java.util.Optional;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Values of index fields that only depend on the commit of the current patch set of a change.
+ *
+ * <p>Computing these values requires a diff of the current patch set against its base, which is by
+ * far the most expensive part of building a change document. Most change updates (votes, comments,
+ * reviewer and attention set updates) don't touch the current patch set, so the values computed
+ * for the previous version of the document can be reused as long as the commit is unchanged.
+ */
+@AutoValue
+abstract class CurrentPatchSetFields {
+  /**
+   * Captures the current patch set fields of the given change.
+   *
+   * <p>Must only be called after the fields have been computed for indexing, otherwise this
+   * triggers the computation.
+   *
+   * @return the captured values, or {@code null} if there is no current patch set or its diff was
+   *     not available. A diff that failed to compute must not be reused, so that the next index
+   *     update of the change retries it.
+   */
+  @Nullable
+  static CurrentPatchSetFields capture(ChangeData cd) {
+    PatchSet ps = cd.currentPatchSet();
+    if (ps == null) {
+      return null;
+    }
+    // The changed lines are only missing if the diff summary, which is also the source of the file
+    // paths, could not be computed.
+    Optional<ChangedLines> changedLines = cd.changedLines();
+    if (!changedLines.isPresent()) {
+      return null;
+    }
+    return new AutoValue_CurrentPatchSetFields(
+        ps.commitId(), ImmutableList.copyOf(cd.currentFilePaths()), changedLines.get());
+  }
+
+  /** Commit of the current patch set for which the values have been computed. */
+  abstract ObjectId commitId();
+
+  abstract ImmutableList<String> filePaths();
+
+  abstract ChangedLines changedLines();
+
+  /**
+   * Populates the given change with the captured values, if they are still valid for its current
+   * patch set.
+   *
+   * @return whether the values have been reused.
+   */
+  boolean reuseFor(ChangeData cd) {
+    PatchSet ps = cd.currentPatchSet();
+    if (ps == null || !ps.commitId().equals(commitId())) {
+      return false;
+    }
+    cd.setCurrentFilePaths(filePaths());
+    cd.setChangedLines(changedLines().insertions, changedLines().deletions);
+    return true;
+  }
+}
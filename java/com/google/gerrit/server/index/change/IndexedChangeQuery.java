@@ -99,7 +99,7 @@ public class IndexedChangeQuery extends IndexedQuery<Change.Id, ChangeData>
   @Override
   public ResultSet<ChangeData> read() {
     final DataSource<ChangeData> currSource = source;
-    final ResultSet<ChangeData> rs = currSource.read();
+    final ResultSet<ChangeData> rs = read(currSource::read);
 
     return new ResultSet<>() {
       @Override
@@ -141,7 +141,7 @@ public class IndexedChangeQuery extends IndexedQuery<Change.Id, ChangeData>
           "match invoked, but child predicate %s doesn't implement %s",
           pred,
           Matchable.class.getName());
-      return pred.asMatchable().match(cd);
+      return profile != null ? profile.match(pred, cd) : pred.asMatchable().match(cd);
     }
     for (int i = 0; i < pred.getChildCount(); i++) {
       if (!postIndexMatch(pred.getChild(i), cd)) {
@@ -151,6 +151,11 @@ public class IndexedChangeQuery extends IndexedQuery<Change.Id, ChangeData>
     return true;
   }
 
+  @Override
+  public boolean isPostFilter(Predicate<ChangeData> p) {
+    return p instanceof ChangeIndexPostFilterPredicate || super.isPostFilter(p);
+  }
+
   @Override
   public boolean match(ChangeData cd) {
     Predicate<ChangeData> pred = getChild(0);
@@ -148,6 +148,12 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
       return createChecked(project, changeId, null);
     }
 
+    public ChangeNotes createChecked(
+        Repository repository, Project.NameKey project, Change.Id changeId, ObjectId metaRevId) {
+      Change change = newChange(project, changeId);
+      return new ChangeNotes(args, change, true, null, metaRevId).load(repository);
+    }
+
     public static Change newChange(Project.NameKey project, Change.Id changeId) {
       return new Change(
           null, changeId, null, BranchNameKey.create(project, "INVALID_NOTE_DB_ONLY"), null);
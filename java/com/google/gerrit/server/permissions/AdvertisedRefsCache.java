@@ -0,0 +1,328 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.permissions;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.server.AnonymousUser;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.permissions.PermissionBackend.RefFilterOptions;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+
+/**
+ * Caches the results of filtering large sets of refs, like the ref advertisements of fetches, by
+ * visibility.
+ *
+ * <p>Entries are keyed by everything the visibility of refs depends on besides the refs
+ * themselves: the project and its configuration revisions, the user, the user's memberships in the
+ * groups that the access rules reference and the user's global capabilities that grant access to
+ * refs. Each entry holds the refs it was computed for and the names of the visible refs.
+ *
+ * <p>If the refs to filter are the same as in the entry, the cached result is returned. If only
+ * Gerrit refs changed, like the refs of changes that got new patch sets, only the changed refs and
+ * the other refs of their changes are filtered again and the entry is updated. The visibility of
+ * the remaining refs can't depend on Gerrit refs. Changes of other refs, like branches, may change
+ * the visibility of tags, so that all refs are filtered again.
+ *
+ * <p>Tags may be visible because they are reachable from any visible branch of the project, also
+ * from branches that are not among the filtered refs. Hence if tags are filtered, the entry also
+ * holds the tips of all branches that tags can be reachable from and all refs are filtered again
+ * if any of them changed.
+ *
+ * <p>Entries expire after a few minutes, so that changes of the user's account that affect ref
+ * patterns like {@code ${username}} are picked up.
+ */
+@Singleton
+public class AdvertisedRefsCache {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String CACHE_NAME = "advertised_refs";
+
+  /** Global capabilities that affect the visibility of refs. */
+  private static final ImmutableSet<GlobalPermission> REF_CAPABILITIES =
+      ImmutableSet.of(GlobalPermission.ACCESS_DATABASE, GlobalPermission.ADMINISTRATE_SERVER);
+
+  /** Minimum number of refs for which filter results are cached. */
+  @VisibleForTesting static final int MIN_REFS = 256;
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, Key.class, Snapshot.class)
+            .maximumWeight(1 << 20)
+            .weigher(Weigher.class)
+            .expireAfterWrite(Duration.ofMinutes(5));
+        bind(AdvertisedRefsCache.class);
+      }
+    };
+  }
+
+  /** Filters refs by visibility. */
+  @FunctionalInterface
+  interface RefFilter {
+    ImmutableList<Ref> filter(Collection<Ref> refs) throws PermissionBackendException;
+  }
+
+  /** Returns the refs of a project that tags can be reachable from. */
+  @FunctionalInterface
+  interface TaggableRefs {
+    Collection<Ref> get() throws PermissionBackendException;
+  }
+
+  private final Cache<Key, Snapshot> cache;
+  private final PermissionBackend permissionBackend;
+
+  @Inject
+  AdvertisedRefsCache(
+      @Named(CACHE_NAME) Cache<Key, Snapshot> cache, PermissionBackend permissionBackend) {
+    this.cache = cache;
+    this.permissionBackend = permissionBackend;
+  }
+
+  /**
+   * Filters refs by visibility, reusing the result of a previous filter operation with the same
+   * key if possible.
+   *
+   * @param projectControl control of the user for the project of the refs.
+   * @param refs refs to filter.
+   * @param opts filter options.
+   * @param taggableRefs refs of the project that tags can be reachable from.
+   * @param filter filter to apply to refs whose visibility isn't known yet.
+   * @return visible refs, in the order of {@code refs}.
+   */
+  ImmutableList<Ref> filter(
+      ProjectControl projectControl,
+      Collection<Ref> refs,
+      RefFilterOptions opts,
+      TaggableRefs taggableRefs,
+      RefFilter filter)
+      throws PermissionBackendException {
+    return filter(key(projectControl, refs, opts), refs, taggableRefs, filter);
+  }
+
+  @VisibleForTesting
+  ImmutableList<Ref> filter(
+      @Nullable Key key, Collection<Ref> refs, TaggableRefs taggableRefs, RefFilter filter)
+      throws PermissionBackendException {
+    if (key == null) {
+      return filter.filter(refs);
+    }
+
+    ImmutableMap<String, Ref> current = byName(refs);
+    ImmutableMap<String, ObjectId> taggableTips =
+        refs.stream().anyMatch(r -> r.getName().startsWith(RefNames.REFS_TAGS))
+            ? tips(taggableRefs.get())
+            : ImmutableMap.of();
+    Snapshot previous = cache.getIfPresent(key);
+    Set<String> visible;
+    if (previous == null || !previous.taggableTips().equals(taggableTips)) {
+      visible = names(filter.filter(refs));
+    } else {
+      Set<String> changed = changedRefs(previous.refs(), current);
+      if (changed.isEmpty()) {
+        return select(refs, previous.visible());
+      }
+      visible = update(previous, current, changed, filter);
+    }
+    cache.put(key, Snapshot.create(current, taggableTips, ImmutableSet.copyOf(visible)));
+    return select(refs, visible);
+  }
+
+  @Nullable
+  private Key key(ProjectControl projectControl, Collection<Ref> refs, RefFilterOptions opts)
+      throws PermissionBackendException {
+    CurrentUser user = projectControl.getUser();
+    if (refs.size() < MIN_REFS
+        || projectControl.getProjectState().isAllUsers()
+        || !(user.isIdentifiedUser() || user instanceof AnonymousUser)) {
+      // Results for few refs are cheap to compute. Refs in All-Users are specific to users and
+      // their visibility also depends on group ownerships.
+      return null;
+    }
+    if (logger.atFine().isEnabled()) {
+      // Filter the refs, so that the visibility decisions get logged.
+      return null;
+    }
+    return Key.create(
+        projectControl.getProject().getNameKey(),
+        projectControl.getConfigRevisions(),
+        user.getCacheKey(),
+        projectControl.getRelevantGroups(),
+        permissionBackend.user(user).test(REF_CAPABILITIES),
+        opts);
+  }
+
+  /** Updates the visible refs of a snapshot, filtering only refs whose visibility may differ. */
+  private static Set<String> update(
+      Snapshot previous, ImmutableMap<String, Ref> current, Set<String> changed, RefFilter filter)
+      throws PermissionBackendException {
+    if (changed.stream().anyMatch(name -> !RefNames.isGerritRef(name))
+        || changed.size() > current.size() / 2) {
+      return names(filter.filter(current.values()));
+    }
+
+    // The visibility of change refs depends on the meta ref of the change.
+    Set<Change.Id> changedChanges = new HashSet<>();
+    for (String name : changed) {
+      Change.Id id = Change.Id.fromRef(name);
+      if (id != null) {
+        changedChanges.add(id);
+      }
+    }
+    List<Ref> toFilter = new ArrayList<>();
+    Set<String> visible = new HashSet<>(previous.visible().size());
+    for (Ref ref : current.values()) {
+      String name = ref.getName();
+      if (changed.contains(name) || changedChanges.contains(Change.Id.fromRef(name))) {
+        toFilter.add(ref);
+      } else if (previous.visible().contains(name)) {
+        visible.add(name);
+      }
+    }
+    visible.addAll(names(filter.filter(toFilter)));
+    return visible;
+  }
+
+  /** Returns the names of refs that were added, updated or deleted. */
+  private static Set<String> changedRefs(
+      ImmutableMap<String, Ref> previous, ImmutableMap<String, Ref> current) {
+    Set<String> changed = new HashSet<>();
+    for (Map.Entry<String, Ref> e : current.entrySet()) {
+      if (!sameRef(e.getValue(), previous.get(e.getKey()))) {
+        changed.add(e.getKey());
+      }
+    }
+    for (String name : previous.keySet()) {
+      if (!current.containsKey(name)) {
+        changed.add(name);
+      }
+    }
+    return changed;
+  }
+
+  private static boolean sameRef(Ref a, @Nullable Ref b) {
+    return b != null
+        && Objects.equals(a.getObjectId(), b.getObjectId())
+        && a.isSymbolic() == b.isSymbolic()
+        && a.getLeaf().getName().equals(b.getLeaf().getName());
+  }
+
+  private static ImmutableMap<String, Ref> byName(Collection<Ref> refs) {
+    return refs.stream().collect(toImmutableMap(Ref::getName, r -> r, (a, b) -> b));
+  }
+
+  private static ImmutableMap<String, ObjectId> tips(Collection<Ref> refs) {
+    return refs.stream()
+        .filter(r -> r.getObjectId() != null)
+        .collect(toImmutableMap(Ref::getName, Ref::getObjectId, (a, b) -> b));
+  }
+
+  private static Set<String> names(Collection<Ref> refs) {
+    Set<String> result = new HashSet<>(refs.size());
+    refs.forEach(r -> result.add(r.getName()));
+    return result;
+  }
+
+  private static ImmutableList<Ref> select(Collection<Ref> refs, Set<String> visible) {
+    return refs.stream().filter(r -> visible.contains(r.getName())).collect(toImmutableList());
+  }
+
+  @AutoValue
+  abstract static class Key {
+    abstract Project.NameKey project();
+
+    /** Configuration revisions of the project and its parents. */
+    abstract ImmutableList<ObjectId> revisions();
+
+    /** The account ID for identified users, a constant for anonymous users. */
+    abstract Object user();
+
+    /** The groups granted rules in the project and its parents which the user is a member of. */
+    abstract ImmutableSet<AccountGroup.UUID> groups();
+
+    abstract ImmutableSet<GlobalPermission> capabilities();
+
+    abstract RefFilterOptions options();
+
+    static Key create(
+        Project.NameKey project,
+        ImmutableList<ObjectId> revisions,
+        Object user,
+        ImmutableSet<AccountGroup.UUID> groups,
+        Set<GlobalPermission> capabilities,
+        RefFilterOptions options) {
+      return new AutoValue_AdvertisedRefsCache_Key(
+          project, revisions, user, groups, ImmutableSet.copyOf(capabilities), options);
+    }
+  }
+
+  @AutoValue
+  abstract static class Snapshot {
+    /** The filtered refs by name. */
+    abstract ImmutableMap<String, Ref> refs();
+
+    /**
+     * The tips of the refs that tags can be reachable from, if tags were filtered. Empty
+     * otherwise.
+     */
+    abstract ImmutableMap<String, ObjectId> taggableTips();
+
+    /** The names of the visible refs. */
+    abstract ImmutableSet<String> visible();
+
+    static Snapshot create(
+        ImmutableMap<String, Ref> refs,
+        ImmutableMap<String, ObjectId> taggableTips,
+        ImmutableSet<String> visible) {
+      return new AutoValue_AdvertisedRefsCache_Snapshot(refs, taggableTips, visible);
+    }
+  }
+
+  static class Weigher implements com.google.common.cache.Weigher<Key, Snapshot> {
+    @Override
+    public int weigh(Key key, Snapshot value) {
+      // Weigh entries by the number of refs they hold.
+      return value.refs().size() + value.taggableTips().size();
+    }
+  }
+}
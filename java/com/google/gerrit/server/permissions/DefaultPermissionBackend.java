@@ -17,14 +17,13 @@ package com.google.gerrit.server.permissions;
 import static com.google.gerrit.server.permissions.DefaultPermissionMappings.globalPermissionName;
 import static com.google.gerrit.server.project.ProjectCache.illegalState;
 import static java.util.Objects.requireNonNull;
-import static java.util.stream.Collectors.toSet;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Sets;
 import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.data.GlobalCapability;
 import com.google.gerrit.entities.Account;
-import com.google.gerrit.entities.AccountGroup;
 import com.google.gerrit.entities.PermissionRule;
-import com.google.gerrit.entities.PermissionRule.Action;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.api.access.GlobalOrPluginPermission;
 import com.google.gerrit.extensions.api.access.PluginPermission;
@@ -36,11 +35,15 @@ import com.google.gerrit.server.PeerDaemonUser;
 import com.google.gerrit.server.account.CapabilityCollection;
 import com.google.gerrit.server.cache.PerThreadCache;
 import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectState;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
@@ -115,6 +118,7 @@ public class DefaultPermissionBackend extends PermissionBackend {
   class WithUserImpl extends WithUser {
     private final CurrentUser user;
     private Boolean admin;
+    private CapabilityCollection.UserCapabilities userCapabilities;
 
     WithUserImpl(CurrentUser user) {
       this.user = requireNonNull(user, "user");
@@ -137,6 +141,43 @@ public class DefaultPermissionBackend extends PermissionBackend {
       }
     }
 
+    @Override
+    public Set<Project.NameKey> filter(ProjectPermission perm, Collection<Project.NameKey> projects)
+        throws PermissionBackendException {
+      if (perm != ProjectPermission.ACCESS && perm != ProjectPermission.READ_CONFIG) {
+        return super.filter(perm, projects);
+      }
+
+      // Both permissions only depend on the access sections and owners of the project and its
+      // parents. Projects without access sections of their own share the result of any other such
+      // project with the same parent, so check only one project per parent.
+      Set<Project.NameKey> allowed = Sets.newHashSetWithExpectedSize(projects.size());
+      List<Project.NameKey> others = new ArrayList<>();
+      Map<Project.NameKey, Boolean> byParent = new HashMap<>();
+      Project.NameKey allProjectsName = projectCache.getAllProjects().getNameKey();
+      for (Project.NameKey project : projects) {
+        Optional<ProjectState> state = projectCache.get(project);
+        if (!state.isPresent()
+            || state.get().isAllProjects()
+            || state.get().isAllUsers()
+            || state.get().hasLocalAccessSections()) {
+          others.add(project);
+          continue;
+        }
+        Project.NameKey parent = state.get().getProject().getParent(allProjectsName);
+        Boolean can = byParent.get(parent);
+        if (can == null) {
+          can = !super.filter(perm, ImmutableList.of(project)).isEmpty();
+          byParent.put(parent, can);
+        }
+        if (can) {
+          allowed.add(project);
+        }
+      }
+      allowed.addAll(super.filter(perm, others));
+      return allowed;
+    }
+
     @Override
     public void check(GlobalOrPluginPermission perm)
         throws AuthException, PermissionBackendException {
@@ -228,18 +269,18 @@ public class DefaultPermissionBackend extends PermissionBackend {
       if (user instanceof PeerDaemonUser) {
         return true;
       }
-      return allow(capabilities().administrateServer);
+      return userCapabilities().isAllowed(GlobalCapability.ADMINISTRATE_SERVER);
     }
 
     private boolean canEmailReviewers() {
       List<PermissionRule> email = capabilities().emailReviewers;
-      if (allow(email)) {
+      if (userCapabilities().isAllowed(GlobalCapability.EMAIL_REVIEWERS)) {
         logger.atFinest().log(
             "user %s can email reviewers (allowed by %s)", user.getLoggableName(), email);
         return true;
       }
 
-      if (notDenied(email)) {
+      if (userCapabilities().isNotDenied(GlobalCapability.EMAIL_REVIEWERS)) {
         logger.atFinest().log(
             "user %s can email reviewers (not denied by %s)", user.getLoggableName(), email);
         return true;
@@ -250,7 +291,7 @@ public class DefaultPermissionBackend extends PermissionBackend {
     }
 
     private boolean has(String permissionName) {
-      boolean has = allow(capabilities().getPermission(requireNonNull(permissionName)));
+      boolean has = userCapabilities().isAllowed(requireNonNull(permissionName));
       if (has) {
         logger.atFinest().log(
             "user %s has global capability %s", user.getLoggableName(), permissionName);
@@ -261,22 +302,11 @@ public class DefaultPermissionBackend extends PermissionBackend {
       return has;
     }
 
-    private boolean allow(Collection<PermissionRule> rules) {
-      return user.getEffectiveGroups()
-          .containsAnyOf(
-              rules.stream()
-                  .filter(r -> r.getAction() == Action.ALLOW)
-                  .map(r -> r.getGroup().getUUID())
-                  .collect(toSet()));
-    }
-
-    private boolean notDenied(Collection<PermissionRule> rules) {
-      Set<AccountGroup.UUID> denied =
-          rules.stream()
-              .filter(r -> r.getAction() != Action.ALLOW)
-              .map(r -> r.getGroup().getUUID())
-              .collect(toSet());
-      return denied.isEmpty() || !user.getEffectiveGroups().containsAnyOf(denied);
+    private CapabilityCollection.UserCapabilities userCapabilities() {
+      if (userCapabilities == null) {
+        userCapabilities = capabilities().forUser(user.getEffectiveGroups());
+      }
+      return userCapabilities;
     }
   }
 }
@@ -15,7 +15,6 @@
 package com.google.gerrit.server.permissions;
 
 import static com.google.common.base.Preconditions.checkState;
-import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.flogger.LazyArgs.lazy;
 import static com.google.gerrit.entities.RefNames.REFS_CONFIG;
 import static java.util.stream.Collectors.toCollection;
@@ -27,7 +26,6 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
-import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.BranchNameKey;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.RefNames;
@@ -36,12 +34,11 @@ import com.google.gerrit.metrics.Description;
 import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.config.GerritServerConfig;
-import com.google.gerrit.server.git.SearchingChangeCacheImpl;
+import com.google.gerrit.server.git.ChangeVisibilityCache;
 import com.google.gerrit.server.git.TagCache;
 import com.google.gerrit.server.git.TagMatcher;
 import com.google.gerrit.server.logging.TraceContext;
 import com.google.gerrit.server.logging.TraceContext.TraceTimer;
-import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.permissions.PermissionBackend.RefFilterOptions;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.server.query.change.ChangeData;
@@ -51,7 +48,6 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Objects;
 import java.util.stream.Collectors;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
@@ -66,15 +62,14 @@ class DefaultRefFilter {
   }
 
   private final TagCache tagCache;
+  private final AdvertisedRefsCache advertisedRefsCache;
   private final PermissionBackend permissionBackend;
   private final RefVisibilityControl refVisibilityControl;
   private final ProjectControl projectControl;
   private final CurrentUser user;
   private final ProjectState projectState;
   private final PermissionBackend.ForProject permissionBackendForProject;
-  private final @Nullable SearchingChangeCacheImpl searchingChangeDataProvider;
-  private final ChangeData.Factory changeDataFactory;
-  private final ChangeNotes.Factory changeNotesFactory;
+  private final ChangeVisibilityCache changeVisibilityCache;
   private final Counter0 fullFilterCount;
   private final Counter0 skipFilterCount;
   private final boolean skipFullRefEvaluationIfAllRefsAreVisible;
@@ -82,20 +77,18 @@ class DefaultRefFilter {
   @Inject
   DefaultRefFilter(
       TagCache tagCache,
+      AdvertisedRefsCache advertisedRefsCache,
       PermissionBackend permissionBackend,
       RefVisibilityControl refVisibilityControl,
       @GerritServerConfig Config config,
       MetricMaker metricMaker,
-      @Nullable SearchingChangeCacheImpl searchingChangeDataProvider,
-      ChangeData.Factory changeDataFactory,
-      ChangeNotes.Factory changeNotesFactory,
+      ChangeVisibilityCache changeVisibilityCache,
       @Assisted ProjectControl projectControl) {
     this.tagCache = tagCache;
+    this.advertisedRefsCache = advertisedRefsCache;
     this.permissionBackend = permissionBackend;
     this.refVisibilityControl = refVisibilityControl;
-    this.searchingChangeDataProvider = searchingChangeDataProvider;
-    this.changeDataFactory = changeDataFactory;
-    this.changeNotesFactory = changeNotesFactory;
+    this.changeVisibilityCache = changeVisibilityCache;
     this.skipFullRefEvaluationIfAllRefsAreVisible =
         config.getBoolean("auth", "skipFullRefEvaluationIfAllRefsAreVisible", true);
     this.projectControl = projectControl;
@@ -120,6 +113,17 @@ class DefaultRefFilter {
   /** Filters given refs and tags by visibility. */
   ImmutableList<Ref> filter(Collection<Ref> refs, Repository repo, RefFilterOptions opts)
       throws PermissionBackendException {
+    return advertisedRefsCache.filter(
+        projectControl,
+        refs,
+        opts,
+        () -> getTaggableRefs(repo),
+        r -> filterUncached(r, repo, opts));
+  }
+
+  private ImmutableList<Ref> filterUncached(
+      Collection<Ref> refs, Repository repo, RefFilterOptions opts)
+      throws PermissionBackendException {
     logger.atFinest().log(
         "Filter refs for repository %s by visibility (options = %s, refs = %s)",
         projectState.getNameKey(), opts, refs);
@@ -139,13 +143,11 @@ class DefaultRefFilter {
         Suppliers.memoize(
             () ->
                 GitVisibleChangeFilter.getVisibleChanges(
-                    searchingChangeDataProvider,
-                    changeNotesFactory,
-                    changeDataFactory,
+                    changeVisibilityCache,
                     projectState.getNameKey(),
                     permissionBackendForProject,
                     repo,
-                    changes(refs)));
+                    refs));
     Result initialRefFilter = filterRefs(new ArrayList<>(refs), opts, visibleChanges);
     ImmutableList.Builder<Ref> visibleRefs = ImmutableList.builder();
     visibleRefs.addAll(initialRefFilter.visibleRefs());
@@ -256,8 +258,7 @@ class DefaultRefFilter {
       } else if ((changeId = Change.Id.fromRef(refName)) != null) {
         // This is a mere performance optimization. RefVisibilityControl could determine the
         // visibility of these refs just fine. But instead, we use highly-optimized logic that
-        // looks only on the available changes in the change index and cache (which are the
-        // most recent changes).
+        // looks only on the summaries of the changes in the change visibility cache.
         if (hasAccessDatabase) {
           resultRefs.add(ref);
         } else if (!visibleChanges.get().containsKey(changeId)) {
@@ -300,19 +301,6 @@ class DefaultRefFilter {
     }
   }
 
-  /**
-   * Returns the number of changes contained in {@code refs}. A change has one meta ref and many
-   * patch set refs. We count over the meta refs to make sure we get the number of unique changes in
-   * the provided refs.
-   */
-  private static ImmutableSet<Change.Id> changes(Collection<Ref> refs) {
-    return refs.stream()
-        .map(Ref::getName)
-        .map(Change.Id::fromRef)
-        .filter(Objects::nonNull)
-        .collect(toImmutableSet());
-  }
-
   private List<Ref> fastHideRefsMetaConfig(List<Ref> refs) throws PermissionBackendException {
     if (!canReadRef(REFS_CONFIG)) {
       return refs.stream()
@@ -37,15 +37,17 @@ import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.project.RefPattern;
 import com.google.gerrit.server.project.RefPatternMatcher.ExpandParameters;
 import com.google.gerrit.server.project.SectionMatcher;
+import com.google.gerrit.server.project.SectionMatcherIndex;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -130,6 +132,22 @@ public class PermissionCollection {
      */
     PermissionCollection filter(
         Iterable<SectionMatcher> matcherList, String ref, CurrentUser user) {
+      return filter(r -> matcherList, ref, user);
+    }
+
+    /**
+     * Get all permissions that apply to a reference, like {@link #filter(Iterable, String,
+     * CurrentUser)}, but only match the reference against the sections that the index yields as
+     * candidates.
+     */
+    PermissionCollection filter(SectionMatcherIndex index, String ref, CurrentUser user) {
+      return filter(index::getCandidates, ref, user);
+    }
+
+    private PermissionCollection filter(
+        Function<String, ? extends Iterable<SectionMatcher>> candidates,
+        String ref,
+        CurrentUser user) {
       try (Timer0.Context ignored = filterLatency.start()) {
         if (isRE(ref)) {
           if (!containsParameters(ref)) {
@@ -141,7 +159,8 @@ public class PermissionCollection {
 
         // LinkedHashMap to maintain input ordering.
         Map<AccessSection, Project.NameKey> sectionToProject = new LinkedHashMap<>();
-        boolean perUser = filterRefMatchingSections(matcherList, ref, user, sectionToProject);
+        boolean perUser =
+            filterRefMatchingSections(candidates.apply(ref), ref, user, sectionToProject);
         List<AccessSection> sections = Lists.newArrayList(sectionToProject.keySet());
 
         // Sort by ref pattern specificity. For equally specific patterns, the sections from the
@@ -271,8 +290,9 @@ public class PermissionCollection {
       boolean perUser) {
     this.accessSectionsPerProjectDownward = accessSectionsDownward;
     this.accessSectionsUpward = accessSectionsUpward;
-    this.rulesByPermission = new HashMap<>();
-    this.blockPerProjectByPermission = new HashMap<>();
+    // Concurrent maps, as collections are shared across requests by PermissionDecisionCache.
+    this.rulesByPermission = new ConcurrentHashMap<>();
+    this.blockPerProjectByPermission = new ConcurrentHashMap<>();
     this.perUser = perUser;
   }
 
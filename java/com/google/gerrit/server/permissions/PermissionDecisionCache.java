@@ -0,0 +1,192 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.permissions;
+
+import com.google.auto.value.AutoValue;
+import com.google.auto.value.extension.memoized.Memoized;
+import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Caches the permissions that apply to a reference, and the decisions taken on them, across
+ * requests.
+ *
+ * <p>Whether a user may perform an action on a reference only depends on the access sections of
+ * the project and its parents and on the groups of the user which these sections grant rules to.
+ * Entries are therefore keyed by the configuration revisions of the projects, the reference and the
+ * user's memberships in the referenced groups, so that users with the same relevant memberships,
+ * like many CI accounts, share the entries. Changes of the project configurations or the group
+ * memberships lead to different keys, so entries never need to be invalidated explicitly.
+ *
+ * <p>Permissions that are specific to the user, because they come from sections with "${username}"
+ * in their names, are not cached.
+ */
+@Singleton
+public class PermissionDecisionCache {
+  private static final String CACHE_NAME = "permission_decisions";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, Key.class, Decisions.class).maximumWeight(16 << 10);
+        bind(PermissionDecisionCache.class);
+      }
+    };
+  }
+
+  private final Cache<Key, Decisions> cache;
+  private final Counter0 savedEvaluationTime;
+
+  @Inject
+  PermissionDecisionCache(@Named(CACHE_NAME) Cache<Key, Decisions> cache, MetricMaker metricMaker) {
+    this.cache = cache;
+    this.savedEvaluationTime =
+        metricMaker.newCounter(
+            "permissions/permission_decisions/saved_evaluation_time",
+            new Description(
+                    "Time spent originally on the access filter computations and permission"
+                        + " decisions that were reused from the permission_decisions cache")
+                .setCumulative()
+                .setUnit(Units.NANOSECONDS));
+  }
+
+  /**
+   * Returns the decisions for a reference.
+   *
+   * @param key key of the decisions, or null if the decisions must not be shared.
+   * @param filter computes the permissions that apply to the reference, if they are not cached.
+   */
+  Decisions get(@Nullable Key key, Supplier<PermissionCollection> filter) {
+    if (key != null) {
+      Decisions decisions = cache.getIfPresent(key);
+      if (decisions != null) {
+        savedEvaluationTime.incrementBy(decisions.filterNanos);
+        return decisions;
+      }
+    }
+
+    long start = System.nanoTime();
+    PermissionCollection relevant = filter.get();
+    Decisions decisions = new Decisions(relevant, System.nanoTime() - start);
+    if (key != null && !relevant.isUserSpecific()) {
+      cache.put(key, decisions);
+    }
+    return decisions;
+  }
+
+  /** The permissions that apply to a reference and the decisions taken on them so far. */
+  class Decisions {
+    private final PermissionCollection relevant;
+    private final long filterNanos;
+    private final Map<DecisionKey, Decision> decisions = new ConcurrentHashMap<>();
+
+    private Decisions(PermissionCollection relevant, long filterNanos) {
+      this.relevant = relevant;
+      this.filterNanos = filterNanos;
+    }
+
+    PermissionCollection relevant() {
+      return relevant;
+    }
+
+    /**
+     * Returns whether the permission can be performed, evaluating the rules only if this wasn't
+     * decided before.
+     */
+    boolean canPerform(
+        String permissionName, boolean isChangeOwner, boolean withForce, BooleanSupplier eval) {
+      DecisionKey key = DecisionKey.create(permissionName, isChangeOwner, withForce);
+      Decision decision = decisions.get(key);
+      if (decision != null) {
+        savedEvaluationTime.incrementBy(decision.evaluationNanos());
+        return decision.allowed();
+      }
+
+      long start = System.nanoTime();
+      boolean allowed = eval.getAsBoolean();
+      decisions.put(key, Decision.create(allowed, System.nanoTime() - start));
+      return allowed;
+    }
+  }
+
+  @AutoValue
+  abstract static class Key {
+    abstract Project.NameKey project();
+
+    /** Configuration revisions of the project and its parents. */
+    abstract ImmutableList<ObjectId> revisions();
+
+    abstract String ref();
+
+    /** The groups granted rules in the project and its parents which the user is a member of. */
+    abstract ImmutableSet<AccountGroup.UUID> groups();
+
+    static Key create(
+        Project.NameKey project,
+        ImmutableList<ObjectId> revisions,
+        String ref,
+        ImmutableSet<AccountGroup.UUID> groups) {
+      return new AutoValue_PermissionDecisionCache_Key(project, revisions, ref, groups);
+    }
+
+    @Memoized
+    @Override
+    public abstract int hashCode();
+  }
+
+  @AutoValue
+  abstract static class DecisionKey {
+    abstract String permissionName();
+
+    abstract boolean isChangeOwner();
+
+    abstract boolean withForce();
+
+    static DecisionKey create(String permissionName, boolean isChangeOwner, boolean withForce) {
+      return new AutoValue_PermissionDecisionCache_DecisionKey(
+          permissionName, isChangeOwner, withForce);
+    }
+  }
+
+  @AutoValue
+  abstract static class Decision {
+    abstract boolean allowed();
+
+    abstract long evaluationNanos();
+
+    static Decision create(boolean allowed, long evaluationNanos) {
+      return new AutoValue_PermissionDecisionCache_Decision(allowed, evaluationNanos);
+    }
+  }
+}
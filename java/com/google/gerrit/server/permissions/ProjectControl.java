@@ -20,6 +20,8 @@ import static com.google.gerrit.entities.AccessSection.REGEX_PREFIX;
 import static com.google.gerrit.entities.RefNames.REFS_TAGS;
 import static com.google.gerrit.server.util.MagicBranch.NEW_CHANGE;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.AccessSection;
@@ -49,6 +51,7 @@ import com.google.gerrit.server.permissions.PermissionBackend.ForRef;
 import com.google.gerrit.server.permissions.PermissionBackend.RefFilterOptions;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.server.project.SectionMatcher;
+import com.google.gerrit.server.project.SectionMatcherIndex;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
@@ -59,6 +62,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 
@@ -76,11 +80,13 @@ class ProjectControl {
   private final CurrentUser user;
   private final ProjectState state;
   private final PermissionCollection.Factory permissionFilter;
+  private final PermissionDecisionCache decisionCache;
   private final DefaultRefFilter.Factory refFilterFactory;
   private final ChangeData.Factory changeDataFactory;
   private final AllUsersName allUsersName;
 
-  private List<SectionMatcher> allSections;
+  private SectionMatcherIndex allSections;
+  private ImmutableSet<AccountGroup.UUID> relevantGroups;
   private Map<String, RefControl> refControls;
   private Boolean declaredOwner;
 
@@ -89,6 +95,7 @@ class ProjectControl {
       @GitUploadPackGroups Set<AccountGroup.UUID> uploadGroups,
       @GitReceivePackGroups Set<AccountGroup.UUID> receiveGroups,
       PermissionCollection.Factory permissionFilter,
+      PermissionDecisionCache decisionCache,
       PermissionBackend permissionBackend,
       RefVisibilityControl refVisibilityControl,
       GitRepositoryManager repositoryManager,
@@ -100,6 +107,7 @@ class ProjectControl {
     this.uploadGroups = uploadGroups;
     this.receiveGroups = receiveGroups;
     this.permissionFilter = permissionFilter;
+    this.decisionCache = decisionCache;
     this.permissionBackend = permissionBackend;
     this.refVisibilityControl = refVisibilityControl;
     this.repositoryManager = repositoryManager;
@@ -128,15 +136,40 @@ class ProjectControl {
     }
     RefControl ctl = refControls.get(refName);
     if (ctl == null) {
-      PermissionCollection relevant = permissionFilter.filter(access(), refName, user);
+      PermissionDecisionCache.Decisions decisions =
+          decisionCache.get(
+              decisionKey(refName), () -> permissionFilter.filter(sectionIndex(), refName, user));
       ctl =
           new RefControl(
-              changeDataFactory, refVisibilityControl, this, repositoryManager, refName, relevant);
+              changeDataFactory, refVisibilityControl, this, repositoryManager, refName, decisions);
       refControls.put(refName, ctl);
     }
     return ctl;
   }
 
+  private PermissionDecisionCache.Key decisionKey(String refName) {
+    return PermissionDecisionCache.Key.create(
+        state.getNameKey(), getConfigRevisions(), refName, getRelevantGroups());
+  }
+
+  /**
+   * Returns the groups of the user that rules in the project or its parents are granted to.
+   * Permission decisions on references only depend on the memberships in these groups.
+   */
+  ImmutableSet<AccountGroup.UUID> getRelevantGroups() {
+    if (relevantGroups == null) {
+      relevantGroups =
+          ImmutableSet.copyOf(
+              user.getEffectiveGroups().intersection(sectionIndex().getReferencedGroups()));
+    }
+    return relevantGroups;
+  }
+
+  /** Returns the configuration revisions of the project and its parents. */
+  ImmutableList<ObjectId> getConfigRevisions() {
+    return sectionIndex().getRevisions();
+  }
+
   CurrentUser getUser() {
     return user;
   }
@@ -323,8 +356,12 @@ class ProjectControl {
   }
 
   private List<SectionMatcher> access() {
+    return sectionIndex().getSections();
+  }
+
+  private SectionMatcherIndex sectionIndex() {
     if (allSections == null) {
-      allSections = state.getAllSections();
+      allSections = state.getAllSectionsIndex();
     }
     return allSections;
   }
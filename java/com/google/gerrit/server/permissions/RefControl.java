@@ -61,6 +61,9 @@ class RefControl {
   /** All permissions that apply to this reference. */
   private final PermissionCollection relevant;
 
+  /** Decisions on {@link #relevant}, possibly shared with other users. */
+  private final PermissionDecisionCache.Decisions decisions;
+
   private final CallerFinder callerFinder;
 
   // The next 4 members are cached canPerform() permissions.
@@ -76,13 +79,14 @@ class RefControl {
       ProjectControl projectControl,
       GitRepositoryManager repositoryManager,
       String ref,
-      PermissionCollection relevant) {
+      PermissionDecisionCache.Decisions decisions) {
     this.changeDataFactory = changeDataFactory;
     this.refVisibilityControl = refVisibilityControl;
     this.projectControl = projectControl;
     this.repositoryManager = repositoryManager;
     this.refName = ref;
-    this.relevant = relevant;
+    this.relevant = decisions.relevant();
+    this.decisions = decisions;
     this.callerFinder =
         CallerFinder.builder()
             .addTarget(PermissionBackend.class)
@@ -423,6 +427,19 @@ class RefControl {
 
   /** True if the user has this permission. */
   private boolean canPerform(String permissionName, boolean isChangeOwner, boolean withForce) {
+    if (logger.atFine().isEnabled() || LoggingContext.getInstance().isAclLogging()) {
+      // Evaluate the rules, so that the decision gets logged.
+      return evaluateCanPerform(permissionName, isChangeOwner, withForce);
+    }
+    return decisions.canPerform(
+        permissionName,
+        isChangeOwner,
+        withForce,
+        () -> evaluateCanPerform(permissionName, isChangeOwner, withForce));
+  }
+
+  private boolean evaluateCanPerform(
+      String permissionName, boolean isChangeOwner, boolean withForce) {
     if (isBlocked(permissionName, isChangeOwner, withForce)) {
       if (logger.atFine().isEnabled() || LoggingContext.getInstance().isAclLogging()) {
         String logMessage =
@@ -16,6 +16,7 @@ package com.google.gerrit.server.project;
 
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.gerrit.entities.PermissionRule.Action.ALLOW;
+import static java.util.stream.Collectors.toList;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.FluentIterable;
@@ -43,6 +44,7 @@ import com.google.gerrit.extensions.client.SubmitType;
 import com.google.gerrit.extensions.restapi.ResourceConflictException;
 import com.google.gerrit.index.project.ProjectData;
 import com.google.gerrit.server.account.CapabilityCollection;
+import com.google.gerrit.server.account.InternedGroupSet;
 import com.google.gerrit.server.config.AllProjectsName;
 import com.google.gerrit.server.config.AllUsersName;
 import com.google.gerrit.server.config.PluginConfig;
@@ -87,6 +89,9 @@ public class ProjectState {
   /** Local access sections, wrapped in SectionMatchers for faster evaluation. */
   private volatile List<SectionMatcher> localAccessSections;
 
+  /** Index of {@link #getAllSections()}, rebuilt when the state of a parent changes. */
+  private volatile SectionMatcherIndex allSectionsIndex;
+
   /** If this is all projects, the capabilities used by the server. */
   private final CapabilityCollection capabilities;
 
@@ -276,10 +281,20 @@ public class ProjectState {
         sm.add(matcher);
       }
     }
+    // Intern the groups that rules are granted to, so that memberships in them can be remembered.
+    InternedGroupSet.intern(getGroups(sm).stream().map(GroupReference::getUUID).collect(toList()));
     localAccessSections = sm;
     return localAccessSections;
   }
 
+  /**
+   * Returns whether this project defines access sections of its own. If it doesn't, its access
+   * rights are exactly those inherited from its parent.
+   */
+  public boolean hasLocalAccessSections() {
+    return !getLocalAccessSections().isEmpty();
+  }
+
   /**
    * Obtain all local and inherited sections. This collection is looked up dynamically and is not
    * cached. Callers should try to cache this result per-request as much as possible.
@@ -296,6 +311,25 @@ public class ProjectState {
     return all;
   }
 
+  /**
+   * Returns an index of the sections returned by {@link #getAllSections()}, which allows to find
+   * the sections that are relevant for a reference quickly.
+   */
+  public SectionMatcherIndex getAllSectionsIndex() {
+    ImmutableList<ProjectState> projects =
+        isAllProjects ? ImmutableList.of(this) : ImmutableList.copyOf(tree());
+    SectionMatcherIndex index = allSectionsIndex;
+    if (index == null || !index.isBuiltFrom(projects)) {
+      List<SectionMatcher> all = new ArrayList<>();
+      for (ProjectState s : projects) {
+        all.addAll(s.getLocalAccessSections());
+      }
+      index = new SectionMatcherIndex(all, projects);
+      allSectionsIndex = index;
+    }
+    return index;
+  }
+
   /**
    * Returns all {@link AccountGroup}'s to which the owner privilege for 'refs/*' is assigned for
    * this project (the local owners), if there are no local owners the local owners of the nearest
@@ -14,10 +14,18 @@
 
 package com.google.gerrit.server.project;
 
+import static java.util.stream.Collectors.toList;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.cache.CacheModule;
 import com.google.gerrit.server.logging.Metadata;
 import com.google.gerrit.server.logging.TraceContext;
 import com.google.gerrit.server.logging.TraceContext.TraceTimer;
@@ -25,14 +33,19 @@ import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.permissions.PermissionBackend.RefFilterOptions;
 import com.google.gerrit.server.permissions.PermissionBackendException;
 import com.google.inject.Inject;
+import com.google.inject.Module;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.ReachabilityChecker;
@@ -42,15 +55,34 @@ import org.eclipse.jgit.revwalk.RevWalk;
 /**
  * Report whether a commit is reachable from a set of commits. This is used for checking if a user
  * has read permissions on a commit.
+ *
+ * <p>For commits that were found to be reachable, the tip of a ref that the commit is reachable
+ * from is cached by project and commit. Whether a commit is reachable from another commit never
+ * changes, so that entries don't need to be evicted. If a ref that points to the cached tip is
+ * visible to the user, the commit is reachable without filtering all refs and walking the history.
+ * Otherwise the commit is checked against all visible refs.
  */
 @Singleton
 public class Reachable {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  private static final String CACHE_NAME = "reachable_commits";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, Key.class, ObjectId.class).maximumWeight(1 << 16);
+      }
+    };
+  }
+
+  private final Cache<Key, ObjectId> cache;
   private final PermissionBackend permissionBackend;
 
   @Inject
-  Reachable(PermissionBackend permissionBackend) {
+  Reachable(@Named(CACHE_NAME) Cache<Key, ObjectId> cache, PermissionBackend permissionBackend) {
+    this.cache = cache;
     this.permissionBackend = permissionBackend;
   }
 
@@ -70,17 +102,30 @@ public class Reachable {
       RevCommit commit,
       List<Ref> refs,
       Optional<CurrentUser> optionalUserProvider) {
+    PermissionBackend.ForProject perm =
+        optionalUserProvider
+            .map(permissionBackend::user)
+            .orElse(permissionBackend.currentUser())
+            .project(project);
     try (RevWalk rw = new RevWalk(repo)) {
-      Collection<Ref> filtered =
-          optionalUserProvider
-              .map(permissionBackend::user)
-              .orElse(permissionBackend.currentUser())
-              .project(project)
-              .filter(refs, repo, RefFilterOptions.defaults());
-      Collection<RevCommit> visible = new ArrayList<>();
+      ObjectId tip = cache.getIfPresent(Key.create(project, commit));
+      if (tip != null && isVisibleTip(perm, repo, tip, refs)) {
+        return true;
+      }
+
+      Collection<Ref> filtered = perm.filter(refs, repo, RefFilterOptions.defaults());
+      // Commits are most likely reachable from branches, which are checked first when looking for
+      // the tip to cache.
+      List<RevCommit> visible = new ArrayList<>();
+      List<RevCommit> others = new ArrayList<>();
       for (Ref r : filtered) {
         try {
-          visible.add(rw.parseCommit(r.getObjectId()));
+          RevCommit c = rw.parseCommit(r.getObjectId());
+          if (r.getName().startsWith(RefNames.REFS_HEADS)) {
+            visible.add(c);
+          } else {
+            others.add(c);
+          }
         } catch (IncorrectObjectTypeException notCommit) {
           // Its OK for a tag reference to point to a blob or a tree, this
           // is common in the Linux kernel or git.git repository.
@@ -93,22 +138,111 @@ public class Reachable {
           continue;
         }
       }
+      visible.addAll(others);
 
-      // The filtering above already produces a voluminous trace. To separate the permission check
-      // from the reachability check, do the trace here:
-      try (TraceTimer timer =
-          TraceContext.newTimer(
-              "ReachabilityChecker.areAllReachable",
-              Metadata.builder().projectName(project.get()).resourceCount(refs.size()).build())) {
-        ReachabilityChecker checker = rw.getObjectReader().createReachabilityChecker(rw);
-        Optional<RevCommit> unreachable =
-            checker.areAllReachable(ImmutableList.of(rw.parseCommit(commit)), visible.stream());
-        return !unreachable.isPresent();
-      }
+      return isReachable(project, rw, commit, visible, refs.size());
     } catch (IOException | PermissionBackendException e) {
       logger.atSevere().withCause(e).log(
           "Cannot verify permissions to commit object %s in repository %s", commit.name(), project);
       return false;
     }
   }
+
+  /** Returns whether any of the given refs that points to a commit is visible. */
+  private static boolean isVisibleTip(
+      PermissionBackend.ForProject perm, Repository repo, ObjectId tip, List<Ref> refs)
+      throws PermissionBackendException {
+    List<Ref> tipRefs =
+        refs.stream()
+            .filter(r -> tip.equals(r.getObjectId()) || tip.equals(r.getPeeledObjectId()))
+            .collect(toList());
+    return !tipRefs.isEmpty() && !perm.filter(tipRefs, repo, RefFilterOptions.defaults()).isEmpty();
+  }
+
+  /**
+   * Returns whether a commit is reachable from any of the given commits. If it is, the commit that
+   * it is reachable from is cached.
+   */
+  @VisibleForTesting
+  boolean isReachable(
+      Project.NameKey project, RevWalk rw, RevCommit commit, List<RevCommit> visible, int refCount)
+      throws IOException {
+    if (visible.stream().anyMatch(c -> c.equals(commit))) {
+      // Commits are often requested by the refs that point to them.
+      return true;
+    }
+
+    // Filtering the refs already produces a voluminous trace. To separate the permission check
+    // from the reachability check, do the trace here:
+    try (TraceTimer timer =
+        TraceContext.newTimer(
+            "ReachabilityChecker.areAllReachable",
+            Metadata.builder().projectName(project.get()).resourceCount(refCount).build())) {
+      // Uses the bitmaps of the repository if it has any and walks the commits otherwise.
+      ReachabilityChecker checker = rw.getObjectReader().createReachabilityChecker(rw);
+      RevCommit target = rw.parseCommit(commit);
+      if (!isReachable(checker, target, visible)) {
+        return false;
+      }
+
+      // Find the commit that the commit is reachable from, so that later checks only need to check
+      // whether a ref that points to it is visible.
+      RevCommit tip = findTip(rw, target, visible);
+      if (tip != null) {
+        cache.put(Key.create(project, commit), tip.copy());
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Returns the commit among the given tips that the target is reachable from, or null if there is
+   * none.
+   *
+   * <p>Walks the history of all tips at once, attributing each commit to the tip that it was first
+   * reached from, and stops at the target.
+   */
+  @Nullable
+  private static RevCommit findTip(RevWalk rw, RevCommit target, List<RevCommit> tips)
+      throws IOException {
+    rw.reset();
+    try {
+      Map<RevCommit, RevCommit> tipOf = new HashMap<>();
+      for (RevCommit tip : tips) {
+        tipOf.putIfAbsent(tip, tip);
+        rw.markStart(tip);
+      }
+      // Commits are only walked after one of their children or if they are a tip, so each walked
+      // commit was attributed to a tip already.
+      for (RevCommit c = rw.next(); c != null; c = rw.next()) {
+        RevCommit tip = tipOf.get(c);
+        if (c.equals(target)) {
+          return tip;
+        }
+        for (RevCommit parent : c.getParents()) {
+          tipOf.putIfAbsent(parent, tip);
+        }
+      }
+      return null;
+    } finally {
+      rw.reset();
+    }
+  }
+
+  private static boolean isReachable(
+      ReachabilityChecker checker, RevCommit commit, Collection<RevCommit> tips)
+      throws IOException {
+    return !checker.areAllReachable(ImmutableList.of(commit), tips.stream()).isPresent();
+  }
+
+  @AutoValue
+  abstract static class Key {
+    abstract Project.NameKey project();
+
+    abstract ObjectId commit();
+
+    static Key create(Project.NameKey project, ObjectId commit) {
+      return new AutoValue_Reachable_Key(project, commit.copy());
+    }
+  }
 }
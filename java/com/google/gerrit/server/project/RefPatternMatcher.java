@@ -54,33 +54,41 @@ public abstract class RefPatternMatcher {
 
   public abstract boolean match(String ref, CurrentUser user);
 
-  private static class Exact extends RefPatternMatcher {
+  static class Exact extends RefPatternMatcher {
     private final String expect;
 
     Exact(String name) {
       expect = name;
     }
 
+    String getName() {
+      return expect;
+    }
+
     @Override
     public boolean match(String ref, CurrentUser user) {
       return expect.equals(ref);
     }
   }
 
-  private static class Prefix extends RefPatternMatcher {
+  static class Prefix extends RefPatternMatcher {
     private final String prefix;
 
     Prefix(String pfx) {
       prefix = pfx;
     }
 
+    String getPrefix() {
+      return prefix;
+    }
+
     @Override
     public boolean match(String ref, CurrentUser user) {
       return ref.startsWith(prefix);
     }
   }
 
-  private static class Regexp extends RefPatternMatcher {
+  static class Regexp extends RefPatternMatcher {
     private final Pattern pattern;
 
     Regexp(String re) {
@@ -91,6 +99,10 @@ public abstract class RefPatternMatcher {
       pattern = re;
     }
 
+    Pattern getPattern() {
+      return pattern;
+    }
+
     @Override
     public boolean match(String ref, CurrentUser user) {
       return pattern.matcher(ref).matches() || (isRE(ref) && pattern.pattern().equals(ref));
@@ -158,6 +170,11 @@ public abstract class RefPatternMatcher {
       return usernames.collect(toImmutableSet());
     }
 
+    /** Returns the literal prefix of all references the pattern can match. */
+    String getPrefix() {
+      return prefix;
+    }
+
     public boolean matchPrefix(String ref) {
       if (isRE(ref)) {
         return ref.substring(1).startsWith(prefix);
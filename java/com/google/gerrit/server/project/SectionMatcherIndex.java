@@ -0,0 +1,220 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static com.google.gerrit.server.project.RefPattern.isRE;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.server.project.RefPatternMatcher.Exact;
+import com.google.gerrit.server.project.RefPatternMatcher.ExpandParameters;
+import com.google.gerrit.server.project.RefPatternMatcher.Prefix;
+import com.google.gerrit.server.project.RefPatternMatcher.Regexp;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Index of the access sections of a project and its parents, which finds the sections that are
+ * relevant for a reference without matching the reference against every section.
+ *
+ * <p>Sections with an exact reference name are looked up by name. All other sections are stored in
+ * a trie keyed by the literal prefix of their pattern: for "refs/heads/*" that is "refs/heads/",
+ * for regular expressions the literal characters at their start, and for patterns with parameters
+ * like "${username}" the part before the first parameter. Walking the trie along a reference name
+ * thus yields the candidate sections. Only sections with regular expressions and parameters still
+ * need to be matched afterwards, the latter per user.
+ *
+ * <p>Instances are immutable and are cached by {@link ProjectState} for the revisions of the
+ * projects they were built from.
+ */
+public class SectionMatcherIndex {
+  /** Characters that have a special meaning in regular expressions. */
+  private static final String REGEX_META_CHARS = ".[]{}()\\*+?^$|";
+
+  /** Quantifiers which make the preceding character optional. */
+  private static final String OPTIONAL_QUANTIFIERS = "*?{";
+
+  /** Creates an index of the given sections, which must be in priority order. */
+  public static SectionMatcherIndex of(List<SectionMatcher> sections) {
+    return new SectionMatcherIndex(sections, ImmutableList.of());
+  }
+
+  private final ImmutableList<SectionMatcher> sections;
+  private final ImmutableList<ProjectState> builtFrom;
+  private final ImmutableList<ObjectId> revisions;
+  private final ImmutableSet<AccountGroup.UUID> referencedGroups;
+  private final ImmutableListMultimap<String, Integer> exact;
+  private final Node root = new Node();
+
+  SectionMatcherIndex(List<SectionMatcher> sections, ImmutableList<ProjectState> builtFrom) {
+    this.sections = ImmutableList.copyOf(sections);
+    this.builtFrom = builtFrom;
+    this.revisions =
+        builtFrom.stream()
+            .map(p -> p.getConfig().getRevision().orElse(ObjectId.zeroId()))
+            .collect(toImmutableList());
+    this.referencedGroups =
+        this.sections.stream()
+            .flatMap(s -> s.getSection().getPermissions().stream())
+            .flatMap(p -> p.getRules().stream())
+            .map(r -> r.getGroup().getUUID())
+            .filter(Objects::nonNull)
+            .collect(toImmutableSet());
+
+    ImmutableListMultimap.Builder<String, Integer> exact = ImmutableListMultimap.builder();
+    for (int i = 0; i < this.sections.size(); i++) {
+      RefPatternMatcher matcher = this.sections.get(i).getMatcher();
+      if (matcher instanceof Exact) {
+        exact.put(((Exact) matcher).getName(), i);
+      } else {
+        root.add(literalPrefix(matcher), 0, i);
+      }
+    }
+    this.exact = exact.build();
+  }
+
+  /** Returns all indexed sections, in priority order. */
+  public ImmutableList<SectionMatcher> getSections() {
+    return sections;
+  }
+
+  /**
+   * Returns the revisions of the configurations of the projects whose sections are indexed,
+   * starting with the project itself and ending with All-Projects.
+   */
+  public ImmutableList<ObjectId> getRevisions() {
+    return revisions;
+  }
+
+  /** Returns the groups that the rules of the indexed sections are granted to. */
+  public ImmutableSet<AccountGroup.UUID> getReferencedGroups() {
+    return referencedGroups;
+  }
+
+  /**
+   * Returns the sections which may match the given reference, in priority order.
+   *
+   * <p>The returned sections are a superset of the sections matching the reference. They include
+   * all sections with parameters whose prefix matches the reference, as these make the result
+   * specific to the user.
+   *
+   * @param ref reference name, or a regular expression for a reference name with parameters.
+   */
+  public ImmutableList<SectionMatcher> getCandidates(String ref) {
+    if (isRE(ref)) {
+      // Regular expressions are only matched against sections for checking access to references
+      // with parameters, which is rare.
+      return sections;
+    }
+
+    BitSet candidates = new BitSet(sections.size());
+    exact.get(ref).forEach(candidates::set);
+    Node node = root;
+    for (int i = 0; node != null; i++) {
+      node.sections.forEach(candidates::set);
+      node = i < ref.length() ? node.children.get(ref.charAt(i)) : null;
+    }
+
+    ImmutableList.Builder<SectionMatcher> result =
+        ImmutableList.builderWithExpectedSize(candidates.cardinality());
+    candidates.stream().forEach(i -> result.add(sections.get(i)));
+    return result.build();
+  }
+
+  /** Whether this index was built from the sections of exactly the given project states. */
+  boolean isBuiltFrom(List<ProjectState> projects) {
+    if (projects.size() != builtFrom.size()) {
+      return false;
+    }
+    for (int i = 0; i < projects.size(); i++) {
+      if (projects.get(i) != builtFrom.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String literalPrefix(RefPatternMatcher matcher) {
+    if (matcher instanceof Prefix) {
+      return ((Prefix) matcher).getPrefix();
+    } else if (matcher instanceof ExpandParameters) {
+      return ((ExpandParameters) matcher).getPrefix();
+    } else if (matcher instanceof Regexp) {
+      return literalPrefix(((Regexp) matcher).getPattern());
+    }
+    return "";
+  }
+
+  /**
+   * Returns a prefix of all strings matching the given regular expression.
+   *
+   * <p>The prefix is conservative, it may be shorter than the longest common prefix of the matches.
+   */
+  @VisibleForTesting
+  static String literalPrefix(Pattern pattern) {
+    String re = pattern.pattern();
+    if (pattern.flags() != 0 || re.indexOf('|') >= 0) {
+      return "";
+    }
+
+    StringBuilder prefix = new StringBuilder();
+    int i = re.startsWith("^") ? 1 : 0;
+    while (i < re.length()) {
+      char c = re.charAt(i);
+      int next;
+      if (c == '\\' && i + 1 < re.length() && !Character.isLetterOrDigit(re.charAt(i + 1))) {
+        c = re.charAt(i + 1);
+        next = i + 2;
+      } else if (REGEX_META_CHARS.indexOf(c) < 0) {
+        next = i + 1;
+      } else {
+        break;
+      }
+      if (next < re.length() && OPTIONAL_QUANTIFIERS.indexOf(re.charAt(next)) >= 0) {
+        break;
+      }
+      prefix.append(c);
+      i = next;
+    }
+    return prefix.toString();
+  }
+
+  /** Node of the trie of section prefixes. */
+  private static class Node {
+    final Map<Character, Node> children = new HashMap<>();
+
+    /** Indexes of the sections whose prefix ends at this node. */
+    final List<Integer> sections = new ArrayList<>();
+
+    void add(String prefix, int pos, int section) {
+      if (pos == prefix.length()) {
+        sections.add(section);
+        return;
+      }
+      children.computeIfAbsent(prefix.charAt(pos), c -> new Node()).add(prefix, pos + 1, section);
+    }
+  }
+}
@@ -27,6 +27,8 @@ import com.google.gerrit.server.account.AccountState;
 import com.google.gerrit.server.index.account.AccountField;
 import com.google.gerrit.server.notedb.ChangeNotes;
 import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
 
 /** Utility class to create predicates for account index queries. */
 public class AccountPredicates {
@@ -65,6 +67,35 @@ public class AccountPredicates {
     return Predicate.or(preds);
   }
 
+  /**
+   * Returns a predicate for suggesting accounts by a single word.
+   *
+   * <p>Matches accounts whose ID is the word or with a name part, email or username starting with
+   * the word. Each prefix is indexed as a term, so unlike {@link #defaultPredicate(Schema, boolean,
+   * String)} this doesn't need prefix queries.
+   *
+   * @return the predicate, or empty if the schema has no prefix fields or the word is longer than
+   *     the indexed prefixes.
+   */
+  public static Optional<Predicate<AccountState>> suggestPredicate(
+      Schema<AccountState> schema, boolean canSeeSecondaryEmails, String word) {
+    SchemaField<AccountState, ?> field =
+        canSeeSecondaryEmails
+            ? AccountField.NAME_PREFIX_SPEC
+            : AccountField.NAME_PREFIX_NO_SECONDARY_EMAIL_SPEC;
+    if (!schema.hasField(field) || word.length() > AccountField.MAX_NAME_PREFIX_LENGTH) {
+      return Optional.empty();
+    }
+    List<Predicate<AccountState>> preds = Lists.newArrayListWithCapacity(2);
+    Integer id = Ints.tryParse(word);
+    if (id != null) {
+      preds.add(id(schema, Account.id(id)));
+    }
+    preds.add(
+        new AccountPredicate(field, AccountQueryBuilder.FIELD_NAME, word.toLowerCase(Locale.US)));
+    return Optional.of(Predicate.or(preds));
+  }
+
   public static Predicate<AccountState> id(Schema<AccountState> schema, Account.Id accountId) {
     return new AccountPredicate(
         schema.hasField(AccountField.ID_FIELD_SPEC)
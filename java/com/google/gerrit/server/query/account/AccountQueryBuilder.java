@@ -190,6 +190,27 @@ public class AccountQueryBuilder extends QueryBuilder<AccountState, AccountQuery
             Splitter.on(' ').omitEmptyStrings().splitToList(query), this::defaultField));
   }
 
+  /**
+   * Returns the predicate for suggesting accounts matching all words of the given query.
+   *
+   * <p>Matches the same accounts as {@link #defaultQuery(String)}, and additionally accounts with
+   * a username starting with a word, but uses the prefix fields of the index where possible.
+   */
+  public Predicate<AccountState> suggestQuery(String query) {
+    return Predicate.and(
+        Lists.transform(
+            Splitter.on(' ').omitEmptyStrings().splitToList(query), this::suggestField));
+  }
+
+  private Predicate<AccountState> suggestField(String query) {
+    if (query.contains(":") || "self".equalsIgnoreCase(query) || "me".equalsIgnoreCase(query)) {
+      return defaultField(query);
+    }
+    return AccountPredicates.suggestPredicate(
+            args.schema(), checkedCanSeeSecondaryEmails(), query)
+        .orElseGet(() -> defaultField(query));
+  }
+
   @Override
   protected Predicate<AccountState> defaultField(String query) {
     Predicate<AccountState> defaultPredicate =
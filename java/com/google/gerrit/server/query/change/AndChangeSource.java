@@ -45,6 +45,9 @@ public class AndChangeSource extends AndSource<ChangeData> implements ChangeData
     if (!hasChange()) {
       ChangeData.ensureChangeLoaded(buffer);
     }
+    if (getIsVisibleToPredicate() instanceof ChangeIsVisibleToPredicate) {
+      ((ChangeIsVisibleToPredicate) getIsVisibleToPredicate()).checkVisibility(buffer);
+    }
     return super.transformBuffer(buffer);
   }
 
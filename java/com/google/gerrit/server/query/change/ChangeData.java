@@ -20,7 +20,6 @@ import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
 
 import com.google.auto.value.AutoValue;
-import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableList;
@@ -59,6 +58,7 @@ import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.extensions.restapi.ResourceConflictException;
 import com.google.gerrit.index.RefState;
+import com.google.gerrit.index.StoredValue;
 import com.google.gerrit.server.ChangeMessagesUtil;
 import com.google.gerrit.server.CommentsUtil;
 import com.google.gerrit.server.CurrentUser;
@@ -360,6 +360,8 @@ public class ChangeData {
   private LabelTypes labelTypes;
   private Optional<Instant> mergedOn;
   private ImmutableSetMultimap<NameKey, RefState> refStates;
+  private ObjectId indexedMetaRevision;
+  private ImmutableMap<String, StoredValue> storedValues;
   private ImmutableList<byte[]> refStatePatterns;
 
   @Inject
@@ -436,7 +438,6 @@ public class ChangeData {
     return allUsersName;
   }
 
-  @VisibleForTesting
   public void setCurrentFilePaths(List<String> filePaths) {
     PatchSet ps = currentPatchSet();
     if (ps != null) {
@@ -948,6 +949,15 @@ public class ChangeData {
     return messages;
   }
 
+  public void setMessages(List<ChangeMessage> messages) {
+    this.messages = messages;
+  }
+
+  /** Returns whether the change messages have been loaded or populated from the index. */
+  public boolean hasMessages() {
+    return messages != null;
+  }
+
   /**
    * Similar to {@link #submitRequirements()}, except that it also converts submit records resulting
    * from the evaluation of legacy submit rules to submit requirements.
@@ -1324,6 +1334,39 @@ public class ChangeData {
                         Account.Id.fromRef(r.ref()), PatchSet.Id.fromEditRef(r.ref()), r.id()));
       }
     }
+    String metaRef = RefNames.changeMetaRef(legacyId);
+    indexedMetaRevision =
+        refStates.get(project).stream()
+            .filter(r -> r.ref().equals(metaRef))
+            .map(RefState::id)
+            .findAny()
+            .orElse(null);
+  }
+
+  /**
+   * Returns the revision of the change meta ref for which the values of this instance were stored
+   * in the change index, or empty if this instance was not populated from the index.
+   *
+   * <p>Values populated from the index are only up to date if this revision is still the current
+   * revision of the meta ref.
+   */
+  public Optional<ObjectId> indexedMetaRevision() {
+    return Optional.ofNullable(indexedMetaRevision);
+  }
+
+  /**
+   * Returns the values of the stored index fields from which this instance was populated, by field
+   * name, or empty if this instance was not populated from the index.
+   *
+   * <p>Setting these values on a new instance restores the values of this instance that were read
+   * from the index, without searching the index again.
+   */
+  public Optional<ImmutableMap<String, StoredValue>> storedValues() {
+    return Optional.ofNullable(storedValues);
+  }
+
+  public void setStoredValues(Map<String, StoredValue> storedValues) {
+    this.storedValues = ImmutableMap.copyOf(storedValues);
   }
 
   public ImmutableList<byte[]> getRefStatePatterns() {
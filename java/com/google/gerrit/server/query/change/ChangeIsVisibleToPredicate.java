@@ -14,7 +14,11 @@
 
 package com.google.gerrit.server.query.change;
 
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.collect.Sets;
 import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.entities.BranchNameKey;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.index.query.IsVisibleToPredicate;
@@ -25,12 +29,18 @@ import com.google.gerrit.server.index.IndexUtils;
 import com.google.gerrit.server.permissions.ChangePermission;
 import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.permissions.PermissionBackendException;
+import com.google.gerrit.server.permissions.RefPermission;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.assistedinject.Assisted;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 
 public class ChangeIsVisibleToPredicate extends IsVisibleToPredicate<ChangeData> {
@@ -43,6 +53,10 @@ public class ChangeIsVisibleToPredicate extends IsVisibleToPredicate<ChangeData>
   protected final CurrentUser user;
   protected final ProjectCache projectCache;
   private final PermissionBackend.WithUser withUser;
+  private final Set<Change.Id> notVisible = Sets.newConcurrentHashSet();
+  private final AtomicInteger checkedCount = new AtomicInteger();
+  private final AtomicInteger visibleCount = new AtomicInteger();
+  private volatile boolean rejectedByPermissions;
 
   @Inject
   public ChangeIsVisibleToPredicate(
@@ -62,11 +76,91 @@ public class ChangeIsVisibleToPredicate extends IsVisibleToPredicate<ChangeData>
                     .orElseGet(anonymousUserProvider::get));
   }
 
+  /**
+   * Checks the visibility of a batch of changes, so that {@link #match(ChangeData)} can answer
+   * without checking them one by one.
+   *
+   * <p>The changes are grouped by project and destination branch, and read permission on each
+   * distinct destination branch is evaluated once. Private changes on readable branches, whose
+   * visibility also depends on the change itself, e.g. on whether the user is a reviewer, are
+   * checked in a second pass, reusing the permissions of their branch.
+   *
+   * <p>Changes for which the visibility can't be decided here, e.g. because their project doesn't
+   * exist, are left to {@link #match(ChangeData)}.
+   *
+   * @param cds changes to check.
+   */
+  public void checkVisibility(Collection<ChangeData> cds) {
+    ListMultimap<BranchNameKey, ChangeData> byBranch =
+        MultimapBuilder.linkedHashKeys().arrayListValues().build();
+    for (ChangeData cd : cds) {
+      Change change = cd.fastIsVisibleTo(user) ? null : cd.change();
+      if (change != null) {
+        byBranch.put(change.getDest(), cd);
+      }
+    }
+
+    for (BranchNameKey branch : byBranch.keySet()) {
+      Optional<ProjectState> projectState = projectCache.get(branch.project());
+      if (!projectState.isPresent() || !projectState.get().statePermitsRead()) {
+        continue;
+      }
+
+      PermissionBackend.ForRef forRef = withUser.project(branch.project()).ref(branch.branch());
+      List<ChangeData> privateChanges = new ArrayList<>();
+      try {
+        if (!forRef.test(RefPermission.READ)) {
+          logger.atFine().log(
+              "Filter out changes %s on non-visible branch %s", byBranch.get(branch), branch);
+          byBranch.get(branch).forEach(cd -> notVisible.add(cd.getId()));
+          rejectedByPermissions = true;
+          continue;
+        }
+      } catch (PermissionBackendException e) {
+        // Left to match(), which handles the failure.
+        continue;
+      }
+      for (ChangeData cd : byBranch.get(branch)) {
+        if (cd.change().isPrivate()) {
+          privateChanges.add(cd);
+        } else {
+          cd.cacheVisibleTo(user);
+        }
+      }
+
+      for (ChangeData cd : privateChanges) {
+        try {
+          if (forRef.change(cd).test(ChangePermission.READ)) {
+            cd.cacheVisibleTo(user);
+          } else {
+            logger.atFine().log("Filter out non-visible change: %s", cd);
+            notVisible.add(cd.getId());
+            rejectedByPermissions = true;
+          }
+        } catch (PermissionBackendException e) {
+          // Left to match(), which handles the failure.
+        }
+      }
+    }
+  }
+
   @Override
   public boolean match(ChangeData cd) {
+    checkedCount.incrementAndGet();
+    if (isVisible(cd)) {
+      visibleCount.incrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  private boolean isVisible(ChangeData cd) {
     if (cd.fastIsVisibleTo(user)) {
       return true;
     }
+    if (notVisible.contains(cd.getId())) {
+      return false;
+    }
     Change change = cd.change();
     if (change == null) {
       return false;
@@ -85,6 +179,7 @@ public class ChangeIsVisibleToPredicate extends IsVisibleToPredicate<ChangeData>
     try {
       if (!withUser.change(cd).test(ChangePermission.READ)) {
         logger.atFine().log("Filter out non-visisble change: %s", cd);
+        rejectedByPermissions = true;
         return false;
       }
     } catch (PermissionBackendException e) {
@@ -102,6 +197,26 @@ public class ChangeIsVisibleToPredicate extends IsVisibleToPredicate<ChangeData>
     return true;
   }
 
+  /**
+   * Returns whether this predicate filtered out a change because the user lacks permissions on it.
+   *
+   * <p>Such decisions may depend on the identity of the user rather than only on their groups,
+   * e.g. for private changes or for {@code ${username}} ref patterns.
+   */
+  public boolean hasRejectedByPermissions() {
+    return rejectedByPermissions;
+  }
+
+  /** Returns the number of changes matched by this predicate so far. */
+  public int getCheckedCount() {
+    return checkedCount.get();
+  }
+
+  /** Returns the number of changes matched by this predicate so far that were visible. */
+  public int getVisibleCount() {
+    return visibleCount.get();
+  }
+
   @Override
   public int getCost() {
     return 1;
@@ -16,9 +16,16 @@ package com.google.gerrit.server.query.change;
 
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.gerrit.server.query.change.ChangeQueryBuilder.FIELD_LIMIT;
+import static java.util.stream.Collectors.toList;
 
 import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.primitives.Ints;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Account;
 import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.common.PluginDefinedInfo;
 import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.extensions.registration.Extension;
@@ -26,20 +33,29 @@ import com.google.gerrit.index.IndexConfig;
 import com.google.gerrit.index.QueryOptions;
 import com.google.gerrit.index.query.IndexPredicate;
 import com.google.gerrit.index.query.Predicate;
+import com.google.gerrit.index.query.QueryParseException;
 import com.google.gerrit.index.query.QueryProcessor;
+import com.google.gerrit.index.query.QueryResult;
 import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.DynamicOptions;
 import com.google.gerrit.server.DynamicOptions.DynamicBean;
 import com.google.gerrit.server.account.AccountLimits;
+import com.google.gerrit.server.account.GroupMembershipFingerprint;
 import com.google.gerrit.server.change.ChangePluginDefinedInfoFactory;
 import com.google.gerrit.server.change.PluginDefinedAttributesFactories;
 import com.google.gerrit.server.change.PluginDefinedInfosFactory;
+import com.google.gerrit.server.index.change.ChangeField;
+import com.google.gerrit.server.index.change.ChangeIndex;
 import com.google.gerrit.server.index.change.ChangeIndexCollection;
 import com.google.gerrit.server.index.change.ChangeIndexRewriter;
 import com.google.gerrit.server.index.change.ChangeSchemaDefinitions;
 import com.google.gerrit.server.index.change.IndexedChangeQuery;
 import com.google.gerrit.server.notedb.Sequences;
+import com.google.gerrit.server.permissions.PermissionBackend;
+import com.google.gerrit.server.permissions.PermissionBackendException;
+import com.google.gerrit.server.permissions.ProjectPermission;
+import com.google.gerrit.server.project.ProjectCache;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import java.util.ArrayList;
@@ -47,6 +63,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.OptionalDouble;
 import java.util.Set;
 
 /**
@@ -57,6 +74,23 @@ import java.util.Set;
  */
 public class ChangeQueryProcessor extends QueryProcessor<ChangeData>
     implements DynamicOptions.BeanReceiver, DynamicOptions.BeanProvider, PluginDefinedInfosFactory {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /**
+   * Maximum factor by which the initial page size is increased for users who could see only few of
+   * the changes returned by their recent queries.
+   */
+  private static final int MAX_INITIAL_OVER_FETCH = 10;
+
+  /**
+   * Visibility rate of the recent queries of a user below which their queries are restricted to
+   * the projects that are visible to them.
+   */
+  private static final double LOW_VISIBILITY_RATE = 0.1;
+
+  /** Maximum number of visible projects that queries are restricted to. */
+  private static final int MAX_VISIBLE_PROJECTS_FILTER_SIZE = 20;
+
   private final Provider<CurrentUser> userProvider;
   private final ChangeIsVisibleToPredicate.Factory changeIsVisibleToPredicateFactory;
   private final Map<String, DynamicBean> dynamicBeans = new HashMap<>();
@@ -64,6 +98,13 @@ public class ChangeQueryProcessor extends QueryProcessor<ChangeData>
       changePluginDefinedInfoFactoriesByPlugin = new ArrayList<>();
   private final Sequences sequences;
   private final IndexConfig indexConfig;
+  private final ChangeIndexCollection indexes;
+  private final ChangeQueryResultCache resultCache;
+  private final ChangeData.Factory changeDataFactory;
+  private final ChangeVisibilityRates visibilityRates;
+  private final PermissionBackend permissionBackend;
+  private final ProjectCache projectCache;
+  private final List<ChangeIsVisibleToPredicate> visibilityPredicates = new ArrayList<>();
 
   static {
     // It is assumed that basic rewrites do not touch visibleto predicates.
@@ -82,7 +123,12 @@ public class ChangeQueryProcessor extends QueryProcessor<ChangeData>
       ChangeIndexRewriter rewriter,
       Sequences sequences,
       ChangeIsVisibleToPredicate.Factory changeIsVisibleToPredicateFactory,
-      DynamicSet<ChangePluginDefinedInfoFactory> changePluginDefinedInfoFactories) {
+      DynamicSet<ChangePluginDefinedInfoFactory> changePluginDefinedInfoFactories,
+      ChangeQueryResultCache resultCache,
+      ChangeData.Factory changeDataFactory,
+      ChangeVisibilityRates visibilityRates,
+      PermissionBackend permissionBackend,
+      ProjectCache projectCache) {
     super(
         metricMaker,
         ChangeSchemaDefinitions.INSTANCE,
@@ -95,6 +141,12 @@ public class ChangeQueryProcessor extends QueryProcessor<ChangeData>
     this.changeIsVisibleToPredicateFactory = changeIsVisibleToPredicateFactory;
     this.sequences = sequences;
     this.indexConfig = indexConfig;
+    this.indexes = indexes;
+    this.resultCache = resultCache;
+    this.changeDataFactory = changeDataFactory;
+    this.visibilityRates = visibilityRates;
+    this.permissionBackend = permissionBackend;
+    this.projectCache = projectCache;
 
     changePluginDefinedInfoFactories
         .entries()
@@ -107,6 +159,197 @@ public class ChangeQueryProcessor extends QueryProcessor<ChangeData>
     return this;
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Results of queries that enforce visibility are served from the {@link
+   * ChangeQueryResultCache} if the same query was run recently by a user with the same groups and
+   * the index didn't change in the meantime.
+   */
+  @Override
+  public List<QueryResult<ChangeData>> query(List<Predicate<ChangeData>> queries)
+      throws QueryParseException {
+    if (!isVisibilityEnforced() || isDisabled()) {
+      return super.query(queries);
+    }
+    CurrentUser user = userProvider.get();
+    ChangeIndex index = indexes.getSearchIndex();
+    if (isExplain() || index == null || index.getSearcherGeneration() < 0) {
+      return queryVisible(user, queries);
+    }
+
+    Account.Id accountId = user.isIdentifiedUser() ? user.getAccountId() : null;
+    String groups = GroupMembershipFingerprint.of(user.getEffectiveGroups());
+    int schemaVersion = index.getSchema().getVersion();
+    long generation = index.getSearcherGeneration();
+
+    List<QueryResult<ChangeData>> out = new ArrayList<>(queries.size());
+    List<Predicate<ChangeData>> misses = new ArrayList<>();
+    List<Integer> missPositions = new ArrayList<>();
+    List<ChangeQueryResultCache.Key> missKeys = new ArrayList<>();
+    for (Predicate<ChangeData> q : queries) {
+      int limit = getEffectiveLimit(q);
+      ChangeQueryResultCache.Key key = null;
+      QueryResult<ChangeData> cached = null;
+      if (limit <= ChangeQueryResultCache.MAX_CACHED_RESULTS) {
+        key =
+            ChangeQueryResultCache.Key.create(
+                q.toString(),
+                start,
+                limit,
+                getRequestedFields(),
+                schemaVersion,
+                generation,
+                groups,
+                null);
+        cached = getCached(user, index, q, key);
+        if (cached == null && accountId != null) {
+          cached = getCached(user, index, q, key.forAccount(accountId));
+        }
+      }
+      if (cached == null) {
+        missPositions.add(out.size());
+        misses.add(q);
+        missKeys.add(key);
+      }
+      out.add(cached);
+    }
+
+    // Always run the remaining queries, even if there are none, to mark this processor as used.
+    List<QueryResult<ChangeData>> results = queryVisible(user, misses);
+    for (int i = 0; i < results.size(); i++) {
+      QueryResult<ChangeData> r = results.get(i);
+      out.set(missPositions.get(i), r);
+      ChangeQueryResultCache.Key key = missKeys.get(i);
+      if (key == null) {
+        continue;
+      }
+      if (visibilityPredicates.get(i).hasRejectedByPermissions()) {
+        if (accountId == null) {
+          continue;
+        }
+        key = key.forAccount(accountId);
+      }
+      resultCache.put(key, r.entities(), r.more());
+    }
+    return out;
+  }
+
+  /**
+   * Runs the given queries, restricted to the projects that are visible to the user if that is
+   * expected to be faster, and records the share of the checked changes that were visible.
+   */
+  private List<QueryResult<ChangeData>> queryVisible(
+      CurrentUser user, List<Predicate<ChangeData>> queries) throws QueryParseException {
+    List<Predicate<ChangeData>> restricted = restrictToVisibleProjects(user, queries);
+    List<QueryResult<ChangeData>> results = super.query(restricted);
+    if (user.isIdentifiedUser() && restricted == queries) {
+      recordVisibilityRate(user.getAccountId());
+    }
+    return results;
+  }
+
+  /**
+   * Restricts the given queries to the projects that are visible to the user, if the user could
+   * see only few of the changes returned by their recent queries and only few projects are visible
+   * to them.
+   *
+   * <p>The index then returns only changes of these projects, rather than many changes that are
+   * filtered out by the visibility check afterwards.
+   *
+   * @return the restricted queries, or the given list if the queries are not restricted.
+   */
+  private List<Predicate<ChangeData>> restrictToVisibleProjects(
+      CurrentUser user, List<Predicate<ChangeData>> queries) {
+    OptionalDouble rate = getVisibilityRate();
+    if (queries.isEmpty() || !rate.isPresent() || rate.getAsDouble() >= LOW_VISIBILITY_RATE) {
+      return queries;
+    }
+    // Checking the visibility of all projects is expensive, hence its result is remembered for
+    // the same group memberships. The visible projects themselves are only remembered briefly, as a
+    // stale set would hide the changes of projects that became visible.
+    Account.Id accountId = user.getAccountId();
+    String groups = GroupMembershipFingerprint.of(user.getEffectiveGroups());
+    if (visibilityRates.hasManyVisibleProjects(accountId, groups)) {
+      return queries;
+    }
+
+    Set<Project.NameKey> visibleProjects = visibilityRates.getVisibleProjects(accountId, groups);
+    if (visibleProjects == null) {
+      try {
+        visibleProjects =
+            permissionBackend.user(user).filter(ProjectPermission.ACCESS, projectCache.all());
+      } catch (PermissionBackendException e) {
+        logger.atWarning().withCause(e).log(
+            "Cannot determine projects visible to %s", user.getLoggableName());
+        return queries;
+      }
+      if (visibleProjects.size() > MAX_VISIBLE_PROJECTS_FILTER_SIZE) {
+        visibilityRates.recordManyVisibleProjects(accountId, groups);
+        return queries;
+      }
+      visibilityRates.recordVisibleProjects(accountId, groups, visibleProjects);
+    }
+
+    // Changes can only be visible if their project is.
+    Predicate<ChangeData> projects =
+        visibleProjects.isEmpty()
+            ? ChangeIndexPredicate.none()
+            : Predicate.or(
+                visibleProjects.stream().map(ChangePredicates::project).collect(toList()));
+    List<Predicate<ChangeData>> restricted = new ArrayList<>(queries.size());
+    for (Predicate<ChangeData> q : queries) {
+      int terms = q.getFlattenedPredicateList().size() + visibleProjects.size();
+      restricted.add(terms <= indexConfig.maxTerms() ? Predicate.and(projects, q) : q);
+    }
+    logger.atFine().log(
+        "Restricted queries of %s to visible projects %s", user.getLoggableName(), visibleProjects);
+    return restricted;
+  }
+
+  private OptionalDouble getVisibilityRate() {
+    CurrentUser user = userProvider.get();
+    if (!isVisibilityEnforced() || !user.isIdentifiedUser()) {
+      return OptionalDouble.empty();
+    }
+    return visibilityRates.get(user.getAccountId());
+  }
+
+  private void recordVisibilityRate(Account.Id accountId) {
+    int checked = 0;
+    int visible = 0;
+    for (ChangeIsVisibleToPredicate p : visibilityPredicates) {
+      checked += p.getCheckedCount();
+      visible += p.getVisibleCount();
+    }
+    visibilityRates.record(accountId, checked, visible);
+  }
+
+  @Nullable
+  private QueryResult<ChangeData> getCached(
+      CurrentUser user,
+      ChangeIndex index,
+      Predicate<ChangeData> query,
+      ChangeQueryResultCache.Key key) {
+    ChangeQueryResultCache.Result cached = resultCache.get(key);
+    if (cached == null) {
+      return null;
+    }
+    List<ChangeData> cds = new ArrayList<>(cached.changes().size());
+    for (ChangeQueryResultCache.CachedChange c : cached.changes()) {
+      cds.add(c.toChangeData(changeDataFactory, index.getSchema()));
+    }
+    // Permissions may have changed without the index being updated.
+    ChangeIsVisibleToPredicate isVisible = changeIsVisibleToPredicateFactory.forUser(user);
+    isVisible.checkVisibility(cds);
+    for (ChangeData cd : cds) {
+      if (!isVisible.match(cd)) {
+        return null;
+      }
+    }
+    return QueryResult.create(null, query, cds, cached.more());
+  }
+
   @Override
   protected QueryOptions createOptions(
       IndexConfig indexConfig,
@@ -142,8 +385,16 @@ public class ChangeQueryProcessor extends QueryProcessor<ChangeData>
 
   @Override
   protected Predicate<ChangeData> enforceVisibility(Predicate<ChangeData> pred) {
-    return new AndChangeSource(
-        pred, changeIsVisibleToPredicateFactory.forUser(userProvider.get()), start, indexConfig);
+    ChangeIsVisibleToPredicate isVisible =
+        changeIsVisibleToPredicateFactory.forUser(userProvider.get());
+    visibilityPredicates.add(isVisible);
+    return new AndChangeSource(pred, isVisible, start, indexConfig);
+  }
+
+  @Override
+  protected Set<String> getCountFields() {
+    // Visibility checks need the change itself and, for private changes, the reviewers.
+    return ImmutableSet.of(ChangeField.CHANGE.getName(), ChangeField.REVIEWER.getName());
   }
 
   @Override
@@ -161,8 +412,28 @@ public class ChangeQueryProcessor extends QueryProcessor<ChangeData>
     return sequences.changeBatchSize();
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>For users who could see only few of the changes returned by their recent queries, more
+   * results are fetched right away, so that fewer round trips to the index are needed to fill the
+   * page.
+   */
   @Override
   protected int getInitialPageSize(int limit) {
-    return Math.min(getUserQueryLimit().getAsInt(), limit);
+    int userQueryLimit = getUserQueryLimit().getAsInt();
+    int pageSize = Math.min(userQueryLimit, limit);
+    OptionalDouble rate = getVisibilityRate();
+    if (!rate.isPresent()) {
+      return pageSize;
+    }
+    double overFetch =
+        rate.getAsDouble() * MAX_INITIAL_OVER_FETCH > 1
+            ? 1 / rate.getAsDouble()
+            : MAX_INITIAL_OVER_FETCH;
+    int overFetched = Ints.saturatedCast((long) Math.ceil(pageSize * overFetch));
+    // Never fetch more than the user may query or the index may return at once.
+    int maxPageSize = Math.min(userQueryLimit, indexConfig.maxLimit());
+    return Math.max(pageSize, Math.min(overFetched, maxPageSize));
   }
 }
@@ -0,0 +1,215 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.index.Schema;
+import com.google.gerrit.index.SchemaFieldDefs.SchemaField;
+import com.google.gerrit.index.StoredValue;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Short-lived cache of the results of change queries.
+ *
+ * <p>Dashboards make many users run the same queries over and over again. Results are keyed by the
+ * normalized query, the requested index fields, the fingerprint of the user's groups and the
+ * generation of the index searcher. Opening a new searcher changes the generation, so that entries
+ * computed before the index was updated are never returned again and simply expire.
+ *
+ * <p>For each change, the values of the stored index fields are cached, so that cached results can
+ * be rendered like results read from the index, without searching the index or reading NoteDb.
+ *
+ * <p>Results are only shared between users if the visibility check didn't filter out any change
+ * because of missing permissions, since such decisions may depend on more than group membership.
+ * Otherwise they are only cached for the user that ran the query. Callers must verify that the
+ * cached changes are still visible to the user.
+ */
+@Singleton
+public class ChangeQueryResultCache {
+  public static final String NAME = "change_query_results";
+
+  /** Queries with a higher limit are not cached. */
+  static final int MAX_CACHED_RESULTS = 500;
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(NAME, Key.class, Result.class)
+            .weigher(Weigher.class)
+            .maximumWeight(1 << 12)
+            .expireAfterWrite(Duration.ofSeconds(30));
+      }
+    };
+  }
+
+  @AutoValue
+  abstract static class Key {
+    static Key create(
+        String query,
+        int start,
+        int limit,
+        Set<String> fields,
+        int schemaVersion,
+        long searcherGeneration,
+        String groups,
+        @Nullable Account.Id account) {
+      return new AutoValue_ChangeQueryResultCache_Key(
+          query,
+          start,
+          limit,
+          ImmutableSet.copyOf(fields),
+          schemaVersion,
+          searcherGeneration,
+          groups,
+          account);
+    }
+
+    abstract String query();
+
+    abstract int start();
+
+    abstract int limit();
+
+    /** Index fields that were requested by the query. */
+    abstract ImmutableSet<String> fields();
+
+    abstract int schemaVersion();
+
+    abstract long searcherGeneration();
+
+    /** Fingerprint of the groups of the user that ran the query. */
+    abstract String groups();
+
+    /** Account the result is private to, or null if it is shared between users. */
+    @Nullable
+    abstract Account.Id account();
+
+    /** Returns a key for the same query that is private to the given account. */
+    Key forAccount(Account.Id account) {
+      return create(
+          query(),
+          start(),
+          limit(),
+          fields(),
+          schemaVersion(),
+          searcherGeneration(),
+          groups(),
+          account);
+    }
+  }
+
+  @AutoValue
+  abstract static class Result {
+    abstract ImmutableList<CachedChange> changes();
+
+    abstract boolean more();
+  }
+
+  /** A change of a cached result, as it was read from the index. */
+  @AutoValue
+  abstract static class CachedChange {
+    abstract Project.NameKey project();
+
+    abstract Change.Id id();
+
+    /** Values of the stored index fields of the change, by field name. */
+    abstract ImmutableMap<String, StoredValue> storedValues();
+
+    /**
+     * Restores the change as it was read from the index.
+     *
+     * @param changeDataFactory factory for the change.
+     * @param schema schema of the index that the change was read from.
+     * @return a new instance that is populated from the stored values.
+     */
+    ChangeData toChangeData(ChangeData.Factory changeDataFactory, Schema<ChangeData> schema) {
+      ChangeData cd = changeDataFactory.create(project(), id());
+      for (Map.Entry<String, StoredValue> e : storedValues().entrySet()) {
+        SchemaField<ChangeData, ?> field = schema.getSchemaFields().get(e.getKey());
+        if (field != null) {
+          field.setIfPossible(cd, e.getValue());
+        }
+      }
+      cd.setStoredValues(storedValues());
+      return cd;
+    }
+  }
+
+  /** Weighs results by the number of cached changes. */
+  public static class Weigher implements com.google.common.cache.Weigher<Key, Result> {
+    @Override
+    public int weigh(Key key, Result value) {
+      return 1 + value.changes().size();
+    }
+  }
+
+  private final Cache<Key, Result> cache;
+
+  @Inject
+  ChangeQueryResultCache(@Named(NAME) Cache<Key, Result> cache) {
+    this.cache = cache;
+  }
+
+  /** Returns the cached result for the given key, or null if there is no cached result. */
+  @Nullable
+  Result get(Key key) {
+    return cache.getIfPresent(key);
+  }
+
+  /**
+   * Caches the result of a query.
+   *
+   * <p>The result is only cached if all changes were read from the index, since only these can be
+   * restored without reading NoteDb.
+   *
+   * @param key key of the query.
+   * @param changes changes that the query returned.
+   * @param more whether the query has more results.
+   * @return whether the result was cached.
+   */
+  boolean put(Key key, List<ChangeData> changes, boolean more) {
+    ImmutableList.Builder<CachedChange> cached =
+        ImmutableList.builderWithExpectedSize(changes.size());
+    for (ChangeData cd : changes) {
+      Optional<ImmutableMap<String, StoredValue>> storedValues = cd.storedValues();
+      if (!storedValues.isPresent()) {
+        return false;
+      }
+      cached.add(
+          new AutoValue_ChangeQueryResultCache_CachedChange(
+              cd.project(), cd.getId(), storedValues.get()));
+    }
+    cache.put(key, new AutoValue_ChangeQueryResultCache_Result(cached.build(), more));
+    return true;
+  }
+}
@@ -0,0 +1,152 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.gerrit.server.query.change;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.Project;
+import com.google.inject.Singleton;
+import java.time.Duration;
+import java.util.OptionalDouble;
+import java.util.Set;
+
+/**
+ * Share of the changes returned by the index that were visible to a user in their recent queries.
+ *
+ * <p>Queries of users who can see only few of the changes in the index need many round trips to
+ * the index to fill a page of results. Knowing the visibility rate of previous queries allows to
+ * fetch more results from the index right away.
+ *
+ * <p>Also remembers which projects are visible to users whose queries are restricted to the visible
+ * projects, or that they can see too many projects for this, so that the visible projects are not
+ * computed for each of their queries.
+ */
+@Singleton
+public class ChangeVisibilityRates {
+  /** Minimum number of changes checked by a query for its visibility rate to be recorded. */
+  private static final int MIN_CHECKED_CHANGES = 10;
+
+  private final Cache<Account.Id, Double> rates =
+      CacheBuilder.newBuilder().maximumSize(10000).expireAfterAccess(Duration.ofHours(1)).build();
+
+  /**
+   * Fingerprints of the group memberships of users with many visible projects. Users may only see
+   * fewer projects after their groups changed or after access rights were removed, hence entries
+   * expire.
+   */
+  private final Cache<Account.Id, String> manyVisibleProjects =
+      CacheBuilder.newBuilder()
+          .maximumSize(10000)
+          .expireAfterWrite(Duration.ofMinutes(10))
+          .build();
+
+  /**
+   * Projects visible to users with few visible projects. Entries expire quickly, since a stale set
+   * hides the changes of projects that became visible to the user.
+   */
+  private final Cache<Account.Id, VisibleProjects> fewVisibleProjects =
+      CacheBuilder.newBuilder()
+          .maximumSize(10000)
+          .expireAfterWrite(Duration.ofMinutes(1))
+          .build();
+
+  private static class VisibleProjects {
+    final String groups;
+    final ImmutableSet<Project.NameKey> projects;
+
+    VisibleProjects(String groups, ImmutableSet<Project.NameKey> projects) {
+      this.groups = groups;
+      this.projects = projects;
+    }
+  }
+
+  /**
+   * Returns the visibility rate of the recent queries of the given user.
+   *
+   * @param accountId account of the user.
+   * @return share of the checked changes that were visible, between 0 and 1, or empty if the user
+   *     didn't run enough queries recently.
+   */
+  public OptionalDouble get(Account.Id accountId) {
+    Double rate = rates.getIfPresent(accountId);
+    return rate != null ? OptionalDouble.of(rate) : OptionalDouble.empty();
+  }
+
+  /**
+   * Records the visibility of the changes checked by a query of the given user.
+   *
+   * @param accountId account of the user.
+   * @param checked number of changes whose visibility was checked.
+   * @param visible number of checked changes that were visible.
+   */
+  public void record(Account.Id accountId, int checked, int visible) {
+    if (checked < MIN_CHECKED_CHANGES) {
+      return;
+    }
+    double rate = (double) visible / checked;
+    // Weigh recent queries more, as the permissions of the user or the queried changes may vary.
+    rates.asMap().merge(accountId, rate, (previous, current) -> (previous + current) / 2);
+  }
+
+  /**
+   * Returns whether the given user was found to see too many projects for their queries to be
+   * restricted to the visible projects.
+   *
+   * @param accountId account of the user.
+   * @param groups fingerprint of the group memberships of the user.
+   */
+  public boolean hasManyVisibleProjects(Account.Id accountId, String groups) {
+    return groups.equals(manyVisibleProjects.getIfPresent(accountId));
+  }
+
+  /**
+   * Records that the given user can see too many projects for their queries to be restricted to
+   * the visible projects.
+   *
+   * @param accountId account of the user.
+   * @param groups fingerprint of the group memberships of the user.
+   */
+  public void recordManyVisibleProjects(Account.Id accountId, String groups) {
+    manyVisibleProjects.put(accountId, groups);
+  }
+
+  /**
+   * Returns the projects that were recently found to be visible to the given user.
+   *
+   * @param accountId account of the user.
+   * @param groups fingerprint of the group memberships of the user.
+   * @return the visible projects, or null if they are not known for these group memberships.
+   */
+  @Nullable
+  public ImmutableSet<Project.NameKey> getVisibleProjects(Account.Id accountId, String groups) {
+    VisibleProjects visible = fewVisibleProjects.getIfPresent(accountId);
+    return visible != null && visible.groups.equals(groups) ? visible.projects : null;
+  }
+
+  /**
+   * Records the projects that are visible to the given user, if the user can see few enough
+   * projects for their queries to be restricted to them.
+   *
+   * @param accountId account of the user.
+   * @param groups fingerprint of the group memberships of the user.
+   * @param projects projects visible to the user.
+   */
+  public void recordVisibleProjects(
+      Account.Id accountId, String groups, Set<Project.NameKey> projects) {
+    fewVisibleProjects.put(accountId, new VisibleProjects(groups, ImmutableSet.copyOf(projects)));
+  }
+}
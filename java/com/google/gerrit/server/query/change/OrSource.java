@@ -17,6 +17,7 @@ package com.google.gerrit.server.query.change;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.math.IntMath;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.index.query.FieldBundle;
@@ -85,7 +86,8 @@ public class OrSource extends OrPredicate<ChangeData> implements ChangeDataSourc
       cardinality = 0;
       for (Predicate<ChangeData> p : getChildren()) {
         if (p instanceof ChangeDataSource) {
-          cardinality += ((ChangeDataSource) p).getCardinality();
+          cardinality =
+              IntMath.saturatedAdd(cardinality, ((ChangeDataSource) p).getCardinality());
         }
       }
     }
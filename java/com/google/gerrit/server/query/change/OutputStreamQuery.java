@@ -17,6 +17,7 @@ package com.google.gerrit.server.query.change;
 import static com.google.common.base.Preconditions.checkState;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.flogger.FluentLogger;
@@ -26,6 +27,7 @@ import com.google.gerrit.entities.PatchSet;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.extensions.common.PluginDefinedInfo;
+import com.google.gerrit.index.query.QueryCount;
 import com.google.gerrit.index.query.QueryParseException;
 import com.google.gerrit.index.query.QueryResult;
 import com.google.gerrit.server.DynamicOptions;
@@ -34,6 +36,7 @@ import com.google.gerrit.server.cache.PerThreadCache;
 import com.google.gerrit.server.config.TrackingFooters;
 import com.google.gerrit.server.data.ChangeAttribute;
 import com.google.gerrit.server.data.PatchSetAttribute;
+import com.google.gerrit.server.data.QueryPlanAttribute;
 import com.google.gerrit.server.data.QueryStatsAttribute;
 import com.google.gerrit.server.events.EventFactory;
 import com.google.gerrit.server.git.GitRepositoryManager;
@@ -101,6 +104,8 @@ public class OutputStreamQuery {
   private boolean includeDependencies;
   private boolean includeSubmitRecords;
   private boolean includeAllReviewers;
+  private boolean explain;
+  private boolean count;
 
   private OutputStream outputStream = DisabledOutputStream.INSTANCE;
   private PrintWriter out;
@@ -189,6 +194,25 @@ public class OutputStreamQuery {
     includeAllReviewers = on;
   }
 
+  public void setExplain(boolean on) {
+    explain = on;
+    queryProcessor.setExplain(on);
+  }
+
+  public boolean getExplain() {
+    return explain;
+  }
+
+  /**
+   * Only output the statistics row with the number of matching changes.
+   *
+   * <p>Counting doesn't format the changes and, if possible, doesn't even read them from the
+   * index.
+   */
+  public void setCount(boolean on) {
+    count = on;
+  }
+
   public void setOutput(OutputStream out, OutputFormat fmt) {
     this.outputStream = out;
     this.outputFormat = fmt;
@@ -215,6 +239,19 @@ public class OutputStreamQuery {
         final QueryStatsAttribute stats = new QueryStatsAttribute();
         stats.runTimeMilliseconds = TimeUtil.nowMs();
 
+        if (count) {
+          if (explain) {
+            throw new QueryParseException("--explain and --count cannot be used together");
+          }
+          QueryCount c =
+              queryProcessor.count(ImmutableList.of(queryBuilder.parse(queryString))).get(0);
+          stats.rowCount = c.count();
+          stats.moreChanges = c.more();
+          stats.runTimeMilliseconds = TimeUtil.nowMs() - stats.runTimeMilliseconds;
+          show(stats);
+          return;
+        }
+
         Map<Project.NameKey, Repository> repos = new HashMap<>();
         Map<Project.NameKey, RevWalk> revWalks = new HashMap<>();
         QueryResult<ChangeData> results = queryProcessor.query(queryBuilder.parse(queryString));
@@ -235,6 +272,15 @@ public class OutputStreamQuery {
         stats.moreChanges = results.more();
         stats.runTimeMilliseconds = TimeUtil.nowMs() - stats.runTimeMilliseconds;
         show(stats);
+
+        if (explain) {
+          QueryPlanAttribute plan = new QueryPlanAttribute();
+          plan.plan = results.explain();
+          if (plan.plan != null) {
+            plan.plan.query = queryString;
+          }
+          show(plan);
+        }
       } catch (StorageException err) {
         logger.atSevere().withCause(err).log("Cannot execute query: %s", queryString);
 
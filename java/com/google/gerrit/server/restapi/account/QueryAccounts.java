@@ -212,7 +212,7 @@ public class QueryAccounts implements RestReadView<TopLevelResource> {
     try {
       Predicate<AccountState> queryPred;
       if (suggest) {
-        queryPred = queryBuilder.defaultQuery(query);
+        queryPred = queryBuilder.suggestQuery(query);
         queryProcessor.setUserProvidedLimit(suggestLimit);
       } else {
         queryPred = queryBuilder.parse(query);
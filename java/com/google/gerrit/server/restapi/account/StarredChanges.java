@@ -54,15 +54,18 @@ public class StarredChanges
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   private final ChangesCollection changes;
+  private final Provider<QueryChanges> queryChanges;
   private final DynamicMap<RestView<AccountResource.StarredChange>> views;
   private final StarredChangesUtil starredChangesUtil;
 
   @Inject
   StarredChanges(
       ChangesCollection changes,
+      Provider<QueryChanges> queryChanges,
       DynamicMap<RestView<AccountResource.StarredChange>> views,
       StarredChangesUtil starredChangesUtil) {
     this.changes = changes;
+    this.queryChanges = queryChanges;
     this.views = views;
     this.starredChangesUtil = starredChangesUtil;
   }
@@ -89,7 +92,7 @@ public class StarredChanges
   public RestView<AccountResource> list() throws ResourceNotFoundException {
     return (RestReadView<AccountResource>)
         self -> {
-          QueryChanges query = changes.list();
+          QueryChanges query = queryChanges.get();
           query.addQuery("has:star");
           return query.apply(TopLevelResource.INSTANCE);
         };
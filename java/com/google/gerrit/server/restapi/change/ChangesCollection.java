@@ -14,10 +14,12 @@
 
 package com.google.gerrit.server.restapi.change;
 
+import com.google.common.collect.ListMultimap;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.registration.DynamicMap;
 import com.google.gerrit.extensions.restapi.IdString;
+import com.google.gerrit.extensions.restapi.NeedsParams;
 import com.google.gerrit.extensions.restapi.ResourceConflictException;
 import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
 import com.google.gerrit.extensions.restapi.RestApiException;
@@ -35,25 +37,28 @@ import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
-import com.google.inject.Singleton;
 import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
 
-@Singleton
-public class ChangesCollection implements RestCollection<TopLevelResource, ChangeResource> {
+public class ChangesCollection
+    implements RestCollection<TopLevelResource, ChangeResource>, NeedsParams {
   private final Provider<CurrentUser> user;
   private final Provider<QueryChanges> queryFactory;
+  private final Provider<StreamChanges> streamFactory;
   private final DynamicMap<RestView<ChangeResource>> views;
   private final ChangeFinder changeFinder;
   private final ChangeResource.Factory changeResourceFactory;
   private final PermissionBackend permissionBackend;
   private final ProjectCache projectCache;
 
+  private boolean stream;
+
   @Inject
   public ChangesCollection(
       Provider<CurrentUser> user,
       Provider<QueryChanges> queryFactory,
+      Provider<StreamChanges> streamFactory,
       DynamicMap<RestView<ChangeResource>> views,
       ChangeFinder changeFinder,
       ChangeResource.Factory changeResourceFactory,
@@ -61,6 +66,7 @@ public class ChangesCollection implements RestCollection<TopLevelResource, Chang
       ProjectCache projectCache) {
     this.user = user;
     this.queryFactory = queryFactory;
+    this.streamFactory = streamFactory;
     this.views = views;
     this.changeFinder = changeFinder;
     this.changeResourceFactory = changeResourceFactory;
@@ -69,7 +75,16 @@ public class ChangesCollection implements RestCollection<TopLevelResource, Chang
   }
 
   @Override
-  public QueryChanges list() {
+  public void setParams(ListMultimap<String, String> params) {
+    // The --stream option is defined in StreamChanges
+    this.stream = params.containsKey("stream");
+  }
+
+  @Override
+  public RestView<TopLevelResource> list() {
+    if (stream) {
+      return streamFactory.get();
+    }
     return queryFactory.get();
   }
 
@@ -14,19 +14,28 @@
 
 package com.google.gerrit.server.restapi.change;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.extensions.client.ListChangesOption;
 import com.google.gerrit.extensions.client.ListOption;
 import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.common.QueryCountInfo;
+import com.google.gerrit.extensions.common.QueryPlanInfo;
 import com.google.gerrit.extensions.restapi.AuthException;
 import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.BinaryResult;
 import com.google.gerrit.extensions.restapi.Response;
 import com.google.gerrit.extensions.restapi.RestReadView;
 import com.google.gerrit.extensions.restapi.TopLevelResource;
+import com.google.gerrit.index.query.QueryCount;
 import com.google.gerrit.index.query.QueryParseException;
 import com.google.gerrit.index.query.QueryRequiresAuthException;
 import com.google.gerrit.index.query.QueryResult;
+import com.google.gerrit.json.OutputFormat;
 import com.google.gerrit.server.AnonymousUser;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.DynamicOptions;
@@ -37,8 +46,14 @@ import com.google.gerrit.server.permissions.PermissionBackendException;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.query.change.ChangeQueryBuilder;
 import com.google.gerrit.server.query.change.ChangeQueryProcessor;
+import com.google.gson.Gson;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
@@ -49,6 +64,14 @@ import org.kohsuke.args4j.Option;
 public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOptions.BeanReceiver {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  /** Prefix of JSON responses that prevents browsers from executing them as scripts. */
+  private static final String JSON_PREFIX = ")]}'\n";
+
+  private static final String JSON_TYPE = "application/json";
+
+  /** Number of changes that are formatted at once when streaming results. */
+  private static final int STREAM_PAGE_SIZE = 100;
+
   private final ChangeJson.Factory json;
   private final ChangeQueryBuilder qb;
   private final Provider<ChangeQueryProcessor> queryProcessorProvider;
@@ -60,6 +83,9 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
   private Integer start;
   private Boolean noLimit;
   private Boolean skipVisibility;
+  private boolean explain;
+  private boolean count;
+  private int streamPageSize = STREAM_PAGE_SIZE;
 
   @Option(
       name = "--query",
@@ -112,6 +138,24 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
     skipVisibility = on;
   }
 
+  @Option(
+      name = "--explain",
+      usage =
+          "Return the plan that was used to execute the query instead of the changes,"
+              + " only for users with the 'Maintain Server' capability")
+  public void setExplain(boolean on) throws AuthException, PermissionBackendException {
+    if (on) {
+      CurrentUser user = userProvider.get();
+      permissionBackend.user(user).check(GlobalPermission.MAINTAIN_SERVER);
+    }
+    explain = on;
+  }
+
+  @Option(name = "--count", usage = "Return the number of matching changes instead of the changes")
+  public void setCount(boolean on) {
+    count = on;
+  }
+
   @Override
   public void setDynamicBean(String plugin, DynamicOptions.DynamicBean dynamicBean) {
     dynamicBeans.put(plugin, dynamicBean);
@@ -147,7 +191,7 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
   @Override
   public Response<List<?>> apply(TopLevelResource rsrc)
       throws BadRequestException, AuthException, PermissionBackendException {
-    List<List<ChangeInfo>> out;
+    List<?> out;
     try {
       out = query();
     } catch (QueryRequiresAuthException e) {
@@ -156,11 +200,15 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
       logger.atFine().withCause(e).log("Reject change query with 400 Bad Request: %s", queries);
       throw new BadRequestException(e.getMessage(), e);
     }
-    return Response.ok(out.size() == 1 ? out.get(0) : out);
+    if (explain || count || out.size() != 1) {
+      // Plans and counts are always returned as a list, one per query.
+      return Response.ok(out);
+    }
+    return Response.ok((List<?>) out.get(0));
   }
 
-  private List<List<ChangeInfo>> query()
-      throws BadRequestException, QueryParseException, PermissionBackendException {
+  private ChangeQueryProcessor newQueryProcessor()
+      throws BadRequestException, QueryParseException {
     ChangeQueryProcessor queryProcessor = queryProcessorProvider.get();
     if (queryProcessor.isDisabled()) {
       throw new QueryParseException("query disabled");
@@ -181,6 +229,7 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
     if (skipVisibility != null) {
       queryProcessor.enforceVisibility(!skipVisibility);
     }
+    queryProcessor.setExplain(explain);
     dynamicBeans.forEach((p, b) -> queryProcessor.setDynamicBean(p, b));
 
     if (queries == null || queries.isEmpty()) {
@@ -190,9 +239,41 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
       // users from submitting too much to the server in a single call.
       throw new QueryParseException("limit of 10 queries");
     }
+    return queryProcessor;
+  }
+
+  private List<?> query()
+      throws BadRequestException, QueryParseException, PermissionBackendException {
+    if (explain && count) {
+      throw new BadRequestException("'explain' and 'count' cannot be used together");
+    }
+    ChangeQueryProcessor queryProcessor = newQueryProcessor();
 
     int cnt = queries.size();
+    if (count) {
+      List<QueryCount> counts = queryProcessor.count(qb.parse(queries));
+      List<QueryCountInfo> infos = new ArrayList<>(cnt);
+      for (int n = 0; n < cnt; n++) {
+        QueryCountInfo info = new QueryCountInfo();
+        info.query = queries.get(n);
+        info.count = counts.get(n).count();
+        info._moreChanges = counts.get(n).more() ? true : null;
+        infos.add(info);
+      }
+      return infos;
+    }
     List<QueryResult<ChangeData>> results = queryProcessor.query(qb.parse(queries));
+    if (explain) {
+      List<QueryPlanInfo> plans = new ArrayList<>(cnt);
+      for (int n = 0; n < cnt; n++) {
+        QueryPlanInfo plan = results.get(n).explain();
+        if (plan != null) {
+          plan.query = queries.get(n);
+        }
+        plans.add(plan);
+      }
+      return plans;
+    }
     List<List<ChangeInfo>> res =
         json.create(options, queryProcessor.getInfosFactory()).format(results);
     for (int n = 0; n < cnt; n++) {
@@ -203,4 +284,109 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
     }
     return res;
   }
+
+  /**
+   * Runs the query and returns a result that formats and writes the matching changes page by page.
+   *
+   * <p>The changes are read from the index by a single query, so that they come from one consistent
+   * snapshot of the index: a change that is updated while the result is written is neither skipped
+   * nor written twice. Only formatting the changes, which is what needs most of the memory, is done
+   * page by page.
+   *
+   * @return the streamed result, with the same JSON format as {@link #apply(TopLevelResource)}.
+   */
+  public BinaryResult stream()
+      throws BadRequestException, AuthException, PermissionBackendException {
+    try {
+      return streamQuery();
+    } catch (QueryRequiresAuthException e) {
+      throw new AuthException("Must be signed-in to use this operator", e);
+    } catch (QueryParseException e) {
+      logger.atFine().withCause(e).log("Reject change query with 400 Bad Request: %s", queries);
+      throw new BadRequestException(e.getMessage(), e);
+    }
+  }
+
+  /** Sets the number of changes that are formatted at once when streaming results. */
+  @VisibleForTesting
+  public void setStreamPageSize(int streamPageSize) {
+    checkArgument(streamPageSize > 0, "stream page size must be positive: %s", streamPageSize);
+    this.streamPageSize = streamPageSize;
+  }
+
+  private BinaryResult streamQuery()
+      throws BadRequestException, QueryParseException, PermissionBackendException {
+    if (explain || count) {
+      throw new BadRequestException("'stream' cannot be used together with 'explain' or 'count'");
+    }
+    ChangeQueryProcessor queryProcessor = newQueryProcessor();
+    if (queries.size() != 1) {
+      throw new BadRequestException("'stream' can only be used with a single query");
+    }
+    // Run the query right away, so that errors in the query are reported as such, rather than as a
+    // broken response.
+    QueryResult<ChangeData> result = queryProcessor.query(qb.parse(queries.get(0)));
+    return new StreamedChanges(
+        json.create(options, queryProcessor.getInfosFactory()), result, streamPageSize);
+  }
+
+  /**
+   * Result of a streamed query.
+   *
+   * <p>Formats the matching changes page by page and writes each page before formatting the next
+   * one. The changes of a page are released once they are written, so that the data that was
+   * loaded to format them can be garbage collected. If the client disconnects, writing fails and
+   * no further pages are formatted.
+   */
+  private static class StreamedChanges extends BinaryResult {
+    private final ChangeJson changeJson;
+    private final List<ChangeData> changes;
+    private final boolean more;
+    private final int pageSize;
+
+    StreamedChanges(ChangeJson changeJson, QueryResult<ChangeData> result, int pageSize) {
+      this.changeJson = changeJson;
+      this.changes = new ArrayList<>(result.entities());
+      this.more = result.more();
+      this.pageSize = pageSize;
+      setContentType(JSON_TYPE);
+      setCharacterEncoding(UTF_8);
+      setStreamed();
+    }
+
+    @Override
+    public void writeTo(OutputStream os) throws IOException {
+      Gson gson = OutputFormat.JSON_COMPACT.newGson();
+      Writer w = new BufferedWriter(new OutputStreamWriter(os, UTF_8));
+      w.write(JSON_PREFIX);
+      w.write('[');
+      int total = changes.size();
+      boolean first = true;
+      for (int from = 0; from < total; from += pageSize) {
+        int to = Math.min(from + pageSize, total);
+        List<ChangeData> page = changes.subList(from, to);
+        List<ChangeInfo> infos;
+        try {
+          infos = changeJson.format(page);
+        } catch (PermissionBackendException e) {
+          throw new IOException("cannot stream changes", e);
+        }
+        Collections.fill(page, null);
+        if (more && to == total && !infos.isEmpty()) {
+          Iterables.getLast(infos)._moreChanges = true;
+        }
+        for (ChangeInfo info : infos) {
+          if (!first) {
+            w.write(',');
+          }
+          gson.toJson(info, w);
+          first = false;
+        }
+        // Flush each page to the client, which also detects if the client disconnected.
+        w.flush();
+      }
+      w.write("]\n");
+      w.flush();
+    }
+  }
 }
@@ -263,7 +263,7 @@ public class ReviewersUtil {
       Predicate<AccountState> pred =
           Predicate.and(
               AccountPredicates.isActive(),
-              accountQueryBuilder.defaultQuery(suggestReviewers.getQuery()));
+              accountQueryBuilder.suggestQuery(suggestReviewers.getQuery()));
       logger.atFine().log("accounts index query: %s", pred);
       accountIndexRewriter.validateMaxTermsInQuery(pred);
       boolean useLegacyNumericFields =
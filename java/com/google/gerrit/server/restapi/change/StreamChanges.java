@@ -0,0 +1,62 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.restapi.change;
+
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.BinaryResult;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.extensions.restapi.TopLevelResource;
+import com.google.gerrit.server.DynamicOptions;
+import com.google.gerrit.server.DynamicOptions.DynamicBean;
+import com.google.gerrit.server.permissions.PermissionBackendException;
+import com.google.gerrit.util.cli.Options;
+import com.google.inject.Inject;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Variant of {@link QueryChanges} for the REST API that writes the changes to the response while
+ * they are read, see {@link QueryChanges#stream()}.
+ */
+public class StreamChanges implements RestReadView<TopLevelResource>, DynamicOptions.BeanReceiver {
+  @Options public final QueryChanges delegate;
+
+  // The option is only declared so that it is accepted, ChangesCollection chooses this view if it
+  // is set.
+  @Option(name = "--stream", usage = "Write the changes to the response while they are read")
+  private boolean stream;
+
+  @Inject
+  StreamChanges(QueryChanges delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void setDynamicBean(String plugin, DynamicBean dynamicBean) {
+    delegate.setDynamicBean(plugin, dynamicBean);
+  }
+
+  @Override
+  public Class<? extends DynamicOptions.BeanReceiver> getExportedBeanReceiver() {
+    return delegate.getExportedBeanReceiver();
+  }
+
+  @Override
+  public Response<BinaryResult> apply(TopLevelResource rsrc)
+      throws BadRequestException, AuthException, PermissionBackendException {
+    return Response.ok(delegate.stream());
+  }
+}
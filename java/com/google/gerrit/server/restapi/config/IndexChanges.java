@@ -76,7 +76,7 @@ public class IndexChanges implements RestModifyView<ConfigResource, Input> {
       }
 
       for (ChangeNotes n : notes) {
-        indexer.index(changeDataFactory.create(n));
+        indexer.reindex(changeDataFactory.create(n));
         logger.atFine().log("Indexed change %s", id);
       }
     }
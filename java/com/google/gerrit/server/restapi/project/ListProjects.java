@@ -19,11 +19,14 @@ import static com.google.common.base.Strings.isNullOrEmpty;
 import static com.google.common.collect.Ordering.natural;
 import static com.google.gerrit.extensions.client.ProjectState.HIDDEN;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Streams;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.AccountGroup;
@@ -71,6 +74,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -78,11 +82,12 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Optional;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
@@ -98,6 +103,8 @@ import org.kohsuke.args4j.Option;
 public class ListProjects implements RestReadView<TopLevelResource> {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  private static final int PERMISSION_CHECK_BATCH_SIZE = 100;
+
   public enum FilterType {
     CODE {
       @Override
@@ -610,11 +617,37 @@ public class ListProjects implements RestReadView<TopLevelResource> {
   }
 
   private Stream<ProjectState> filter(PermissionBackend.WithUser perm) throws BadRequestException {
-    return StreamSupport.stream(scan().spliterator(), false)
-        .map(projectCache::get)
-        .filter(Optional::isPresent)
-        .map(Optional::get)
-        .filter(p -> permissionCheck(p, perm));
+    // Check permissions for batches of projects, so that the permission backend can share the
+    // result between projects that inherit their access rights from the same parent.
+    // With a limit, don't load more projects into the cache than may be needed.
+    int batchSize =
+        limit > 0
+            ? Math.min(PERMISSION_CHECK_BATCH_SIZE, start + limit)
+            : PERMISSION_CHECK_BATCH_SIZE;
+    Iterator<ProjectState> states =
+        scan().map(projectCache::get).filter(Optional::isPresent).map(Optional::get).iterator();
+    return Streams.stream(Iterators.partition(states, batchSize))
+        .flatMap(batch -> permissionCheck(batch, perm));
+  }
+
+  private Stream<ProjectState> permissionCheck(
+      List<ProjectState> states, PermissionBackend.WithUser perm) {
+    Set<Project.NameKey> permitted = new HashSet<>();
+    try {
+      permitted.addAll(
+          perm.filter(ProjectPermission.ACCESS, names(states, ProjectState::statePermitsRead)));
+      permitted.addAll(
+          perm.filter(ProjectPermission.READ_CONFIG, names(states, s -> !s.statePermitsRead())));
+    } catch (PermissionBackendException e) {
+      logger.atWarning().withCause(e).log("Cannot check permissions of projects in batch");
+      return states.stream().filter(s -> permissionCheck(s, perm));
+    }
+    return states.stream().filter(s -> permitted.contains(s.getNameKey()));
+  }
+
+  private static List<Project.NameKey> names(
+      List<ProjectState> states, Predicate<ProjectState> condition) {
+    return states.stream().filter(condition).map(ProjectState::getNameKey).collect(toList());
   }
 
   private boolean permissionCheck(ProjectState state, PermissionBackend.WithUser perm) {
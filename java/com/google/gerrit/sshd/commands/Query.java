@@ -14,7 +14,11 @@
 
 package com.google.gerrit.sshd.commands;
 
+import com.google.gerrit.extensions.restapi.AuthException;
 import com.google.gerrit.server.DynamicOptions;
+import com.google.gerrit.server.permissions.GlobalPermission;
+import com.google.gerrit.server.permissions.PermissionBackend;
+import com.google.gerrit.server.permissions.PermissionBackendException;
 import com.google.gerrit.server.query.change.OutputStreamQuery;
 import com.google.gerrit.server.query.change.OutputStreamQuery.OutputFormat;
 import com.google.gerrit.sshd.CommandMetaData;
@@ -27,6 +31,7 @@ import org.kohsuke.args4j.Option;
 @CommandMetaData(name = "query", description = "Query the change database")
 public class Query extends SshCommand implements DynamicOptions.BeanReceiver {
   @Inject private OutputStreamQuery processor;
+  @Inject private PermissionBackend permissionBackend;
 
   @Option(name = "--format", metaVar = "FMT", usage = "Output display format")
   void setFormat(OutputFormat format) {
@@ -96,6 +101,22 @@ public class Query extends SshCommand implements DynamicOptions.BeanReceiver {
     processor.setNoLimit(on);
   }
 
+  @Option(
+      name = "--explain",
+      usage =
+          "Include the plan that was used to execute the query,"
+              + " only for users with the 'Maintain Server' capability")
+  void setExplain(boolean on) {
+    processor.setExplain(on);
+  }
+
+  @Option(
+      name = "--count",
+      usage = "Only output the statistics row with the number of matching changes")
+  void setCount(boolean on) {
+    processor.setCount(on);
+  }
+
   @Argument(
       index = 0,
       required = true,
@@ -123,6 +144,15 @@ public class Query extends SshCommand implements DynamicOptions.BeanReceiver {
         && !(processor.getIncludePatchSets() || processor.getIncludeCurrentPatchSet())) {
       throw die("--files option needs --patch-sets or --current-patch-set");
     }
+    if (processor.getExplain()) {
+      try {
+        permissionBackend.currentUser().check(GlobalPermission.MAINTAIN_SERVER);
+      } catch (AuthException e) {
+        throw die("--explain option needs the 'Maintain Server' capability");
+      } catch (PermissionBackendException e) {
+        throw die(e);
+      }
+    }
   }
 
   private static String join(List<String> list, String sep) {
@@ -77,7 +77,6 @@ import com.google.gerrit.server.experiments.ConfigExperimentFeatures.ConfigExper
 import com.google.gerrit.server.git.GarbageCollection;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.PerThreadRequestScope;
-import com.google.gerrit.server.git.SearchingChangeCacheImpl.SearchingChangeCacheImplModule;
 import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.git.WorkQueue.WorkQueueModule;
 import com.google.gerrit.server.group.testing.TestGroupBackend;
@@ -88,6 +87,7 @@ import com.google.gerrit.server.index.change.ChangeSchemaDefinitions;
 import com.google.gerrit.server.index.group.AllGroupsIndexer;
 import com.google.gerrit.server.index.group.GroupIndexCollection;
 import com.google.gerrit.server.index.group.GroupSchemaDefinitions;
+import com.google.gerrit.server.index.options.AutoFlush;
 import com.google.gerrit.server.mail.SignedTokenEmailTokenVerifier.SignedTokenEmailTokenVerifierModule;
 import com.google.gerrit.server.patch.DiffExecutor;
 import com.google.gerrit.server.permissions.DefaultPermissionBackendModule;
@@ -191,7 +191,6 @@ public class InMemoryModule extends FactoryModule {
     factory(PluginUser.Factory.class);
     install(new PluginApiModule());
     install(new DefaultPermissionBackendModule());
-    install(new SearchingChangeCacheImplModule());
     factory(GarbageCollection.Factory.class);
     install(new AuditModule());
     install(new SubscriptionGraphModule());
@@ -261,6 +260,8 @@ public class InMemoryModule extends FactoryModule {
         install(luceneIndexModule());
       } else if (indexType.isFake()) {
         install(fakeIndexModule());
+      } else if (indexType.isMemory()) {
+        install(memoryIndexModule());
       }
     }
     bind(ServerInformationImpl.class);
@@ -340,6 +341,30 @@ public class InMemoryModule extends FactoryModule {
     return indexModule("com.google.gerrit.index.testing.FakeIndexModule");
   }
 
+  private Module memoryIndexModule() {
+    try {
+      Class<?> clazz = Class.forName("com.google.gerrit.lucene.LuceneIndexModule");
+      Method m =
+          clazz.getMethod(
+              "singleVersionWithChangesInMemory",
+              Map.class,
+              int.class,
+              boolean.class,
+              AutoFlush.class);
+      return (Module)
+          m.invoke(
+              null, getSingleSchemaVersions(), 0, ReplicaUtil.isReplica(cfg), AutoFlush.ENABLED);
+    } catch (ClassNotFoundException
+        | SecurityException
+        | NoSuchMethodException
+        | IllegalArgumentException
+        | IllegalAccessException
+        | InvocationTargetException e) {
+      e.printStackTrace();
+      throw new ProvisionException(e.getMessage(), e);
+    }
+  }
+
   private Module indexModule(String moduleClassName) {
     try {
       Class<?> clazz = Class.forName(moduleClassName);
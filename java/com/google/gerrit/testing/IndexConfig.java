@@ -49,6 +49,12 @@ public class IndexConfig {
     return cfg;
   }
 
+  public static Config createForMemory() {
+    Config cfg = create();
+    cfg.setString("index", null, "type", "memory");
+    return cfg;
+  }
+
   public static Config createForFake() {
     return create();
   }
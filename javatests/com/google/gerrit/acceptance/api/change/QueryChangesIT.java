@@ -15,9 +15,13 @@
 package com.google.gerrit.acceptance.api.change;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.allowCapability;
 import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.block;
+import static com.google.gerrit.extensions.client.ListChangesOption.LABELS;
+import static com.google.gerrit.extensions.client.ListChangesOption.MESSAGES;
 import static com.google.gerrit.server.group.SystemGroupBackend.REGISTERED_USERS;
 import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.stream.Collectors.toList;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 
@@ -29,8 +33,11 @@ import com.google.gerrit.acceptance.RestResponse;
 import com.google.gerrit.acceptance.UseClockStep;
 import com.google.gerrit.acceptance.config.GerritConfig;
 import com.google.gerrit.acceptance.testsuite.account.AccountOperations;
+import com.google.gerrit.acceptance.testsuite.change.IndexOperations;
 import com.google.gerrit.acceptance.testsuite.project.ProjectOperations;
 import com.google.gerrit.acceptance.testsuite.request.RequestScopeOperations;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.common.data.GlobalCapability;
 import com.google.gerrit.entities.AccessSection;
 import com.google.gerrit.entities.Account;
 import com.google.gerrit.entities.Patch;
@@ -38,13 +45,18 @@ import com.google.gerrit.entities.Permission;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.api.changes.ReviewInput;
 import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.common.QueryPlanInfo;
 import com.google.gerrit.extensions.restapi.AuthException;
 import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.extensions.restapi.TopLevelResource;
 import com.google.gerrit.server.project.ProjectConfig;
 import com.google.gerrit.server.restapi.change.QueryChanges;
+import com.google.gson.reflect.TypeToken;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
@@ -53,6 +65,7 @@ import org.junit.Test;
 
 public class QueryChangesIT extends AbstractDaemonTest {
   @Inject private AccountOperations accountOperations;
+  @Inject private IndexOperations.Change changeIndexOperations;
   @Inject private ProjectOperations projectOperations;
   @Inject private Provider<QueryChanges> queryChangesProvider;
   @Inject private RequestScopeOperations requestScopeOperations;
@@ -364,6 +377,176 @@ public class QueryChangesIT extends AbstractDaemonTest {
     assertThat(result3).hasSize(1);
   }
 
+  @Test
+  public void streamChanges() throws Exception {
+    int numericId1 = createChange().getChange().getId().get();
+    int numericId2 = createChange().getChange().getId().get();
+    int numericId3 = createChange().getChange().getId().get();
+
+    RestResponse r = adminRestSession.get("/changes/?stream&q=repo:" + project.get());
+    r.assertOK();
+    List<ChangeInfo> result =
+        newGson().fromJson(r.getReader(), new TypeToken<List<ChangeInfo>>() {}.getType());
+    assertThat(result.stream().map(i -> i._number).collect(toList()))
+        .containsExactly(numericId3, numericId2, numericId1)
+        .inOrder();
+    assertNoChangeHasMoreChangesSet(result);
+
+    r = adminRestSession.get("/changes/?stream&n=2&q=repo:" + project.get());
+    r.assertOK();
+    result = newGson().fromJson(r.getReader(), new TypeToken<List<ChangeInfo>>() {}.getType());
+    assertThat(result.stream().map(i -> i._number).collect(toList()))
+        .containsExactly(numericId3, numericId2)
+        .inOrder();
+    assertThat(result.get(1)._moreChanges).isTrue();
+  }
+
+  @Test
+  @UseClockStep
+  public void streamReturnsChangesUpdatedWhileStreamingOnce() throws Exception {
+    int numericId1 = createChange().getChange().getId().get();
+    PushOneCommit.Result r2 = createChange();
+    int numericId2 = r2.getChange().getId().get();
+    int numericId3 = createChange().getChange().getId().get();
+
+    QueryChanges queryChanges = queryChangesProvider.get();
+    queryChanges.addQuery("repo:" + project.get());
+    queryChanges.setStreamPageSize(1);
+    // Updating the second change after the first page moves it to the top of the result.
+    ByteArrayOutputStream out =
+        new ByteArrayOutputStream() {
+          private boolean updated;
+
+          @Override
+          public void flush() throws IOException {
+            if (!updated && size() > 0) {
+              updated = true;
+              try {
+                gApi.changes().id(r2.getChangeId()).current().review(ReviewInput.recommend());
+              } catch (RestApiException e) {
+                throw new IOException(e);
+              }
+            }
+          }
+        };
+    queryChanges.stream().writeTo(out);
+
+    String json = out.toString(UTF_8.name());
+    assertThat(json).startsWith(")]}'\n");
+    List<ChangeInfo> result =
+        newGson()
+            .fromJson(
+                json.substring(")]}'\n".length()),
+                new TypeToken<List<ChangeInfo>>() {}.getType());
+    assertThat(result.stream().map(i -> i._number).collect(toList()))
+        .containsExactly(numericId3, numericId2, numericId1)
+        .inOrder();
+  }
+
+  @Test
+  public void streamRejectsMultipleQueries() throws Exception {
+    adminRestSession.get("/changes/?stream&q=is:open&q=is:merged").assertBadRequest();
+  }
+
+  @Test
+  public void queryRendersMessagesFromIndex() throws Exception {
+    PushOneCommit.Result r = createChange();
+    gApi.changes().id(r.getChangeId()).current().review(new ReviewInput().message("Looks good"));
+
+    List<ChangeInfo> result =
+        gApi.changes().query("change:" + r.getChangeId()).withOption(MESSAGES).get();
+    assertThat(result).hasSize(1);
+    assertThat(result.get(0).messages.stream().map(m -> m.message).collect(toList()))
+        .containsExactlyElementsIn(
+            gApi.changes().id(r.getChangeId()).get(MESSAGES).messages.stream()
+                .map(m -> m.message)
+                .collect(toList()))
+        .inOrder();
+  }
+
+  @Test
+  public void queryLoadsStaleChangesFromNoteDb() throws Exception {
+    PushOneCommit.Result r = createChange();
+    try (AutoCloseable ignored = changeIndexOperations.disableWrites()) {
+      gApi.changes().id(r.getChangeId()).current().review(ReviewInput.approve());
+    }
+
+    List<ChangeInfo> result =
+        gApi.changes().query("change:" + r.getChangeId()).withOption(LABELS).get();
+    assertThat(result).hasSize(1);
+    assertThat(result.get(0).metaRevId)
+        .isEqualTo(gApi.changes().id(r.getChangeId()).get().metaRevId);
+    assertThat(result.get(0).labels.get("Code-Review").approved).isNotNull();
+  }
+
+  @Test
+  public void explainQuery() throws Exception {
+    String changeId = createChange().getChangeId();
+
+    RestResponse r = adminRestSession.get("/changes/?explain&q=" + changeId);
+    r.assertOK();
+    List<QueryPlanInfo> plans =
+        newGson().fromJson(r.getReader(), new TypeToken<List<QueryPlanInfo>>() {}.getType());
+    assertThat(plans).hasSize(1);
+    assertThat(plans.get(0).query).isEqualTo(changeId);
+
+    QueryPlanInfo index = findPlanNode(plans.get(0), QueryPlanInfo.Type.INDEX);
+    assertThat(index.reads).isAtLeast(1L);
+    assertThat(index.matched).isEqualTo(1L);
+    assertThat(index.timeMicros).isNotNull();
+
+    QueryPlanInfo visibility = findPlanNode(plans.get(0), QueryPlanInfo.Type.VISIBILITY);
+    assertThat(visibility.scanned).isEqualTo(1L);
+    assertThat(visibility.rejected).isEqualTo(0L);
+  }
+
+  @Test
+  public void explainCountsChangesRejectedByVisibility() throws Exception {
+    String changeId = createChange().getChangeId();
+    gApi.changes().id(changeId).setPrivate(true);
+
+    projectOperations
+        .allProjectsForUpdate()
+        .add(allowCapability(GlobalCapability.MAINTAIN_SERVER).group(REGISTERED_USERS))
+        .update();
+    RestResponse r = userRestSession.get("/changes/?explain&q=" + changeId);
+    r.assertOK();
+    List<QueryPlanInfo> plans =
+        newGson().fromJson(r.getReader(), new TypeToken<List<QueryPlanInfo>>() {}.getType());
+    QueryPlanInfo visibility = findPlanNode(plans.get(0), QueryPlanInfo.Type.VISIBILITY);
+    assertThat(visibility.scanned).isEqualTo(1L);
+    assertThat(visibility.rejected).isEqualTo(1L);
+  }
+
+  @Test
+  public void explainRejectedWithoutMaintainServer() throws Exception {
+    requestScopeOperations.setApiUser(user.id());
+    QueryChanges queryChanges = queryChangesProvider.get();
+    AuthException thrown = assertThrows(AuthException.class, () -> queryChanges.setExplain(true));
+    assertThat(thrown).hasMessageThat().isEqualTo("maintain server not permitted");
+  }
+
+  @Test
+  public void explainRejectsCount() throws Exception {
+    adminRestSession.get("/changes/?explain&count&q=is:open").assertBadRequest();
+  }
+
+  @Nullable
+  private static QueryPlanInfo findPlanNode(QueryPlanInfo plan, QueryPlanInfo.Type type) {
+    if (plan.type == type) {
+      return plan;
+    }
+    if (plan.children != null) {
+      for (QueryPlanInfo child : plan.children) {
+        QueryPlanInfo found = findPlanNode(child, type);
+        if (found != null) {
+          return found;
+        }
+      }
+    }
+    return null;
+  }
+
   private static void assertNoChangeHasMoreChangesSet(List<ChangeInfo> results) {
     for (ChangeInfo info : results) {
       assertThat(info._moreChanges).isNull();
@@ -50,6 +50,7 @@ import com.google.gerrit.extensions.api.projects.BranchInput;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.server.account.ServiceUserClassifier;
 import com.google.gerrit.server.config.AllUsersName;
+import com.google.gerrit.server.git.PermissionAwareRepositoryManager;
 import com.google.gerrit.server.git.receive.ReceiveCommitsAdvertiseRefsHookChain;
 import com.google.gerrit.server.git.receive.testing.TestRefAdvertiser;
 import com.google.gerrit.server.notedb.Sequences;
@@ -1410,6 +1411,33 @@ public class RefAdvertisementIT extends AbstractDaemonTest {
     }
   }
 
+  @Test
+  public void refsByPrefixOnlyIncludeVisibleRefsOfRequestedPrefixes() throws Exception {
+    projectOperations
+        .project(project)
+        .forUpdate()
+        .add(allow(Permission.READ).ref("refs/heads/master").group(REGISTERED_USERS))
+        .add(deny(Permission.READ).ref("refs/heads/branch").group(REGISTERED_USERS))
+        .update();
+
+    try (Repository repo = repoManager.openRepository(project)) {
+      Repository permissionAwareRepo =
+          PermissionAwareRepositoryManager.wrap(repo, newFilter(project, user));
+      assertThat(
+              names(
+                  permissionAwareRepo
+                      .getRefDatabase()
+                      .getRefsByPrefix("refs/heads/", "refs/heads/m", "refs/tags/")))
+          .containsExactly("refs/heads/master", "refs/tags/master-tag");
+      assertThat(
+              names(
+                  permissionAwareRepo
+                      .getRefDatabase()
+                      .getRefsByPrefix(cd3.getId().toRefPrefix(), cd4.getId().toRefPrefix())))
+          .containsExactly(psRef3, metaRef3);
+    }
+  }
+
   private List<String> lsRemote(Project.NameKey p, TestAccount a) throws Exception {
     TestRepository<?> testRepository = cloneProject(p, a);
     try (Git git = testRepository.git()) {
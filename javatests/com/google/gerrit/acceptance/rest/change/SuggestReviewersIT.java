@@ -341,6 +341,20 @@ public class SuggestReviewersIT extends AbstractDaemonTest {
     assertThat(reviewers.get(0).account.email).isEqualTo(user4.email());
   }
 
+  @Test
+  public void suggestReviewersByUsernamePrefix() throws Exception {
+    TestAccount jane = accountCreator.create("jdoe42", "jane.roe@example.com", "Jane Roe", null);
+    String changeId = createChange().getChangeId();
+
+    assertReviewers(
+        suggestReviewers(changeId, "jdo", 4), ImmutableList.of(jane), ImmutableList.of());
+    assertReviewers(
+        suggestReviewers(changeId, "jdoe42", 4), ImmutableList.of(jane), ImmutableList.of());
+    assertReviewers(
+        suggestReviewers(changeId, "ja ro", 4), ImmutableList.of(jane), ImmutableList.of());
+    assertThat(suggestReviewers(changeId, "jdoe43", 4)).isEmpty();
+  }
+
   @Test
   public void suggestReviewersWithoutLimitOptionSpecified() throws Exception {
     String changeId = createChange().getChangeId();
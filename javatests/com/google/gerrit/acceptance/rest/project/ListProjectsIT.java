@@ -83,6 +83,28 @@ public class ListProjectsIT extends AbstractDaemonTest {
     assertThatNameList(gApi.projects().list().get()).doesNotContain(project);
   }
 
+  @Test
+  public void listProjectsFiltersChildrenOfInvisibleParents() throws Exception {
+    Project.NameKey visibleParent = projectOperations.newProject().name("lpip-visible").create();
+    Project.NameKey hiddenParent = projectOperations.newProject().name("lpip-hidden").create();
+    projectOperations
+        .project(hiddenParent)
+        .forUpdate()
+        .add(block(Permission.READ).ref("refs/*").group(REGISTERED_USERS))
+        .update();
+    Project.NameKey visibleChild1 =
+        projectOperations.newProject().name("lpip-child1").parent(visibleParent).create();
+    projectOperations.newProject().name("lpip-child2").parent(hiddenParent).create();
+    Project.NameKey visibleChild3 =
+        projectOperations.newProject().name("lpip-child3").parent(visibleParent).create();
+    projectOperations.newProject().name("lpip-child4").parent(hiddenParent).create();
+
+    requestScopeOperations.setApiUser(user.id());
+    assertThatNameList(gApi.projects().list().withPrefix("lpip-").get())
+        .containsExactly(visibleChild1, visibleChild3, visibleParent)
+        .inOrder();
+  }
+
   @Test
   public void listProjectsWithBranch() throws Exception {
     Map<String, ProjectInfo> result = gApi.projects().list().addShowBranch("master").getAsMap();
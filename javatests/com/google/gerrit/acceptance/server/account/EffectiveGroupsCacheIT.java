@@ -0,0 +1,64 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.server.account;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.TestAccount;
+import com.google.gerrit.acceptance.testsuite.group.GroupOperations;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.server.account.GroupMembership;
+import com.google.inject.Inject;
+import org.junit.Test;
+
+public class EffectiveGroupsCacheIT extends AbstractDaemonTest {
+  @Inject private GroupOperations groupOperations;
+
+  @Test
+  public void membershipsAreSharedByUsersOfSameAccount() throws Exception {
+    TestAccount user = accountCreator.create();
+    assertThat(effectiveGroups(user)).isSameInstanceAs(effectiveGroups(user));
+  }
+
+  @Test
+  public void addingMemberIsVisibleImmediately() throws Exception {
+    TestAccount user = accountCreator.create();
+    AccountGroup.UUID group = groupOperations.newGroup().create();
+    assertThat(effectiveGroups(user).contains(group)).isFalse();
+
+    groupOperations.group(group).forUpdate().addMember(user.id()).update();
+    assertThat(effectiveGroups(user).contains(group)).isTrue();
+
+    groupOperations.group(group).forUpdate().removeMember(user.id()).update();
+    assertThat(effectiveGroups(user).contains(group)).isFalse();
+  }
+
+  @Test
+  public void addingSubgroupIsVisibleImmediately() throws Exception {
+    TestAccount user = accountCreator.create();
+    AccountGroup.UUID subgroup = groupOperations.newGroup().addMember(user.id()).create();
+    AccountGroup.UUID parent = groupOperations.newGroup().create();
+    assertThat(effectiveGroups(user).contains(subgroup)).isTrue();
+    assertThat(effectiveGroups(user).contains(parent)).isFalse();
+
+    groupOperations.group(parent).forUpdate().addSubgroup(subgroup).update();
+    assertThat(effectiveGroups(user).contains(parent)).isTrue();
+  }
+
+  private GroupMembership effectiveGroups(TestAccount account) {
+    return identifiedUserFactory.create(account.id()).getEffectiveGroups();
+  }
+}
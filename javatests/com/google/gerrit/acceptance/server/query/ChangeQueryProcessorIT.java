@@ -0,0 +1,148 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.server.query;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.allowCapability;
+import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.block;
+import static com.google.gerrit.server.group.SystemGroupBackend.REGISTERED_USERS;
+
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.testsuite.account.AccountOperations;
+import com.google.gerrit.acceptance.testsuite.change.ChangeOperations;
+import com.google.gerrit.acceptance.testsuite.project.ProjectOperations;
+import com.google.gerrit.acceptance.testsuite.request.RequestScopeOperations;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Permission;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.common.QueryPlanInfo;
+import com.google.gerrit.extensions.restapi.TopLevelResource;
+import com.google.gerrit.server.query.change.ChangeVisibilityRates;
+import com.google.gerrit.server.restapi.change.QueryChanges;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests how queries are adapted to the share of the changes that are visible to the user. */
+public class ChangeQueryProcessorIT extends AbstractDaemonTest {
+  @Inject private AccountOperations accountOperations;
+  @Inject private ChangeOperations changeOperations;
+  @Inject private ChangeVisibilityRates visibilityRates;
+  @Inject private ProjectOperations projectOperations;
+  @Inject private Provider<QueryChanges> queryChangesProvider;
+  @Inject private RequestScopeOperations requestScopeOperations;
+
+  // Visibility rates are kept across tests, hence each test uses its own account and topic.
+  private Account.Id tester;
+  private String topic;
+  private Project.NameKey hidden;
+
+  @Before
+  public void setUp() throws Exception {
+    projectOperations
+        .allProjectsForUpdate()
+        .add(allowCapability(GlobalCapability.MAINTAIN_SERVER).group(REGISTERED_USERS))
+        .update();
+    tester = accountOperations.newAccount().create();
+    topic = name("topic");
+    hidden = projectOperations.newProject().create();
+    for (int i = 0; i < 12; i++) {
+      changeOperations.newChange().project(hidden).topic(topic).create();
+    }
+    projectOperations
+        .project(hidden)
+        .forUpdate()
+        .add(block(Permission.READ).ref("refs/*").group(REGISTERED_USERS))
+        .update();
+  }
+
+  @Test
+  public void visibilityRateIsRecorded() throws Exception {
+    changeOperations.newChange().project(project).topic(topic).create();
+
+    assertThat(visibilityRates.get(tester).isPresent()).isFalse();
+    assertThat(query()).hasSize(1);
+
+    assertThat(visibilityRates.get(tester).getAsDouble()).isLessThan(0.1);
+  }
+
+  @Test
+  public void queriesOfUserWithLowVisibilityRateAreRestrictedToVisibleProjects()
+      throws Exception {
+    Change.Id changeId = changeOperations.newChange().project(project).topic(topic).create();
+
+    // The first query checks the visibility of all changes of the topic, most of which are hidden.
+    String indexPredicate = explainIndexPredicate();
+    assertThat(indexPredicate).doesNotContain("project:" + project.get());
+
+    indexPredicate = explainIndexPredicate();
+    assertThat(indexPredicate).contains("project:" + project.get());
+    assertThat(indexPredicate).doesNotContain("project:" + hidden.get());
+
+    // Restricting the query doesn't change its results.
+    List<ChangeInfo> changes = query();
+    assertThat(changes).hasSize(1);
+    assertThat(changes.get(0)._number).isEqualTo(changeId.get());
+  }
+
+  @Test
+  public void queriesOfUserWithHighVisibilityRateAreNotRestricted() throws Exception {
+    for (int i = 0; i < 12; i++) {
+      changeOperations.newChange().project(project).topic(topic).create();
+    }
+
+    assertThat(query()).hasSize(12);
+    assertThat(visibilityRates.get(tester).getAsDouble()).isAtLeast(0.1);
+    assertThat(explainIndexPredicate()).doesNotContain("project:" + project.get());
+  }
+
+  private List<ChangeInfo> query() throws Exception {
+    requestScopeOperations.setApiUser(tester);
+    return gApi.changes().query("topic:" + topic).get();
+  }
+
+  private String explainIndexPredicate() throws Exception {
+    requestScopeOperations.setApiUser(tester);
+    QueryChanges queryChanges = queryChangesProvider.get();
+    queryChanges.addQuery("topic:" + topic);
+    queryChanges.setExplain(true);
+    List<?> plans = queryChanges.apply(TopLevelResource.INSTANCE).value();
+    QueryPlanInfo index = findPlanNode((QueryPlanInfo) plans.get(0), QueryPlanInfo.Type.INDEX);
+    assertThat(index).isNotNull();
+    return index.predicate;
+  }
+
+  @Nullable
+  private static QueryPlanInfo findPlanNode(QueryPlanInfo plan, QueryPlanInfo.Type type) {
+    if (plan.type == type) {
+      return plan;
+    }
+    if (plan.children != null) {
+      for (QueryPlanInfo child : plan.children) {
+        QueryPlanInfo found = findPlanNode(child, type);
+        if (found != null) {
+          return found;
+        }
+      }
+    }
+    return null;
+  }
+}
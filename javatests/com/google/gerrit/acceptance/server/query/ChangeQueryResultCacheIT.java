@@ -0,0 +1,150 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.server.query;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.allow;
+import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.permissionKey;
+import static com.google.gerrit.truth.CacheStatsSubject.assertThat;
+import static com.google.gerrit.truth.CacheStatsSubject.cloneStats;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.PushOneCommit;
+import com.google.gerrit.acceptance.config.GerritConfig;
+import com.google.gerrit.acceptance.testsuite.group.GroupOperations;
+import com.google.gerrit.acceptance.testsuite.project.ProjectOperations;
+import com.google.gerrit.acceptance.testsuite.request.RequestScopeOperations;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.LabelId;
+import com.google.gerrit.entities.Permission;
+import com.google.gerrit.extensions.api.changes.ReviewInput;
+import com.google.gerrit.extensions.client.ListChangesOption;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.server.query.change.ChangeQueryResultCache;
+import com.google.inject.Inject;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ChangeQueryResultCache}.
+ *
+ * <p>The results are only cached for indexes that expose a searcher generation, hence these tests
+ * use the Lucene index.
+ */
+public class ChangeQueryResultCacheIT extends AbstractDaemonTest {
+  @Inject private DynamicMap<Cache<?, ?>> caches;
+  @Inject private GroupOperations groupOperations;
+  @Inject private ProjectOperations projectOperations;
+  @Inject private RequestScopeOperations requestScopeOperations;
+
+  @Test
+  @GerritConfig(name = "index.type", value = "lucene")
+  public void repeatedQueryIsServedFromCache() throws Exception {
+    PushOneCommit.Result r = createChange();
+    gApi.changes().id(r.getChangeId()).current().review(ReviewInput.approve());
+
+    query();
+    CacheStats start = cloneStats(cacheStats());
+    List<ChangeInfo> changes = query();
+
+    assertThat(cacheStats()).since(start).hasHitCount(1);
+    assertThat(cacheStats()).since(start).hasMissCount(0);
+    assertThat(changes).hasSize(1);
+    assertThat(changes.get(0).changeId).isEqualTo(r.getChangeId());
+    // The cached result is rendered from the stored index fields, including the labels.
+    assertThat(changes.get(0).labels.get(LabelId.CODE_REVIEW).approved).isNotNull();
+  }
+
+  @Test
+  @GerritConfig(name = "index.type", value = "lucene")
+  public void indexUpdateInvalidatesCachedResult() throws Exception {
+    PushOneCommit.Result r1 = createChange();
+    assertThat(query()).hasSize(1);
+
+    CacheStats start = cloneStats(cacheStats());
+    PushOneCommit.Result r2 = createChange();
+    List<ChangeInfo> changes = query();
+
+    assertThat(cacheStats()).since(start).hasHitCount(0);
+    assertThat(changes.stream().map(c -> c.changeId))
+        .containsExactly(r1.getChangeId(), r2.getChangeId());
+  }
+
+  @Test
+  @GerritConfig(name = "index.type", value = "lucene")
+  public void groupChangeInvalidatesCachedResult() throws Exception {
+    PushOneCommit.Result r = createChange();
+    AccountGroup.UUID readers = groupOperations.newGroup().create();
+    projectOperations
+        .project(project)
+        .forUpdate()
+        .add(allow(Permission.READ).ref("refs/*").group(readers))
+        .setExclusiveGroup(permissionKey(Permission.READ).ref("refs/*"), true)
+        .update();
+
+    requestScopeOperations.setApiUser(user.id());
+    assertThat(query()).isEmpty();
+
+    groupOperations.group(readers).forUpdate().addMember(user.id()).update();
+    requestScopeOperations.setApiUser(user.id());
+    CacheStats start = cloneStats(cacheStats());
+    List<ChangeInfo> changes = query();
+
+    assertThat(cacheStats()).since(start).hasHitCount(0);
+    assertThat(changes).hasSize(1);
+    assertThat(changes.get(0).changeId).isEqualTo(r.getChangeId());
+  }
+
+  @Test
+  @GerritConfig(name = "index.type", value = "lucene")
+  public void cachedResultIsCheckedForVisibility() throws Exception {
+    createChange();
+    AccountGroup.UUID readers = groupOperations.newGroup().addMember(user.id()).create();
+    projectOperations
+        .project(project)
+        .forUpdate()
+        .add(allow(Permission.READ).ref("refs/*").group(readers))
+        .setExclusiveGroup(permissionKey(Permission.READ).ref("refs/*"), true)
+        .update();
+
+    requestScopeOperations.setApiUser(user.id());
+    assertThat(query()).hasSize(1);
+
+    // Revoking read access does not update the change index.
+    requestScopeOperations.setApiUser(admin.id());
+    projectOperations
+        .project(project)
+        .forUpdate()
+        .remove(permissionKey(Permission.READ).ref("refs/*").group(readers))
+        .update();
+
+    requestScopeOperations.setApiUser(user.id());
+    assertThat(query()).isEmpty();
+  }
+
+  private List<ChangeInfo> query() throws Exception {
+    return gApi.changes()
+        .query("project:" + project.get())
+        .withOption(ListChangesOption.LABELS)
+        .get();
+  }
+
+  private CacheStats cacheStats() {
+    return caches.get("gerrit", ChangeQueryResultCache.NAME).stats();
+  }
+}
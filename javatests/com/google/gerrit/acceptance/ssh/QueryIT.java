@@ -28,7 +28,9 @@ import com.google.gerrit.extensions.api.changes.ReviewInput;
 import com.google.gerrit.extensions.api.changes.ReviewerInput;
 import com.google.gerrit.extensions.client.ListChangesOption;
 import com.google.gerrit.extensions.client.Side;
+import com.google.gerrit.extensions.common.QueryPlanInfo;
 import com.google.gerrit.server.data.ChangeAttribute;
+import com.google.gerrit.server.data.QueryPlanAttribute;
 import com.google.gson.Gson;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -288,6 +290,28 @@ public class QueryIT extends AbstractDaemonTest {
     assertThat(changes.get(0).submitRecords).hasSize(1);
   }
 
+  @Test
+  public void explainOptionJSON() throws Exception {
+    String changeId = createChange().getChangeId();
+    String rawResponse = adminSshSession.exec("gerrit query --format=JSON --explain " + changeId);
+    adminSshSession.assertSuccess();
+
+    // The plan follows the changes and the statistics.
+    List<String> lines = Splitter.on("\n").omitEmptyStrings().splitToList(rawResponse);
+    assertThat(lines).hasSize(3);
+    assertThat(gson.fromJson(lines.get(0), ChangeAttribute.class).id).isEqualTo(changeId);
+    QueryPlanInfo plan = gson.fromJson(lines.get(2), QueryPlanAttribute.class).plan;
+    assertThat(plan).isNotNull();
+    assertThat(plan.query).isEqualTo(changeId);
+    assertThat(plan.scanned).isNotNull();
+  }
+
+  @Test
+  public void shouldFailWithExplainWithoutMaintainServer() throws Exception {
+    userSshSession.exec("gerrit query --explain is:open");
+    userSshSession.assertFailure("--explain option needs the 'Maintain Server' capability");
+  }
+
   @Test
   public void allChangeOptionsAreServedWithoutExceptions() throws Exception {
     PushOneCommit.Result r = createChange();
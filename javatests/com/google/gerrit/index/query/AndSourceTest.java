@@ -14,9 +14,11 @@
 
 package com.google.gerrit.index.query;
 
+import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import org.junit.Test;
 
@@ -30,4 +32,40 @@ public class AndSourceTest extends PredicateTest {
     assertFalse(p1.ranMatch);
     assertTrue(p2.ranMatch);
   }
+
+  @Test
+  public void ensureLowerCardinalitySourceDrivesQuery() {
+    TestDataSource broad = new TestDataSource("status", "open", 10000, "broad");
+    TestDataSource selective = new TestDataSource("owner", "self", 5, "selective");
+    AndSource<String> andSource = new AndSource<>(Lists.newArrayList(broad, selective), null);
+    assertThat(andSource.getCardinality()).isEqualTo(5);
+    assertThat(andSource.read().toList()).containsExactly("selective");
+  }
+
+  private static class TestDataSource extends OperatorPredicate<String>
+      implements DataSource<String> {
+    private final int cardinality;
+    private final String result;
+
+    private TestDataSource(String name, String value, int cardinality, String result) {
+      super(name, value);
+      this.cardinality = cardinality;
+      this.result = result;
+    }
+
+    @Override
+    public int getCardinality() {
+      return cardinality;
+    }
+
+    @Override
+    public ResultSet<String> read() {
+      return new ListResultSet<>(ImmutableList.of(result));
+    }
+
+    @Override
+    public ResultSet<FieldBundle> readRaw() {
+      throw new UnsupportedOperationException();
+    }
+  }
 }
@@ -0,0 +1,35 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.gerrit.index.query;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class PaginatingSourceTest {
+  @Test
+  public void estimatePageSizeFromMatchRate() {
+    // Half of the 20 fetched results matched, so 20 more results are expected to yield 10 matches.
+    assertThat(PaginatingSource.estimatePageSize(10, 10, 20)).isEqualTo(20);
+    assertThat(PaginatingSource.estimatePageSize(1, 3, 10)).isEqualTo(4);
+  }
+
+  @Test
+  public void estimatePageSizeIsBounded() {
+    assertThat(PaginatingSource.estimatePageSize(100, 1, 10)).isEqualTo(80);
+    assertThat(PaginatingSource.estimatePageSize(10, 0, 10)).isEqualTo(80);
+    assertThat(PaginatingSource.estimatePageSize(10, 0, Integer.MAX_VALUE))
+        .isEqualTo(Integer.MAX_VALUE);
+  }
+}
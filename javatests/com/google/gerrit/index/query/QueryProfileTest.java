@@ -0,0 +1,198 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.index.query;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.extensions.common.QueryPlanInfo;
+import com.google.gerrit.index.Index;
+import com.google.gerrit.index.IndexConfig;
+import com.google.gerrit.index.QueryOptions;
+import com.google.gerrit.index.Schema;
+import org.junit.Test;
+
+public class QueryProfileTest extends PredicateTest {
+  private static final IndexConfig CONFIG = IndexConfig.createDefault();
+
+  @Test
+  public void explainRecordsIndexReadsAndVisibility() throws Exception {
+    IndexedQuery<String, String> indexed =
+        new IndexedQuery<>(
+            new TestIndex(ImmutableList.of("a", "b", "c")),
+            f("status", "open"),
+            QueryOptions.create(CONFIG, 0, 10, ImmutableSet.of()));
+    AndSource<String> root = new AndSource<>(indexed, new NotVisible("b"), CONFIG);
+    QueryProfile<String> profile = new QueryProfile<>();
+    profile.install(root);
+
+    assertThat(root.read().toList()).containsExactly("a", "c").inOrder();
+
+    QueryPlanInfo plan = profile.explain("status:open", root);
+    assertThat(plan.query).isEqualTo("status:open");
+    assertThat(plan.type).isEqualTo(QueryPlanInfo.Type.AND_SOURCE);
+    assertThat(plan.scanned).isEqualTo(3L);
+    assertThat(plan.matched).isEqualTo(2L);
+    assertThat(plan.children).hasSize(2);
+
+    QueryPlanInfo index = plan.children.get(0);
+    assertThat(index.type).isEqualTo(QueryPlanInfo.Type.INDEX);
+    assertThat(index.predicate).isEqualTo("status:open");
+    assertThat(index.reads).isEqualTo(1L);
+    assertThat(index.scanned).isEqualTo(3L);
+    assertThat(index.matched).isEqualTo(3L);
+    assertThat(index.timeMicros).isNotNull();
+
+    QueryPlanInfo visibility = plan.children.get(1);
+    assertThat(visibility.type).isEqualTo(QueryPlanInfo.Type.VISIBILITY);
+    assertThat(visibility.scanned).isEqualTo(3L);
+    assertThat(visibility.matched).isEqualTo(2L);
+    assertThat(visibility.rejected).isEqualTo(1L);
+    assertThat(visibility.reads).isNull();
+  }
+
+  @Test
+  public void explainListsPostFiltersOfIndexQuery() throws Exception {
+    PostFilterPredicate<String> postFilter =
+        new PostFilterPredicate<>("regex", "a.*") {
+          @Override
+          public boolean match(String object) {
+            return object.startsWith("a");
+          }
+
+          @Override
+          public int getCost() {
+            return 1;
+          }
+        };
+    IndexedQuery<String, String> indexed =
+        new IndexedQuery<>(
+            new TestIndex(ImmutableList.of()),
+            Predicate.and(f("status", "open"), postFilter),
+            QueryOptions.create(CONFIG, 0, 10, ImmutableSet.of()));
+    QueryProfile<String> profile = new QueryProfile<>();
+    profile.install(indexed);
+
+    assertThat(indexed.read().toList()).isEmpty();
+
+    QueryPlanInfo plan = profile.explain(null, indexed);
+    assertThat(plan.type).isEqualTo(QueryPlanInfo.Type.INDEX);
+    assertThat(plan.reads).isEqualTo(1L);
+    assertThat(plan.scanned).isEqualTo(0L);
+    assertThat(plan.children).hasSize(1);
+    assertThat(plan.children.get(0).type).isEqualTo(QueryPlanInfo.Type.INDEX_POST_FILTER);
+    assertThat(plan.children.get(0).predicate).isEqualTo(postFilter.toString());
+  }
+
+  @Test
+  public void unprofiledQueryRecordsNothing() throws Exception {
+    IndexedQuery<String, String> indexed =
+        new IndexedQuery<>(
+            new TestIndex(ImmutableList.of("a")),
+            f("status", "open"),
+            QueryOptions.create(CONFIG, 0, 10, ImmutableSet.of()));
+    QueryProfile<String> profile = new QueryProfile<>();
+
+    assertThat(indexed.read().toList()).containsExactly("a");
+
+    QueryPlanInfo plan = profile.explain(null, indexed);
+    assertThat(plan.reads).isNull();
+    assertThat(plan.scanned).isNull();
+  }
+
+  private static class NotVisible extends IsVisibleToPredicate<String> {
+    private final String hidden;
+
+    NotVisible(String hidden) {
+      super("visibleto", "user");
+      this.hidden = hidden;
+    }
+
+    @Override
+    public boolean match(String object) {
+      return !object.equals(hidden);
+    }
+
+    @Override
+    public int getCost() {
+      return 1;
+    }
+  }
+
+  private static class TestIndex implements Index<String, String> {
+    private final ImmutableList<String> results;
+
+    TestIndex(ImmutableList<String> results) {
+      this.results = results;
+    }
+
+    @Override
+    public DataSource<String> getSource(Predicate<String> p, QueryOptions opts) {
+      return new DataSource<>() {
+        @Override
+        public int getCardinality() {
+          return results.size();
+        }
+
+        @Override
+        public ResultSet<String> read() {
+          return new ListResultSet<>(results);
+        }
+
+        @Override
+        public ResultSet<FieldBundle> readRaw() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    @Override
+    public Schema<String> getSchema() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {}
+
+    @Override
+    public void insert(String obj) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void replace(String obj) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void delete(String key) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void deleteAll() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Predicate<String> keyPredicate(String key) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void markReady(boolean ready) {}
+  }
+}
@@ -0,0 +1,155 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.index.Schema;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.index.GerritIndexStatus;
+import com.google.gerrit.server.index.change.ChangeField;
+import com.google.gerrit.server.index.change.ChangeSchemaDefinitions;
+import com.google.gerrit.server.query.change.ChangeData;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MemoryChangeIndexTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final Schema<ChangeData> schema = ChangeSchemaDefinitions.INSTANCE.getLatest();
+  private final Config cfg = new Config();
+  private SitePaths sitePaths;
+  private Path dir;
+
+  @Before
+  public void setUp() throws Exception {
+    sitePaths = new SitePaths(temporaryFolder.newFolder().toPath());
+    dir = LuceneVersionManager.getDir(sitePaths, ChangeSchemaDefinitions.NAME, schema);
+    // No periodic snapshots, the tests don't provide a work queue.
+    cfg.setString("index", "memory", "snapshotInterval", "0");
+  }
+
+  @Test
+  public void cleanShutdownDoesNotNeedReindex() throws Exception {
+    MemoryChangeIndex index = open();
+    assertThat(index.needsReindex()).isFalse();
+    index.close();
+    assertThat(Files.exists(dir.resolve("snapshot.open"))).isFalse();
+
+    index = open();
+    assertThat(index.needsReindex()).isFalse();
+    index.close();
+  }
+
+  @Test
+  public void uncleanShutdownMarksIndexNotReady() throws Exception {
+    writeSnapshot(doc(1), doc(2));
+    markReady(true);
+    Files.createDirectories(dir);
+    Files.write(dir.resolve("snapshot.open"), new byte[0]);
+
+    MemoryChangeIndex index = open();
+    assertThat(index.needsReindex()).isTrue();
+    assertThat(isReady()).isFalse();
+
+    // Until the reindex completes, the marker is kept so that the next start reindexes again.
+    index.close();
+    assertThat(Files.exists(dir.resolve("snapshot.open"))).isTrue();
+    assertThat(open().needsReindex()).isTrue();
+  }
+
+  @Test
+  public void uncleanShutdownWithoutSnapshotMarksIndexNotReady() throws Exception {
+    markReady(true);
+    Files.createDirectories(dir);
+    Files.write(dir.resolve("snapshot.open"), new byte[0]);
+
+    MemoryChangeIndex index = open();
+    assertThat(index.needsReindex()).isTrue();
+    assertThat(isReady()).isFalse();
+  }
+
+  @Test
+  public void unreadableSnapshotMarksIndexNotReady() throws Exception {
+    Files.createDirectories(dir);
+    Files.write(dir.resolve("snapshot"), "garbage".getBytes(UTF_8));
+    markReady(true);
+
+    MemoryChangeIndex index = open();
+    assertThat(index.needsReindex()).isTrue();
+    assertThat(isReady()).isFalse();
+
+    index.markReady(true);
+    index.close();
+    assertThat(readSnapshot()).isEmpty();
+  }
+
+  @Test
+  public void changesNotReindexedAfterUncleanShutdownAreRemoved() throws Exception {
+    writeSnapshot(doc(1), doc(2));
+    Files.write(dir.resolve("snapshot.open"), new byte[0]);
+
+    MemoryChangeIndex index = open();
+    // Change 1 is deleted during the reindex. Change 2 was deleted after the snapshot was written,
+    // so the reindex doesn't visit it.
+    index.delete(Change.id(1));
+    index.markReady(true);
+    assertThat(index.needsReindex()).isFalse();
+    assertThat(isReady()).isTrue();
+    index.close();
+
+    assertThat(readSnapshot()).isEmpty();
+    assertThat(Files.exists(dir.resolve("snapshot.open"))).isFalse();
+  }
+
+  private MemoryChangeIndex open() throws Exception {
+    return new MemoryChangeIndex(cfg, sitePaths, null, null, schema);
+  }
+
+  private static ImmutableListMultimap<String, Object> doc(int id) {
+    return ImmutableListMultimap.of(ChangeField.LEGACY_ID_STR.getName(), Integer.toString(id));
+  }
+
+  @SafeVarargs
+  private void writeSnapshot(ImmutableListMultimap<String, Object>... docs) throws Exception {
+    Files.createDirectories(dir);
+    MemorySnapshot.write(dir.resolve("snapshot"), schema.getVersion(), ImmutableList.copyOf(docs));
+  }
+
+  private List<ImmutableListMultimap<String, Object>> readSnapshot() throws Exception {
+    return MemorySnapshot.read(dir.resolve("snapshot"), schema.getVersion());
+  }
+
+  private void markReady(boolean ready) throws Exception {
+    GerritIndexStatus status = new GerritIndexStatus(sitePaths);
+    status.setReady(ChangeSchemaDefinitions.NAME, schema.getVersion(), ready);
+    status.save();
+  }
+
+  private boolean isReady() throws Exception {
+    return new GerritIndexStatus(sitePaths)
+        .getReady(ChangeSchemaDefinitions.NAME, schema.getVersion());
+  }
+}
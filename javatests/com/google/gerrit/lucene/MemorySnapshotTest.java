@@ -0,0 +1,96 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MemorySnapshotTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void roundTrip() throws Exception {
+    Path file = temporaryFolder.newFolder().toPath().resolve("snapshot");
+    // Strings may exceed the 64k limit of DataOutput#writeUTF.
+    String longString = Strings.repeat("x", 70000);
+    ImmutableListMultimap<String, Object> doc1 =
+        ImmutableListMultimap.<String, Object>builder()
+            .put("_id", "1")
+            .put("int", 42)
+            .put("long", 1L << 40)
+            .put("updated", new Timestamp(1234567890L))
+            .putAll("file", "a.txt", "b.txt")
+            .put("message", longString)
+            .put("_change", "proto".getBytes(UTF_8))
+            .build();
+    ImmutableListMultimap<String, Object> doc2 = ImmutableListMultimap.of("_id", "2");
+
+    MemorySnapshot.write(file, 81, ImmutableList.of(doc1, doc2));
+    List<ImmutableListMultimap<String, Object>> read = MemorySnapshot.read(file, 81);
+
+    assertThat(read).hasSize(2);
+    ImmutableListMultimap<String, Object> read1 = read.get(0);
+    assertThat(read1.keySet()).containsExactlyElementsIn(doc1.keySet()).inOrder();
+    assertThat(read1.get("_id")).containsExactly("1");
+    assertThat(read1.get("int")).containsExactly(42);
+    assertThat(read1.get("long")).containsExactly(1L << 40);
+    assertThat(read1.get("updated")).containsExactly(new Timestamp(1234567890L));
+    assertThat(read1.get("file")).containsExactly("a.txt", "b.txt").inOrder();
+    assertThat(read1.get("message")).containsExactly(longString);
+    assertThat((byte[]) read1.get("_change").get(0)).isEqualTo("proto".getBytes(UTF_8));
+    assertThat(read.get(1)).isEqualTo(doc2);
+    assertThat(Files.exists(file.resolveSibling("snapshot.tmp"))).isFalse();
+  }
+
+  @Test
+  public void snapshotOfOtherSchemaVersionIsRejected() throws Exception {
+    Path file = temporaryFolder.newFolder().toPath().resolve("snapshot");
+    MemorySnapshot.write(file, 80, ImmutableList.of(ImmutableListMultimap.of("_id", "1")));
+
+    IOException e = assertThrows(IOException.class, () -> MemorySnapshot.read(file, 81));
+    assertThat(e).hasMessageThat().contains("has schema version 80, expected 81");
+  }
+
+  @Test
+  public void unsupportedValueIsRejected() throws Exception {
+    Path file = temporaryFolder.newFolder().toPath().resolve("snapshot");
+    assertThrows(
+        IOException.class,
+        () ->
+            MemorySnapshot.write(
+                file, 81, ImmutableList.of(ImmutableListMultimap.of("_id", new Object()))));
+  }
+
+  @Test
+  public void garbageIsRejected() throws Exception {
+    Path file = temporaryFolder.newFolder().toPath().resolve("snapshot");
+    Files.write(file, "garbage".getBytes(UTF_8));
+
+    assertThrows(IOException.class, () -> MemorySnapshot.read(file, 81));
+  }
+}
@@ -0,0 +1,108 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.entities.AccessSection;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.GroupReference;
+import com.google.gerrit.entities.PermissionRule;
+import com.google.gerrit.server.account.CapabilityCollection.UserCapabilities;
+import com.google.gerrit.server.group.SystemGroupBackend;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CapabilityCollectionTest {
+  private static final GroupReference ADMINS = group("admins");
+  private static final GroupReference BOTS = group("bots");
+  private static final GroupReference CREATORS = group("creators");
+  private static final GroupReference QUIET = group("quiet");
+
+  private CapabilityCollection capabilities;
+
+  @Before
+  public void setUp() {
+    AccessSection.Builder section = AccessSection.builder(AccessSection.GLOBAL_CAPABILITIES);
+    section
+        .upsertPermission(GlobalCapability.QUERY_LIMIT)
+        .add(PermissionRule.builder(BOTS).setRange(0, 10000));
+    section.upsertPermission(GlobalCapability.CREATE_PROJECT).add(PermissionRule.builder(CREATORS));
+    section
+        .upsertPermission(GlobalCapability.EMAIL_REVIEWERS)
+        .add(PermissionRule.builder(QUIET).setDeny());
+    capabilities =
+        new CapabilityCollection(
+            new SystemGroupBackend(new Config()), ImmutableSet.of(ADMINS), section.build());
+  }
+
+  @Test
+  public void capabilitiesOfGroups() {
+    UserCapabilities bot = forGroups(BOTS);
+    assertThat(bot.getRange(GlobalCapability.QUERY_LIMIT).getMax()).isEqualTo(10000);
+    assertThat(bot.isAllowed(GlobalCapability.CREATE_PROJECT)).isFalse();
+    assertThat(bot.isAllowed(GlobalCapability.ADMINISTRATE_SERVER)).isFalse();
+    assertThat(bot.isNotDenied(GlobalCapability.EMAIL_REVIEWERS)).isTrue();
+
+    UserCapabilities creator = forGroups(CREATORS);
+    assertThat(creator.getRules(GlobalCapability.QUERY_LIMIT)).isEmpty();
+    assertThat(creator.getRange(GlobalCapability.QUERY_LIMIT).getMax())
+        .isEqualTo(GlobalCapability.DEFAULT_MAX_QUERY_LIMIT);
+    assertThat(creator.isAllowed(GlobalCapability.CREATE_PROJECT)).isTrue();
+
+    assertThat(forGroups(ADMINS).isAllowed(GlobalCapability.ADMINISTRATE_SERVER)).isTrue();
+    assertThat(forGroups(QUIET, BOTS).isNotDenied(GlobalCapability.EMAIL_REVIEWERS)).isFalse();
+    assertThat(forGroups().getRange(GlobalCapability.CREATE_PROJECT)).isNull();
+  }
+
+  @Test
+  public void capabilitiesAreSharedByUsersWithSameRelevantGroups() {
+    UserCapabilities bot = forGroups(BOTS);
+    assertThat(forGroups(BOTS, group("other"))).isSameInstanceAs(bot);
+    assertThat(forGroups(BOTS, CREATORS)).isNotSameInstanceAs(bot);
+  }
+
+  @Test
+  public void membershipsInRuleGroupsAreLookedUpAtOnce() {
+    GroupMembership membership = mock(GroupMembership.class);
+    when(membership.intersection(any())).thenReturn(ImmutableSet.of(BOTS.getUUID()));
+
+    UserCapabilities bot = capabilities.forUser(membership);
+    assertThat(bot.getRange(GlobalCapability.QUERY_LIMIT).getMax()).isEqualTo(10000);
+    verify(membership).intersection(any());
+    verify(membership, never()).contains(any());
+  }
+
+  private UserCapabilities forGroups(GroupReference... groups) {
+    ImmutableList.Builder<AccountGroup.UUID> uuids = ImmutableList.builder();
+    for (GroupReference g : groups) {
+      uuids.add(g.getUUID());
+    }
+    return capabilities.forUser(new ListGroupMembership(uuids.build()));
+  }
+
+  private static GroupReference group(String name) {
+    return GroupReference.create(AccountGroup.uuid(name), name);
+  }
+}
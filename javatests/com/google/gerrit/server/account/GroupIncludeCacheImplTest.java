@@ -0,0 +1,135 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.server.account.GroupIncludeCacheImpl.transitiveClosure;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.AccountGroup;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GroupIncludeCacheImplTest {
+  private static final AccountGroup.UUID A = AccountGroup.uuid("a");
+  private static final AccountGroup.UUID B = AccountGroup.uuid("b");
+  private static final AccountGroup.UUID C = AccountGroup.uuid("c");
+  private static final AccountGroup.UUID D = AccountGroup.uuid("d");
+
+  /** Parent groups by subgroup. */
+  private ListMultimap<AccountGroup.UUID, AccountGroup.UUID> parents;
+
+  /** Run when the parent groups of a group are loaded. */
+  private Map<AccountGroup.UUID, Runnable> onLoadParents;
+
+  private LoadingCache<AccountGroup.UUID, ImmutableSet<AccountGroup.UUID>> transitive;
+  private GroupIncludeCacheImpl groupIncludeCache;
+
+  @Before
+  public void setUp() {
+    parents = LinkedListMultimap.create();
+    onLoadParents = new HashMap<>();
+    LoadingCache<AccountGroup.UUID, ImmutableList<AccountGroup.UUID>> parentGroups =
+        CacheBuilder.newBuilder()
+            .build(
+                CacheLoader.from(
+                    (AccountGroup.UUID uuid) -> {
+                      Runnable onLoad = onLoadParents.remove(uuid);
+                      if (onLoad != null) {
+                        onLoad.run();
+                      }
+                      return ImmutableList.copyOf(parents.get(uuid));
+                    }));
+    transitive =
+        CacheBuilder.newBuilder()
+            .build(
+                CacheLoader.from(
+                    (AccountGroup.UUID uuid) ->
+                        transitiveClosure(uuid, parentGroups::getUnchecked)));
+    LoadingCache<Account.Id, ImmutableSet<AccountGroup.UUID>> groupsWithMember =
+        CacheBuilder.newBuilder().build(CacheLoader.from(id -> ImmutableSet.of()));
+    LoadingCache<String, ImmutableList<AccountGroup.UUID>> external =
+        CacheBuilder.newBuilder().build(CacheLoader.from(key -> ImmutableList.of()));
+    groupIncludeCache =
+        new GroupIncludeCacheImpl(
+            groupsWithMember,
+            parentGroups,
+            transitive,
+            external,
+            new EffectiveGroupsCache(CacheBuilder.newBuilder().build()));
+  }
+
+  @Test
+  public void transitiveParentGroups() {
+    parents.put(A, B);
+    parents.put(B, C);
+    parents.put(A, D);
+    assertThat(groupIncludeCache.transitiveParentGroupsOf(A)).containsExactly(B, C, D);
+    assertThat(groupIncludeCache.transitiveParentGroupsOf(B)).containsExactly(C);
+    assertThat(groupIncludeCache.transitiveParentGroupsOf(C)).isEmpty();
+  }
+
+  @Test
+  public void cyclesAreExpandedOnce() {
+    parents.put(A, B);
+    parents.put(B, C);
+    parents.put(C, A);
+    parents.put(C, C);
+    assertThat(groupIncludeCache.transitiveParentGroupsOf(A)).containsExactly(B, C);
+    assertThat(groupIncludeCache.transitiveParentGroupsOf(C)).containsExactly(A, B);
+  }
+
+  @Test
+  public void evictionOnlyAffectsClosuresContainingGroup() {
+    parents.put(A, B);
+    parents.put(B, C);
+    assertThat(groupIncludeCache.transitiveParentGroupsOf(A)).containsExactly(B, C);
+    assertThat(groupIncludeCache.transitiveParentGroupsOf(D)).isEmpty();
+
+    parents.put(B, D);
+    groupIncludeCache.evictParentGroupsOf(B);
+    assertThat(transitive.asMap()).containsKey(D);
+    assertThat(transitive.asMap()).doesNotContainKey(A);
+    assertThat(groupIncludeCache.transitiveParentGroupsOf(A)).containsExactly(B, C, D);
+    assertThat(groupIncludeCache.transitiveParentGroupsOf(B)).containsExactly(C, D);
+  }
+
+  @Test
+  public void evictionWhileClosureIsLoadedIsNotLost() {
+    parents.put(A, B);
+    parents.put(B, C);
+    // The parent groups of B change after they were read for the closure of A, but before the
+    // closure is stored.
+    onLoadParents.put(
+        C,
+        () -> {
+          parents.put(B, D);
+          groupIncludeCache.evictParentGroupsOf(B);
+        });
+
+    assertThat(groupIncludeCache.transitiveParentGroupsOf(A)).containsExactly(B, C, D);
+    assertThat(transitive.asMap()).doesNotContainKey(A);
+    assertThat(groupIncludeCache.transitiveParentGroupsOf(A)).containsExactly(B, C, D);
+  }
+}
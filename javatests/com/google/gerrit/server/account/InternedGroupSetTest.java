@@ -0,0 +1,89 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.account;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.entities.AccountGroup;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class InternedGroupSetTest {
+  private static final AccountGroup.UUID A = AccountGroup.uuid("a");
+  private static final AccountGroup.UUID B = AccountGroup.uuid("b");
+  private static final AccountGroup.UUID C = AccountGroup.uuid("c");
+
+  @Test
+  public void idsAreStable() {
+    InternedGroupSet.intern(ImmutableList.of(A, B));
+    assertThat(InternedGroupSet.id(A)).isAtLeast(0);
+    assertThat(InternedGroupSet.id(AccountGroup.uuid("a"))).isEqualTo(InternedGroupSet.id(A));
+    assertThat(InternedGroupSet.id(B)).isNotEqualTo(InternedGroupSet.id(A));
+  }
+
+  @Test
+  public void setsOfGroupsDoNotInternGroups() {
+    AccountGroup.UUID checked = AccountGroup.uuid("only-checked");
+    InternedGroupSet groups = InternedGroupSet.of(ImmutableList.of(checked));
+    assertThat(groups.contains(checked)).isTrue();
+    assertThat(InternedGroupSet.id(checked)).isEqualTo(-1);
+  }
+
+  @Test
+  public void setsWithGroupsThatAreNotInternedIntersect() {
+    InternedGroupSet interned = InternedGroupSet.intern(ImmutableList.of(A, B));
+    AccountGroup.UUID notInterned = AccountGroup.uuid("not-interned");
+    InternedGroupSet mixed = InternedGroupSet.of(ImmutableList.of(C, notInterned));
+    assertThat(mixed.intersects(InternedGroupSet.of(ImmutableList.of(notInterned)))).isTrue();
+    assertThat(mixed.intersects(interned)).isFalse();
+    assertThat(interned.intersects(InternedGroupSet.of(ImmutableList.of(B, notInterned))))
+        .isTrue();
+  }
+
+  @Test
+  public void contains() {
+    InternedGroupSet groups = InternedGroupSet.of(ImmutableList.of(A, B));
+    assertThat(groups.contains(A)).isTrue();
+    assertThat(groups.contains(B)).isTrue();
+    assertThat(groups.contains(C)).isFalse();
+    assertThat(groups.contains(AccountGroup.uuid("never-interned"))).isFalse();
+    assertThat(groups.contains(null)).isFalse();
+  }
+
+  @Test
+  public void intersects() {
+    InternedGroupSet ab = InternedGroupSet.of(ImmutableList.of(A, B));
+    assertThat(ab.intersects(InternedGroupSet.of(ImmutableList.of(B, C)))).isTrue();
+    assertThat(ab.intersects(InternedGroupSet.of(ImmutableList.of(C)))).isFalse();
+    assertThat(ab.intersects(InternedGroupSet.EMPTY)).isFalse();
+  }
+
+  @Test
+  public void nullGroupsAreIgnored() {
+    InternedGroupSet groups = InternedGroupSet.of(Arrays.asList(A, null));
+    assertThat(groups.uuids()).containsExactly(A);
+    assertThat(InternedGroupSet.of(Arrays.asList((AccountGroup.UUID) null)))
+        .isSameInstanceAs(InternedGroupSet.EMPTY);
+  }
+
+  @Test
+  public void equalSetsHaveSameGroups() {
+    assertThat(InternedGroupSet.of(ImmutableList.of(B, A)))
+        .isEqualTo(InternedGroupSet.of(ImmutableList.of(A, B)));
+    assertThat(InternedGroupSet.of(ImmutableList.of(A)))
+        .isNotEqualTo(InternedGroupSet.of(ImmutableList.of(A, B)));
+  }
+}
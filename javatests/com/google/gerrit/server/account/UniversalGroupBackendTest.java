@@ -25,8 +25,13 @@ import static org.mockito.AdditionalMatchers.not;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.entities.Account;
 import com.google.gerrit.entities.AccountGroup;
 import com.google.gerrit.entities.AccountGroup.UUID;
 import com.google.gerrit.extensions.registration.DynamicSet;
@@ -35,6 +40,7 @@ import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.group.SystemGroupBackend;
 import com.google.gerrit.server.plugincontext.PluginContext.PluginMetrics;
 import com.google.gerrit.server.plugincontext.PluginSetContext;
+import java.time.Instant;
 import java.util.Set;
 import org.eclipse.jgit.lib.Config;
 import org.junit.Before;
@@ -58,6 +64,7 @@ public class UniversalGroupBackendTest {
     backend =
         new UniversalGroupBackend(
             new PluginSetContext<>(backends, PluginMetrics.DISABLED_INSTANCE),
+            new EffectiveGroupsCache(CacheBuilder.newBuilder().build()),
             new DisabledMetricMaker());
   }
 
@@ -127,6 +134,7 @@ public class UniversalGroupBackendTest {
     backend =
         new UniversalGroupBackend(
             new PluginSetContext<>(backends, PluginMetrics.DISABLED_INSTANCE),
+            new EffectiveGroupsCache(CacheBuilder.newBuilder().build()),
             new DisabledMetricMaker());
 
     GroupMembership checker = backend.membershipsOf(member);
@@ -138,4 +146,87 @@ public class UniversalGroupBackendTest {
     assertFalse(checker.contains(handled));
     assertFalse(checker.contains(notHandled));
   }
+
+  @Test
+  public void membershipDecisionsAreRemembered() {
+    AccountGroup.UUID handled = AccountGroup.uuid("handled");
+    AccountGroup.UUID other = AccountGroup.uuid("handled-other");
+    InternedGroupSet.intern(ImmutableSet.of(handled, other));
+    GroupMembership membership = mock(GroupMembership.class);
+    when(membership.contains(eq(handled))).thenReturn(true);
+    when(membership.contains(eq(other))).thenReturn(false);
+
+    GroupBackend backend = mock(GroupBackend.class);
+    when(backend.handles(any(AccountGroup.UUID.class)))
+        .thenAnswer(i -> i.<AccountGroup.UUID>getArgument(0).get().startsWith("handled"));
+    when(backend.membershipsOf(any(IdentifiedUser.class))).thenReturn(membership);
+    backends = new DynamicSet<>();
+    backends.add("gerrit", backend);
+    backend =
+        new UniversalGroupBackend(
+            new PluginSetContext<>(backends, PluginMetrics.DISABLED_INSTANCE),
+            new EffectiveGroupsCache(CacheBuilder.newBuilder().build()),
+            new DisabledMetricMaker());
+
+    GroupMembership checker = backend.membershipsOf(user);
+    assertTrue(checker.contains(handled));
+    assertFalse(checker.contains(other));
+    assertTrue(checker.contains(handled));
+    assertFalse(checker.contains(other));
+    assertTrue(checker.containsAnyOf(InternedGroupSet.of(ImmutableSet.of(other, handled))));
+    assertFalse(checker.containsAnyOf(ImmutableSet.of(other, OTHER_UUID)));
+    verify(membership, times(1)).contains(handled);
+    verify(membership, times(1)).contains(other);
+  }
+
+  @Test
+  public void membershipDecisionsForGroupsThatAreNotInternedAreNotRemembered() {
+    AccountGroup.UUID checked = AccountGroup.uuid("handled-only-checked");
+    GroupMembership membership = mock(GroupMembership.class);
+    when(membership.contains(eq(checked))).thenReturn(true);
+
+    GroupBackend backend = mock(GroupBackend.class);
+    when(backend.handles(any(AccountGroup.UUID.class)))
+        .thenAnswer(i -> i.<AccountGroup.UUID>getArgument(0).get().startsWith("handled"));
+    when(backend.membershipsOf(any(IdentifiedUser.class))).thenReturn(membership);
+    backends = new DynamicSet<>();
+    backends.add("gerrit", backend);
+    backend =
+        new UniversalGroupBackend(
+            new PluginSetContext<>(backends, PluginMetrics.DISABLED_INSTANCE),
+            new EffectiveGroupsCache(CacheBuilder.newBuilder().build()),
+            new DisabledMetricMaker());
+
+    GroupMembership checker = backend.membershipsOf(user);
+    assertTrue(checker.contains(checked));
+    assertTrue(checker.contains(checked));
+    verify(membership, times(2)).contains(checked);
+    assertEquals(-1, InternedGroupSet.id(checked));
+  }
+
+  @Test
+  public void onlyMembershipsThatDependOnAccountOnlyAreShared() {
+    GroupBackend shared = mock(GroupBackend.class);
+    when(shared.membershipsDependOnAccountOnly()).thenReturn(true);
+    when(shared.membershipsOf(any(IdentifiedUser.class))).thenReturn(GroupMembership.EMPTY);
+    GroupBackend perRequest = mock(GroupBackend.class);
+    when(perRequest.membershipsOf(any(IdentifiedUser.class))).thenReturn(GroupMembership.EMPTY);
+    backends = new DynamicSet<>();
+    backends.add("gerrit", shared);
+    backends.add("gerrit", perRequest);
+    backend =
+        new UniversalGroupBackend(
+            new PluginSetContext<>(backends, PluginMetrics.DISABLED_INSTANCE),
+            new EffectiveGroupsCache(CacheBuilder.newBuilder().build()),
+            new DisabledMetricMaker());
+    when(user.isIdentifiedUser()).thenReturn(true);
+    when(user.asIdentifiedUser()).thenReturn(user);
+    when(user.getAccountId()).thenReturn(Account.id(1000));
+    when(user.getAccount()).thenReturn(Account.builder(Account.id(1000), Instant.EPOCH).build());
+
+    backend.membershipsOf(user);
+    backend.membershipsOf(user);
+    verify(shared, times(1)).membershipsOf(user);
+    verify(perRequest, times(2)).membershipsOf(user);
+  }
 }
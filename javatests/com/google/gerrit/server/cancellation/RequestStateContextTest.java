@@ -20,6 +20,7 @@ import static com.google.gerrit.testing.GerritJUnit.assertThrows;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.gerrit.server.cancellation.RequestStateContext.NonCancellableOperationContext;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.Test;
 
 public class RequestStateContextTest {
@@ -251,6 +252,56 @@ public class RequestStateContextTest {
     }
   }
 
+  @Test
+  public void abortIfCancelledCheck_noRequestStateProvider() {
+    assertNoRequestStateProviders();
+    assertThat(RequestStateContext.abortIfCancelledCheck()).isEmpty();
+  }
+
+  @Test
+  public void abortIfCancelledCheck_requestCancelled() throws Exception {
+    Runnable check;
+    try (RequestStateContext requestStateContext =
+        RequestStateContext.open()
+            .addRequestStateProvider(
+                new RequestStateProvider() {
+                  @Override
+                  public void checkIfCancelled(OnCancelled onCancelled) {
+                    onCancelled.onCancel(
+                        RequestStateProvider.Reason.CLIENT_CLOSED_REQUEST, /* message= */ null);
+                  }
+                })) {
+      check = RequestStateContext.abortIfCancelledCheck().get();
+    }
+
+    // The check still works on other threads, where no request state providers are registered.
+    AtomicReference<Throwable> thrown = new AtomicReference<>();
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                check.run();
+              } catch (Throwable t) {
+                thrown.set(t);
+              }
+            });
+    thread.start();
+    thread.join();
+    assertThat(thrown.get()).isInstanceOf(RequestCancelledException.class);
+    assertThat(((RequestCancelledException) thrown.get()).getCancellationReason())
+        .isEqualTo(RequestStateProvider.Reason.CLIENT_CLOSED_REQUEST);
+  }
+
+  @Test
+  public void abortIfCancelledCheck_nonCancellableOperation() {
+    try (RequestStateContext requestStateContext =
+            RequestStateContext.open().addRequestStateProvider(new TestRequestStateProvider());
+        NonCancellableOperationContext nonCancellableOperationContext =
+            RequestStateContext.startNonCancellableOperation()) {
+      assertThat(RequestStateContext.abortIfCancelledCheck()).isEmpty();
+    }
+  }
+
   private void assertNoRequestStateProviders() {
     assertRequestStateProviders(ImmutableSet.of());
   }
@@ -0,0 +1,76 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.server.notedb.ReviewerStateInternal.CC;
+import static com.google.gerrit.server.notedb.ReviewerStateInternal.REVIEWER;
+
+import com.google.common.collect.ImmutableTable;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.ReviewerSet;
+import com.google.gerrit.server.git.ChangeVisibilityCache.Entry;
+import com.google.gerrit.server.git.ChangeVisibilityCache.Key;
+import com.google.gerrit.server.notedb.ReviewerStateInternal;
+import java.time.Instant;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class ChangeVisibilityCacheTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+
+  @Test
+  public void keySerializer() {
+    Key key =
+        Key.create(
+            PROJECT,
+            Change.id(123),
+            ObjectId.fromString("1234567812345678123456781234567812345678"));
+    byte[] serialized = Key.Serializer.INSTANCE.serialize(key);
+    assertThat(Key.Serializer.INSTANCE.deserialize(serialized)).isEqualTo(key);
+  }
+
+  @Test
+  public void entrySerializer() {
+    Instant ts = Instant.ofEpochMilli(1_600_000_000_000L);
+    Change change =
+        new Change(
+            Change.key("Iabcdabcdabcdabcdabcdabcdabcdabcdabcdabcd"),
+            Change.id(123),
+            Account.id(1000),
+            BranchNameKey.create(PROJECT, "refs/heads/master"),
+            ts);
+    change.setPrivate(true);
+    ReviewerSet reviewers =
+        ReviewerSet.fromTable(
+            ImmutableTable.<ReviewerStateInternal, Account.Id, Instant>builder()
+                .put(REVIEWER, Account.id(2000), ts)
+                .put(CC, Account.id(3000), ts.plusSeconds(1))
+                .build());
+
+    Entry deserialized =
+        Entry.Serializer.INSTANCE.deserialize(
+            Entry.Serializer.INSTANCE.serialize(Entry.create(change, reviewers)));
+
+    assertThat(deserialized.change().getId()).isEqualTo(change.getId());
+    assertThat(deserialized.change().getDest()).isEqualTo(change.getDest());
+    assertThat(deserialized.change().getOwner()).isEqualTo(change.getOwner());
+    assertThat(deserialized.change().isPrivate()).isTrue();
+    assertThat(deserialized.reviewers()).isEqualTo(reviewers);
+  }
+}
@@ -0,0 +1,34 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.server.git.PermissionAwareReadOnlyRefDatabase.ranges;
+
+import org.junit.Test;
+
+public class PermissionAwareReadOnlyRefDatabaseTest {
+  @Test
+  public void rangesOmitCoveredPrefixes() {
+    assertThat(ranges("refs/tags/", "refs/heads/m", "refs/heads/", "refs/heads/master"))
+        .containsExactly("refs/heads/", "refs/tags/")
+        .inOrder();
+    assertThat(ranges("refs/heads/", "", "refs/changes/")).containsExactly("");
+    assertThat(ranges("refs/heads/b", "refs/heads/a"))
+        .containsExactly("refs/heads/a", "refs/heads/b")
+        .inOrder();
+    assertThat(ranges()).isEmpty();
+  }
+}
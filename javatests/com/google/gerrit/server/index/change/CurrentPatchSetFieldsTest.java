@@ -0,0 +1,72 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.query.change.ChangeData;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class CurrentPatchSetFieldsTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+  private static final Change.Id CHANGE = Change.id(1);
+  private static final ObjectId COMMIT_1 =
+      ObjectId.fromString("deadbeefdeadbeefdeadbeefdeadbeefdeadbeef");
+  private static final ObjectId COMMIT_2 =
+      ObjectId.fromString("cafebabecafebabecafebabecafebabecafebabe");
+
+  @Test
+  public void fieldsAreReusedForSameCommit() {
+    ChangeData indexed = ChangeData.createForTest(PROJECT, CHANGE, 1, COMMIT_1);
+    indexed.setCurrentFilePaths(ImmutableList.of("a.txt", "b.txt"));
+    indexed.setChangedLines(3, 2);
+    CurrentPatchSetFields fields = CurrentPatchSetFields.capture(indexed);
+    assertThat(fields).isNotNull();
+
+    ChangeData updated = ChangeData.createForTest(PROJECT, CHANGE, 1, COMMIT_1);
+    assertThat(fields.reuseFor(updated)).isTrue();
+    assertThat(updated.currentFilePaths()).containsExactly("a.txt", "b.txt").inOrder();
+    assertThat(updated.changedLines().get().insertions).isEqualTo(3);
+    assertThat(updated.changedLines().get().deletions).isEqualTo(2);
+  }
+
+  @Test
+  public void fieldsAreNotReusedForNewPatchSet() {
+    ChangeData indexed = ChangeData.createForTest(PROJECT, CHANGE, 1, COMMIT_1);
+    indexed.setCurrentFilePaths(ImmutableList.of("a.txt"));
+    indexed.setChangedLines(1, 0);
+    CurrentPatchSetFields fields = CurrentPatchSetFields.capture(indexed);
+    assertThat(fields).isNotNull();
+
+    ChangeData updated = ChangeData.createForTest(PROJECT, CHANGE, 2, COMMIT_2);
+    updated.setCurrentFilePaths(ImmutableList.of("c.txt"));
+    assertThat(fields.reuseFor(updated)).isFalse();
+    assertThat(updated.currentFilePaths()).containsExactly("c.txt");
+  }
+
+  @Test
+  public void fieldsAreNotCapturedIfDiffIsNotAvailable() {
+    // This is what ChangeData ends up with if the diff summary couldn't be computed.
+    ChangeData indexed = ChangeData.createForTest(PROJECT, CHANGE, 1, COMMIT_1);
+    indexed.setCurrentFilePaths(ImmutableList.of());
+    indexed.setNoChangedLines();
+
+    assertThat(CurrentPatchSetFields.capture(indexed)).isNull();
+  }
+}
@@ -0,0 +1,177 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.permissions;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.permissions.AdvertisedRefsCache.Key;
+import com.google.gerrit.server.permissions.PermissionBackend.RefFilterOptions;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdvertisedRefsCacheTest {
+  private static final Key KEY =
+      Key.create(
+          Project.nameKey("project"),
+          ImmutableList.of(ObjectId.zeroId()),
+          Account.id(1),
+          ImmutableSet.of(),
+          ImmutableSet.of(),
+          RefFilterOptions.defaults());
+
+  private AdvertisedRefsCache advertisedRefsCache;
+  private Map<String, String> refs;
+  private Map<String, String> taggableRefs;
+  private List<String> filtered;
+
+  @Before
+  public void setUp() {
+    advertisedRefsCache = new AdvertisedRefsCache(CacheBuilder.newBuilder().build(), null);
+    refs = new TreeMap<>();
+    refs.put("refs/heads/master", "1111111111111111111111111111111111111111");
+    refs.put("refs/heads/hidden", "2222222222222222222222222222222222222222");
+    refs.put("refs/changes/01/1/1", "3333333333333333333333333333333333333333");
+    refs.put("refs/changes/01/1/meta", "4444444444444444444444444444444444444444");
+    refs.put("refs/changes/02/2/1", "5555555555555555555555555555555555555555");
+    refs.put("refs/changes/02/2/meta", "6666666666666666666666666666666666666666");
+    refs.put("refs/meta/config", "7777777777777777777777777777777777777777");
+    taggableRefs = new TreeMap<>();
+    taggableRefs.put("refs/heads/master", "1111111111111111111111111111111111111111");
+    taggableRefs.put("refs/heads/hidden", "2222222222222222222222222222222222222222");
+    filtered = new ArrayList<>();
+  }
+
+  @Test
+  public void unchangedRefsAreNotFilteredAgain() throws Exception {
+    ImmutableList<String> visible = filter(KEY);
+    assertThat(filtered).hasSize(refs.size());
+    assertThat(visible)
+        .containsExactly(
+            "refs/changes/01/1/1",
+            "refs/changes/01/1/meta",
+            "refs/heads/master",
+            "refs/meta/config");
+
+    filtered.clear();
+    assertThat(filter(KEY)).isEqualTo(visible);
+    assertThat(filtered).isEmpty();
+  }
+
+  @Test
+  public void updatedChangeRefsOnlyFilterRefsOfChange() throws Exception {
+    filter(KEY);
+    filtered.clear();
+
+    refs.put("refs/changes/01/1/2", "8888888888888888888888888888888888888888");
+    refs.put("refs/changes/01/1/meta", "9999999999999999999999999999999999999999");
+    assertThat(filter(KEY))
+        .containsExactly(
+            "refs/changes/01/1/1",
+            "refs/changes/01/1/2",
+            "refs/changes/01/1/meta",
+            "refs/heads/master",
+            "refs/meta/config");
+    assertThat(filtered)
+        .containsExactly("refs/changes/01/1/1", "refs/changes/01/1/2", "refs/changes/01/1/meta");
+  }
+
+  @Test
+  public void deletedRefsAreRemoved() throws Exception {
+    filter(KEY);
+    filtered.clear();
+
+    refs.remove("refs/changes/01/1/1");
+    assertThat(filter(KEY))
+        .containsExactly("refs/changes/01/1/meta", "refs/heads/master", "refs/meta/config");
+    assertThat(filtered).containsExactly("refs/changes/01/1/meta");
+  }
+
+  @Test
+  public void updatedBranchFiltersAllRefs() throws Exception {
+    filter(KEY);
+    filtered.clear();
+
+    refs.put("refs/heads/master", "8888888888888888888888888888888888888888");
+    filter(KEY);
+    assertThat(filtered).hasSize(refs.size());
+  }
+
+  @Test
+  public void updatedTaggableRefFiltersAllRefsIfTagsAreFiltered() throws Exception {
+    refs.clear();
+    refs.put("refs/tags/v1", "8888888888888888888888888888888888888888");
+    refs.put("refs/tags/v2", "9999999999999999999999999999999999999999");
+    filter(KEY);
+    filtered.clear();
+
+    filter(KEY);
+    assertThat(filtered).isEmpty();
+
+    // The branches are not among the filtered refs, but tags may be reachable from them.
+    taggableRefs.put("refs/heads/master", "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+    filter(KEY);
+    assertThat(filtered).containsExactly("refs/tags/v1", "refs/tags/v2");
+  }
+
+  @Test
+  public void resultsAreNotCachedWithoutKey() throws Exception {
+    filter(null);
+    filtered.clear();
+
+    filter(null);
+    assertThat(filtered).hasSize(refs.size());
+  }
+
+  private ImmutableList<String> filter(@Nullable Key key) throws Exception {
+    return advertisedRefsCache
+        .filter(key, toRefs(refs), () -> toRefs(taggableRefs), this::visibleRefs)
+        .stream()
+        .map(Ref::getName)
+        .collect(toImmutableList());
+  }
+
+  private static ImmutableList<Ref> toRefs(Map<String, String> refs) {
+    return refs.entrySet().stream()
+        .map(
+            e ->
+                new ObjectIdRef.Unpeeled(
+                    Ref.Storage.LOOSE, e.getKey(), ObjectId.fromString(e.getValue())))
+        .collect(toImmutableList());
+  }
+
+  /** Hides refs/heads/hidden and the refs of change 2. */
+  private ImmutableList<Ref> visibleRefs(Collection<Ref> input) {
+    input.forEach(r -> filtered.add(r.getName()));
+    return input.stream()
+        .filter(r -> !r.getName().equals("refs/heads/hidden"))
+        .filter(r -> !r.getName().startsWith("refs/changes/02/2/"))
+        .collect(toImmutableList());
+  }
+}
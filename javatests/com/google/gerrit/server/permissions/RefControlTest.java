@@ -1240,6 +1240,38 @@ public class RefControlTest {
     assertThat(user(localKey, DEVS).isOwner()).isFalse();
   }
 
+  @Test
+  public void decisionsAreSharedByUsersWithSameRelevantGroups() throws Exception {
+    projectOperations
+        .project(localKey)
+        .forUpdate()
+        .add(allow(PUSH).ref("refs/heads/*").group(DEVS))
+        .update();
+
+    assertCanUpdate("refs/heads/master", user(localKey, DEVS));
+    // No rule is granted to fixers, so this user gets the same decisions as the previous one.
+    assertCanUpdate("refs/heads/master", user(localKey, DEVS, fixers));
+    assertCannotUpdate("refs/heads/master", user(localKey, fixers));
+    assertCannotUpdate("refs/heads/master", user(localKey));
+  }
+
+  @Test
+  public void decisionsFollowChangesOfParentConfig() throws Exception {
+    projectOperations
+        .project(localKey)
+        .forUpdate()
+        .add(allow(PUSH).ref("refs/heads/*").group(DEVS))
+        .update();
+    assertCanUpdate("refs/heads/master", user(localKey, DEVS));
+
+    projectOperations
+        .project(parentKey)
+        .forUpdate()
+        .add(block(PUSH).ref("refs/heads/*").group(DEVS))
+        .update();
+    assertCannotUpdate("refs/heads/master", user(localKey, DEVS));
+  }
+
   @Test
   public void validateRefPatternsOK() throws Exception {
     RefPattern.validate("refs/*");
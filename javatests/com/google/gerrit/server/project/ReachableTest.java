@@ -0,0 +1,94 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.entities.Project;
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReachableTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+
+  private Cache<Reachable.Key, ObjectId> cache;
+  private Reachable reachable;
+  private TestRepository<InMemoryRepository> repo;
+  private RevWalk rw;
+
+  @Before
+  public void setUp() throws Exception {
+    cache = CacheBuilder.newBuilder().build();
+    reachable = new Reachable(cache, null);
+    repo = new TestRepository<>(new InMemoryRepository(new DfsRepositoryDescription("project")));
+    rw = repo.getRevWalk();
+  }
+
+  @Test
+  public void tipsAreReachableWithoutWalk() throws Exception {
+    RevCommit tip = repo.commit().create();
+    assertThat(reachable.isReachable(PROJECT, rw, tip, ImmutableList.of(tip), 1)).isTrue();
+    assertThat(cache.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void tipThatCommitIsReachableFromIsCached() throws Exception {
+    RevCommit parent = repo.commit().create();
+    RevCommit tip = repo.commit().parent(parent).create();
+    List<RevCommit> visible = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      visible.add(repo.commit().create());
+    }
+    visible.add(tip);
+    visible.add(repo.commit().create());
+
+    assertThat(reachable.isReachable(PROJECT, rw, parent, visible, visible.size())).isTrue();
+    assertThat(cache.getIfPresent(Reachable.Key.create(PROJECT, parent))).isEqualTo(tip);
+  }
+
+  @Test
+  public void tipThatCommitIsReachableFromThroughMergeIsCached() throws Exception {
+    RevCommit commit = repo.commit().create();
+    RevCommit side = repo.commit().parent(commit).create();
+    RevCommit base = repo.commit().create();
+    RevCommit merge = repo.commit().parent(base).parent(side).create();
+    RevCommit tip = repo.commit().parent(merge).create();
+    RevCommit other = repo.commit().parent(base).create();
+    List<RevCommit> visible = ImmutableList.of(other, repo.commit().create(), tip);
+
+    assertThat(reachable.isReachable(PROJECT, rw, commit, visible, visible.size())).isTrue();
+    assertThat(cache.getIfPresent(Reachable.Key.create(PROJECT, commit))).isEqualTo(tip);
+  }
+
+  @Test
+  public void unreachableCommitsAreNotCached() throws Exception {
+    RevCommit commit = repo.commit().create();
+    RevCommit other = repo.commit().create();
+
+    assertThat(reachable.isReachable(PROJECT, rw, commit, ImmutableList.of(other), 1)).isFalse();
+    assertThat(cache.size()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,106 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.entities.AccessSection;
+import com.google.gerrit.entities.Project;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+public class SectionMatcherIndexTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+
+  private static final ImmutableList<SectionMatcher> SECTIONS =
+      ImmutableList.of(
+          section("refs/heads/master"),
+          section("refs/heads/*"),
+          section("refs/*"),
+          section("^refs/heads/rel-[0-9]+"),
+          section("^refs/(heads|tags)/.*"),
+          section("refs/heads/sandbox/${username}/*"),
+          section("refs/heads/master"),
+          section("refs/tags/*"));
+
+  private static final SectionMatcherIndex INDEX = SectionMatcherIndex.of(SECTIONS);
+
+  @Test
+  public void candidatesIncludeMatchingSectionsInOrder() {
+    assertCandidates("refs/heads/master", 0, 1, 2, 4, 6);
+    assertCandidates("refs/heads/rel-1", 1, 2, 3, 4);
+    assertCandidates("refs/tags/v1", 2, 4, 7);
+    assertCandidates("refs/meta/config", 2, 4);
+    assertCandidates("refs/heads/sandbox/user/topic", 1, 2, 4, 5);
+    assertCandidates("refs/heads/", 1, 2, 4);
+    assertCandidates("other", 4);
+  }
+
+  @Test
+  public void candidatesAreSupersetOfMatchingSections() {
+    for (String ref :
+        ImmutableList.of(
+            "refs/heads/master",
+            "refs/heads/rel-12",
+            "refs/heads/rel-x",
+            "refs/tags/v1",
+            "refs/changes/01/1/1",
+            "refs/heads/sandbox/user/topic")) {
+      ImmutableList<SectionMatcher> matching =
+          SECTIONS.stream()
+              .filter(s -> !(s.getMatcher() instanceof RefPatternMatcher.ExpandParameters))
+              .filter(s -> s.match(ref, null))
+              .collect(toImmutableList());
+      assertThat(INDEX.getCandidates(ref)).containsAtLeastElementsIn(matching).inOrder();
+    }
+  }
+
+  @Test
+  public void allSectionsAreCandidatesForRegularExpressions() {
+    assertThat(INDEX.getCandidates("^refs/heads/${username}/.*")).isEqualTo(SECTIONS);
+  }
+
+  @Test
+  public void literalPrefix() {
+    assertThat(literalPrefix("^refs/heads/.*")).isEqualTo("refs/heads/");
+    assertThat(literalPrefix("^refs/heads/rel-[0-9]+")).isEqualTo("refs/heads/rel-");
+    assertThat(literalPrefix("^refs/heads/a\\.b/.*")).isEqualTo("refs/heads/a.b/");
+    assertThat(literalPrefix("^refs/heads/ab?/.*")).isEqualTo("refs/heads/a");
+    assertThat(literalPrefix("^refs/heads/ab*")).isEqualTo("refs/heads/a");
+    assertThat(literalPrefix("^refs/heads/ab{0,1}")).isEqualTo("refs/heads/a");
+    assertThat(literalPrefix("^refs/heads/ab+")).isEqualTo("refs/heads/ab");
+    assertThat(literalPrefix("^refs/heads/\\d+")).isEqualTo("refs/heads/");
+    assertThat(literalPrefix("^refs/heads/a|refs/tags/b")).isEmpty();
+    assertThat(SectionMatcherIndex.literalPrefix(Pattern.compile("refs/x", Pattern.COMMENTS)))
+        .isEmpty();
+  }
+
+  private static void assertCandidates(String ref, Integer... expected) {
+    assertThat(INDEX.getCandidates(ref))
+        .containsExactlyElementsIn(
+            ImmutableList.copyOf(expected).stream().map(SECTIONS::get).collect(toImmutableList()))
+        .inOrder();
+  }
+
+  private static String literalPrefix(String re) {
+    return SectionMatcherIndex.literalPrefix(Pattern.compile(re));
+  }
+
+  private static SectionMatcher section(String name) {
+    return SectionMatcher.wrap(PROJECT, AccessSection.create(name));
+  }
+}
@@ -95,6 +95,7 @@ import com.google.gerrit.index.IndexConfig;
 import com.google.gerrit.index.Schema;
 import com.google.gerrit.index.query.IndexPredicate;
 import com.google.gerrit.index.query.Predicate;
+import com.google.gerrit.index.query.QueryCount;
 import com.google.gerrit.index.query.QueryParseException;
 import com.google.gerrit.lifecycle.LifecycleManager;
 import com.google.gerrit.server.AnonymousUser;
@@ -804,6 +805,28 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
     assertQuery("project:visibleProject OR project:hiddenProject", visibleChange);
   }
 
+  @Test
+  public void visibleAcrossBranches() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    Change change1 = insert(repo, newChangeForBranch(repo, "master"));
+    Change change2 = insert(repo, newChangeForBranch(repo, "hidden"));
+    Change change3 = insert(repo, newChangeForBranch(repo, "master"));
+    Change change4 = insert(repo, newChangePrivate(repo));
+    insert(repo, newChangePrivate(repo));
+    projectOperations
+        .project(Project.nameKey("repo"))
+        .forUpdate()
+        .add(block(Permission.READ).ref("refs/heads/hidden").group(REGISTERED_USERS))
+        .update();
+
+    Account.Id user2 = createAccount("user2");
+    gApi.changes().id(change4.getId().get()).addReviewer(user2.toString());
+
+    requestContext.setContext(newRequestContext(user2));
+    assertQuery("project:repo", change4, change3, change1);
+    assertQuery(change2.getId().get());
+  }
+
   @Test
   public void byParentOf() throws Exception {
     TestRepository<Repo> repo1 = createProject("repo1");
@@ -1496,6 +1519,40 @@ public abstract class AbstractQueryChangesTest extends GerritServerTests {
     assertQuery(newQuery("status:new limit:2").withStart(3));
   }
 
+  @Test
+  public void count() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    for (int i = 0; i < 3; i++) {
+      insert(repo, newChange(repo));
+    }
+
+    assertThat(countQueries(true, "status:new", "status:new limit:2", "status:merged"))
+        .containsExactly(
+            QueryCount.create(3, false), QueryCount.create(2, true), QueryCount.create(0, false))
+        .inOrder();
+  }
+
+  @Test
+  public void countSkippingVisibility() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    for (int i = 0; i < 3; i++) {
+      insert(repo, newChange(repo));
+    }
+
+    assertThat(countQueries(false, "status:new", "status:new limit:2", "status:merged"))
+        .containsExactly(
+            QueryCount.create(3, false), QueryCount.create(2, true), QueryCount.create(0, false))
+        .inOrder();
+  }
+
+  private List<QueryCount> countQueries(boolean enforceVisibility, String... queries)
+      throws Exception {
+    return queryProcessorProvider
+        .get()
+        .enforceVisibility(enforceVisibility)
+        .count(queryBuilder.parse(ImmutableList.copyOf(queries)));
+  }
+
   @Test
   public void maxPages() throws Exception {
     TestRepository<Repo> repo = createProject("repo");
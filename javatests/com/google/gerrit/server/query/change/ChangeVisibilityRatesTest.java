@@ -0,0 +1,73 @@
+// Copyright (C) 2022 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.Project;
+import org.junit.Test;
+
+public class ChangeVisibilityRatesTest {
+  private static final Account.Id ACCOUNT = Account.id(1000);
+  private static final Account.Id OTHER_ACCOUNT = Account.id(1001);
+
+  private final ChangeVisibilityRates rates = new ChangeVisibilityRates();
+
+  @Test
+  public void rateIsNotRecordedForFewCheckedChanges() {
+    rates.record(ACCOUNT, 9, 0);
+    assertThat(rates.get(ACCOUNT).isPresent()).isFalse();
+  }
+
+  @Test
+  public void rateIsShareOfVisibleChanges() {
+    rates.record(ACCOUNT, 100, 5);
+    assertThat(rates.get(ACCOUNT).getAsDouble()).isEqualTo(0.05);
+    assertThat(rates.get(OTHER_ACCOUNT).isPresent()).isFalse();
+  }
+
+  @Test
+  public void recentQueriesWeighMore() {
+    rates.record(ACCOUNT, 100, 0);
+    rates.record(ACCOUNT, 100, 100);
+    assertThat(rates.get(ACCOUNT).getAsDouble()).isEqualTo(0.5);
+    rates.record(ACCOUNT, 100, 100);
+    assertThat(rates.get(ACCOUNT).getAsDouble()).isEqualTo(0.75);
+  }
+
+  @Test
+  public void manyVisibleProjectsAreRememberedForSameGroups() {
+    assertThat(rates.hasManyVisibleProjects(ACCOUNT, "groups")).isFalse();
+
+    rates.recordManyVisibleProjects(ACCOUNT, "groups");
+    assertThat(rates.hasManyVisibleProjects(ACCOUNT, "groups")).isTrue();
+    assertThat(rates.hasManyVisibleProjects(ACCOUNT, "other groups")).isFalse();
+    assertThat(rates.hasManyVisibleProjects(OTHER_ACCOUNT, "groups")).isFalse();
+  }
+
+  @Test
+  public void visibleProjectsAreRememberedForSameGroups() {
+    assertThat(rates.getVisibleProjects(ACCOUNT, "groups")).isNull();
+
+    ImmutableSet<Project.NameKey> projects =
+        ImmutableSet.of(Project.nameKey("foo"), Project.nameKey("bar"));
+    rates.recordVisibleProjects(ACCOUNT, "groups", projects);
+    assertThat(rates.getVisibleProjects(ACCOUNT, "groups")).isEqualTo(projects);
+    assertThat(rates.getVisibleProjects(ACCOUNT, "other groups")).isNull();
+    assertThat(rates.getVisibleProjects(OTHER_ACCOUNT, "groups")).isNull();
+  }
+}